@@ -0,0 +1,75 @@
+package com.shachor.restfull26.benchmark;
+
+import com.shachor.restfull26.transactionservice.Transaction;
+import com.shachor.restfull26.transactionservice.TransactionDBMockSingleton;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * JMH benchmark of the root and the lowest common ancestor of transactions at the end of a chain,
+ * found with the jump-pointer index of the table, against following getParent_id() one level at a time.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AncestorQueryBenchmark {
+
+    private static final long ROOT = 1L;
+
+    @Param({"100", "10000"})
+    public int depth;
+
+    private TransactionDBMockSingleton db;
+
+    private long leaf;
+
+    private long branch;
+
+
+    @Setup(Level.Trial)
+    public void setUp() {
+
+        db = TransactionDBMockSingleton.getInstance();
+        db.putTransaction(new Transaction(ROOT, 1.0, "chain"));
+
+        for(long id = ROOT + 1; id <= ROOT + depth; id++)
+            db.putTransaction(new Transaction(id, 1.0, "chain", id - 1));
+
+        leaf = ROOT + depth;
+
+        // a short branch from the middle of the chain
+        branch = leaf + 1;
+        db.putTransaction(new Transaction(branch, 1.0, "chain", ROOT + depth / 2));
+    }
+
+
+    @Benchmark
+    public long rootByJumps() {
+        return db.getAncestor(leaf, 0).getTransaction_id();
+    }
+
+
+    @Benchmark
+    public long rootByParents() {
+
+        Transaction transaction = db.getTransaction(leaf);
+        while(transaction.getParent_id() != 0L)
+            transaction = db.getTransaction(transaction.getParent_id());
+
+        return transaction.getTransaction_id();
+    }
+
+
+    @Benchmark
+    public long lowestCommonAncestorByJumps() {
+        return db.getLowestCommonAncestor(leaf, branch).getTransaction_id();
+    }
+
+}
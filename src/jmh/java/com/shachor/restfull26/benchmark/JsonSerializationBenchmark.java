@@ -0,0 +1,160 @@
+package com.shachor.restfull26.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.shachor.restfull26.transactionservice.Transaction;
+import com.shachor.restfull26.transactionservice.TransactionJsonCache;
+import com.shachor.restfull26.transactionservice.TransactionJsonCodec;
+import com.shachor.restfull26.transactionservice.TransactionStatus;
+import com.shachor.restfull26.transactionservice.TransactionSum;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * JMH benchmark of the Jackson serialization of the response bodies of the service
+ * (Transaction with and without children, TransactionSum, TransactionStatus),
+ * of the deserialization of the request body of a PUT, and of a hit in the TransactionJsonCache,
+ * which replaces the serialization of a Transaction on a repeated GET.
+ * Every Jackson benchmark has a twin with the prefix codec, which does the same with the TransactionJsonCodec.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonSerializationBenchmark {
+
+    private ObjectMapper mapper;
+
+    private ObjectWriter writer;
+
+    private ObjectReader transactionReader;
+
+    private Transaction leaf;
+
+    private Transaction parent;
+
+    private TransactionSum sum;
+
+    private TransactionStatus status;
+
+    private byte[] putBody;
+
+    private TransactionJsonCache cache;
+
+    private TransactionJsonCodec codec;
+
+
+    @Setup(Level.Trial)
+    public void setUp() throws JsonProcessingException {
+
+        mapper = new ObjectMapper();
+        writer = mapper.writer();
+        transactionReader = mapper.readerFor(Transaction.class);
+
+        leaf = new Transaction(11L, 5000.0, "cars", 10L);
+
+        parent = new Transaction(10L, 10000.0, "shopping");
+        for(long child = 11L; child < 31L; child++)
+            parent.setChild_id(child);
+
+        sum = new TransactionSum(15000.0);
+        status = new TransactionStatus("ok");
+
+        putBody = writer.writeValueAsBytes(leaf);
+
+        codec = TransactionJsonCodec.get();
+
+        cache = new TransactionJsonCache(64L << 20);
+        for(long id = 0L; id < 10000L; id++)
+            cache.put(id, 0L, writer.writeValueAsBytes(parent));
+    }
+
+
+    @Benchmark
+    public byte[] writeTransaction() throws JsonProcessingException {
+        return writer.writeValueAsBytes(leaf);
+    }
+
+
+    @Benchmark
+    public byte[] writeTransactionWithChildren() throws JsonProcessingException {
+        return writer.writeValueAsBytes(parent);
+    }
+
+
+    @Benchmark
+    public byte[] writeTransactionSum() throws JsonProcessingException {
+        return writer.writeValueAsBytes(sum);
+    }
+
+
+    @Benchmark
+    public byte[] writeTransactionStatus() throws JsonProcessingException {
+        return writer.writeValueAsBytes(status);
+    }
+
+
+    @Benchmark
+    public int codecWriteTransaction() {
+        return codec.write(leaf).size();
+    }
+
+
+    @Benchmark
+    public int codecWriteTransactionWithChildren() {
+        return codec.write(parent).size();
+    }
+
+
+    @Benchmark
+    public int codecWriteTransactionSum() {
+        return codec.write(sum).size();
+    }
+
+
+    @Benchmark
+    public int codecWriteTransactionStatus() {
+        return codec.write(status).size();
+    }
+
+
+    @Benchmark
+    public Transaction codecReadTransaction() throws IOException {
+        return codec.readTransaction(putBody, 0, putBody.length);
+    }
+
+
+    @Benchmark
+    public Transaction readTransactionFromStream() throws IOException {
+        return transactionReader.readValue(new ByteArrayInputStream(putBody));
+    }
+
+
+    @Benchmark
+    public Transaction codecReadTransactionFromStream() throws IOException {
+        return codec.readTransaction(new ByteArrayInputStream(putBody));
+    }
+
+
+    @Benchmark
+    public byte[] cachedTransactionWithChildren() {
+        return cache.get(10L, 0L);
+    }
+
+
+    @Benchmark
+    public Transaction readTransaction() throws IOException {
+        return transactionReader.readValue(putBody);
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.shachor.restfull26.benchmark;
+
+import com.shachor.restfull26.transactionservice.PutResult;
+import com.shachor.restfull26.transactionservice.Transaction;
+import com.shachor.restfull26.transactionservice.TransactionDBMockSingleton;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * JMH benchmark of TransactionDBMockSingleton.putTransaction() with 4 concurrent writers.
+ * Every call stores a new transaction, either as a new root, as a child of one hot parent shared by all writers,
+ * or as a child of the writer's own previous transaction (a chain per writer).
+ * Each fork starts with an empty storage.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@Threads(4)
+@State(Scope.Benchmark)
+public class PutTransactionBenchmark {
+
+    private static final long HOT_PARENT = 1L;
+
+    @Param({"root", "hotParent", "chain"})
+    public String parent;
+
+    private TransactionDBMockSingleton db;
+
+    private final AtomicLong ids = new AtomicLong(HOT_PARENT);
+
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        db = TransactionDBMockSingleton.getInstance();
+        db.putTransaction(new Transaction(HOT_PARENT, 1.0, "hot"));
+    }
+
+
+    /**
+     * The previous transaction of one writer thread
+     */
+    @State(Scope.Thread)
+    public static class Writer {
+        long previous;
+    }
+
+
+    @Benchmark
+    public PutResult putTransaction(Writer writer) {
+
+        long id = ids.incrementAndGet();
+        Transaction transaction;
+
+        switch(parent) {
+            case "hotParent":
+                transaction = new Transaction(id, 1.0, "child", HOT_PARENT);
+                break;
+            case "chain":
+                transaction = writer.previous == 0L ? new Transaction(id, 1.0, "chain")
+                                                    : new Transaction(id, 1.0, "chain", writer.previous);
+                break;
+            default:
+                transaction = new Transaction(id, 1.0, "root");
+        }
+
+        writer.previous = id;
+
+        return db.putTransaction(transaction);
+    }
+
+}
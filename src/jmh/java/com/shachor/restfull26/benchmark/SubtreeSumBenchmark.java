@@ -0,0 +1,84 @@
+package com.shachor.restfull26.benchmark;
+
+import com.shachor.restfull26.transactionservice.Transaction;
+import com.shachor.restfull26.transactionservice.TransactionDBMockSingleton;
+import com.shachor.restfull26.transactionservice.TransactionSum;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * JMH benchmark of the sum over a subtree on different tree shapes:
+ * flat (all transactions are children of the root), chain (every transaction is the child of the previous one),
+ * balanced (binary tree) and skewed (each transaction picks a random parent, preferring recent ones,
+ * which gives a few long paths and many short branches).
+ *
+ * getSumTransactions() reads the maintained aggregate of the root,
+ * scanSumTransactions() walks the subtree with SubtreeTraversal.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SubtreeSumBenchmark {
+
+    private static final long ROOT = 1L;
+
+    @Param({"flat", "chain", "balanced", "skewed"})
+    public String shape;
+
+    @Param({"10000"})
+    public int size;
+
+    private TransactionDBMockSingleton db;
+
+
+    @Setup(Level.Trial)
+    public void setUp() {
+
+        db = TransactionDBMockSingleton.getInstance();
+        db.putTransaction(new Transaction(ROOT, 1.0, shape));
+
+        Random random = new Random(42);
+
+        for(long id = ROOT + 1; id < ROOT + size; id++) {
+
+            long parent;
+            switch(shape) {
+                case "chain":
+                    parent = id - 1;
+                    break;
+                case "balanced":
+                    parent = id / 2;
+                    break;
+                case "skewed":
+                    parent = id - 1 - (long) Math.floor(Math.abs(random.nextGaussian()) * Math.sqrt(id - 1));
+                    parent = Math.max(ROOT, parent);
+                    break;
+                default:
+                    parent = ROOT;
+            }
+
+            db.putTransaction(new Transaction(id, 1.0, shape, parent));
+        }
+    }
+
+
+    @Benchmark
+    public double getSumTransactions() {
+        return db.getSumTransactions(ROOT, new TransactionSum(0)).getSum();
+    }
+
+
+    @Benchmark
+    public double scanSumTransactions() {
+        return db.scanSumTransactions(ROOT).getSum();
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.shachor.restfull26.benchmark;
+
+import com.shachor.restfull26.transactionservice.Durability;
+import com.shachor.restfull26.transactionservice.JdbcTransactionRepository;
+import com.shachor.restfull26.transactionservice.MappedTransactionRepository;
+import com.shachor.restfull26.transactionservice.PutResult;
+import com.shachor.restfull26.transactionservice.Transaction;
+import com.shachor.restfull26.transactionservice.TransactionDBMockSingleton;
+import com.shachor.restfull26.transactionservice.TransactionRepository;
+import com.shachor.restfull26.transactionservice.TransactionSum;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * JMH benchmark of the same requests against each TransactionRepository: puts of new leaves with ASYNC durability,
+ * point reads, the sum of a subtree of about 1,000 transactions and one page of a type, on 100,000 transactions
+ * stored in subtrees of 1,000 transactions.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransactionRepositoryBenchmark {
+
+    private static final int SIZE = 100_000;
+
+    private static final int TREE = 1_000;
+
+    @Param({"heap", "mmap", "jdbc"})
+    public String repository;
+
+    private TransactionRepository db;
+
+    private long next;
+
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+
+        switch(repository) {
+            case "heap":
+                db = TransactionDBMockSingleton.getInstance();
+                break;
+            case "mmap":
+                db = new MappedTransactionRepository(Files.createTempDirectory("benchmark-mmap"), Durability.ASYNC);
+                break;
+            default:
+                db = new JdbcTransactionRepository(Files.createTempDirectory("benchmark-jdbc"), Durability.ASYNC, 2);
+        }
+
+        // roots 1, 1001, 2001, ..., each with a binary tree of TREE transactions below it
+        for(long id = 1; id <= SIZE; id++) {
+            long offset = (id - 1) % TREE;
+            db.putTransaction(offset == 0 ? new Transaction(id, 1.0, "type" + (id % 10))
+                    : new Transaction(id, 1.0, "type" + (id % 10), id - offset + (offset - 1) / 2), Durability.ASYNC);
+        }
+        next = SIZE;
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        db.close();
+    }
+
+
+    @Benchmark
+    public PutResult put() {
+        long id = ++next;
+        return db.putTransaction(new Transaction(id, 1.0, "put", 1 + ThreadLocalRandom.current().nextInt(SIZE)),
+                Durability.ASYNC);
+    }
+
+
+    @Benchmark
+    public Transaction get() {
+        return db.getTransaction(1 + ThreadLocalRandom.current().nextInt(SIZE));
+    }
+
+
+    @Benchmark
+    public double sum() {
+        long root = 1 + TREE * ThreadLocalRandom.current().nextInt(SIZE / TREE);
+        return db.getSumTransactions(root, new TransactionSum()).getSum();
+    }
+
+
+    @Benchmark
+    public long[] types() {
+        return db.getTransactionsByType("type" + ThreadLocalRandom.current().nextInt(10),
+                ThreadLocalRandom.current().nextInt(SIZE), 100);
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.shachor.restfull26.benchmark;
+
+import com.shachor.restfull26.transactionservice.Transaction;
+import com.shachor.restfull26.transactionservice.TransactionController;
+import com.shachor.restfull26.transactionservice.TransactionDBMockSingleton;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * JMH benchmark of getTransactionsByType() and countTransactionsByType() for types of different cardinalities.
+ * The IDs of a type are spread with a stride, so sparse and dense chunks of the IdBitmap are both measured.
+ * A page is read from the start and from the middle of the IDs, with the maximal page size of the controller.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class TypeQueryBenchmark {
+
+    private static final String TYPE = "cars";
+
+    @Param({"100", "10000", "1000000"})
+    public int cardinality;
+
+    @Param({"1", "7"})
+    public int stride;
+
+    private TransactionDBMockSingleton db;
+
+    private long middle;
+
+
+    @Setup(Level.Trial)
+    public void setUp() {
+
+        db = TransactionDBMockSingleton.getInstance();
+
+        for(int i = 1; i <= cardinality; i++)
+            db.putTransaction(new Transaction((long) i * stride, 1.0, TYPE));
+
+        middle = (long) cardinality / 2 * stride;
+    }
+
+
+    @Benchmark
+    public long[] firstPage() {
+        return db.getTransactionsByType(TYPE, 0L, TransactionController.MAX_PAGE_SIZE);
+    }
+
+
+    @Benchmark
+    public long[] middlePage() {
+        return db.getTransactionsByType(TYPE, middle, TransactionController.MAX_PAGE_SIZE);
+    }
+
+
+    @Benchmark
+    public long count() {
+        return db.countTransactionsByType(TYPE);
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.shachor.restfull26.transactionservice;
+
+/**
+ * Enum AdmissionBudget groups the requests, which the AdmissionControl limits together. Every budget has
+ * its own limit, so cheap point reads are still admitted while expensive aggregations are rejected.
+ *
+ * @author  Roi Shachor on 09.01.16.
+ */
+public enum AdmissionBudget {
+
+    /**PUT of single transactions and of batches*/
+    PUT("put", 100, 200, true),
+
+    /**Single transactions, ancestors, counts and stats of a type*/
+    READ("read", 50, 200, true),
+
+    /**Sums and pages of a type*/
+    AGGREGATE("aggregate", 500, 16, true),
+
+    /**Streams of descendants, which last as long as the client reads, so their limit is fixed*/
+    STREAM("stream", 500, 16, false);
+
+
+    private final String name;
+
+    private final long targetMillis;
+
+    private final int initialLimit;
+
+    private final boolean adaptive;
+
+
+    AdmissionBudget(String name, long targetMillis, int initialLimit, boolean adaptive) {
+        this.name = name;
+        this.targetMillis = targetMillis;
+        this.initialLimit = initialLimit;
+        this.adaptive = adaptive;
+    }
+
+
+    /**
+     * Returns the name of the budget in its system properties and in its status
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+
+    /**
+     * Returns the default latency, above which the limit of the budget is cut
+     * @return the latency in milliseconds
+     */
+    public long getTargetMillis() {
+        return targetMillis;
+    }
+
+
+    /**
+     * Returns the default limit of the budget at the start
+     * @return the number of requests
+     */
+    public int getInitialLimit() {
+        return initialLimit;
+    }
+
+
+    /**
+     * Tells whether the limit of the budget adapts to the latency of its requests by default,
+     * or stays at the initial limit, as the latency of the requests does not tell the load of the server
+     * @return true if the limit adapts
+     */
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+}
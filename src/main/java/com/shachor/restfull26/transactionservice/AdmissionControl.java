@@ -0,0 +1,320 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class AdmissionControl limits the number of requests, which the server works on at the same time, so a burst
+ * degrades the service by rejecting the requests above the limit at once, instead of making every request slow.
+ *
+ * Every AdmissionBudget has its own limit, so point reads are still admitted while expensive aggregations
+ * are rejected. A limit adapts to the measured latency (AIMD): a request, which was answered within the target latency
+ * of its budget while at least half of the limit was in use, raises the limit by 1 / limit, so by about 1 for a full
+ * round of requests. A request, which took longer, or whose work was dropped, cuts the limit by 10%, at most once
+ * per target latency, so one slow burst does not cut it to the minimum. A request above the limit is not queued:
+ * it is rejected with the time after which it may be sent again, by Little's law the average latency,
+ * in which the requests in flight are replaced by new ones. The bounded queue of the ComputeExecutor
+ * is still in front of the expensive work.
+ *
+ * The limit of a budget, which is not adaptive (the streams of descendants, paced by their clients), stays at its
+ * initial limit, as its minimal and maximal limit default to it.
+ *
+ * Configured with the system properties "transactionservice.admission.enabled" (default true) and, for each budget,
+ * "transactionservice.admission.{budget}.targetMillis", ".initialLimit", ".minLimit" and ".maxLimit".
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class AdmissionControl {
+
+    /**Returned by acquire() of a budget without a limit, and ignored by release()*/
+    public static final long UNLIMITED = Long.MIN_VALUE;
+
+
+    private static AdmissionControl instance;
+
+
+    private final Map<AdmissionBudget, Limit> limits;
+
+
+    /**
+     * Creates the admission control
+     * @param limits the limit of each budget, the requests of a budget without one are always admitted
+     */
+    public AdmissionControl(Map<AdmissionBudget, Limit> limits) {
+
+        if(limits == null)
+            throw new IllegalArgumentException("limits must not point at NULL");
+
+        this.limits = limits.isEmpty() ? new EnumMap<>(AdmissionBudget.class) : new EnumMap<>(limits);
+    }
+
+
+    /**
+     * Creates the admission control configured with the system properties
+     * @return the admission control, which admits every request if "transactionservice.admission.enabled" is false
+     */
+    public static AdmissionControl fromSystemProperties() {
+
+        Map<AdmissionBudget, Limit> limits = new EnumMap<>(AdmissionBudget.class);
+
+        if(Boolean.parseBoolean(System.getProperty("transactionservice.admission.enabled", "true")))
+            for(AdmissionBudget budget : AdmissionBudget.values()) {
+                String prefix = "transactionservice.admission." + budget.getName() + ".";
+                int initial = Integer.getInteger(prefix + "initialLimit", budget.getInitialLimit());
+                limits.put(budget, new Limit(Long.getLong(prefix + "targetMillis", budget.getTargetMillis()),
+                        initial,
+                        Integer.getInteger(prefix + "minLimit", budget.isAdaptive() ? 4 : initial),
+                        Integer.getInteger(prefix + "maxLimit", budget.isAdaptive() ? 1000 : initial)));
+            }
+
+        return new AdmissionControl(limits);
+    }
+
+
+    /**
+     * Returns the admission control of this service, shared by the TransactionController, the TransactionHttpServer
+     * and the TransactionIngestServer, so the PUTs of all of them count against one limit.
+     * Creates it configured with the system properties in case there isn't any.
+     * @return the admission control
+     */
+    public static synchronized AdmissionControl getInstance() {
+
+        if(instance == null)
+            instance = fromSystemProperties();
+
+        return instance;
+    }
+
+
+    /**
+     * Admits a request, if the requests of its budget, which are in flight, are below the limit
+     * @param budget the budget of the request
+     * @return the start of the request, which has to be passed to release(), or UNLIMITED
+     * @throws RejectedException if the limit is reached
+     */
+    public long acquire(AdmissionBudget budget) {
+
+        Limit limit = limits.get(budget);
+        if(limit == null)
+            return UNLIMITED;
+
+        if(!limit.tryAcquire())
+            throw new RejectedException(budget, limit.retryAfterSeconds());
+
+        return System.nanoTime();
+    }
+
+
+    /**
+     * Ends an admitted request and adapts the limit of its budget to its latency
+     * @param budget the budget of the request
+     * @param start the value returned by acquire()
+     */
+    public void release(AdmissionBudget budget, long start) {
+        release(budget, start, false);
+    }
+
+
+    /**
+     * Ends an admitted request and adapts the limit of its budget to its latency
+     * @param budget the budget of the request
+     * @param start the value returned by acquire()
+     * @param dropped true if the work of the request was dropped because the server is overloaded,
+     *                which cuts the limit as a slow request does
+     */
+    public void release(AdmissionBudget budget, long start, boolean dropped) {
+
+        if(start != UNLIMITED)
+            limits.get(budget).release(System.nanoTime() - start, dropped);
+    }
+
+
+    /**
+     * Returns the seconds, after which a rejected request of a budget may be sent again
+     * @param budget the budget
+     * @return at least one second
+     */
+    public long retryAfterSeconds(AdmissionBudget budget) {
+
+        Limit limit = limits.get(budget);
+
+        return limit == null ? 1L : limit.retryAfterSeconds();
+    }
+
+
+    /**
+     * Returns the state of the limit of every budget, which has one
+     * @return the states mapped by the names of the budgets
+     */
+    public Map<String, AdmissionStatus> getStatus() {
+
+        Map<String, AdmissionStatus> status = new LinkedHashMap<>();
+
+        for(Map.Entry<AdmissionBudget, Limit> limit : limits.entrySet())
+            status.put(limit.getKey().getName(), limit.getValue().getStatus());
+
+        return status;
+    }
+
+
+
+    /**
+     * The adaptive limit of the requests of one budget
+     */
+    public static class Limit {
+
+        /**Factor, by which a slow request cuts the limit*/
+        private static final double BACKOFF = 0.9;
+
+        /**Weight of a new latency in the average*/
+        private static final int SMOOTHING = 16;
+
+
+        private final long targetNanos;
+
+        private final int minLimit;
+
+        private final int maxLimit;
+
+        /**The limit as bits of a double, as it grows by fractions*/
+        private final AtomicLong limit;
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private final AtomicLong lastDecrease = new AtomicLong(System.nanoTime());
+
+        private final LongAdder admitted = new LongAdder();
+
+        private final LongAdder rejected = new LongAdder();
+
+        /**Moving average of the latency, updated without a lock, so an update may get lost now and then*/
+        private volatile long averageNanos;
+
+
+        /**
+         * Creates a limit
+         * @param targetMillis the latency, above which the limit is cut
+         * @param initialLimit the limit at the start
+         * @param minLimit the limit is never cut below this number
+         * @param maxLimit the limit never grows above this number
+         */
+        public Limit(long targetMillis, int initialLimit, int minLimit, int maxLimit) {
+
+            if(targetMillis < 1 || minLimit < 1 || minLimit > maxLimit
+                    || initialLimit < minLimit || initialLimit > maxLimit)
+                throw new IllegalArgumentException("targetMillis must be positive and "
+                        + "1 <= minLimit <= initialLimit <= maxLimit");
+
+            this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMillis);
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            this.limit = new AtomicLong(Double.doubleToRawLongBits(initialLimit));
+        }
+
+
+        boolean tryAcquire() {
+
+            int current = getLimit();
+
+            for(int n = inFlight.get(); n < current; n = inFlight.get())
+                if(inFlight.compareAndSet(n, n + 1)) {
+                    admitted.increment();
+                    return true;
+                }
+
+            rejected.increment();
+            return false;
+        }
+
+
+        void release(long latencyNanos, boolean dropped) {
+
+            int busy = inFlight.getAndDecrement();
+
+            long average = averageNanos;
+            averageNanos = average + (latencyNanos - average) / SMOOTHING;
+
+            if(dropped || latencyNanos > targetNanos) {
+                long now = System.nanoTime();
+                long last = lastDecrease.get();
+                if(now - last >= targetNanos && lastDecrease.compareAndSet(last, now))
+                    update(-1.0);
+            } else if(2 * busy >= getLimit()) {
+                update(1.0);
+            }
+        }
+
+
+        /**
+         * Raises the limit by 1 / limit for a positive sign, cuts it by BACKOFF for a negative one
+         */
+        private void update(double sign) {
+
+            long bits;
+            double next;
+            do {
+                bits = limit.get();
+                double current = Double.longBitsToDouble(bits);
+                next = sign > 0 ? Math.min(maxLimit, current + 1.0 / current) : Math.max(minLimit, current * BACKOFF);
+            } while(!limit.compareAndSet(bits, Double.doubleToRawLongBits(next)));
+        }
+
+
+        /**
+         * Returns the current limit
+         * @return the number of requests, which may be in flight at the same time
+         */
+        public int getLimit() {
+            return (int) Double.longBitsToDouble(limit.get());
+        }
+
+
+        /**
+         * Returns the seconds, after which a rejected request may be sent again: the average latency, rounded up
+         * @return at least one second
+         */
+        public long retryAfterSeconds() {
+            return Math.max(1L, (averageNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        }
+
+
+        AdmissionStatus getStatus() {
+            return new AdmissionStatus(getLimit(), inFlight.get(), admitted.sum(), rejected.sum(),
+                    TimeUnit.NANOSECONDS.toMillis(targetNanos), averageNanos / 1e6);
+        }
+    }
+
+
+
+    /**
+     * Thrown if a request is rejected, because the limit of its budget is reached
+     */
+    public static class RejectedException extends RuntimeException {
+
+        private final long retryAfterSeconds;
+
+        /**
+         * Creates the exception
+         * @param budget the budget of the request
+         * @param retryAfterSeconds the seconds, after which the request may be sent again
+         */
+        public RejectedException(AdmissionBudget budget, long retryAfterSeconds) {
+            super("the limit of the " + budget.getName() + " requests is reached");
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        /**
+         * Returns the seconds, after which the request may be sent again
+         * @return the seconds
+         */
+        public long getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+package com.shachor.restfull26.transactionservice;
+
+/**
+ * Class AdmissionStatus serves as an container to hold the state of the limit of one budget of the AdmissionControl
+ * Object of this class is sent with the HTTP response to notify the client
+ * @author  Roi Shachor on 09.01.16.
+ */
+public class AdmissionStatus {
+
+    /**represents the number of requests, which may be in flight at the same time*/
+    private int limit;
+
+    /**represents the number of requests in flight*/
+    private int in_flight;
+
+    /**represents the number of admitted and of rejected requests*/
+    private long admitted;
+
+    private long rejected;
+
+    /**represents the latency, above which the limit is cut*/
+    private long target_millis;
+
+    /**represents the moving average of the latency*/
+    private double average_millis;
+
+
+    /**
+     * default constructor, used by Jackson library to create JSON objects
+     */
+    public AdmissionStatus() {}
+
+
+    /**
+     * Creates an AdmissionStatus object
+     * @param limit the current limit
+     * @param in_flight the number of requests in flight
+     * @param admitted the number of admitted requests
+     * @param rejected the number of rejected requests
+     * @param target_millis the target latency
+     * @param average_millis the average latency
+     */
+    public AdmissionStatus(int limit, int in_flight, long admitted, long rejected, long target_millis,
+                           double average_millis) {
+        this.limit = limit;
+        this.in_flight = in_flight;
+        this.admitted = admitted;
+        this.rejected = rejected;
+        this.target_millis = target_millis;
+        this.average_millis = average_millis;
+    }
+
+
+    /**
+     * Returns the number of requests, which may be in flight at the same time
+     * @return the limit
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+
+    /**
+     * Sets the number of requests, which may be in flight at the same time
+     * @param limit the limit
+     */
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+
+    /**
+     * Returns the number of requests in flight
+     * @return the number of requests
+     */
+    public int getIn_flight() {
+        return in_flight;
+    }
+
+
+    /**
+     * Sets the number of requests in flight
+     * @param in_flight the number of requests
+     */
+    public void setIn_flight(int in_flight) {
+        this.in_flight = in_flight;
+    }
+
+
+    /**
+     * Returns the number of admitted requests
+     * @return the number of requests
+     */
+    public long getAdmitted() {
+        return admitted;
+    }
+
+
+    /**
+     * Sets the number of admitted requests
+     * @param admitted the number of requests
+     */
+    public void setAdmitted(long admitted) {
+        this.admitted = admitted;
+    }
+
+
+    /**
+     * Returns the number of rejected requests
+     * @return the number of requests
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+
+    /**
+     * Sets the number of rejected requests
+     * @param rejected the number of requests
+     */
+    public void setRejected(long rejected) {
+        this.rejected = rejected;
+    }
+
+
+    /**
+     * Returns the latency, above which the limit is cut
+     * @return the latency in milliseconds
+     */
+    public long getTarget_millis() {
+        return target_millis;
+    }
+
+
+    /**
+     * Sets the latency, above which the limit is cut
+     * @param target_millis the latency in milliseconds
+     */
+    public void setTarget_millis(long target_millis) {
+        this.target_millis = target_millis;
+    }
+
+
+    /**
+     * Returns the moving average of the latency
+     * @return the latency in milliseconds
+     */
+    public double getAverage_millis() {
+        return average_millis;
+    }
+
+
+    /**
+     * Sets the moving average of the latency
+     * @param average_millis the latency in milliseconds
+     */
+    public void setAverage_millis(double average_millis) {
+        this.average_millis = average_millis;
+    }
+
+}
@@ -3,18 +3,26 @@ package com.shachor.restfull26.transactionservice;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
 
 /**
- * This class has one main method, which boots and runs the Spring-boot server
+ * This class has one main method, which boots and runs the Spring-boot server, starts the TransactionIngestServer
+ * if it is configured, and records the time from the start of the JVM until the server is ready for requests
  *
  * @author Roi Shachor on 09.01.16.
  */
 @SpringBootApplication
 public class App 
 {
-    public static void main( String[] args )
+    public static void main( String[] args ) throws IOException
     {
         SpringApplication.run(App.class, args);
+        TransactionIngestServer.fromSystemProperties();
+
+        long ready = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        TransactionRepositories.getInstance().getRecoveryStatus().setTime_to_ready_millis(ready);
     }
 
 }
@@ -0,0 +1,182 @@
+package com.shachor.restfull26.transactionservice;
+
+/**
+ * Class CacheStatus serves as an container to hold the counters and the size of the TransactionJsonCache
+ * Object of this class is sent with the HTTP response to notify the client
+ * @author  Roi Shachor on 09.01.16.
+ */
+public class CacheStatus {
+
+    /**represents the number of requests answered from the cache*/
+    private long hits;
+
+    /**represents the number of requests, which had to serialize the transaction*/
+    private long misses;
+
+    /**represents the share of the requests answered from the cache*/
+    private double hit_ratio;
+
+    /**represents the number of entries removed to keep the cache below its maximal size*/
+    private long evictions;
+
+    /**represents the number of cached transactions*/
+    private long entries;
+
+    /**represents the bytes used by the cached transactions, and the maximal bytes of the cache*/
+    private long bytes;
+
+    private long max_bytes;
+
+
+    /**
+     * default constructor, used by Jackson library to create JSON objects
+     */
+    public CacheStatus() {}
+
+
+    /**
+     * Creates a CacheStatus object
+     * @param hits the number of hits
+     * @param misses the number of misses
+     * @param evictions the number of evicted entries
+     * @param entries the number of cached transactions
+     * @param bytes the bytes used by the cached transactions
+     * @param max_bytes the maximal bytes of the cache
+     */
+    public CacheStatus(long hits, long misses, long evictions, long entries, long bytes, long max_bytes) {
+        this.hits = hits;
+        this.misses = misses;
+        this.hit_ratio = hits + misses == 0 ? 0.0 : hits / (double) (hits + misses);
+        this.evictions = evictions;
+        this.entries = entries;
+        this.bytes = bytes;
+        this.max_bytes = max_bytes;
+    }
+
+
+    /**
+     * Returns the number of requests answered from the cache
+     * @return the number of hits
+     */
+    public long getHits() {
+        return hits;
+    }
+
+
+    /**
+     * Sets the number of requests answered from the cache
+     * @param hits the number of hits
+     */
+    public void setHits(long hits) {
+        this.hits = hits;
+    }
+
+
+    /**
+     * Returns the number of requests, which had to serialize the transaction
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+
+    /**
+     * Sets the number of requests, which had to serialize the transaction
+     * @param misses the number of misses
+     */
+    public void setMisses(long misses) {
+        this.misses = misses;
+    }
+
+
+    /**
+     * Returns the share of the requests answered from the cache
+     * @return the hit ratio between 0 and 1, 0 if there was no request
+     */
+    public double getHit_ratio() {
+        return hit_ratio;
+    }
+
+
+    /**
+     * Sets the share of the requests answered from the cache
+     * @param hit_ratio the hit ratio
+     */
+    public void setHit_ratio(double hit_ratio) {
+        this.hit_ratio = hit_ratio;
+    }
+
+
+    /**
+     * Returns the number of entries removed to keep the cache below its maximal size
+     * @return the number of evictions
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+
+    /**
+     * Sets the number of entries removed to keep the cache below its maximal size
+     * @param evictions the number of evictions
+     */
+    public void setEvictions(long evictions) {
+        this.evictions = evictions;
+    }
+
+
+    /**
+     * Returns the number of cached transactions
+     * @return the number of entries
+     */
+    public long getEntries() {
+        return entries;
+    }
+
+
+    /**
+     * Sets the number of cached transactions
+     * @param entries the number of entries
+     */
+    public void setEntries(long entries) {
+        this.entries = entries;
+    }
+
+
+    /**
+     * Returns the bytes used by the cached transactions
+     * @return the used bytes
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+
+    /**
+     * Sets the bytes used by the cached transactions
+     * @param bytes the used bytes
+     */
+    public void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+
+    /**
+     * Returns the maximal bytes of the cache
+     * @return the maximal bytes, 0 if the cache is disabled
+     */
+    public long getMax_bytes() {
+        return max_bytes;
+    }
+
+
+    /**
+     * Sets the maximal bytes of the cache
+     * @param max_bytes the maximal bytes
+     */
+    public void setMax_bytes(long max_bytes) {
+        this.max_bytes = max_bytes;
+    }
+
+}
@@ -0,0 +1,789 @@
+package com.shachor.restfull26.transactionservice;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class ClusterNode splits the transactions over several instances of the service, the nodes of a cluster,
+ * so the storage is not limited by the heap of one machine.
+ *
+ * Every transaction tree lives on one node: a root transaction belongs to the node of its unique ID on a HashRing,
+ * and a child transaction to the node, which holds its parent transaction. This node is looked up in the local
+ * storage, in a cache of the owners of known IDs, and finally by asking all nodes. A transaction is stored on its
+ * node with a forwarded batch, and a sum is read on the node of the tree. Pages and counts of a type are requested
+ * from all nodes at the same time and merged.
+ * A transaction, whose parent transaction is not held by any node yet, is parked on the node which received it.
+ * A background task asks the other nodes for the missing parents of the parked transactions every
+ * "transactionservice.cluster.retryMillis" (default 200) and forwards the transactions, once their parent is found.
+ *
+ * The nodes talk to each other with the REST mappings of TransactionController and the request parameter local=true,
+ * which answers a request from the storage of the node only. It is only followed for a request from the address
+ * of one of the nodes, resolved when the node is created, and every node admits the requests it answers itself.
+ * Configured with the system properties "transactionservice.cluster.nodes" (the URLs of all nodes, comma separated,
+ * in the same order on every node) and "transactionservice.cluster.self" (the URL of this node, default
+ * http://localhost:${server.port}). The requests to the other nodes are sent by at most
+ * "transactionservice.cluster.threads" (default 64) threads, and at most "transactionservice.cluster.queue"
+ * (default 1024) wait for one. A request, which finds the queue full, fails with a RejectedExecutionException.
+ *
+ * The check for a duplicate ID is made by the node of the tree, so the same ID sent as part of two different
+ * trees is only detected if both trees live on the same node.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class ClusterNode {
+
+    /**Number of points of each node on the HashRing*/
+    private static final int VIRTUAL_NODES = Integer.getInteger("transactionservice.cluster.virtualNodes", 128);
+
+    /**Number of IDs in the cache of the owner nodes*/
+    private static final int CACHE_SIZE = Integer.getInteger("transactionservice.cluster.ownerCacheSize", 100_000);
+
+    /**Number of parts of the cache of the owner nodes, each with its own lock*/
+    private static final int CACHE_STRIPES = 64;
+
+    /**Number of threads, which send requests to the other nodes, and of requests, which wait for one*/
+    private static final int THREADS = Integer.getInteger("transactionservice.cluster.threads", 64);
+
+    private static final int QUEUE = Integer.getInteger("transactionservice.cluster.queue", 1024);
+
+    private static final Logger LOG = Logger.getLogger(ClusterNode.class.getName());
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+
+    private static final int READ_TIMEOUT_MILLIS = 30_000;
+
+
+    /**The URLs of all nodes*/
+    private final List<String> nodes;
+
+    /**The addresses of the hosts of all nodes, whose requests may ask for the storage of this node only*/
+    private final Set<InetAddress> peers = new HashSet<>();
+
+    /**The position of this node in the list*/
+    private final int self;
+
+    private final HashRing ring;
+
+    /**The storage of this node*/
+    private final TransactionRepository db;
+
+    /**The node of IDs, which are held by other nodes, the least recently used ones are dropped first*/
+    private final OwnerCache owners = new OwnerCache(CACHE_SIZE, CACHE_STRIPES);
+
+    /**Runs the requests to the other nodes. A request, which finds the queue full, is rejected*/
+    private final ExecutorService requests;
+
+    private final ObjectMapper mapper = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+
+    /**
+     * Creates the node of a cluster and starts the task, which forwards the parked transactions
+     * @param nodes the URLs of all nodes, e.g. http://host:port
+     * @param self the position of this node in the list
+     * @param db the storage of this node
+     * @param retryMillis the interval of the task, which forwards the parked transactions, 0 to disable it
+     */
+    public ClusterNode(List<String> nodes, int self, TransactionRepository db, long retryMillis) {
+
+        if(self < 0 || self >= nodes.size())
+            throw new IllegalArgumentException("this node must be one of the nodes of the cluster");
+
+        this.nodes = new ArrayList<>(nodes);
+        this.self = self;
+        this.db = db;
+        this.ring = new HashRing(nodes, VIRTUAL_NODES);
+
+        for(String node : nodes) {
+            String host = null;
+            try {
+                host = new URL(node).getHost();
+                peers.addAll(Arrays.asList(InetAddress.getAllByName(host)));
+            } catch(IOException e) {
+                LOG.log(Level.WARNING, "the host " + host + " of the node " + node + " can not be resolved, "
+                        + "its requests are answered as the requests of a client", e);
+            }
+        }
+
+        AtomicInteger number = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE), task -> {
+                    Thread thread = new Thread(task, "cluster-" + number.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        requests = pool;
+
+        if(retryMillis > 0) {
+            ScheduledExecutorService retry = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "cluster-parked");
+                thread.setDaemon(true);
+                return thread;
+            });
+            retry.scheduleWithFixedDelay(this::forwardParked, retryMillis, retryMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    /**
+     * Creates the node configured with the system properties
+     * @return the node, or null if the service does not run in a cluster
+     */
+    public static ClusterNode fromSystemProperties() {
+
+        String configured = System.getProperty("transactionservice.cluster.nodes");
+        if(configured == null || configured.trim().isEmpty())
+            return null;
+
+        List<String> nodes = new ArrayList<>();
+        for(String node : configured.split(","))
+            nodes.add(trim(node));
+
+        String self = trim(System.getProperty("transactionservice.cluster.self",
+                "http://localhost:" + System.getProperty("server.port", "8080")));
+
+        if(!nodes.contains(self))
+            throw new IllegalArgumentException("transactionservice.cluster.self " + self
+                    + " is not one of transactionservice.cluster.nodes");
+
+        return new ClusterNode(nodes, nodes.indexOf(self), TransactionRepositories.getInstance(),
+                Long.getLong("transactionservice.cluster.retryMillis", 200L));
+    }
+
+
+    /**
+     * Returns true if a request was sent from the host of a node of the cluster, so it may ask for the storage
+     * of this node only with local=true
+     * @param address the IP address of the sender of the request
+     * @return true for the address of a node
+     */
+    public boolean isPeer(String address) {
+
+        try {
+            // a literal IP address is never looked up
+            return address != null && peers.contains(InetAddress.getByName(address));
+        } catch(IOException e) {
+            return false;
+        }
+    }
+
+
+    private static String trim(String url) {
+        url = url.trim();
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+
+
+    /**
+     * Stores a batch of transactions on the nodes of their trees
+     * @param batch the transactions
+     * @param durability the durability on the nodes, which store the transactions
+     * @return one status per transaction, in the order of the batch
+     * @throws UnreachableException if a node does not answer
+     */
+    public List<TransactionStatus> putTransactions(List<Transaction> batch, Durability durability) {
+
+        int[] targets = new int[batch.size()];
+        Arrays.fill(targets, -1);
+
+        // the nodes of the transactions of the batch, before any of them is stored
+        Map<Long, Integer> assigned = new HashMap<>();
+
+        Set<Long> missing = assign(batch, targets, assigned);
+        if(!missing.isEmpty()) {
+            owners.putAll(lookup(missing));
+            assign(batch, targets, assigned);
+        }
+
+        // transactions, whose parent is unknown to all nodes, are parked here
+        for(int i = 0; i < targets.length; i++)
+            if(targets[i] < 0)
+                targets[i] = self;
+
+        Map<Integer, List<Integer>> positions = new HashMap<>();
+        for(int i = 0; i < targets.length; i++)
+            positions.computeIfAbsent(targets[i], node -> new ArrayList<>()).add(i);
+
+        Map<Integer, CompletableFuture<List<TransactionStatus>>> answers = new HashMap<>();
+        for(Map.Entry<Integer, List<Integer>> target : positions.entrySet()) {
+
+            List<Transaction> part = new ArrayList<>();
+            for(int i : target.getValue())
+                part.add(batch.get(i));
+
+            answers.put(target.getKey(), ask(() -> store(target.getKey(), part, durability)));
+        }
+
+        TransactionStatus[] statuses = new TransactionStatus[batch.size()];
+        for(Map.Entry<Integer, List<Integer>> target : positions.entrySet()) {
+
+            List<TransactionStatus> answer = join(answers.get(target.getKey()));
+            List<Integer> indexes = target.getValue();
+
+            for(int n = 0; n < indexes.size(); n++) {
+                statuses[indexes.get(n)] = answer.get(n);
+                if(target.getKey() != self)
+                    owners.put(batch.get(indexes.get(n)).getTransaction_id(), target.getKey());
+            }
+        }
+
+        return Arrays.asList(statuses);
+    }
+
+
+    /**
+     * Assigns the transactions of a batch to the nodes of their trees, as far as the nodes are known.
+     * Repeated until nothing changes, so a child may come before its parent in the batch.
+     * @return the unique IDs of the parent transactions, whose node is not known
+     */
+    private Set<Long> assign(List<Transaction> batch, int[] targets, Map<Long, Integer> assigned) {
+
+        Set<Long> missing = new HashSet<>();
+
+        for(boolean changed = true; changed; ) {
+            changed = false;
+            missing.clear();
+
+            for(int i = 0; i < targets.length; i++) {
+
+                if(targets[i] >= 0)
+                    continue;
+
+                Transaction transaction = batch.get(i);
+                if(transaction == null)
+                    throw new IllegalArgumentException("Transaction must not point at NULL");
+
+                if(transaction.getType() == null)
+                    throw new IllegalArgumentException("Transaction type must not point at NULL");
+
+                long parent_id = transaction.getParent_id();
+                Integer node = parent_id == 0L ? ring.node(transaction.getTransaction_id()) : assigned.get(parent_id);
+
+                if(node == null)
+                    node = ownerOf(parent_id);
+
+                if(node == null) {
+                    missing.add(parent_id);
+                    continue;
+                }
+
+                targets[i] = node;
+                assigned.putIfAbsent(transaction.getTransaction_id(), node);
+                changed = true;
+            }
+        }
+
+        return missing;
+    }
+
+
+    /**
+     * Returns the node, which is known to hold a transaction, without asking the other nodes
+     */
+    private Integer ownerOf(long id) {
+
+        if(db.containsTransaction(id))
+            return self;
+
+        return owners.get(id);
+    }
+
+
+    /**
+     * Asks all other nodes, which of the given transactions they hold
+     * @return the node of each found ID
+     */
+    private Map<Long, Integer> lookup(Set<Long> ids) {
+
+        long[] asked = new long[ids.size()];
+        int n = 0;
+        for(long id : ids)
+            asked[n++] = id;
+
+        Map<Integer, CompletableFuture<long[]>> answers = new HashMap<>();
+        for(int node = 0; node < nodes.size(); node++)
+            if(node != self) {
+                int target = node;
+                answers.put(node, ask(() -> request(target, "POST", "/transactionservice/cluster/holds", asked,
+                        new TypeReference<long[]>() {})));
+            }
+
+        Map<Long, Integer> found = new HashMap<>();
+        for(Map.Entry<Integer, CompletableFuture<long[]>> answer : answers.entrySet())
+            for(long id : join(answer.getValue()))
+                found.put(id, answer.getKey());
+
+        return found;
+    }
+
+
+    /**
+     * Stores a part of a batch on one node
+     */
+    private List<TransactionStatus> store(int node, List<Transaction> part, Durability durability) {
+
+        if(node == self) {
+            List<TransactionStatus> statuses = new ArrayList<>(part.size());
+            for(PutResult result : db.putTransactions(part.iterator(), durability))
+                statuses.add(new TransactionStatus(result.getStatus()));
+            return statuses;
+        }
+
+        return request(node, "POST", "/transactionservice/transactions?local=true&durability=" + durability, part,
+                new TypeReference<List<TransactionStatus>>() {});
+    }
+
+
+    /**
+     * Forwards the parked transactions of this node, whose parent transaction was found on another node
+     */
+    private void forwardParked() {
+
+        try {
+            Set<Long> parents = db.getParkedParents();
+            if(parents.isEmpty())
+                return;
+
+            for(Map.Entry<Long, Integer> parent : lookup(parents).entrySet()) {
+
+                List<Transaction> children = db.takeParkedChildren(parent.getKey());
+                if(children.isEmpty())
+                    continue;
+
+                try {
+                    store(parent.getValue(), children, db.getDurability());
+                } catch(UnreachableException e) {
+                    // park them here again, the next run tries again
+                    db.putTransactions(children.iterator(), db.getDurability());
+                    throw e;
+                }
+
+                owners.put(parent.getKey(), parent.getValue());
+                for(Transaction child : children)
+                    owners.put(child.getTransaction_id(), parent.getValue());
+            }
+        } catch(RuntimeException e) {
+            // the transactions stay parked, the next run tries again
+            LOG.log(Level.WARNING, "the parked transactions could not be forwarded, retrying", e);
+        }
+    }
+
+
+
+    /**
+     * Returns a transaction from the node of its tree
+     * @param id the unique ID of the transaction
+     * @return the transaction, or null if no node holds it
+     * @throws UnreachableException if a node does not answer
+     */
+    public Transaction getTransaction(long id) {
+
+        Integer node = locate(id);
+
+        if(node == null)
+            return null;
+
+        if(node == self)
+            return db.getTransaction(id);
+
+        return request(node, "GET", "/transactionservice/transaction/" + id + "?local=true", null,
+                new TypeReference<Transaction>() {});
+    }
+
+
+    /**
+     * Returns the sum of the subtree under a transaction, read on the node of its tree
+     * @param id the unique ID of the transaction
+     * @return the sum, 0 if no node holds the transaction
+     * @throws UnreachableException if a node does not answer
+     */
+    public TransactionSum getSumTransactions(long id) {
+
+        Integer node = locate(id);
+
+        if(node == null)
+            return new TransactionSum(0);
+
+        if(node == self)
+            return db.getSumTransactions(id, new TransactionSum(0));
+
+        return request(node, "GET", "/transactionservice/sum/" + id + "?local=true", null,
+                new TypeReference<TransactionSum>() {});
+    }
+
+
+    /**
+     * Returns a transaction with its depth, read on the node of its tree
+     * @param id the unique ID of the transaction
+     * @return the transaction and its depth, or none if no node holds it
+     * @throws UnreachableException if a node does not answer
+     */
+    public TransactionAncestor getDepth(long id) {
+
+        Integer node = locate(id);
+
+        if(node == null)
+            return TransactionAncestor.none();
+
+        if(node == self)
+            return db.getDepth(id);
+
+        return request(node, "GET", "/transactionservice/depth/" + id + "?local=true", null,
+                new TypeReference<TransactionAncestor>() {});
+    }
+
+
+    /**
+     * Returns the ancestor of a transaction at a depth, read on the node of its tree
+     * @param id the unique ID of the transaction
+     * @param depth the depth of the ancestor, 0 for the root
+     * @return the ancestor, or none if no node holds the transaction
+     * @throws UnreachableException if a node does not answer
+     */
+    public TransactionAncestor getAncestor(long id, int depth) {
+
+        Integer node = locate(id);
+
+        if(node == null)
+            return TransactionAncestor.none();
+
+        if(node == self)
+            return db.getAncestor(id, depth);
+
+        return request(node, "GET", "/transactionservice/ancestor/" + id + "?local=true&depth=" + depth, null,
+                new TypeReference<TransactionAncestor>() {});
+    }
+
+
+    /**
+     * Returns the lowest common ancestor of two transactions, read on the node of their tree
+     * @param a the unique ID of a transaction
+     * @param b the unique ID of another transaction
+     * @return the lowest common ancestor, or none if the transactions are not held by the same node
+     * @throws UnreachableException if a node does not answer
+     */
+    public TransactionAncestor getLowestCommonAncestor(long a, long b) {
+
+        Integer node = locate(a);
+
+        if(node == null || !node.equals(locate(b)))
+            return TransactionAncestor.none();
+
+        if(node == self)
+            return db.getLowestCommonAncestor(a, b);
+
+        return request(node, "GET", "/transactionservice/lca/" + a + "/" + b + "?local=true", null,
+                new TypeReference<TransactionAncestor>() {});
+    }
+
+
+    /**
+     * Copies the NDJSON stream of the descendants of a transaction from the node of its tree, while that node walks them.
+     * The stream is copied through a small buffer, so it does not use more memory for a bigger subtree.
+     * @param id the unique ID of the transaction
+     * @param maxDepth the maximal depth of the descendants
+     * @param types the types of the descendants, null for all types
+     * @param out the stream of the response
+     * @return false if the tree is held by this node or by no node, so the caller walks the storage of this node
+     * @throws UnreachableException if the node does not answer the request
+     * @throws IOException if the stream of the node breaks, or the response can not be written
+     */
+    public boolean copyDescendants(long id, int maxDepth, Collection<String> types, OutputStream out)
+            throws IOException {
+
+        Integer node = locate(id);
+
+        if(node == null || node == self)
+            return false;
+
+        StringBuilder path = new StringBuilder("/transactionservice/descendants/").append(id)
+                .append("?local=true&maxDepth=").append(maxDepth);
+        if(types != null)
+            for(String type : types)
+                path.append("&types=").append(encode(type));
+
+        String url = nodes.get(node) + path;
+        HttpURLConnection connection;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+
+            if(connection.getResponseCode() / 100 != 2)
+                throw new UnreachableException(url + " answered with HTTP " + connection.getResponseCode(), null);
+        } catch(IOException e) {
+            throw new UnreachableException(url + " is not reachable", e);
+        }
+
+        try(InputStream in = connection.getInputStream()) {
+            byte[] buffer = new byte[8192];
+            for(int n; (n = in.read(buffer)) >= 0; )
+                out.write(buffer, 0, n);
+        } catch(IOException e) {
+            // the client is gone or the node broke the stream: the connection can not be reused
+            connection.disconnect();
+            throw e;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Returns the node, which holds a transaction, and asks the other nodes if it is not known
+     */
+    private Integer locate(long id) {
+
+        Integer node = ownerOf(id);
+        if(node != null)
+            return node;
+
+        node = lookup(Collections.singleton(id)).get(id);
+        if(node != null)
+            owners.put(id, node);
+
+        return node;
+    }
+
+
+    /**
+     * Returns one page of the IDs of a type, merged from the pages of all nodes
+     * @param type the type of the transactions
+     * @param after only IDs bigger than this value are returned
+     * @param limit the maximal number of returned IDs
+     * @return the IDs in ascending order
+     * @throws UnreachableException if a node does not answer
+     */
+    public long[] getTransactionsByType(String type, long after, int limit) {
+
+        String path = "/transactionservice/types/" + encode(type) + "?local=true&after=" + after + "&limit=" + limit;
+
+        List<CompletableFuture<long[]>> answers = new ArrayList<>();
+        for(int node = 0; node < nodes.size(); node++) {
+            int target = node;
+            answers.add(ask(() -> target == self ? db.getTransactionsByType(type, after, limit)
+                    : request(target, "GET", path, null, new TypeReference<long[]>() {})));
+        }
+
+        long[][] pages = new long[answers.size()][];
+        for(int i = 0; i < pages.length; i++)
+            pages[i] = join(answers.get(i));
+
+        return TypeIndex.merge(pages, limit);
+    }
+
+
+    /**
+     * Returns the number of transactions of a type on all nodes
+     * @param type the type of the transactions
+     * @return number of transactions
+     * @throws UnreachableException if a node does not answer
+     */
+    public long countTransactionsByType(String type) {
+
+        String path = "/transactionservice/types/" + encode(type) + "?local=true&count";
+
+        List<CompletableFuture<Long>> answers = new ArrayList<>();
+        for(int node = 0; node < nodes.size(); node++) {
+            int target = node;
+            answers.add(ask(() -> target == self ? db.countTransactionsByType(type)
+                    : request(target, "GET", path, null, new TypeReference<TransactionCount>() {}).getCount()));
+        }
+
+        long count = 0L;
+        for(CompletableFuture<Long> answer : answers)
+            count += join(answer);
+
+        return count;
+    }
+
+
+
+    /**
+     * Returns the stats of a type, merged from all nodes
+     * @param type the type of the transactions
+     * @return the stats of the type
+     */
+    public TypeStats getTypeStats(String type) {
+
+        String path = "/transactionservice/types/" + encode(type) + "/stats?local=true";
+
+        List<CompletableFuture<TypeStats>> answers = new ArrayList<>();
+        for(int node = 0; node < nodes.size(); node++) {
+            int target = node;
+            answers.add(ask(() -> target == self ? db.getTypeStats(type)
+                    : request(target, "GET", path, null, new TypeReference<TypeStats>() {})));
+        }
+
+        TypeStats stats = new TypeStats(0L, 0.0, null, null);
+        for(CompletableFuture<TypeStats> answer : answers)
+            stats.merge(join(answer));
+
+        return stats;
+    }
+
+
+
+    private <T> CompletableFuture<T> ask(Callable<T> request) {
+
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return request.call();
+            } catch(RuntimeException e) {
+                throw e;
+            } catch(Exception e) {
+                throw new CompletionException(e);
+            }
+        }, requests);
+    }
+
+
+    private static <T> T join(CompletableFuture<T> answer) {
+
+        try {
+            return answer.join();
+        } catch(CompletionException e) {
+            if(e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Sends one request to another node and reads the JSON answer
+     */
+    private <T> T request(int node, String method, String path, Object body, TypeReference<T> type) {
+
+        String url = nodes.get(node) + path;
+
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setRequestMethod(method);
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+
+            if(body != null) {
+                byte[] bytes = mapper.writeValueAsBytes(body);
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", "application/json");
+                connection.setFixedLengthStreamingMode(bytes.length);
+                try(OutputStream out = connection.getOutputStream()) {
+                    out.write(bytes);
+                }
+            }
+
+            int status = connection.getResponseCode();
+
+            if(status / 100 != 2) {
+                try(InputStream error = connection.getErrorStream()) {
+                    // read the answer, so the connection is kept alive
+                    while(error != null && error.read() >= 0);
+                }
+                throw new UnreachableException(url + " answered with HTTP " + status, null);
+            }
+
+            try(InputStream in = connection.getInputStream()) {
+                return mapper.readValue(in, type);
+            }
+        } catch(IOException e) {
+            throw new UnreachableException(url + " is not reachable", e);
+        }
+    }
+
+
+    private static String encode(String type) {
+
+        try {
+            return URLEncoder.encode(type, "UTF-8").replace("+", "%20");
+        } catch(IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+
+    /**
+     * The owner nodes of the IDs, in parts by the hash of the ID. Each part drops its least recently used ID first
+     * and has its own lock, so lookups of different IDs do not wait for each other
+     */
+    private static final class OwnerCache {
+
+        private final Map<Long, Integer>[] stripes;
+
+        @SuppressWarnings("unchecked")
+        OwnerCache(int size, int count) {
+
+            int capacity = Math.max(1, size / count);
+            stripes = new Map[count];
+
+            for(int i = 0; i < count; i++)
+                stripes[i] = new LinkedHashMap<Long, Integer>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<Long, Integer> eldest) {
+                        return size() > capacity;
+                    }
+                };
+        }
+
+        Integer get(long id) {
+
+            Map<Long, Integer> stripe = stripe(id);
+            synchronized (stripe) {
+                return stripe.get(id);
+            }
+        }
+
+        void put(long id, int node) {
+
+            Map<Long, Integer> stripe = stripe(id);
+            synchronized (stripe) {
+                stripe.put(id, node);
+            }
+        }
+
+        void putAll(Map<Long, Integer> found) {
+
+            for(Map.Entry<Long, Integer> owner : found.entrySet())
+                put(owner.getKey(), owner.getValue());
+        }
+
+        private Map<Long, Integer> stripe(long id) {
+            return stripes[((int) (id ^ id >>> 32) * 0x9E3779B9 >>> 1) % stripes.length];
+        }
+    }
+
+
+
+    /**
+     * Thrown if a node of the cluster does not answer a request
+     */
+    public static class UnreachableException extends RuntimeException {
+
+        /**
+         * Creates the exception
+         * @param message the node and the reason
+         * @param cause the exception of the request, or null
+         */
+        public UnreachableException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+}
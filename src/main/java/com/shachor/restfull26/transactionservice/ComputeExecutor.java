@@ -0,0 +1,97 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Class ComputeExecutor runs the expensive requests of TransactionController, e.g. pages of a type and batches,
+ * on a small, bounded pool of threads instead of the Tomcat worker threads.
+ *
+ * A controller method hands its work to the pool and returns a CompletableFuture, which frees the worker thread
+ * at once. So a spike of expensive requests can occupy at most the threads of this pool, and cheap point lookups,
+ * which are still answered on the worker threads, never queue behind them.
+ * If the queue of the pool is full, the future fails with a RejectedExecutionException.
+ *
+ * Configured with the system properties "transactionservice.compute.threads" (default: number of cores,
+ * 0 runs the work on the calling thread as before) and "transactionservice.compute.queue" (default 256).
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class ComputeExecutor {
+
+    /**The pool, or null if the work runs on the calling thread*/
+    private final ExecutorService pool;
+
+
+    /**
+     * Creates an executor
+     * @param threads number of threads, 0 to run the work on the calling thread
+     * @param queue maximal number of waiting tasks
+     */
+    public ComputeExecutor(int threads, int queue) {
+
+        if(threads < 0 || queue < 1)
+            throw new IllegalArgumentException("threads can not be negative and queue must be at least 1");
+
+        if(threads == 0) {
+            pool = null;
+            return;
+        }
+
+        AtomicInteger number = new AtomicInteger();
+        pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queue),
+                task -> {
+                    Thread thread = new Thread(task, "compute-" + number.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+
+    /**
+     * Creates an executor configured with the system properties
+     * @return the executor
+     */
+    public static ComputeExecutor fromSystemProperties() {
+
+        return new ComputeExecutor(
+                Integer.getInteger("transactionservice.compute.threads", Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("transactionservice.compute.queue", 256));
+    }
+
+
+    /**
+     * Runs work on the pool
+     * @param work the work
+     * @param <T> the type of the result
+     * @return the future result. Fails with the exception thrown by the work, or with a RejectedExecutionException
+     * if the queue is full
+     */
+    public <T> CompletableFuture<T> supply(Supplier<T> work) {
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        Runnable task = () -> {
+            try {
+                result.complete(work.get());
+            } catch(Throwable e) {
+                result.completeExceptionally(e);
+            }
+        };
+
+        if(pool == null) {
+            task.run();
+            return result;
+        }
+
+        try {
+            pool.execute(task);
+        } catch(RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+
+        return result;
+    }
+
+}
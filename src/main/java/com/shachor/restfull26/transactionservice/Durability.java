@@ -0,0 +1,20 @@
+package com.shachor.restfull26.transactionservice;
+
+/**
+ * Enum Durability determines, when a stored transaction is acknowledged to the client,
+ * if the storage writes a TransactionLog. It trades the latency of a request for the durability of its data.
+ *
+ * @author  Roi Shachor on 09.01.16.
+ */
+public enum Durability {
+
+    /**Acknowledged as soon as the record is written to the operating system. Survives a crash of the process*/
+    ASYNC,
+
+    /**Acknowledged after the next fsync of the log, which is shared by all writers waiting at the same time*/
+    GROUP,
+
+    /**Acknowledged after an fsync of the log, which is issued for this write alone*/
+    SYNC
+
+}
@@ -0,0 +1,66 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Class HashRing assigns unique IDs to the nodes of a cluster by consistent hashing.
+ *
+ * Every node is placed on a ring of int hashes at a number of virtual points, derived from its name.
+ * An ID belongs to the node of the first point at or after the hash of the ID, so the IDs are spread evenly,
+ * and adding or removing a node only moves the IDs between its points and the points before them.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class HashRing {
+
+    /**The node at each point of the ring*/
+    private final TreeMap<Integer, Integer> points = new TreeMap<>();
+
+
+    /**
+     * Creates a ring
+     * @param nodes the names of the nodes, e.g. their URLs. A node is identified by its position in the list
+     * @param virtualNodes number of points of each node on the ring
+     */
+    public HashRing(List<String> nodes, int virtualNodes) {
+
+        if(nodes == null || nodes.isEmpty())
+            throw new IllegalArgumentException("a ring needs at least one node");
+
+        if(virtualNodes < 1)
+            throw new IllegalArgumentException("virtualNodes must be at least 1");
+
+        for(int node = 0; node < nodes.size(); node++)
+            for(int point = 0; point < virtualNodes; point++) {
+                CRC32 crc = new CRC32();
+                crc.update((nodes.get(node) + "#" + point).getBytes(StandardCharsets.UTF_8));
+                points.put(mix(crc.getValue()), node);
+            }
+    }
+
+
+    /**
+     * Returns the node of an ID
+     * @param id the unique ID
+     * @return the position of the node in the list of the nodes
+     */
+    public int node(long id) {
+
+        Map.Entry<Integer, Integer> point = points.ceilingEntry(mix(id));
+
+        return point == null ? points.firstEntry().getValue() : point.getValue();
+    }
+
+
+    private static int mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        return (int) value;
+    }
+
+}
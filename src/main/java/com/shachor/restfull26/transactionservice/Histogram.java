@@ -0,0 +1,180 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Class Histogram records the distribution of positive long values, e.g. latencies in nanoseconds,
+ * in the way of HdrHistogram: values are counted in log-linear buckets, so each recorded value is kept with
+ * a relative error of at most 1/32, whatever its magnitude, in a fixed array of 1888 counters.
+ *
+ * Values below 64 have a bucket each. Above, each power of 2 is split into 32 buckets of equal width,
+ * so a value is mapped to its bucket with a few bit operations.
+ *
+ * Recording is thread safe, lock free and does not allocate. Reading a percentile walks the counters,
+ * which may be recorded at the same time, so a percentile is read from a consistent snapshot() only.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class Histogram {
+
+    /**Number of buckets per power of 2 is 2 ^ SUB_BITS*/
+    private static final int SUB_BITS = 5;
+
+    private static final int BUCKETS = (64 - SUB_BITS) << SUB_BITS;
+
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong sum = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+
+    /**
+     * Records one value
+     * @param value the value, negative values are recorded as 0
+     */
+    public void record(long value) {
+
+        if(value < 0)
+            value = 0;
+
+        counts.incrementAndGet(bucket(value));
+        sum.addAndGet(value);
+
+        long current;
+        while(value > (current = max.get()) && !max.compareAndSet(current, value));
+    }
+
+
+    /**
+     * Returns a copy of the counters, from which percentiles are read
+     * @return the snapshot
+     */
+    public Snapshot snapshot() {
+
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+
+        for(int i = 0; i < BUCKETS; i++)
+            count += copy[i] = counts.get(i);
+
+        return new Snapshot(copy, count, sum.get(), max.get());
+    }
+
+
+    /**
+     * Removes all recorded values. Values recorded at the same time may be partially kept.
+     */
+    public void reset() {
+
+        for(int i = 0; i < BUCKETS; i++)
+            counts.set(i, 0L);
+
+        sum.set(0L);
+        max.set(0L);
+    }
+
+
+
+    private static int bucket(long value) {
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+
+        if(shift <= 0)
+            return (int) value;
+
+        return (shift << SUB_BITS) + (int) (value >>> shift);
+    }
+
+
+    /**
+     * Returns the highest value, which is counted in a bucket
+     */
+    private static long highestValue(int bucket) {
+
+        if(bucket < 2 << SUB_BITS)
+            return bucket;
+
+        int shift = (bucket >>> SUB_BITS) - 1;
+        long mantissa = bucket - ((long) shift << SUB_BITS);
+
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+
+
+    /**
+     * The counters of a histogram at one point of time
+     */
+    public static final class Snapshot {
+
+        private final long[] counts;
+
+        private final long count;
+
+        private final long sum;
+
+        private final long max;
+
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+
+        /**
+         * Returns the number of recorded values
+         * @return number of values
+         */
+        public long getCount() {
+            return count;
+        }
+
+
+        /**
+         * Returns the mean of the recorded values
+         * @return the mean, or 0 if no value was recorded
+         */
+        public double getMean() {
+            return count == 0 ? 0.0 : (double) sum / count;
+        }
+
+
+        /**
+         * Returns the highest recorded value
+         * @return the highest value, or 0 if no value was recorded
+         */
+        public long getMax() {
+            return max;
+        }
+
+
+        /**
+         * Returns the value, which is greater than or equal to the given percentage of all recorded values
+         * @param percentile the percentage between 0 and 100
+         * @return the value, never more than the highest recorded value, or 0 if no value was recorded
+         */
+        public long getValueAtPercentile(double percentile) {
+
+            if(count == 0)
+                return 0L;
+
+            long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+
+            for(int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if(seen >= rank)
+                    return Math.min(highestValue(i), max);
+            }
+
+            return max;
+        }
+    }
+
+}
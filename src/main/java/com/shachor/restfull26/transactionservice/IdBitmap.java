@@ -0,0 +1,229 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class IdBitmap is a compressed, sorted set of unique transaction IDs.
+ *
+ * The IDs are split into chunks of 65536 by their upper bits. A chunk with few IDs stores the lower 16 bits
+ * of each ID in a sorted char array (2 bytes per ID), and is converted to a bitmap of 8 KB (1 bit per possible ID)
+ * as soon as it holds more than 4096 IDs, which is the point where the bitmap becomes the smaller of the two.
+ *
+ * All methods are thread safe: changes and page reads are synchronized on the bitmap,
+ * while the number of IDs can be read without a lock.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class IdBitmap {
+
+    /**Number of IDs, above which a chunk is stored as a bitmap*/
+    private static final int ARRAY_MAX = 4096;
+
+    /**The chunks, mapped by the upper bits of the IDs they hold*/
+    private final TreeMap<Long, Chunk> chunks = new TreeMap<>();
+
+    /**Number of IDs in this set*/
+    private volatile long cardinality;
+
+
+    /**
+     * Adds an ID to this set
+     * @param id the unique ID of a transaction
+     * @return true if the ID was added, false if it already was in the set
+     */
+    public synchronized boolean add(long id) {
+
+        long high = id >>> 16;
+        char low = (char) id;
+
+        Chunk chunk = chunks.get(high);
+        if(chunk == null)
+            chunks.put(high, chunk = new ArrayChunk());
+
+        if(chunk.contains(low))
+            return false;
+
+        Chunk grown = chunk.add(low);
+        if(grown != chunk)
+            chunks.put(high, grown);
+
+        cardinality++;
+        return true;
+    }
+
+
+    /**
+     * Returns true if an ID is in this set
+     * @param id the unique ID of a transaction
+     * @return true if the ID is in the set
+     */
+    public synchronized boolean contains(long id) {
+
+        Chunk chunk = chunks.get(id >>> 16);
+
+        return chunk != null && chunk.contains((char) id);
+    }
+
+
+    /**
+     * Returns the number of IDs in this set
+     * @return number of IDs
+     */
+    public long cardinality() {
+        return cardinality;
+    }
+
+
+    /**
+     * Returns one page of the IDs in ascending order
+     * @param after only IDs bigger than this value are returned, 0 to start with the smallest ID
+     * @param limit the maximal number of returned IDs
+     * @return the IDs of the page, an empty array if there are no IDs after the given one
+     */
+    public synchronized long[] page(long after, int limit) {
+
+        long[] page = new long[(int) Math.min(limit, cardinality)];
+        int size = 0;
+
+        for(Map.Entry<Long, Chunk> entry : chunks.tailMap(after >>> 16, true).entrySet()) {
+
+            if(size == page.length)
+                break;
+
+            long high = entry.getKey();
+            int from = high == after >>> 16 ? ((char) after) + 1 : 0;
+
+            size = entry.getValue().copy(high << 16, from, page, size);
+        }
+
+        return size == page.length ? page : Arrays.copyOf(page, size);
+    }
+
+
+
+    /**
+     * The lower 16 bits of the IDs of one chunk
+     */
+    private interface Chunk {
+
+        boolean contains(char low);
+
+        /**
+         * Adds a value, which is not yet contained
+         * @return this chunk, or a new chunk holding all values if this chunk had to be converted
+         */
+        Chunk add(char low);
+
+        /**
+         * Copies the values starting from 'from' into the page, until the page is full
+         * @return the new number of values in the page
+         */
+        int copy(long base, int from, long[] page, int size);
+    }
+
+
+    /**
+     * A chunk of few values, stored as sorted char array
+     */
+    private static final class ArrayChunk implements Chunk {
+
+        private char[] values = new char[4];
+
+        private int size;
+
+
+        @Override
+        public boolean contains(char low) {
+            return Arrays.binarySearch(values, 0, size, low) >= 0;
+        }
+
+
+        @Override
+        public Chunk add(char low) {
+
+            if(size == ARRAY_MAX) {
+                BitmapChunk bitmap = new BitmapChunk();
+                for(int i = 0; i < size; i++)
+                    bitmap.add(values[i]);
+                return bitmap.add(low);
+            }
+
+            int index = -Arrays.binarySearch(values, 0, size, low) - 1;
+
+            if(size == values.length)
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, size + (size >> 1) + 1));
+
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = low;
+            size++;
+
+            return this;
+        }
+
+
+        @Override
+        public int copy(long base, int from, long[] page, int size) {
+
+            int index = Arrays.binarySearch(values, 0, this.size, (char) Math.min(from, Character.MAX_VALUE));
+            if(index < 0)
+                index = -index - 1;
+            else if(from > Character.MAX_VALUE)
+                return size;
+
+            for(; index < this.size && size < page.length; index++)
+                page[size++] = base | values[index];
+
+            return size;
+        }
+    }
+
+
+    /**
+     * A chunk of many values, stored as bitmap of 65536 bits
+     */
+    private static final class BitmapChunk implements Chunk {
+
+        private final long[] words = new long[1024];
+
+
+        @Override
+        public boolean contains(char low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+
+        @Override
+        public Chunk add(char low) {
+            words[low >>> 6] |= 1L << low;
+            return this;
+        }
+
+
+        @Override
+        public int copy(long base, int from, long[] page, int size) {
+
+            if(from > Character.MAX_VALUE)
+                return size;
+
+            int index = from >>> 6;
+            long word = words[index] & (-1L << from);
+
+            while(size < page.length) {
+
+                while(word == 0) {
+                    if(++index == words.length)
+                        return size;
+                    word = words[index];
+                }
+
+                page[size++] = base | ((index << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+
+            return size;
+        }
+    }
+
+}
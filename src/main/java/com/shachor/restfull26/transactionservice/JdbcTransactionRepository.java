@@ -0,0 +1,725 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Class JdbcTransactionRepository stores the transactions in one table of an embedded H2 database in a file.
+ *
+ * Inserts are written behind: a stored transaction is kept in a pending map and handed to the writer thread,
+ * which inserts everything handed over since its last commit in JDBC batches of BATCH rows and commits them
+ * together, so the number of commits falls as the load rises. Puts wait, while MAX_PENDING transactions are pending.
+ * ASYNC returns as soon as the transaction is pending, GROUP and SYNC wait for the commit of its batch.
+ * Reads wait until the transactions pending at their start are committed, and then read the database,
+ * so a transaction is read back at once after it was stored, whatever the durability.
+ *
+ * The sum of a subtree is one recursive query, the depth and the jump link of each row (see TransactionTable)
+ * are written with the row, so the ancestors are found in O(log depth) point queries. Parked transactions are
+ * only kept on the heap.
+ *
+ * This is the "jdbc" TransactionRepository.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class JdbcTransactionRepository implements TransactionRepository {
+
+    /**Maximal number of rows of one JDBC batch*/
+    public static final int BATCH = 1000;
+
+    /**Maximal number of pending transactions, above which puts wait for the writer*/
+    public static final int MAX_PENDING = 100_000;
+
+    private static final String SCHEMA[] = {
+            "CREATE TABLE IF NOT EXISTS transactions (id BIGINT PRIMARY KEY, parent_id BIGINT NOT NULL, "
+                    + "amount DOUBLE NOT NULL, type VARCHAR NOT NULL, depth INT NOT NULL, jump_id BIGINT NOT NULL)",
+            "CREATE INDEX IF NOT EXISTS transactions_parent ON transactions(parent_id, id)",
+            "CREATE INDEX IF NOT EXISTS transactions_type ON transactions(type, id)"
+    };
+
+    private static final String INSERT = "INSERT INTO transactions VALUES (?, ?, ?, ?, ?, ?)";
+
+    private static final String NODE = "SELECT parent_id, depth, jump_id FROM transactions WHERE id = ?";
+
+    /**The recursive query of the sum of a subtree. H2 1.4 does not bind parameters in it, so the ID is appended*/
+    private static final String SUM = "WITH RECURSIVE subtree(id, amount) AS ("
+            + "SELECT id, amount FROM transactions WHERE id = %d "
+            + "UNION ALL SELECT t.id, t.amount FROM transactions t, subtree s WHERE t.parent_id = s.id) "
+            + "SELECT SUM(CAST(amount AS DOUBLE)) FROM subtree";
+
+
+    /**The connection of the writer thread*/
+    private final Connection writer;
+
+    /**The connection, on which the writers look up parents and duplicates*/
+    private final Connection lookup;
+
+    /**The connections of the readers*/
+    private final BlockingQueue<Connection> readers;
+
+    private final ParkedTransactions parked = new ParkedTransactions();
+
+    private final Durability durability;
+
+    private final RecoveryStatus recovery;
+
+    private final Thread thread;
+
+    /**The pending transactions by their unique ID, until they are committed. Guarded by this*/
+    private final Map<Long, Row> pending = new HashMap<>();
+
+    /**The pending transactions, which are not handed to the writer thread yet. Guarded by this*/
+    private List<Row> queue = new ArrayList<>();
+
+    /**Number of transactions made pending and committed. Guarded by this*/
+    private long accepted;
+
+    private long committed;
+
+    private SQLException failure;
+
+    private boolean closed;
+
+
+    /**
+     * One stored transaction, with its depth and jump link
+     */
+    private static final class Row {
+
+        final Transaction transaction;
+        final int depth;
+        final long jump_id;
+
+        Row(Transaction transaction, int depth, long jump_id) {
+            this.transaction = transaction;
+            this.depth = depth;
+            this.jump_id = jump_id;
+        }
+    }
+
+
+    /**
+     * Opens the database in a directory, creates it if it does not exist, and starts the writer thread
+     * @param directory the directory of the database files
+     * @param durability the durability of a request, which does not ask for a certain one
+     * @param readers the number of connections of the readers
+     * @throws SQLException if the database can not be opened
+     * @throws IOException if the directory can not be created
+     */
+    public JdbcTransactionRepository(Path directory, Durability durability, int readers)
+            throws SQLException, IOException {
+
+        if(directory == null || durability == null)
+            throw new IllegalArgumentException("directory and durability must not point at NULL");
+
+        if(readers < 1)
+            throw new IllegalArgumentException("readers must be at least 1");
+
+        long start = System.nanoTime();
+        this.durability = durability;
+
+        Files.createDirectories(directory);
+        String url = "jdbc:h2:file:" + directory.resolve("transactions").toAbsolutePath()
+                + ";DB_CLOSE_ON_EXIT=FALSE;WRITE_DELAY=0";
+
+        writer = DriverManager.getConnection(url);
+        try(Statement statement = writer.createStatement()) {
+            for(String sql : SCHEMA)
+                statement.execute(sql);
+        }
+        writer.setAutoCommit(false);
+
+        lookup = DriverManager.getConnection(url);
+
+        this.readers = new ArrayBlockingQueue<>(readers);
+        for(int i = 0; i < readers; i++)
+            this.readers.add(DriverManager.getConnection(url));
+
+        long rows;
+        try(Statement statement = lookup.createStatement();
+            ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM transactions")) {
+            result.next();
+            rows = result.getLong(1);
+        }
+        recovery = new RecoveryStatus(rows, 0L, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        thread = new Thread(this::write, "jdbc-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+
+    @Override
+    public PutResult putTransaction(Transaction transaction, Durability durability) {
+
+        long mark;
+        PutResult result;
+
+        synchronized(this) {
+            awaitCapacity();
+            result = parked.accept(transaction, this::contains, this::insert);
+            mark = accepted;
+        }
+
+        if(durability != Durability.ASYNC)
+            awaitCommitted(mark);
+
+        return result;
+    }
+
+
+    @Override
+    public List<PutResult> putTransactions(Iterator<Transaction> batch, Durability durability) {
+
+        if(batch == null)
+            throw new IllegalArgumentException("Batch must not point at NULL");
+
+        List<PutResult> results = new ArrayList<>();
+        long mark = 0L;
+
+        while(batch.hasNext()) {
+            Transaction transaction = batch.next();
+            synchronized(this) {
+                awaitCapacity();
+                results.add(parked.accept(transaction, this::contains, this::insert));
+                mark = accepted;
+            }
+        }
+
+        if(durability != Durability.ASYNC)
+            awaitCommitted(mark);
+
+        return results;
+    }
+
+
+    /**
+     * Makes a transaction pending, whose parent transaction is stored. Called with the lock of this held
+     */
+    private void insert(Transaction transaction) {
+
+        int depth = 0;
+        long jump_id = transaction.getTransaction_id();
+
+        if(transaction.getParent_id() != 0L) {
+            Row parent = node(transaction.getParent_id());
+            Row jump = node(parent.jump_id);
+            Row jumpOfJump = node(jump.jump_id);
+
+            depth = parent.depth + 1;
+            jump_id = parent.depth - jump.depth == jump.depth - jumpOfJump.depth
+                    ? jumpOfJump.transaction.getTransaction_id() : transaction.getParent_id();
+        }
+
+        Row row = new Row(transaction, depth, jump_id);
+        pending.put(transaction.getTransaction_id(), row);
+        queue.add(row);
+        accepted++;
+        notifyAll();
+    }
+
+
+    /**
+     * Returns a stored transaction, with only its unique ID and its parent, from the pending transactions
+     * or from the database. Called with the lock of this held
+     */
+    private Row node(long id) {
+
+        Row row = pending.get(id);
+        if(row != null)
+            return row;
+
+        try {
+            return node(lookup, id);
+        } catch(SQLException e) {
+            throw new IllegalStateException("can not read the database", e);
+        }
+    }
+
+
+    private static Row node(Connection connection, long id) throws SQLException {
+
+        try(PreparedStatement statement = connection.prepareStatement(NODE)) {
+            statement.setLong(1, id);
+            try(ResultSet result = statement.executeQuery()) {
+                return result.next() ? new Row(new Transaction(id, 0.0, "", result.getLong(1), null),
+                        result.getInt(2), result.getLong(3)) : null;
+            }
+        }
+    }
+
+
+    private boolean contains(long id) {
+        return node(id) != null;
+    }
+
+
+    private void awaitCapacity() {
+
+        while(pending.size() >= MAX_PENDING && failure == null)
+            waitForWriter();
+
+        checkFailure();
+    }
+
+
+    private synchronized void awaitCommitted(long mark) {
+
+        while(committed < mark && failure == null)
+            waitForWriter();
+
+        checkFailure();
+    }
+
+
+    /**
+     * Waits until the transactions, which are pending now, are committed, before the database is read
+     */
+    private void sync() {
+
+        synchronized(this) {
+            if(pending.isEmpty())
+                return;
+        }
+        awaitCommitted(accepted());
+    }
+
+
+    private synchronized long accepted() {
+        return accepted;
+    }
+
+
+    private void waitForWriter() {
+
+        try {
+            wait();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for the database", e);
+        }
+    }
+
+
+    private void checkFailure() {
+        if(failure != null)
+            throw new IllegalStateException("the database can not be written", failure);
+    }
+
+
+    /**
+     * The writer thread: inserts and commits all transactions handed over since the last commit
+     */
+    private void write() {
+
+        try(PreparedStatement insert = writer.prepareStatement(INSERT)) {
+
+            while(true) {
+
+                List<Row> rows;
+                synchronized(this) {
+                    while(queue.isEmpty() && !closed)
+                        wait();
+                    if(queue.isEmpty())
+                        return;
+                    rows = queue;
+                    queue = new ArrayList<>();
+                }
+
+                for(int i = 0; i < rows.size(); i++) {
+                    Transaction transaction = rows.get(i).transaction;
+                    insert.setLong(1, transaction.getTransaction_id());
+                    insert.setLong(2, transaction.getParent_id());
+                    insert.setDouble(3, transaction.getAmount());
+                    insert.setString(4, transaction.getType());
+                    insert.setInt(5, rows.get(i).depth);
+                    insert.setLong(6, rows.get(i).jump_id);
+                    insert.addBatch();
+
+                    if((i + 1) % BATCH == 0 || i == rows.size() - 1)
+                        insert.executeBatch();
+                }
+                writer.commit();
+
+                synchronized(this) {
+                    for(Row row : rows)
+                        pending.remove(row.transaction.getTransaction_id());
+                    committed += rows.size();
+                    notifyAll();
+                }
+            }
+        } catch(SQLException e) {
+            synchronized(this) {
+                failure = e;
+                notifyAll();
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    @Override
+    public Durability getDurability() {
+        return durability;
+    }
+
+
+    @Override
+    public RecoveryStatus getRecoveryStatus() {
+        return recovery;
+    }
+
+
+
+    /**
+     * A query on the connection of a reader
+     */
+    private interface Query<T> {
+        T run(Connection connection) throws SQLException;
+    }
+
+
+    /**
+     * Runs a query on the connection of a reader, after the transactions pending at the start are committed
+     */
+    private <T> T read(Query<T> query) {
+
+        sync();
+
+        Connection connection = null;
+        try {
+            connection = readers.take();
+            return query.run(connection);
+        } catch(SQLException e) {
+            throw new IllegalStateException("can not read the database", e);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for a connection", e);
+        } finally {
+            if(connection != null)
+                readers.add(connection);
+        }
+    }
+
+
+    @Override
+    public Transaction getTransaction(long id) {
+        return read(connection -> transaction(connection, id));
+    }
+
+
+    private static Transaction transaction(Connection connection, long id) throws SQLException {
+
+        Set<Long> child_ids = null;
+        try(PreparedStatement statement = connection.prepareStatement(
+                "SELECT id FROM transactions WHERE parent_id = ?")) {
+            statement.setLong(1, id);
+            try(ResultSet result = statement.executeQuery()) {
+                while(result.next()) {
+                    if(child_ids == null)
+                        child_ids = new HashSet<>();
+                    child_ids.add(result.getLong(1));
+                }
+            }
+        }
+
+        try(PreparedStatement statement = connection.prepareStatement(
+                "SELECT amount, type, parent_id FROM transactions WHERE id = ?")) {
+            statement.setLong(1, id);
+            try(ResultSet result = statement.executeQuery()) {
+                return result.next()
+                        ? new Transaction(id, result.getDouble(1), result.getString(2), result.getLong(3), child_ids)
+                        : null;
+            }
+        }
+    }
+
+
+    /**
+     * Returns the number of children, as children are never removed
+     */
+    @Override
+    public long getChildVersion(long id) {
+
+        return read(connection -> {
+            try(PreparedStatement statement = connection.prepareStatement(
+                    "SELECT (SELECT COUNT(*) FROM transactions c WHERE c.parent_id = t.id) FROM transactions t "
+                            + "WHERE t.id = ?")) {
+                statement.setLong(1, id);
+                try(ResultSet result = statement.executeQuery()) {
+                    return result.next() ? result.getLong(1) : -1L;
+                }
+            }
+        });
+    }
+
+
+    @Override
+    public synchronized boolean containsTransaction(long id) {
+        return contains(id);
+    }
+
+
+    @Override
+    public Set<Long> getParkedParents() {
+        return parked.parents();
+    }
+
+
+    @Override
+    public List<Transaction> takeParkedChildren(long parent_id) {
+        return parked.take(parent_id);
+    }
+
+
+    @Override
+    public long[] getTransactionsByType(String type, long after, int limit) {
+
+        if(type == null)
+            throw new IllegalArgumentException("Transaction type must not point at NULL");
+
+        if(limit < 0)
+            throw new IllegalArgumentException("limit can not be a negative number");
+
+        // ordered as the index, so H2 reads only one page of it instead of sorting all the transactions of the type
+        return read(connection -> {
+            try(PreparedStatement statement = connection.prepareStatement(
+                    "SELECT id FROM transactions WHERE type = ? AND id > ? ORDER BY type, id LIMIT ?")) {
+                statement.setString(1, type);
+                statement.setLong(2, after);
+                statement.setInt(3, limit);
+                try(ResultSet result = statement.executeQuery()) {
+                    long[] page = new long[limit];
+                    int size = 0;
+                    while(result.next())
+                        page[size++] = result.getLong(1);
+                    return size == limit ? page : Arrays.copyOf(page, size);
+                }
+            }
+        });
+    }
+
+
+    @Override
+    public long countTransactionsByType(String type) {
+        return getTypeStats(type).getCount();
+    }
+
+
+    @Override
+    public TypeStats getTypeStats(String type) {
+
+        if(type == null)
+            throw new IllegalArgumentException("Transaction type must not point at NULL");
+
+        return read(connection -> {
+            try(PreparedStatement statement = connection.prepareStatement(
+                    "SELECT COUNT(*), SUM(amount), MIN(amount), MAX(amount) FROM transactions WHERE type = ?")) {
+                statement.setString(1, type);
+                try(ResultSet result = statement.executeQuery()) {
+                    result.next();
+                    long count = result.getLong(1);
+                    return count == 0 ? new TypeStats(0L, 0.0, null, null)
+                            : new TypeStats(count, result.getDouble(2), result.getDouble(3), result.getDouble(4));
+                }
+            }
+        });
+    }
+
+
+    @Override
+    public TransactionSum getSumTransactions(Long id, TransactionSum sum) {
+
+        return read(connection -> {
+            try(Statement statement = connection.createStatement()) {
+                try(ResultSet result = statement.executeQuery(String.format(SUM, id))) {
+                    if(result.next())
+                        sum.addSum(result.getDouble(1));
+                    return sum;
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Walks the subtree depth first, children in ascending order of their IDs. Every step is a query for the next
+     * child or sibling, so the walk keeps only the current transaction and depth, whatever the size of the subtree.
+     */
+    @Override
+    public boolean walkDescendants(long id, int maxDepth, Collection<String> types, Predicate<Transaction> visitor) {
+
+        if(maxDepth < 0)
+            throw new IllegalArgumentException("maxDepth must not be negative");
+
+        if(visitor == null)
+            throw new IllegalArgumentException("visitor must not point at NULL");
+
+        Transaction current = getTransaction(id);
+        int depth = 0;
+
+        while(current != null) {
+
+            if((types == null || types.contains(current.getType())) && !visitor.test(current))
+                return false;
+
+            Long next = depth < maxDepth ? next(current.getTransaction_id(), 0L) : null;
+            if(next != null) {
+                depth++;
+                current = getTransaction(next);
+                continue;
+            }
+
+            // no child to go down to: the next sibling of the transaction or of its nearest ancestor below the root
+            Transaction at = current;
+            current = null;
+            while(at.getTransaction_id() != id) {
+                next = next(at.getParent_id(), at.getTransaction_id());
+                if(next != null) {
+                    current = getTransaction(next);
+                    break;
+                }
+                at = getTransaction(at.getParent_id());
+                depth--;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Returns the child of a transaction with the smallest ID bigger than the given one, or null
+     */
+    private Long next(long parent_id, long after) {
+
+        return read(connection -> {
+            try(PreparedStatement statement = connection.prepareStatement(
+                    "SELECT MIN(id) FROM transactions WHERE parent_id = ? AND id > ?")) {
+                statement.setLong(1, parent_id);
+                statement.setLong(2, after);
+                try(ResultSet result = statement.executeQuery()) {
+                    result.next();
+                    long next = result.getLong(1);
+                    return result.wasNull() ? null : next;
+                }
+            }
+        });
+    }
+
+
+    @Override
+    public TransactionAncestor getDepth(long id) {
+
+        return read(connection -> {
+            Row row = node(connection, id);
+            return row == null ? TransactionAncestor.none() : new TransactionAncestor(id, row.depth);
+        });
+    }
+
+
+    @Override
+    public TransactionAncestor getAncestor(long id, int depth) {
+
+        return read(connection -> {
+            Row row = node(connection, id);
+            if(row == null || depth < 0 || depth > row.depth)
+                return TransactionAncestor.none();
+
+            return new TransactionAncestor(ancestor(connection, row, depth).transaction.getTransaction_id(), depth);
+        });
+    }
+
+
+    @Override
+    public TransactionAncestor getLowestCommonAncestor(long a, long b) {
+
+        return read(connection -> {
+            Row rowA = node(connection, a);
+            Row rowB = node(connection, b);
+            if(rowA == null || rowB == null)
+                return TransactionAncestor.none();
+
+            int depth = Math.min(rowA.depth, rowB.depth);
+            rowA = ancestor(connection, rowA, depth);
+            rowB = ancestor(connection, rowB, depth);
+
+            while(rowA.transaction.getTransaction_id() != rowB.transaction.getTransaction_id()) {
+
+                if(rowA.depth == 0)
+                    return TransactionAncestor.none();
+
+                if(rowA.jump_id != rowB.jump_id) {
+                    rowA = node(connection, rowA.jump_id);
+                    rowB = node(connection, rowB.jump_id);
+                } else {
+                    rowA = node(connection, rowA.transaction.getParent_id());
+                    rowB = node(connection, rowB.transaction.getParent_id());
+                }
+            }
+
+            return new TransactionAncestor(rowA.transaction.getTransaction_id(), rowA.depth);
+        });
+    }
+
+
+    private static Row ancestor(Connection connection, Row row, int depth) throws SQLException {
+
+        while(row.depth > depth) {
+            Row jump = node(connection, row.jump_id);
+            row = jump.depth >= depth ? jump : node(connection, row.transaction.getParent_id());
+        }
+
+        return row;
+    }
+
+
+    /**
+     * Commits the pending transactions, stops the writer thread and closes the database
+     */
+    @Override
+    public void close() {
+
+        synchronized(this) {
+            closed = true;
+            notifyAll();
+        }
+
+        try {
+            thread.join();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            for(Connection connection : readers)
+                connection.close();
+            lookup.close();
+            writer.close();
+        } catch(SQLException e) {
+            throw new IllegalStateException("can not close the database", e);
+        }
+    }
+
+}
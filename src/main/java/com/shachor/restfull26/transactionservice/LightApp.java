@@ -0,0 +1,28 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+
+/**
+ * This class has one main method, which starts the service without Spring: the TransactionHttpServer serves
+ * the routes for single transactions, types and sums from the configured storage, and the TransactionIngestServer
+ * is started if it is configured. Nothing is scanned or configured by reflection, so the server is ready
+ * much sooner than App and needs less memory. The other routes of the TransactionController are only served by App.
+ *
+ * Run with: java -cp ... com.shachor.restfull26.transactionservice.LightApp
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class LightApp
+{
+    public static void main( String[] args ) throws IOException
+    {
+        TransactionHttpServer.fromSystemProperties();
+        TransactionIngestServer.fromSystemProperties();
+
+        long ready = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        TransactionRepositories.getInstance().getRecoveryStatus().setTime_to_ready_millis(ready);
+    }
+
+}
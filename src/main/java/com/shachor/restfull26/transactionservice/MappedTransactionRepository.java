@@ -0,0 +1,709 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * Class MappedTransactionRepository stores the transactions in fixed size records of a file, which is mapped
+ * into memory in chunks of CHUNK_ROWS records, so the transactions live in the page cache of the operating system
+ * and not on the heap, and survive a restart without a log.
+ *
+ * A record holds the columns of one row of a TransactionTable:
+ * id (long), amount (double), sum of the subtree (double), parent, first child, next sibling (row + 1, 0 for none),
+ * type code, depth and jump link (see TransactionTable), 48 bytes. The jump link is never 0 for a stored
+ * record and is written last, so the first record without one ends the records when the file is opened. The types are appended to a second file
+ * in the order of their codes. The index from the unique ID to the row and the TypeIndex are kept on the heap,
+ * and rebuilt from the records when the files are opened. Parked transactions are only kept on the heap.
+ *
+ * Writers hold the write lock, readers hold the read lock for each record they read, so a long walk
+ * over a subtree does not hold off the writers. A stored transaction is in the mapped file at once. With ASYNC
+ * the operating system writes it back to the disk, with GROUP and SYNC the changed chunks are forced to the disk
+ * before putTransaction() or putTransactions() returns, once per call.
+ *
+ * This is the "mmap" TransactionRepository.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class MappedTransactionRepository implements TransactionRepository {
+
+    /**Number of bytes of a record*/
+    public static final int RECORD = 48;
+
+    private static final int CHUNK_SHIFT = 16;
+
+    /**Number of records of a mapped chunk of the file*/
+    public static final int CHUNK_ROWS = 1 << CHUNK_SHIFT;
+
+    private static final int CHUNK_MASK = CHUNK_ROWS - 1;
+
+    private static final long CHUNK_BYTES = (long) CHUNK_ROWS * RECORD;
+
+    /*
+     * Offsets of the columns in a record
+     */
+
+    private static final int ID = 0;
+
+    private static final int AMOUNT = 8;
+
+    private static final int SUM = 16;
+
+    private static final int PARENT = 24;
+
+    private static final int FIRST_CHILD = 28;
+
+    private static final int NEXT_SIBLING = 32;
+
+    private static final int TYPE = 36;
+
+    private static final int DEPTH = 40;
+
+    private static final int JUMP = 44;
+
+
+    private final FileChannel records;
+
+    private final FileChannel typeNames;
+
+    /**The mapped chunks of the records*/
+    private final List<MappedByteBuffer> chunks = new ArrayList<>();
+
+    /**The chunks changed since they were forced to the disk*/
+    private final BitSet dirty = new BitSet();
+
+    private final Lock readLock;
+
+    private final Lock writeLock;
+
+    private final TypeDictionary types = new TypeDictionary();
+
+    private final TypeIndex typeIndex = new TypeIndex(types);
+
+    private final ParkedTransactions parked = new ParkedTransactions();
+
+    private final Durability durability;
+
+    private final RecoveryStatus recovery;
+
+    /**Number of types written to the file of the types*/
+    private int writtenTypes;
+
+    /**Number of stored records*/
+    private int size;
+
+    /**Open-addressing index from the unique ID to row + 1, 0 for an empty slot*/
+    private long[] keys = new long[1024];
+
+    private int[] slots = new int[1024];
+
+
+    /**
+     * Opens the files of a repository in a directory, and creates them if they do not exist
+     * @param directory the directory of the files
+     * @param durability the durability of a request, which does not ask for a certain one
+     * @throws IOException if the files can not be opened or read
+     */
+    public MappedTransactionRepository(Path directory, Durability durability) throws IOException {
+
+        if(directory == null || durability == null)
+            throw new IllegalArgumentException("directory and durability must not point at NULL");
+
+        long start = System.nanoTime();
+        this.durability = durability;
+
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        readLock = lock.readLock();
+        writeLock = lock.writeLock();
+
+        Files.createDirectories(directory);
+        records = FileChannel.open(directory.resolve("transactions.dat"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        typeNames = FileChannel.open(directory.resolve("types.dat"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        readTypes();
+
+        for(long mapped = 0; mapped < records.size(); mapped += CHUNK_BYTES)
+            chunks.add(records.map(FileChannel.MapMode.READ_WRITE, mapped, CHUNK_BYTES));
+
+        // the records are appended, so the first record without a jump link ends them
+        while(size < chunks.size() * CHUNK_ROWS && getInt(size, JUMP) != 0) {
+            index(getLong(size, ID), size);
+            typeIndex.add(types.type(getInt(size, TYPE)), getLong(size, ID), getDouble(size, AMOUNT));
+            size++;
+        }
+
+        recovery = new RecoveryStatus(size, 0L, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+
+    private void readTypes() throws IOException {
+
+        InputStream in = Channels.newInputStream(typeNames);
+        DataInputStream names = new DataInputStream(in);
+        long end = 0L;
+
+        try {
+            while(true) {
+                byte[] name = new byte[names.readInt()];
+                names.readFully(name);
+                types.intern(new String(name, StandardCharsets.UTF_8));
+                end = typeNames.position();
+            }
+        } catch(EOFException e) {
+            // a type, which was not completely written, is written again with its first transaction
+            typeNames.truncate(end);
+            typeNames.position(end);
+        }
+
+        writtenTypes = types.size();
+    }
+
+
+
+    @Override
+    public PutResult putTransaction(Transaction transaction, Durability durability) {
+
+        writeLock.lock();
+        try {
+            PutResult result = parked.accept(transaction, this::contains, this::insert);
+
+            if(durability != Durability.ASYNC)
+                force();
+
+            return result;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+
+    @Override
+    public List<PutResult> putTransactions(Iterator<Transaction> batch, Durability durability) {
+
+        if(batch == null)
+            throw new IllegalArgumentException("Batch must not point at NULL");
+
+        List<PutResult> results = new ArrayList<>();
+
+        writeLock.lock();
+        try {
+            while(batch.hasNext())
+                results.add(parked.accept(batch.next(), this::contains, this::insert));
+
+            if(durability != Durability.ASYNC)
+                force();
+
+            return results;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+
+    /**
+     * Appends a record, links it to its parent and adds its amount to the sums of its ancestors.
+     * Called with the write lock held, for a transaction whose parent is stored.
+     */
+    private void insert(Transaction transaction) {
+
+        int row = size;
+        if(row == chunks.size() * CHUNK_ROWS)
+            map();
+
+        long parent_id = transaction.getParent_id();
+        int parent = parent_id == 0L ? -1 : find(parent_id);
+        double amount = transaction.getAmount();
+
+        putDouble(row, AMOUNT, amount);
+        putDouble(row, SUM, amount);
+        putInt(row, PARENT, parent + 1);
+        putInt(row, TYPE, intern(transaction.getType()));
+        putLong(row, ID, transaction.getTransaction_id());
+
+        int link = row;
+        if(parent >= 0) {
+            int jump = getInt(parent, JUMP) - 1;
+            int jumpOfJump = getInt(jump, JUMP) - 1;
+            int parentDepth = getInt(parent, DEPTH);
+            boolean skip = parentDepth - getInt(jump, DEPTH) == getInt(jump, DEPTH) - getInt(jumpOfJump, DEPTH);
+
+            link = skip ? jumpOfJump : parent;
+            putInt(row, DEPTH, parentDepth + 1);
+
+            putInt(row, NEXT_SIBLING, getInt(parent, FIRST_CHILD));
+            putInt(parent, FIRST_CHILD, row + 1);
+
+            for(int ancestor = parent; ancestor >= 0; ancestor = getInt(ancestor, PARENT) - 1)
+                putDouble(ancestor, SUM, getDouble(ancestor, SUM) + amount);
+        }
+
+        // the jump link is at least 1 for every stored record and is written last, so it marks a written record
+        putInt(row, JUMP, link + 1);
+        index(transaction.getTransaction_id(), row);
+        typeIndex.add(transaction.getType(), transaction.getTransaction_id(), amount);
+        size++;
+    }
+
+
+    private void map() {
+
+        try {
+            chunks.add(records.map(FileChannel.MapMode.READ_WRITE, chunks.size() * CHUNK_BYTES, CHUNK_BYTES));
+        } catch(IOException e) {
+            throw new UncheckedIOException("can not grow the file of the transactions", e);
+        }
+    }
+
+
+    /**
+     * Returns the code of a type, and appends a new type to the file of the types
+     */
+    private int intern(String type) {
+
+        int code = types.intern(type);
+
+        try {
+            for(; writtenTypes < types.size(); writtenTypes++) {
+                byte[] name = types.type(writtenTypes).getBytes(StandardCharsets.UTF_8);
+                ByteBuffer entry = ByteBuffer.allocate(4 + name.length).putInt(name.length).put(name);
+                entry.flip();
+                while(entry.hasRemaining())
+                    typeNames.write(entry);
+            }
+        } catch(IOException e) {
+            throw new UncheckedIOException("can not write the file of the types", e);
+        }
+
+        return code;
+    }
+
+
+    /**
+     * Forces the changed chunks and the types to the disk. Called with the write lock held
+     */
+    private void force() {
+
+        try {
+            typeNames.force(false);
+        } catch(IOException e) {
+            throw new UncheckedIOException("can not write the file of the types", e);
+        }
+
+        for(int chunk = dirty.nextSetBit(0); chunk >= 0; chunk = dirty.nextSetBit(chunk + 1))
+            chunks.get(chunk).force();
+
+        dirty.clear();
+    }
+
+
+    @Override
+    public Durability getDurability() {
+        return durability;
+    }
+
+
+    @Override
+    public RecoveryStatus getRecoveryStatus() {
+        return recovery;
+    }
+
+
+
+    @Override
+    public Transaction getTransaction(long id) {
+
+        readLock.lock();
+        try {
+            int row = find(id);
+
+            return row < 0 ? null : transactionAt(row);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+
+    private Transaction transactionAt(int row) {
+
+        Set<Long> child_ids = null;
+        for(int child = getInt(row, FIRST_CHILD) - 1; child >= 0; child = getInt(child, NEXT_SIBLING) - 1) {
+            if(child_ids == null)
+                child_ids = new HashSet<>();
+            child_ids.add(getLong(child, ID));
+        }
+
+        int parent = getInt(row, PARENT) - 1;
+
+        return new Transaction(getLong(row, ID), getDouble(row, AMOUNT), types.type(getInt(row, TYPE)),
+                parent < 0 ? 0L : getLong(parent, ID), child_ids);
+    }
+
+
+    @Override
+    public long getChildVersion(long id) {
+
+        readLock.lock();
+        try {
+            int row = find(id);
+
+            return row < 0 ? -1L : getInt(row, FIRST_CHILD);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+
+    @Override
+    public boolean containsTransaction(long id) {
+
+        readLock.lock();
+        try {
+            return contains(id);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+
+    @Override
+    public Set<Long> getParkedParents() {
+        return parked.parents();
+    }
+
+
+    @Override
+    public List<Transaction> takeParkedChildren(long parent_id) {
+        return parked.take(parent_id);
+    }
+
+
+    @Override
+    public long[] getTransactionsByType(String type, long after, int limit) {
+
+        if(type == null)
+            throw new IllegalArgumentException("Transaction type must not point at NULL");
+
+        if(limit < 0)
+            throw new IllegalArgumentException("limit can not be a negative number");
+
+        return typeIndex.page(type, after, limit);
+    }
+
+
+    @Override
+    public long countTransactionsByType(String type) {
+
+        if(type == null)
+            throw new IllegalArgumentException("Transaction type must not point at NULL");
+
+        return typeIndex.count(type);
+    }
+
+
+    @Override
+    public TypeStats getTypeStats(String type) {
+
+        if(type == null)
+            throw new IllegalArgumentException("Transaction type must not point at NULL");
+
+        return typeIndex.stats(type);
+    }
+
+
+    @Override
+    public TransactionSum getSumTransactions(Long id, TransactionSum sum) {
+
+        readLock.lock();
+        try {
+            int row = find(id);
+            if(row >= 0)
+                sum.addSum(getDouble(row, SUM));
+
+            return sum;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+
+    /**
+     * Walks the records with the first child, next sibling and parent links as TransactionTable does,
+     * and takes the read lock for each step only
+     */
+    @Override
+    public boolean walkDescendants(long id, int maxDepth, Collection<String> types, Predicate<Transaction> visitor) {
+
+        if(maxDepth < 0)
+            throw new IllegalArgumentException("maxDepth must not be negative");
+
+        if(visitor == null)
+            throw new IllegalArgumentException("visitor must not point at NULL");
+
+        int root;
+        readLock.lock();
+        try {
+            root = find(id);
+        } finally {
+            readLock.unlock();
+        }
+
+        if(root < 0)
+            return true;
+
+        int row = root;
+        int depth = 0;
+
+        while(true) {
+
+            Transaction transaction;
+            readLock.lock();
+            try {
+                transaction = types == null || types.contains(this.types.type(getInt(row, TYPE)))
+                        ? transactionAt(row) : null;
+            } finally {
+                readLock.unlock();
+            }
+
+            if(transaction != null && !visitor.test(transaction))
+                return false;
+
+            readLock.lock();
+            try {
+                int child = depth < maxDepth ? getInt(row, FIRST_CHILD) - 1 : -1;
+                if(child >= 0) {
+                    row = child;
+                    depth++;
+                    continue;
+                }
+
+                int sibling = -1;
+                while(row != root && (sibling = getInt(row, NEXT_SIBLING) - 1) < 0) {
+                    row = getInt(row, PARENT) - 1;
+                    depth--;
+                }
+                if(row == root)
+                    return true;
+                row = sibling;
+            } finally {
+                readLock.unlock();
+            }
+        }
+    }
+
+
+    @Override
+    public TransactionAncestor getDepth(long id) {
+
+        readLock.lock();
+        try {
+            int row = find(id);
+
+            return row < 0 ? TransactionAncestor.none() : new TransactionAncestor(id, getInt(row, DEPTH));
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+
+    @Override
+    public TransactionAncestor getAncestor(long id, int depth) {
+
+        readLock.lock();
+        try {
+            int row = find(id);
+            if(row < 0 || depth < 0 || depth > getInt(row, DEPTH))
+                return TransactionAncestor.none();
+
+            return new TransactionAncestor(getLong(ancestorRow(row, depth), ID), depth);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+
+    @Override
+    public TransactionAncestor getLowestCommonAncestor(long a, long b) {
+
+        readLock.lock();
+        try {
+            int rowA = find(a);
+            int rowB = find(b);
+            if(rowA < 0 || rowB < 0)
+                return TransactionAncestor.none();
+
+            int depth = Math.min(getInt(rowA, DEPTH), getInt(rowB, DEPTH));
+            rowA = ancestorRow(rowA, depth);
+            rowB = ancestorRow(rowB, depth);
+
+            while(rowA != rowB) {
+
+                if(depth == 0)
+                    return TransactionAncestor.none();
+
+                int jumpA = getInt(rowA, JUMP) - 1;
+                int jumpB = getInt(rowB, JUMP) - 1;
+
+                if(jumpA != jumpB) {
+                    rowA = jumpA;
+                    rowB = jumpB;
+                } else {
+                    rowA = getInt(rowA, PARENT) - 1;
+                    rowB = getInt(rowB, PARENT) - 1;
+                }
+                depth = getInt(rowA, DEPTH);
+            }
+
+            return new TransactionAncestor(getLong(rowA, ID), depth);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+
+    private int ancestorRow(int row, int depth) {
+
+        while(getInt(row, DEPTH) > depth) {
+            int jump = getInt(row, JUMP) - 1;
+            row = getInt(jump, DEPTH) >= depth ? jump : getInt(row, PARENT) - 1;
+        }
+
+        return row;
+    }
+
+
+    /**
+     * Forces everything to the disk and closes the files
+     */
+    @Override
+    public void close() {
+
+        writeLock.lock();
+        try {
+            for(MappedByteBuffer chunk : chunks)
+                chunk.force();
+            typeNames.force(false);
+            records.close();
+            typeNames.close();
+        } catch(IOException e) {
+            throw new UncheckedIOException("can not close the files of the transactions", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+
+
+    /*
+     * The index, called with a lock held
+     */
+
+    private boolean contains(long id) {
+        return find(id) >= 0;
+    }
+
+
+    private int find(long id) {
+
+        int mask = keys.length - 1;
+        for(int slot = hash(id) & mask; slots[slot] != 0; slot = (slot + 1) & mask)
+            if(keys[slot] == id)
+                return slots[slot] - 1;
+
+        return -1;
+    }
+
+
+    private void index(long id, int row) {
+
+        if((size + 1) * 10L > keys.length * 6L) {
+            long[] oldKeys = keys;
+            int[] oldSlots = slots;
+            keys = new long[oldKeys.length * 2];
+            slots = new int[oldSlots.length * 2];
+            for(int i = 0; i < oldKeys.length; i++)
+                if(oldSlots[i] != 0)
+                    put(oldKeys[i], oldSlots[i]);
+        }
+
+        put(id, row + 1);
+    }
+
+
+    private void put(long id, int slotValue) {
+
+        int mask = keys.length - 1;
+        int slot = hash(id) & mask;
+        while(slots[slot] != 0)
+            slot = (slot + 1) & mask;
+
+        keys[slot] = id;
+        slots[slot] = slotValue;
+    }
+
+
+    private static int hash(long id) {
+        return (int) (id ^ id >>> 32) * 0x9E3779B9;
+    }
+
+
+
+    /*
+     * The columns of the records
+     */
+
+    private long getLong(int row, int column) {
+        return chunks.get(row >>> CHUNK_SHIFT).getLong((row & CHUNK_MASK) * RECORD + column);
+    }
+
+
+    private double getDouble(int row, int column) {
+        return chunks.get(row >>> CHUNK_SHIFT).getDouble((row & CHUNK_MASK) * RECORD + column);
+    }
+
+
+    private int getInt(int row, int column) {
+        return chunks.get(row >>> CHUNK_SHIFT).getInt((row & CHUNK_MASK) * RECORD + column);
+    }
+
+
+    private void putLong(int row, int column, long value) {
+        chunks.get(row >>> CHUNK_SHIFT).putLong((row & CHUNK_MASK) * RECORD + column, value);
+        dirty.set(row >>> CHUNK_SHIFT);
+    }
+
+
+    private void putDouble(int row, int column, double value) {
+        chunks.get(row >>> CHUNK_SHIFT).putDouble((row & CHUNK_MASK) * RECORD + column, value);
+        dirty.set(row >>> CHUNK_SHIFT);
+    }
+
+
+    private void putInt(int row, int column, int value) {
+        chunks.get(row >>> CHUNK_SHIFT).putInt((row & CHUNK_MASK) * RECORD + column, value);
+        dirty.set(row >>> CHUNK_SHIFT);
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.shachor.restfull26.transactionservice;
+
+/**
+ * Enum Metric names every distribution, which is recorded by TransactionMetrics.
+ * Latencies are recorded in nanoseconds and reported in microseconds, sizes are recorded and reported as they are.
+ *
+ * @author  Roi Shachor on 09.01.16.
+ */
+public enum Metric {
+
+    /**PUT /transactionservice/transaction/{id}*/
+    HTTP_PUT("http.put", true),
+
+    /**POST /transactionservice/transactions*/
+    HTTP_PUT_BATCH("http.put_batch", true),
+
+    /**GET /transactionservice/transaction/{id}*/
+    HTTP_GET("http.get", true),
+
+    /**GET /transactionservice/types/{type}*/
+    HTTP_TYPES("http.types", true),
+
+    /**GET /transactionservice/types/{type}?count*/
+    HTTP_TYPES_COUNT("http.types_count", true),
+
+    /**GET /transactionservice/types/{type}/stats*/
+    HTTP_TYPES_STATS("http.types_stats", true),
+
+    /**GET /transactionservice/sum/{id}*/
+    HTTP_SUM("http.sum", true),
+
+    /**GET /transactionservice/root/{id}, /depth/{id}, /ancestor/{id} and /lca/{a}/{b}*/
+    HTTP_ANCESTORS("http.ancestors", true),
+
+    /**GET /transactionservice/descendants/{id}, until the whole stream is written*/
+    HTTP_DESCENDANTS("http.descendants", true),
+
+    /**The frames of one read of a connection of the TransactionIngestServer*/
+    INGEST_BATCH("ingest.batch", true),
+
+    /**TransactionDBMockSingleton.putTransaction()*/
+    STORE_PUT("store.put", true),
+
+    /**TransactionDBMockSingleton.putTransactions(), per batch*/
+    STORE_PUT_BATCH("store.put_batch", true),
+
+    /**TransactionDBMockSingleton.getTransaction()*/
+    STORE_GET("store.get", true),
+
+    /**TransactionDBMockSingleton.getTransactionsByType()*/
+    STORE_TYPES("store.types", true),
+
+    /**TransactionDBMockSingleton.countTransactionsByType()*/
+    STORE_TYPES_COUNT("store.types_count", true),
+
+    /**TransactionDBMockSingleton.getTypeStats()*/
+    STORE_TYPES_STATS("store.types_stats", true),
+
+    /**TransactionDBMockSingleton.getDepth(), getAncestor() and getLowestCommonAncestor()*/
+    STORE_ANCESTORS("store.ancestors", true),
+
+    /**TransactionDBMockSingleton.getSumTransactions()*/
+    STORE_SUM("store.sum", true),
+
+    /**TransactionDBMockSingleton.querySubtree(), including scanSumTransactions()*/
+    STORE_QUERY_SUBTREE("store.query_subtree", true),
+
+    /**Number of transactions in the subtree of a sum, the transaction itself included*/
+    SUM_SUBTREE_SIZE("sum.subtree_size", false),
+
+    /**Number of transactions in the stream of /transactionservice/descendants/{id}*/
+    DESCENDANTS_STREAMED("descendants.streamed", false),
+
+    /**TieredTransactionRepository: reading an evicted tree back from its segment*/
+    TIERED_FAULT_IN("tiered.fault_in", true),
+
+    /**Number of transactions in a tree evicted by the TieredTransactionRepository*/
+    TIERED_EVICTED("tiered.evicted", false),
+
+    /**Number of transactions in a batch*/
+    BATCH_SIZE("put_batch.size", false),
+
+    /**Number of IDs in a page of a type*/
+    TYPES_PAGE_SIZE("types.page_size", false);
+
+
+    /**The name in the report of the metrics*/
+    private final String name;
+
+    /**True if the values are latencies in nanoseconds*/
+    private final boolean latency;
+
+
+    Metric(String name, boolean latency) {
+        this.name = name;
+        this.latency = latency;
+    }
+
+
+    /**
+     * Returns the name in the report of the metrics
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+
+    /**
+     * Returns true if the values are latencies in nanoseconds
+     * @return true for a latency
+     */
+    public boolean isLatency() {
+        return latency;
+    }
+
+}
@@ -0,0 +1,203 @@
+package com.shachor.restfull26.transactionservice;
+
+/**
+ * Class MetricSnapshot serves as an container to hold the distribution of one Metric
+ * Object of this class is sent with the HTTP response to notify the client
+ * @author  Roi Shachor on 09.01.16.
+ */
+public class MetricSnapshot {
+
+    /**represents the unit of the values: "us" for latencies, "count" for sizes*/
+    private String unit;
+
+    /**represents the number of recorded values*/
+    private long count;
+
+    /**represents the number of recorded values per second since the metrics were reset*/
+    private double per_second;
+
+    /**represents the mean of the values*/
+    private double mean;
+
+    /**represents the 50th, 99th and 99.9th percentile of the values*/
+    private double p50;
+
+    private double p99;
+
+    private double p999;
+
+    /**represents the highest value*/
+    private double max;
+
+
+    /**
+     * default constructor, used by Jackson library to create JSON objects
+     */
+    public MetricSnapshot() {}
+
+
+    /**
+     * Creates a MetricSnapshot object from the snapshot of a histogram
+     * @param metric the metric of the histogram
+     * @param snapshot the snapshot of the histogram
+     * @param seconds the seconds since the metrics were reset
+     */
+    public MetricSnapshot(Metric metric, Histogram.Snapshot snapshot, double seconds) {
+
+        double scale = metric.isLatency() ? 1000.0 : 1.0;
+
+        unit = metric.isLatency() ? "us" : "count";
+        count = snapshot.getCount();
+        per_second = seconds > 0 ? count / seconds : 0.0;
+        mean = snapshot.getMean() / scale;
+        p50 = snapshot.getValueAtPercentile(50.0) / scale;
+        p99 = snapshot.getValueAtPercentile(99.0) / scale;
+        p999 = snapshot.getValueAtPercentile(99.9) / scale;
+        max = snapshot.getMax() / scale;
+    }
+
+
+    /**
+     * Returns the unit of the values
+     * @return the unit of the values
+     */
+    public String getUnit() {
+        return unit;
+    }
+
+
+    /**
+     * Sets the unit of the values
+     * @param unit the unit of the values
+     */
+    public void setUnit(String unit) {
+        this.unit = unit;
+    }
+
+
+    /**
+     * Returns the number of recorded values
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        return count;
+    }
+
+
+    /**
+     * Sets the number of recorded values
+     * @param count the number of recorded values
+     */
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+
+    /**
+     * Returns the number of recorded values per second
+     * @return the number of recorded values per second
+     */
+    public double getPer_second() {
+        return per_second;
+    }
+
+
+    /**
+     * Sets the number of recorded values per second
+     * @param per_second the number of recorded values per second
+     */
+    public void setPer_second(double per_second) {
+        this.per_second = per_second;
+    }
+
+
+    /**
+     * Returns the mean of the values
+     * @return the mean of the values
+     */
+    public double getMean() {
+        return mean;
+    }
+
+
+    /**
+     * Sets the mean of the values
+     * @param mean the mean of the values
+     */
+    public void setMean(double mean) {
+        this.mean = mean;
+    }
+
+
+    /**
+     * Returns the median of the values
+     * @return the median of the values
+     */
+    public double getP50() {
+        return p50;
+    }
+
+
+    /**
+     * Sets the median of the values
+     * @param p50 the median of the values
+     */
+    public void setP50(double p50) {
+        this.p50 = p50;
+    }
+
+
+    /**
+     * Returns the 99th percentile of the values
+     * @return the 99th percentile of the values
+     */
+    public double getP99() {
+        return p99;
+    }
+
+
+    /**
+     * Sets the 99th percentile of the values
+     * @param p99 the 99th percentile of the values
+     */
+    public void setP99(double p99) {
+        this.p99 = p99;
+    }
+
+
+    /**
+     * Returns the 99.9th percentile of the values
+     * @return the 99.9th percentile of the values
+     */
+    public double getP999() {
+        return p999;
+    }
+
+
+    /**
+     * Sets the 99.9th percentile of the values
+     * @param p999 the 99.9th percentile of the values
+     */
+    public void setP999(double p999) {
+        this.p999 = p999;
+    }
+
+
+    /**
+     * Returns the highest value
+     * @return the highest value
+     */
+    public double getMax() {
+        return max;
+    }
+
+
+    /**
+     * Sets the highest value
+     * @param max the highest value
+     */
+    public void setMax(double max) {
+        this.max = max;
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.LongPredicate;
+
+/**
+ * Class ParkedTransactions decides, whether a transaction is stored or parked, for a TransactionRepository
+ * with a single writer, and holds the transactions, which wait for their parent transaction.
+ *
+ * accept() is called with the write lock of the repository held, and stores the accepted transaction and all
+ * transactions parked below it through the given callback, in the order from the parents to the children.
+ * The other methods may be called at any time.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class ParkedTransactions {
+
+    /**Transactions waiting for their parent transaction, mapped by the unique ID of the missing parent*/
+    private final Map<Long, List<Transaction>> children = new HashMap<>();
+
+    /**The unique IDs of all parked transactions*/
+    private final Set<Long> ids = new HashSet<>();
+
+
+    /**
+     * Stores or parks a transaction
+     * @param transaction the transaction
+     * @param stored tells whether a unique ID is stored
+     * @param store stores a transaction, whose parent transaction is stored
+     * @return STORED, PARKED or DUPLICATE
+     * @throws java.lang.IllegalArgumentException if the transaction is null, has no type, an ID of 0 or less,
+     *                                            a negative parent ID or itself as parent
+     */
+    public synchronized PutResult accept(Transaction transaction, LongPredicate stored, Consumer<Transaction> store) {
+
+        if(transaction == null)
+            throw new IllegalArgumentException("Transaction must not point at NULL");
+
+        if(transaction.getType() == null)
+            throw new IllegalArgumentException("Transaction type must not point at NULL");
+
+        long id = transaction.getTransaction_id();
+        if(id <= 0L)
+            throw new IllegalArgumentException("Transaction ID must be bigger than 0");
+
+        if(transaction.getParent_id() < 0L)
+            throw new IllegalArgumentException("Parent ID can not be a negative number");
+
+        if(transaction.getParent_id() == id)
+            throw new IllegalArgumentException("Transaction can not be its own parent");
+
+        if(ids.contains(id) || stored.test(id))
+            return PutResult.DUPLICATE;
+
+        long parent_id = transaction.getParent_id();
+        if(parent_id != 0L && !stored.test(parent_id)) {
+            ids.add(id);
+            children.computeIfAbsent(parent_id, key -> new ArrayList<>()).add(transaction);
+            return PutResult.PARKED;
+        }
+
+        store.accept(transaction);
+
+        Deque<Long> parents = new ArrayDeque<>();
+        parents.push(id);
+
+        while(!parents.isEmpty()) {
+
+            List<Transaction> waiting = children.remove(parents.pop());
+            if(waiting == null)
+                continue;
+
+            for(Transaction child : waiting) {
+                ids.remove(child.getTransaction_id());
+                store.accept(child);
+                parents.push(child.getTransaction_id());
+            }
+        }
+
+        return PutResult.STORED;
+    }
+
+
+    /**
+     * Returns the unique IDs of the missing parent transactions
+     * @return a copy of the IDs
+     */
+    public synchronized Set<Long> parents() {
+        return new HashSet<>(children.keySet());
+    }
+
+
+    /**
+     * Removes the transactions, which are parked waiting for a parent transaction
+     * @param parent_id the unique ID of the parent transaction
+     * @return the removed transactions, an empty list if there are none
+     */
+    public synchronized List<Transaction> take(long parent_id) {
+
+        List<Transaction> taken = children.remove(parent_id);
+        if(taken == null)
+            return new ArrayList<>();
+
+        for(Transaction child : taken)
+            ids.remove(child.getTransaction_id());
+
+        return taken;
+    }
+
+
+    /**
+     * Returns the number of parked transactions
+     * @return number of parked transactions
+     */
+    public synchronized int size() {
+        return ids.size();
+    }
+
+}
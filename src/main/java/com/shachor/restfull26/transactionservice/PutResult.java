@@ -0,0 +1,41 @@
+package com.shachor.restfull26.transactionservice;
+
+/**
+ * Enum PutResult represents the outcome of storing one transaction, together with the status message,
+ * which is sent to the client in a TransactionStatus object.
+ *
+ * @author  Roi Shachor on 09.01.16.
+ */
+public enum PutResult {
+
+    /**The transaction was stored and linked to its parent transaction*/
+    STORED("ok"),
+
+    /**The parent transaction is not stored yet. The transaction is stored as soon as its parent arrives*/
+    PARKED("pending - parent transaction is not yet stored"),
+
+    /**A transaction with the same unique ID already was stored or parked*/
+    DUPLICATE("error - transaction already exists in the storage"),
+
+    /**The storage failed to store the transaction. It may be sent again*/
+    FAILED("error - transaction could not be stored");
+
+
+    /**The status message of the result*/
+    private final String status;
+
+
+    PutResult(String status) {
+        this.status = status;
+    }
+
+
+    /**
+     * Returns the status message, which is sent to the client
+     * @return the status message
+     */
+    public String getStatus() {
+        return status;
+    }
+
+}
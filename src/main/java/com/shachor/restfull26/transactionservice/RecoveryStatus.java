@@ -0,0 +1,113 @@
+package com.shachor.restfull26.transactionservice;
+
+/**
+ * Class RecoveryStatus serves as an container to hold how the storage was recovered at the start of the server
+ * Object of this class is sent with the HTTP response to notify the client
+ * @author  Roi Shachor on 09.01.16.
+ */
+public class RecoveryStatus {
+
+    /**represents the number of transactions loaded from the snapshot, 0 if no snapshot was loaded*/
+    private long snapshot_transactions;
+
+    /**represents the number of records replayed from the transaction log after the snapshot*/
+    private long replayed_records;
+
+    /**represents the time it took to load the snapshot and replay the log, in milliseconds*/
+    private long recovery_millis;
+
+    /**represents the time from the start of the JVM until the server accepted requests, in milliseconds*/
+    private volatile long time_to_ready_millis;
+
+
+    /**
+     * default constructor, used by Jackson library to create JSON objects
+     */
+    public RecoveryStatus() {}
+
+
+    /**
+     * Creates a RecoveryStatus object
+     * @param snapshot_transactions the number of transactions loaded from the snapshot
+     * @param replayed_records the number of records replayed from the transaction log
+     * @param recovery_millis the time of the recovery in milliseconds
+     */
+    public RecoveryStatus(long snapshot_transactions, long replayed_records, long recovery_millis) {
+        this.snapshot_transactions = snapshot_transactions;
+        this.replayed_records = replayed_records;
+        this.recovery_millis = recovery_millis;
+    }
+
+
+    /**
+     * Returns the number of transactions loaded from the snapshot
+     * @return the number of transactions
+     */
+    public long getSnapshot_transactions() {
+        return snapshot_transactions;
+    }
+
+
+    /**
+     * Sets the number of transactions loaded from the snapshot
+     * @param snapshot_transactions the number of transactions
+     */
+    public void setSnapshot_transactions(long snapshot_transactions) {
+        this.snapshot_transactions = snapshot_transactions;
+    }
+
+
+    /**
+     * Returns the number of records replayed from the transaction log
+     * @return the number of records
+     */
+    public long getReplayed_records() {
+        return replayed_records;
+    }
+
+
+    /**
+     * Sets the number of records replayed from the transaction log
+     * @param replayed_records the number of records
+     */
+    public void setReplayed_records(long replayed_records) {
+        this.replayed_records = replayed_records;
+    }
+
+
+    /**
+     * Returns the time of the recovery
+     * @return the time in milliseconds
+     */
+    public long getRecovery_millis() {
+        return recovery_millis;
+    }
+
+
+    /**
+     * Sets the time of the recovery
+     * @param recovery_millis the time in milliseconds
+     */
+    public void setRecovery_millis(long recovery_millis) {
+        this.recovery_millis = recovery_millis;
+    }
+
+
+    /**
+     * Returns the time from the start of the JVM until the server accepted requests
+     * @return the time in milliseconds, 0 if the server is not ready yet
+     */
+    public long getTime_to_ready_millis() {
+        return time_to_ready_millis;
+    }
+
+
+    /**
+     * Sets the time from the start of the JVM until the server accepted requests
+     * @param time_to_ready_millis the time in milliseconds
+     */
+    public void setTime_to_ready_millis(long time_to_ready_millis) {
+        this.time_to_ready_millis = time_to_ready_millis;
+    }
+
+}
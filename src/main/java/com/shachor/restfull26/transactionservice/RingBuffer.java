@@ -0,0 +1,165 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class RingBuffer is a bounded queue for many producers and exactly one consumer, which never takes a lock.
+ *
+ * Each slot of the ring has a sequence number, which tells whether the slot is free for the producer of a
+ * position or holds the element of a position for the consumer. A producer claims the next position with
+ * one CAS and publishes its element by advancing the sequence of the slot, the consumer takes the elements
+ * in the order of their positions and frees the slots again. If the ring is full, the producers wait
+ * for the consumer; if it is empty, the consumer parks until a producer wakes it up.
+ *
+ * @param <E> the type of the elements
+ * @author Roi Shachor on 09.01.16.
+ */
+public class RingBuffer<E> {
+
+    private final Object[] elements;
+
+    /**The sequence number of each slot: equal to the position if the slot is free for the producer of
+     * the position, position + 1 if it holds the element of the position*/
+    private final AtomicLongArray sequences;
+
+    private final int mask;
+
+    /**The next position to claim by a producer*/
+    private final AtomicLong tail = new AtomicLong();
+
+    /**The next position to take by the consumer, only written by the consumer*/
+    private volatile long head;
+
+    /**The consumer, if it is parked or about to park*/
+    private volatile Thread sleeping;
+
+
+    /**
+     * Creates an empty ring
+     * @param capacity the number of slots, a power of two
+     */
+    public RingBuffer(int capacity) {
+
+        if(capacity < 2 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("capacity must be a power of two");
+
+        elements = new Object[capacity];
+        sequences = new AtomicLongArray(capacity);
+        mask = capacity - 1;
+
+        for(int i = 0; i < capacity; i++)
+            sequences.set(i, i);
+    }
+
+
+    /**
+     * Appends an element, and waits for a free slot if the ring is full
+     * @param element the element
+     * @return the position of the element
+     */
+    public long put(E element) {
+
+        long position = tail.get();
+
+        for(;;) {
+            int slot = (int) position & mask;
+            long difference = sequences.get(slot) - position;
+
+            if(difference == 0) {
+                if(tail.compareAndSet(position, position + 1))
+                    break;
+                position = tail.get();
+            }
+            else if(difference < 0) {
+                // the slot still holds the element of the previous round, the ring is full
+                Thread.yield();
+                position = tail.get();
+            }
+            else
+                position = tail.get();
+        }
+
+        int slot = (int) position & mask;
+        elements[slot] = element;
+        sequences.set(slot, position + 1);
+
+        Thread consumer = sleeping;
+        if(consumer != null)
+            LockSupport.unpark(consumer);
+
+        return position;
+    }
+
+
+    /**
+     * Takes the next element. Must only be called by the consumer thread.
+     * @return the element, or null if the ring is empty
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+
+        long position = head;
+        int slot = (int) position & mask;
+
+        if(sequences.get(slot) != position + 1)
+            return null;
+
+        E element = (E) elements[slot];
+        elements[slot] = null;
+        sequences.set(slot, position + mask + 1);
+        head = position + 1;
+
+        return element;
+    }
+
+
+    /**
+     * Takes the next element, and parks the consumer thread until there is one.
+     * Must only be called by the consumer thread.
+     * @return the element
+     * @throws InterruptedException if the consumer thread is interrupted while it waits
+     */
+    public E take() throws InterruptedException {
+
+        for(;;) {
+            E element = poll();
+            if(element != null)
+                return element;
+
+            // announce the parking before the last look, so a producer publishing now either is seen here
+            // or sees the consumer and unparks it
+            sleeping = Thread.currentThread();
+            element = poll();
+            if(element == null)
+                LockSupport.park(this);
+            sleeping = null;
+
+            if(Thread.interrupted())
+                throw new InterruptedException();
+
+            if(element != null)
+                return element;
+        }
+    }
+
+
+    /**
+     * Returns the number of positions claimed by producers so far
+     * @return the position after the last claimed one
+     */
+    public long claimed() {
+        return tail.get();
+    }
+
+
+    /**
+     * Returns the number of elements taken by the consumer so far
+     * @return the position of the next element to take
+     */
+    public long taken() {
+        return head;
+    }
+
+}
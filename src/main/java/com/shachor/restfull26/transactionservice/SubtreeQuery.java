@@ -0,0 +1,36 @@
+package com.shachor.restfull26.transactionservice;
+
+/**
+ * Interface SubtreeQuery describes a query which is evaluated over all transactions of a subtree by SubtreeTraversal.
+ * Since parts of the subtree may be evaluated in parallel, each part collects its result into its own accumulator
+ * and the accumulators are combined afterwards.
+ *
+ * @param <A> the type of the accumulator which holds the (partial) result of the query
+ * @author Roi Shachor on 09.01.16.
+ */
+public interface SubtreeQuery<A> {
+
+    /**
+     * Creates a new, empty accumulator
+     * @return the accumulator
+     */
+    A newAccumulator();
+
+
+    /**
+     * Adds one transaction of the subtree to an accumulator
+     * @param accumulator the accumulator of the current part of the subtree
+     * @param id the unique ID of the visited transaction
+     */
+    void visit(A accumulator, long id);
+
+
+    /**
+     * Combines the accumulators of two parts of the subtree
+     * @param left accumulator of one part
+     * @param right accumulator of another part
+     * @return the combined accumulator, may be one of the parameters
+     */
+    A combine(A left, A right);
+
+}
@@ -0,0 +1,171 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.LongConsumer;
+
+/**
+ * Class SubtreeTraversal evaluates a SubtreeQuery over a transaction and all its descendants.
+ *
+ * The subtree is walked iteratively with an explicit stack of transaction IDs instead of recursion,
+ * so the depth of a transaction chain is only limited by the heap and not by the thread stack.
+ * As soon as the pending part of a walk grows above the split threshold, half of it is handed over
+ * to a new ForkJoinPool task, so subtrees with a large fan-out are evaluated on all cores,
+ * while small subtrees, and all subtrees on a single core machine, are evaluated without any task overhead.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class SubtreeTraversal {
+
+    /**Default number of pending transactions, above which a walk is split into parallel tasks*/
+    public static final int DEFAULT_SPLIT_THRESHOLD = 256;
+
+    /**The tree which is walked*/
+    private final TransactionTree tree;
+
+    /**The pool which executes the tasks of the walk*/
+    private final ForkJoinPool pool;
+
+    /**Number of pending transactions, above which a walk is split into parallel tasks*/
+    private final int splitThreshold;
+
+    /**False if the pool has only one worker, in which case a walk is never split*/
+    private final boolean parallel;
+
+
+    /**
+     * Creates a traversal over the given tree, which uses the common ForkJoinPool and the split threshold
+     * configured with the system property "transactionservice.traversal.splitThreshold"
+     * @param tree the tree to walk
+     */
+    public SubtreeTraversal(TransactionTree tree) {
+        this(tree, ForkJoinPool.commonPool(),
+                Integer.getInteger("transactionservice.traversal.splitThreshold", DEFAULT_SPLIT_THRESHOLD));
+    }
+
+
+    /**
+     * Creates a traversal over the given tree
+     * @param tree the tree to walk
+     * @param pool the pool which executes the tasks of the walk
+     * @param splitThreshold number of pending transactions, above which a walk is split into parallel tasks
+     */
+    public SubtreeTraversal(TransactionTree tree, ForkJoinPool pool, int splitThreshold) {
+
+        if(tree == null || pool == null)
+            throw new IllegalArgumentException("tree and pool must not point at NULL");
+
+        if(splitThreshold < 2)
+            throw new IllegalArgumentException("splitThreshold must have a value of at least 2");
+
+        this.tree = tree;
+        this.pool = pool;
+        this.splitThreshold = splitThreshold;
+        this.parallel = pool.getParallelism() > 1;
+    }
+
+
+    /**
+     * Evaluates a query over a transaction and all its descendants.
+     * If the transaction does not exist, the returned accumulator is empty.
+     * @param id the unique ID of the root transaction of the subtree
+     * @param query the query to evaluate
+     * @param <A> the type of the accumulator of the query
+     * @return the accumulator holding the result of the query
+     */
+    public <A> A traverse(long id, SubtreeQuery<A> query) {
+
+        if(query == null)
+            throw new IllegalArgumentException("query must not point at NULL");
+
+        if(!tree.contains(id))
+            return query.newAccumulator();
+
+        return pool.invoke(new SubtreeTask<>(query, new long[]{id}, 1));
+    }
+
+
+    /**
+     * One part of a walk. Pops transactions from its own stack, visits them and pushes their children,
+     * and forks half of the stack into a new task whenever the stack grows above the split threshold.
+     * @param <A> the type of the accumulator of the query
+     */
+    private final class SubtreeTask<A> extends RecursiveTask<A> {
+
+        private final SubtreeQuery<A> query;
+
+        /**The pending transaction IDs of this part of the walk*/
+        private long[] stack;
+
+        /**Number of pending transaction IDs in the stack*/
+        private int size;
+
+        /**The next task, which was forked by the same parent task*/
+        private SubtreeTask<A> next;
+
+        /**Pushes the child IDs reported by the tree on the stack*/
+        private final LongConsumer pusher = this::push;
+
+
+        SubtreeTask(SubtreeQuery<A> query, long[] stack, int size) {
+            this.query = query;
+            this.stack = stack;
+            this.size = size;
+        }
+
+
+        @Override
+        protected A compute() {
+
+            A accumulator = query.newAccumulator();
+            SubtreeTask<A> forked = null;
+
+            while(size > 0) {
+
+                long id = stack[--size];
+                query.visit(accumulator, id);
+
+                tree.forEachChild(id, pusher);
+
+                if(parallel && size > splitThreshold && getSurplusQueuedTaskCount() <= 2) {
+                    SubtreeTask<A> task = split();
+                    task.next = forked;
+                    forked = task;
+                    task.fork();
+                }
+            }
+
+            for(SubtreeTask<A> task = forked; task != null; task = task.next)
+                accumulator = query.combine(accumulator, task.join());
+
+            return accumulator;
+        }
+
+
+        private void push(long id) {
+            if(size == stack.length)
+                stack = Arrays.copyOf(stack, stack.length * 2);
+
+            stack[size++] = id;
+        }
+
+
+        /**
+         * Moves the bottom half of the stack, which holds the transactions closest to the root
+         * and so most likely the largest subtrees, into a new task
+         * @return the new task
+         */
+        private SubtreeTask<A> split() {
+
+            int half = size / 2;
+            long[] taken = Arrays.copyOf(stack, half);
+
+            System.arraycopy(stack, half, stack, 0, size - half);
+            size -= half;
+
+            return new SubtreeTask<>(query, taken, half);
+        }
+    }
+
+}
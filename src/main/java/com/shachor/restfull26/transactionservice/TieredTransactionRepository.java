@@ -0,0 +1,1005 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * Class TieredTransactionRepository keeps the recently used transaction trees on the heap and spills the others
+ * into segment files, so the heap holds at most a configured number of transactions, whatever is stored.
+ *
+ * A tree, a root with all its descendants, is the unit, which is evicted and read back. A resident tree keeps the
+ * columns of a TransactionTable in its own arrays (amount, subtree sum, type code, parent, first child, next sibling,
+ * depth and jump link, ~48 bytes per transaction). An evicted tree is appended to the current segment file as its
+ * rows in the order of insertion, 24 bytes each (id, parent row, amount, type code), and all other columns are
+ * rebuilt when it is read back. Its rows keep their numbers, so the index from the unique ID to the tree and the row,
+ * and the TypeIndex stay on the heap for every transaction (~35 bytes per transaction) and never change.
+ * Of an evicted tree only its size, segment and position stay on the heap (20 bytes per tree), so the heap still
+ * grows with every transaction and every root ever stored: the limit of a repository is its heap divided by these
+ * costs, e.g. ~30,000,000 transactions per GB, and less with many single transaction trees.
+ *
+ * A tree is evicted when the resident transactions exceed maxResident, chosen by CLOCK: every access to a tree sets
+ * its reference bit, and the hand clears the bits it passes until it finds a tree without one. A tree, which was not
+ * accessed for idleMillis, is evicted by a background sweep. getTransaction(), getSumTransactions(), the ancestors,
+ * a walk or a new child read an evicted tree back on their first access, which holds the write lock for as long as
+ * the tree is read. A segment file is deleted as soon as none of its trees is evicted into it anymore.
+ *
+ * The segment files only live as long as the repository. If a TransactionLog is given, every accepted transaction
+ * is appended to it, and it is replayed when the repository is created.
+ *
+ * This is the "tiered" TransactionRepository.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class TieredTransactionRepository implements TransactionRepository {
+
+    /**Size in bytes, above which a new segment file is started*/
+    public static final long SEGMENT_BYTES = 64L << 20;
+
+    /**Number of bytes of an evicted row: id, parent row + 1, amount, type code*/
+    private static final int ROW_BYTES = 8 + 4 + 8 + 4;
+
+    /**Number of rows, which are written or read with one buffer*/
+    private static final int BUFFER_ROWS = 4096;
+
+    private static final String SEGMENT_PREFIX = "tier-";
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+
+    private final Path directory;
+
+    private final int maxResident;
+
+    private final long idleNanos;
+
+    private final TransactionLog log;
+
+    private final Durability durability;
+
+    private final RecoveryStatus recovery;
+
+    private final Lock readLock;
+
+    private final Lock writeLock;
+
+    private final TypeDictionary types = new TypeDictionary();
+
+    private final TypeIndex typeIndex = new TypeIndex(types);
+
+    private final ParkedTransactions parked = new ParkedTransactions();
+
+    /**Evicts the idle trees, or null if they are only evicted for the limit*/
+    private final ScheduledExecutorService sweeper;
+
+    /**All trees, by their number, null for an evicted tree*/
+    private final List<Tree> trees = new ArrayList<>();
+
+    /*
+     * The size, segment and position of an evicted tree, by its number, as no Tree object is kept for it
+     */
+
+    private int[] evictedSizes = new int[1024];
+
+    private Segment[] evictedSegments = new Segment[1024];
+
+    private long[] evictedPositions = new long[1024];
+
+    /**The resident trees, in the order of the clock*/
+    private final List<Tree> clock = new ArrayList<>();
+
+    private int hand;
+
+    /**Number of transactions of the resident trees*/
+    private long resident;
+
+    private final List<Segment> segments = new ArrayList<>();
+
+    /**The segment, to which trees are evicted*/
+    private Segment current;
+
+    /**Number of stored transactions*/
+    private int size;
+
+    /**Open-addressing index from the unique ID to tree number << 32 | row, -1 for an empty slot*/
+    private long[] keys = new long[1024];
+
+    private long[] slots = newSlots(1024);
+
+
+
+    /**
+     * The rows of one tree, in the order of insertion, the root in row 0
+     */
+    private static final class Tree {
+
+        final int number;
+
+        int size;
+
+        /*
+         * The columns, null while the tree is evicted. Links are row + 1, 0 for none
+         */
+
+        long[] ids;
+        double[] amounts;
+        double[] sums;
+        int[] typeCodes;
+        int[] parents;
+        int[] firstChild;
+        int[] nextSibling;
+        int[] depths;
+        int[] jumps;
+
+        /**True if the tree changed since it was written to its segment*/
+        boolean dirty = true;
+
+        /**The segment and the position, at which the tree was written last, null if it was never written*/
+        Segment segment;
+
+        long position;
+
+        /**Set by every access, cleared by the hand of the clock*/
+        volatile boolean referenced;
+
+        /**System.nanoTime() of the last access*/
+        volatile long touched;
+
+        /**The index in the clock, -1 while the tree is evicted*/
+        int slot = -1;
+
+        Tree(int number, int capacity) {
+            this.number = number;
+            allocate(capacity);
+        }
+
+        void allocate(int capacity) {
+            ids = ids == null ? new long[capacity] : Arrays.copyOf(ids, capacity);
+            amounts = amounts == null ? new double[capacity] : Arrays.copyOf(amounts, capacity);
+            sums = sums == null ? new double[capacity] : Arrays.copyOf(sums, capacity);
+            typeCodes = typeCodes == null ? new int[capacity] : Arrays.copyOf(typeCodes, capacity);
+            parents = parents == null ? new int[capacity] : Arrays.copyOf(parents, capacity);
+            firstChild = firstChild == null ? new int[capacity] : Arrays.copyOf(firstChild, capacity);
+            nextSibling = nextSibling == null ? new int[capacity] : Arrays.copyOf(nextSibling, capacity);
+            depths = depths == null ? new int[capacity] : Arrays.copyOf(depths, capacity);
+            jumps = jumps == null ? new int[capacity] : Arrays.copyOf(jumps, capacity);
+        }
+
+    }
+
+
+    /**
+     * One segment file, with the number of trees, whose latest copy is in it
+     */
+    private static final class Segment {
+
+        final Path path;
+
+        final FileChannel channel;
+
+        long size;
+
+        int live;
+
+        Segment(Path path) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        }
+    }
+
+
+    /**
+     * A read of the row of a resident tree
+     */
+    private interface RowReader<T> {
+        T read(Tree tree, int row);
+    }
+
+
+
+    /**
+     * Creates a repository, deletes the segment files left in its directory and replays the log
+     * @param directory the directory of the segment files
+     * @param maxResident the maximal number of transactions of the resident trees, unless one tree is bigger
+     * @param idleMillis the time after the last access, after which a tree is evicted, 0 to keep it
+     * @param log the log of the accepted transactions, or null if the repository is not durable
+     * @param durability the durability of a request, which does not ask for a certain one
+     * @throws IOException if the directory can not be created or the log can not be read
+     */
+    public TieredTransactionRepository(Path directory, int maxResident, long idleMillis, TransactionLog log,
+                                       Durability durability) throws IOException {
+
+        if(directory == null || durability == null)
+            throw new IllegalArgumentException("directory and durability must not point at NULL");
+
+        if(maxResident < 1)
+            throw new IllegalArgumentException("maxResident must be at least 1");
+
+        if(idleMillis < 0)
+            throw new IllegalArgumentException("idleMillis can not be a negative number");
+
+        long start = System.nanoTime();
+        this.directory = directory;
+        this.maxResident = maxResident;
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+        this.durability = durability;
+
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        readLock = lock.readLock();
+        writeLock = lock.writeLock();
+
+        Files.createDirectories(directory);
+        try(DirectoryStream<Path> left = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for(Path path : left)
+                Files.delete(path);
+        }
+
+        long replayed = 0L;
+        if(log != null) {
+            writeLock.lock();
+            try {
+                replayed = log.replay(transaction -> parked.accept(transaction, this::contains, this::insert));
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        this.log = log;
+
+        recovery = new RecoveryStatus(0L, replayed, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        if(idleMillis > 0) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "tiered-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(100L, idleMillis / 4);
+            sweeper.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            sweeper = null;
+        }
+    }
+
+
+
+    @Override
+    public PutResult putTransaction(Transaction transaction, Durability durability) {
+
+        PutResult result;
+        long position = -1L;
+
+        writeLock.lock();
+        try {
+            result = parked.accept(transaction, this::contains, this::insert);
+            if(log != null && result != PutResult.DUPLICATE)
+                position = log.write(transaction);
+        } finally {
+            writeLock.unlock();
+        }
+
+        if(position >= 0L)
+            log.await(position, durability);
+
+        return result;
+    }
+
+
+    @Override
+    public List<PutResult> putTransactions(Iterator<Transaction> batch, Durability durability) {
+
+        if(batch == null)
+            throw new IllegalArgumentException("Batch must not point at NULL");
+
+        List<PutResult> results = new ArrayList<>();
+        long position = -1L;
+
+        writeLock.lock();
+        try {
+            while(batch.hasNext()) {
+                Transaction transaction = batch.next();
+                PutResult result = parked.accept(transaction, this::contains, this::insert);
+                if(log != null && result != PutResult.DUPLICATE)
+                    position = log.write(transaction);
+                results.add(result);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+
+        if(position >= 0L)
+            log.await(position, durability);
+
+        return results;
+    }
+
+
+    /**
+     * Appends a row to the tree of its parent, or starts a new tree with a root, and adds its amount to the sums
+     * of its ancestors. Called with the write lock held, for a transaction whose parent is stored.
+     */
+    private void insert(Transaction transaction) {
+
+        long parent_id = transaction.getParent_id();
+        double amount = transaction.getAmount();
+
+        Tree tree;
+        int parent;
+        if(parent_id == 0L) {
+            tree = new Tree(trees.size(), 4);
+            trees.add(tree);
+            if(trees.size() > evictedSizes.length) {
+                evictedSizes = Arrays.copyOf(evictedSizes, evictedSizes.length * 2);
+                evictedSegments = Arrays.copyOf(evictedSegments, evictedSizes.length);
+                evictedPositions = Arrays.copyOf(evictedPositions, evictedSizes.length);
+            }
+            enter(tree);
+            parent = -1;
+        } else {
+            long at = find(parent_id);
+            tree = residentFor((int) (at >>> 32));
+            parent = (int) at;
+        }
+
+        int row = tree.size;
+        if(row == tree.ids.length)
+            tree.allocate(row * 2);
+
+        tree.ids[row] = transaction.getTransaction_id();
+        tree.amounts[row] = amount;
+        tree.sums[row] = amount;
+        tree.typeCodes[row] = types.intern(transaction.getType());
+        tree.parents[row] = parent + 1;
+        link(tree, row);
+
+        for(int ancestor = parent; ancestor >= 0; ancestor = tree.parents[ancestor] - 1)
+            tree.sums[ancestor] += amount;
+
+        tree.size++;
+        tree.dirty = true;
+        resident++;
+        size++;
+        index(transaction.getTransaction_id(), (long) tree.number << 32 | row);
+        typeIndex.add(transaction.getType(), transaction.getTransaction_id(), amount);
+
+        touch(tree);
+        evict(tree);
+    }
+
+
+    /**
+     * Sets the depth, the jump link and the sibling link of a row, whose parent is set, as TransactionTable does
+     */
+    private static void link(Tree tree, int row) {
+
+        int parent = tree.parents[row] - 1;
+        if(parent < 0) {
+            tree.depths[row] = 0;
+            tree.jumps[row] = row + 1;
+            tree.nextSibling[row] = 0;
+            return;
+        }
+
+        int jump = tree.jumps[parent] - 1;
+        int jumpOfJump = tree.jumps[jump] - 1;
+        boolean skip = tree.depths[parent] - tree.depths[jump] == tree.depths[jump] - tree.depths[jumpOfJump];
+
+        tree.depths[row] = tree.depths[parent] + 1;
+        tree.jumps[row] = (skip ? jumpOfJump : parent) + 1;
+        tree.nextSibling[row] = tree.firstChild[parent];
+        tree.firstChild[parent] = row + 1;
+    }
+
+
+    @Override
+    public Durability getDurability() {
+        return durability;
+    }
+
+
+    @Override
+    public RecoveryStatus getRecoveryStatus() {
+        return recovery;
+    }
+
+
+    /**
+     * Returns the number of transactions of the resident trees
+     * @return the number of transactions on the heap
+     */
+    public long getResidentTransactions() {
+
+        readLock.lock();
+        try {
+            return resident;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+
+    /**
+     * Returns the total size of the segment files
+     * @return the number of bytes
+     */
+    public long getSegmentBytes() {
+
+        readLock.lock();
+        try {
+            long bytes = 0L;
+            for(Segment segment : segments)
+                bytes += segment.size;
+            return bytes;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+
+
+    /*
+     * Residence of the trees
+     */
+
+    /**
+     * Reads the row of a transaction, and reads its tree back first if it is evicted
+     * @return the value of the reader, or absent if the transaction is not stored
+     */
+    private <T> T read(long id, T absent, RowReader<T> reader) {
+
+        readLock.lock();
+        try {
+            long at = find(id);
+            if(at < 0L)
+                return absent;
+
+            Tree tree = trees.get((int) (at >>> 32));
+            if(tree != null) {
+                touch(tree);
+                return reader.read(tree, (int) at);
+            }
+        } finally {
+            readLock.unlock();
+        }
+
+        writeLock.lock();
+        try {
+            // a stored transaction is never removed, only its tree may have been read back in the meantime
+            long at = find(id);
+            Tree tree = residentFor((int) (at >>> 32));
+            touch(tree);
+            T value = reader.read(tree, (int) at);
+            evict(tree);
+            return value;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+
+    private static void touch(Tree tree) {
+        tree.referenced = true;
+        tree.touched = System.nanoTime();
+    }
+
+
+    /**
+     * Returns a resident tree, and reads it back from its segment if it is evicted. Called with the write lock held
+     */
+    private Tree residentFor(int number) {
+
+        Tree tree = trees.get(number);
+        if(tree != null)
+            return tree;
+
+        long start = TransactionMetrics.start();
+        int rows = evictedSizes[number];
+        tree = new Tree(number, Math.max(4, rows));
+        tree.size = rows;
+        tree.segment = evictedSegments[number];
+        tree.position = evictedPositions[number];
+
+        ByteBuffer buffer = ByteBuffer.allocate(Math.min(rows, BUFFER_ROWS) * ROW_BYTES);
+        long position = tree.position;
+
+        try {
+            for(int row = 0; row < rows; ) {
+                int n = Math.min(rows - row, BUFFER_ROWS);
+                buffer.clear().limit(n * ROW_BYTES);
+                while(buffer.hasRemaining()) {
+                    if(tree.segment.channel.read(buffer, position + buffer.position()) < 0)
+                        throw new IOException("segment " + tree.segment.path + " ends within a tree");
+                }
+                buffer.flip();
+                position += n * ROW_BYTES;
+
+                for(int end = row + n; row < end; row++) {
+                    tree.ids[row] = buffer.getLong();
+                    tree.parents[row] = buffer.getInt();
+                    tree.amounts[row] = buffer.getDouble();
+                    tree.typeCodes[row] = buffer.getInt();
+                    tree.sums[row] = tree.amounts[row];
+                    link(tree, row);
+                }
+            }
+        } catch(IOException e) {
+            throw new UncheckedIOException("can not read a tree from its segment", e);
+        }
+
+        // the parents come before their children
+        for(int row = rows - 1; row > 0; row--)
+            tree.sums[tree.parents[row] - 1] += tree.sums[row];
+
+        tree.dirty = false;
+        resident += rows;
+        trees.set(number, tree);
+        evictedSegments[number] = null;
+        enter(tree);
+
+        TransactionMetrics.stop(Metric.TIERED_FAULT_IN, start);
+        return tree;
+    }
+
+
+    private void enter(Tree tree) {
+        tree.slot = clock.size();
+        clock.add(tree);
+    }
+
+
+    /**
+     * Evicts trees chosen by the clock, until the resident transactions do not exceed the limit.
+     * Called with the write lock held.
+     * @param keep the tree, which is used by the caller and is not evicted
+     */
+    private void evict(Tree keep) {
+
+        // two rounds clear every reference bit, so an unreferenced tree is found, unless keep is the only one
+        for(int passed = 0; resident > maxResident && passed <= 2 * clock.size(); passed++) {
+
+            if(hand >= clock.size())
+                hand = 0;
+
+            Tree tree = clock.get(hand);
+            if(tree == keep || tree.referenced) {
+                tree.referenced = false;
+                hand++;
+            } else {
+                spill(tree);
+            }
+        }
+    }
+
+
+    /**
+     * Evicts the trees, which were not accessed for idleMillis
+     */
+    private void evictIdle() {
+
+        writeLock.lock();
+        try {
+            long idle = System.nanoTime() - idleNanos;
+            for(int slot = clock.size() - 1; slot >= 0; slot--) {
+                Tree tree = clock.get(slot);
+                if(tree.touched - idle < 0L)
+                    spill(tree);
+            }
+        } catch(UncheckedIOException e) {
+            // the trees stay resident, the next sweep tries again
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+
+    /**
+     * Writes a tree to the current segment, unless it is unchanged since it was written, and keeps only its size,
+     * segment and position. Called with the write lock held.
+     */
+    private void spill(Tree tree) {
+
+        if(tree.dirty || tree.segment == null)
+            write(tree);
+
+        Tree last = clock.remove(clock.size() - 1);
+        if(last != tree) {
+            clock.set(tree.slot, last);
+            last.slot = tree.slot;
+        }
+        tree.slot = -1;
+
+        resident -= tree.size;
+        evictedSizes[tree.number] = tree.size;
+        evictedSegments[tree.number] = tree.segment;
+        evictedPositions[tree.number] = tree.position;
+        trees.set(tree.number, null);
+
+        TransactionMetrics.record(Metric.TIERED_EVICTED, tree.size);
+    }
+
+
+    private void write(Tree tree) {
+
+        try {
+            if(current == null || current.size >= SEGMENT_BYTES) {
+                Segment full = current;
+                current = new Segment(directory.resolve(SEGMENT_PREFIX + System.nanoTime() + SEGMENT_SUFFIX));
+                segments.add(current);
+                if(full != null && full.live == 0)
+                    delete(full);
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(Math.min(tree.size, BUFFER_ROWS) * ROW_BYTES);
+            long position = current.size;
+
+            for(int row = 0; row < tree.size; ) {
+                buffer.clear();
+                for(int end = Math.min(tree.size, row + BUFFER_ROWS); row < end; row++)
+                    buffer.putLong(tree.ids[row]).putInt(tree.parents[row]).putDouble(tree.amounts[row])
+                            .putInt(tree.typeCodes[row]);
+                buffer.flip();
+                while(buffer.hasRemaining())
+                    position += current.channel.write(buffer, position);
+            }
+
+            release(tree.segment);
+            tree.segment = current;
+            tree.position = current.size;
+            tree.dirty = false;
+            current.size = position;
+            current.live++;
+        } catch(IOException e) {
+            throw new UncheckedIOException("can not write a tree to a segment", e);
+        }
+    }
+
+
+    /**
+     * Deletes a segment, when the last tree written to it was written again somewhere else
+     */
+    private void release(Segment segment) throws IOException {
+
+        if(segment != null && --segment.live == 0 && segment != current)
+            delete(segment);
+    }
+
+
+    private void delete(Segment segment) throws IOException {
+        segments.remove(segment);
+        segment.channel.close();
+        Files.delete(segment.path);
+    }
+
+
+
+    @Override
+    public Transaction getTransaction(long id) {
+        return read(id, null, this::transactionAt);
+    }
+
+
+    private Transaction transactionAt(Tree tree, int row) {
+
+        Set<Long> child_ids = null;
+        for(int child = tree.firstChild[row] - 1; child >= 0; child = tree.nextSibling[child] - 1) {
+            if(child_ids == null)
+                child_ids = new HashSet<>();
+            child_ids.add(tree.ids[child]);
+        }
+
+        int parent = tree.parents[row] - 1;
+
+        return new Transaction(tree.ids[row], tree.amounts[row], types.type(tree.typeCodes[row]),
+                parent < 0 ? 0L : tree.ids[parent], child_ids);
+    }
+
+
+    /**
+     * Returns the first child row + 1, as children are linked in front of the older ones
+     */
+    @Override
+    public long getChildVersion(long id) {
+        return read(id, -1L, (tree, row) -> (long) tree.firstChild[row]);
+    }
+
+
+    @Override
+    public boolean containsTransaction(long id) {
+
+        readLock.lock();
+        try {
+            return contains(id);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+
+    @Override
+    public Set<Long> getParkedParents() {
+        return parked.parents();
+    }
+
+
+    @Override
+    public List<Transaction> takeParkedChildren(long parent_id) {
+        return parked.take(parent_id);
+    }
+
+
+    @Override
+    public long[] getTransactionsByType(String type, long after, int limit) {
+
+        if(type == null)
+            throw new IllegalArgumentException("Transaction type must not point at NULL");
+
+        if(limit < 0)
+            throw new IllegalArgumentException("limit can not be a negative number");
+
+        return typeIndex.page(type, after, limit);
+    }
+
+
+    @Override
+    public long countTransactionsByType(String type) {
+
+        if(type == null)
+            throw new IllegalArgumentException("Transaction type must not point at NULL");
+
+        return typeIndex.count(type);
+    }
+
+
+    @Override
+    public TypeStats getTypeStats(String type) {
+
+        if(type == null)
+            throw new IllegalArgumentException("Transaction type must not point at NULL");
+
+        return typeIndex.stats(type);
+    }
+
+
+    @Override
+    public TransactionSum getSumTransactions(Long id, TransactionSum sum) {
+
+        Double subtree = read(id, null, (tree, row) -> tree.sums[row]);
+        if(subtree != null)
+            sum.addSum(subtree);
+
+        return sum;
+    }
+
+
+    /**
+     * Walks the rows with the first child, next sibling and parent links as TransactionTable does. Each step reads
+     * the tree back, if it was evicted since the last step, so a long walk does not keep it on the heap.
+     */
+    @Override
+    public boolean walkDescendants(long id, int maxDepth, Collection<String> types, Predicate<Transaction> visitor) {
+
+        if(maxDepth < 0)
+            throw new IllegalArgumentException("maxDepth must not be negative");
+
+        if(visitor == null)
+            throw new IllegalArgumentException("visitor must not point at NULL");
+
+        if(!containsTransaction(id))
+            return true;
+
+        // the row of the start and the depth of the step
+        int[] walk = {-1, 0};
+        long[] next = {id};
+
+        while(next[0] != 0L) {
+
+            Transaction transaction = read(next[0], null, (tree, row) -> {
+                if(walk[0] < 0)
+                    walk[0] = row;
+                boolean visit = types == null || types.contains(this.types.type(tree.typeCodes[row]));
+                next[0] = next(tree, row, walk, maxDepth);
+                return visit ? transactionAt(tree, row) : null;
+            });
+
+            if(transaction != null && !visitor.test(transaction))
+                return false;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Returns the unique ID of the next row of a walk, 0 at its end, and updates the depth
+     */
+    private static long next(Tree tree, int row, int[] walk, int maxDepth) {
+
+        int root = walk[0];
+        int child = walk[1] < maxDepth ? tree.firstChild[row] - 1 : -1;
+        if(child >= 0) {
+            walk[1]++;
+            return tree.ids[child];
+        }
+
+        int sibling = -1;
+        while(row != root && (sibling = tree.nextSibling[row] - 1) < 0) {
+            row = tree.parents[row] - 1;
+            walk[1]--;
+        }
+
+        return row == root ? 0L : tree.ids[sibling];
+    }
+
+
+    @Override
+    public TransactionAncestor getDepth(long id) {
+        return read(id, TransactionAncestor.none(), (tree, row) -> new TransactionAncestor(id, tree.depths[row]));
+    }
+
+
+    @Override
+    public TransactionAncestor getAncestor(long id, int depth) {
+
+        return read(id, TransactionAncestor.none(), (tree, row) -> depth < 0 || depth > tree.depths[row]
+                ? TransactionAncestor.none() : new TransactionAncestor(tree.ids[ancestorRow(tree, row, depth)], depth));
+    }
+
+
+    @Override
+    public TransactionAncestor getLowestCommonAncestor(long a, long b) {
+
+        long atB;
+        readLock.lock();
+        try {
+            long atA = find(a);
+            atB = find(b);
+            if(atA < 0L || atB < 0L || atA >>> 32 != atB >>> 32)
+                return TransactionAncestor.none();
+        } finally {
+            readLock.unlock();
+        }
+
+        int rowB = (int) atB;
+
+        return read(a, TransactionAncestor.none(), (tree, rowA) -> {
+
+            int depth = Math.min(tree.depths[rowA], tree.depths[rowB]);
+            int x = ancestorRow(tree, rowA, depth);
+            int y = ancestorRow(tree, rowB, depth);
+
+            while(x != y) {
+                int jumpX = tree.jumps[x] - 1;
+                int jumpY = tree.jumps[y] - 1;
+
+                if(jumpX != jumpY) {
+                    x = jumpX;
+                    y = jumpY;
+                } else {
+                    x = tree.parents[x] - 1;
+                    y = tree.parents[y] - 1;
+                }
+            }
+
+            return new TransactionAncestor(tree.ids[x], tree.depths[x]);
+        });
+    }
+
+
+    private static int ancestorRow(Tree tree, int row, int depth) {
+
+        while(tree.depths[row] > depth) {
+            int jump = tree.jumps[row] - 1;
+            row = tree.depths[jump] >= depth ? jump : tree.parents[row] - 1;
+        }
+
+        return row;
+    }
+
+
+    /**
+     * Stops the sweep, deletes the segment files and closes the log
+     */
+    @Override
+    public void close() {
+
+        if(sweeper != null)
+            sweeper.shutdownNow();
+
+        writeLock.lock();
+        try {
+            for(Segment segment : segments) {
+                segment.channel.close();
+                Files.deleteIfExists(segment.path);
+            }
+            segments.clear();
+            current = null;
+        } catch(IOException e) {
+            throw new UncheckedIOException("can not delete the segment files", e);
+        } finally {
+            writeLock.unlock();
+        }
+
+        if(log != null)
+            log.close();
+    }
+
+
+
+    /*
+     * The index, called with a lock held
+     */
+
+    private boolean contains(long id) {
+        return find(id) >= 0L;
+    }
+
+
+    private long find(long id) {
+
+        int mask = keys.length - 1;
+        for(int slot = hash(id) & mask; slots[slot] >= 0L; slot = (slot + 1) & mask)
+            if(keys[slot] == id)
+                return slots[slot];
+
+        return -1L;
+    }
+
+
+    private void index(long id, long at) {
+
+        if(size * 10L > keys.length * 6L) {
+            long[] oldKeys = keys;
+            long[] oldSlots = slots;
+            keys = new long[oldKeys.length * 2];
+            slots = newSlots(oldSlots.length * 2);
+            for(int i = 0; i < oldKeys.length; i++)
+                if(oldSlots[i] >= 0L)
+                    put(oldKeys[i], oldSlots[i]);
+        }
+
+        put(id, at);
+    }
+
+
+    private void put(long id, long at) {
+
+        int mask = keys.length - 1;
+        int slot = hash(id) & mask;
+        while(slots[slot] >= 0L)
+            slot = (slot + 1) & mask;
+
+        keys[slot] = id;
+        slots[slot] = at;
+    }
+
+
+    private static long[] newSlots(int length) {
+        long[] slots = new long[length];
+        Arrays.fill(slots, -1L);
+        return slots;
+    }
+
+
+    private static int hash(long id) {
+        return (int) (id ^ id >>> 32) * 0x9E3779B9;
+    }
+
+}
@@ -81,6 +81,24 @@ public class Transaction {
     }
 
 
+    /**
+     * Creates an object of this class from a transaction, which was already validated and stored,
+     * including the unique IDs of its children. Used by the storage to rebuild a stored transaction.
+     * @param transaction_id - the unique ID of this transaction
+     * @param amount - the amount of this transaction
+     * @param type - type of this transaction
+     * @param parent_id - reference to the unique ID of a parent transaction, or 0
+     * @param child_ids - the unique IDs of the children transactions, or null if there isn't any
+     */
+    Transaction(long transaction_id, double amount, String type, long parent_id, Set<Long> child_ids) {
+        this.transaction_id = transaction_id;
+        this.amount = amount;
+        this.type = type;
+        this.parent_id = parent_id;
+        this.child_ids = child_ids;
+    }
+
+
     /**
      * Returns the unique ID of this transaction
      * @return ID of this transaction
@@ -128,10 +146,10 @@ public class Transaction {
 
     /**
      * Sets the child_id property, which is a reference to the unique id of one of the children transactions
-     * of this transaction
+     * of this transaction. Synchronized, so children can be added from several threads.
      * @param child_id - the unique ID of the child transaction
      */
-    public void setChild_id(long child_id) {
+    public synchronized void setChild_id(long child_id) {
         if(child_ids == null)
             child_ids = new HashSet<>();
 
@@ -0,0 +1,79 @@
+package com.shachor.restfull26.transactionservice;
+
+/**
+ * Class TransactionAncestor serves as an container to hold a transaction found in the ancestors of other transactions,
+ * e.g. their root or their lowest common ancestor, together with its depth in its tree
+ * Object of this class is sent with the HTTP response to notify the client
+ * @author  Roi Shachor on 09.01.16.
+ */
+public class TransactionAncestor {
+
+    /**represents the unique ID of the found transaction, 0 if there is none*/
+    private long transaction_id;
+
+    /**represents the depth of the found transaction in its tree, 0 for a root, -1 if there is none*/
+    private int depth;
+
+
+    /**
+     * default constructor, used by Jackson library to create JSON objects
+     */
+    public TransactionAncestor() {}
+
+
+    /**
+     * Creates a TransactionAncestor object
+     * @param transaction_id the unique ID of the found transaction, 0 if there is none
+     * @param depth the depth of the found transaction, -1 if there is none
+     */
+    public TransactionAncestor(long transaction_id, int depth) {
+        this.transaction_id = transaction_id;
+        this.depth = depth;
+    }
+
+
+    /**
+     * Creates a TransactionAncestor object, which tells that there is no such transaction
+     * @return the object
+     */
+    public static TransactionAncestor none() {
+        return new TransactionAncestor(0L, -1);
+    }
+
+
+    /**
+     * Returns the unique ID of the found transaction
+     * @return the unique ID, 0 if there is none
+     */
+    public long getTransaction_id() {
+        return transaction_id;
+    }
+
+
+    /**
+     * Sets the unique ID of the found transaction
+     * @param transaction_id the unique ID
+     */
+    public void setTransaction_id(long transaction_id) {
+        this.transaction_id = transaction_id;
+    }
+
+
+    /**
+     * Returns the depth of the found transaction in its tree
+     * @return the depth, 0 for a root, -1 if there is none
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+
+    /**
+     * Sets the depth of the found transaction in its tree
+     * @param depth the depth
+     */
+    public void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+}
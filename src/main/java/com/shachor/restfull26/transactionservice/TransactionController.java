@@ -1,20 +1,83 @@
 package com.shachor.restfull26.transactionservice;
 
-
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import java.util.Set;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Class TransactionController handles REST request and generate responses.
  * The Method of this class are not being called directly by the client class,
  * but this is handled by the spring framework according to the @RequestMapping annotation
+ *
+ * Point lookups are answered on the worker thread of the request. Pages of a type and batches return
+ * a CompletableFuture and are computed on a ComputeExecutor, so they can never occupy all worker threads.
+ * Their request bodies are parsed and their responses are serialized on the ComputeExecutor as well,
+ * as this is the bigger part of their work.
+ *
+ * Transactions, sums and statuses are read and written by the TransactionJsonCodec, in the bodies handled here
+ * as well as in the bodies handled by Spring (see TransactionHttpMessageConverter).
+ *
+ * If the service runs in a cluster, the requests are answered by the ClusterNode: transactions are stored and sums
+ * are read on the node of their tree, and types are asked from all nodes. The nodes send each other the same
+ * requests with the parameter local=true, which answers them from the storage of this node only. It is followed
+ * only for a request from the address of a node, so a client can not read past the cluster with it.
+ *
+ * The AdmissionControl limits the requests in flight per budget: PUTs, point reads, aggregations and streams.
+ * A request above the limit of its budget is answered at once with HTTP 429 Too Many Requests and a Retry-After header.
+ * Every node admits the requests it answers, also those which another node of a cluster forwards to it.
  * @author  Roi Shachor on 09.01.16.
  */
 @RestController
 public class TransactionController {
 
+    /**The maximal number of IDs in one page of /transactionservice/types/{type}*/
+    public static final int MAX_PAGE_SIZE = Integer.getInteger("transactionservice.types.maxPageSize", 10000);
+
+    /**The attribute of a request, which holds its AdmissionBudget*/
+    private static final String BUDGET = TransactionController.class.getName() + ".budget";
+
+    /**The media type of a body with one JSON object per line*/
+    public static final String NDJSON_VALUE = "application/x-ndjson";
+
+    /**Writes the bodies, which are handled on the ComputeExecutor and not written by the TransactionJsonCodec*/
+    private final ObjectMapper mapper = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
     /**Reference to an Object, where the transactions are stored*/
-    private TransactionDBMockSingleton db = TransactionDBMockSingleton.getInstance();
+    private TransactionRepository db = TransactionRepositories.getInstance();
+
+    /**Runs the expensive requests, so they do not hold the worker threads of the server*/
+    private ComputeExecutor compute = ComputeExecutor.fromSystemProperties();
+
+    /**The node of the cluster, or null if the service does not run in a cluster*/
+    private ClusterNode cluster = ClusterNode.fromSystemProperties();
+
+    /**The serialized transactions of the GET requests*/
+    private TransactionJsonCache responses = TransactionJsonCache.fromSystemProperties();
+
+    /**Limits the requests in flight, one budget for PUTs, point reads, aggregations and streams*/
+    private AdmissionControl admission = AdmissionControl.getInstance();
 
 
     /**
@@ -24,49 +87,347 @@ public class TransactionController {
      *
      * @param transaction_id the unique id of the transaction
      * @param transaction An object of the class Transaction
+     * @param durability optional, ASYNC, GROUP or SYNC if the storage writes a log. The configured one if omitted
+     * @param local true to store the transaction on this node of a cluster
      * @return An object of the class TransactionStatus containing a short status message
      */
     @RequestMapping(path = "/transactionservice/transaction/{transaction_id}", method = RequestMethod.PUT)
     public TransactionStatus putTransaction (@PathVariable("transaction_id") Integer transaction_id,
-                                             @RequestBody Transaction transaction) {
+                                             @RequestBody Transaction transaction,
+                                             @RequestParam(value = "durability", required = false)
+                                                     Durability durability,
+                                             @RequestParam(value = "local", defaultValue = "false") boolean local) {
+
+        long admitted = admit(AdmissionBudget.PUT);
+        long start = TransactionMetrics.start();
+        try {
+            if(transaction.getTransaction_id() != transaction_id)
+                return new TransactionStatus("error");
+
+            if(clustered(local))
+                return cluster.putTransactions(Collections.singletonList(transaction),
+                        durability == null ? db.getDurability() : durability).get(0);
+
+            if(durability == null)
+                return new TransactionStatus(db.putTransaction(transaction).getStatus());
+
+            return new TransactionStatus(db.putTransaction(transaction, durability).getStatus());
+        } finally {
+            admission.release(AdmissionBudget.PUT, admitted);
+            TransactionMetrics.stop(Metric.HTTP_PUT, start);
+        }
+    }
+
+
+
+    /**
+     * Stores a batch of transactions, which was sent with an HTTP POST request as JSON array.
+     * The transactions do not have to be ordered: a transaction, whose parent transaction is not stored yet,
+     * is parked until the parent arrives, in the same batch or in a later one.
+     *
+     * The body is parsed and the batch is stored on the ComputeExecutor.
+     *
+     * @param body the request body
+     * @param durability optional, ASYNC, GROUP or SYNC if the storage writes a log. The configured one if omitted
+     * @param local true to store the transactions on this node of a cluster
+     * @return one TransactionStatus per transaction, in the order of the batch
+     */
+    @RequestMapping(path = "/transactionservice/transactions", method = RequestMethod.POST,
+                    consumes = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<ResponseEntity<byte[]>> putTransactions(InputStream body,
+                                                                     @RequestParam(value = "durability",
+                                                                             required = false)
+                                                                             Durability durability,
+                                                                     @RequestParam(value = "local",
+                                                                             defaultValue = "false")
+                                                                             boolean local) {
+
+        long admitted = admit(AdmissionBudget.PUT);
+        long start = TransactionMetrics.start();
+        boolean clustered = clustered(local);
+
+        return released(measured(compute.supply(() -> {
+            try {
+                List<Transaction> batch = TransactionJsonCodec.get().readTransactions(body);
+                Durability requested = durability == null ? db.getDurability() : durability;
+
+                if(clustered)
+                    return json(cluster.putTransactions(batch, requested));
+
+                return json(toStatuses(db.putTransactions(batch.iterator(), requested)));
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }), Metric.HTTP_PUT_BATCH, start), AdmissionBudget.PUT, admitted);
+    }
+
+
+
+    /**
+     * Stores a batch of transactions as the method above, but the batch is sent as NDJSON:
+     * one JSON object per line, which are parsed one by one while the request body is read.
+     * The whole batch is parsed before any transaction of it is stored, so a malformed line is answered
+     * with HTTP 400 Bad Request and nothing of the batch is stored.
+     *
+     * @param body the request body
+     * @param durability optional, ASYNC, GROUP or SYNC if the storage writes a log. The configured one if omitted
+     * @param local true to store the transactions on this node of a cluster
+     * @return one TransactionStatus per transaction, in the order of the batch
+     */
+    @RequestMapping(path = "/transactionservice/transactions", method = RequestMethod.POST,
+                    consumes = NDJSON_VALUE)
+    public CompletableFuture<ResponseEntity<byte[]>> putTransactionsNdjson(InputStream body,
+                                                                           @RequestParam(value = "durability",
+                                                                                   required = false)
+                                                                                   Durability durability,
+                                                                           @RequestParam(value = "local",
+                                                                                   defaultValue = "false")
+                                                                                   boolean local) {
+
+        long admitted = admit(AdmissionBudget.PUT);
+        long start = TransactionMetrics.start();
+        boolean clustered = clustered(local);
+
+        return released(measured(compute.supply(() -> {
+            List<Transaction> batch = new ArrayList<>();
+            TransactionJsonCodec.readLines(body).forEachRemaining(batch::add);
+            Durability requested = durability == null ? db.getDurability() : durability;
 
-        if(transaction.getTransaction_id() != transaction_id)
-            return new TransactionStatus("error");
+            if(clustered)
+                return json(cluster.putTransactions(batch, requested));
 
-        if(db.putTransaction(transaction))
-            return new TransactionStatus("ok");
+            return json(toStatuses(db.putTransactions(batch.iterator(), requested)));
+        }), Metric.HTTP_PUT_BATCH, start), AdmissionBudget.PUT, admitted);
+    }
+
+
+    /**
+     * Records the latency of a request, which is answered by a future, when the future is completed
+     */
+    private static <T> CompletableFuture<T> measured(CompletableFuture<T> future, Metric metric, long start) {
 
+        future.whenComplete((result, failure) -> TransactionMetrics.stop(metric, start));
 
-        return new TransactionStatus("error - transaction already exists in the storage");
+        return future;
+    }
+
+
+    /**
+     * Admits a request with the AdmissionControl and keeps its budget in the request, so a rejection
+     * of its work is answered with the Retry-After of the budget. Called on the thread of the request
+     * @return the value to pass to AdmissionControl.release()
+     */
+    private long admit(AdmissionBudget budget) {
+
+        RequestContextHolder.currentRequestAttributes().setAttribute(BUDGET, budget, RequestAttributes.SCOPE_REQUEST);
+
+        return admission.acquire(budget);
+    }
+
+
+    /**
+     * Returns true if a request is answered by the ClusterNode: in a cluster, unless it asks for the storage of
+     * this node only with local=true, which is only followed for a request from another node of the cluster.
+     * Called on the thread of the request
+     */
+    private boolean clustered(boolean local) {
+
+        if(cluster == null)
+            return false;
+
+        HttpServletRequest request = ((ServletRequestAttributes) RequestContextHolder.currentRequestAttributes())
+                .getRequest();
+
+        return !local || !cluster.isPeer(request.getRemoteAddr());
+    }
+
+
+    /**
+     * Releases an admitted request, which is answered by a future, when the future is completed.
+     * Work, which the ComputeExecutor could not accept, cuts the limit of the budget
+     */
+    private <T> CompletableFuture<T> released(CompletableFuture<T> future, AdmissionBudget budget, long admitted) {
+
+        future.whenComplete((result, failure) ->
+                admission.release(budget, admitted, failure instanceof RejectedExecutionException));
+
+        return future;
+    }
+
+
+    /**
+     * Serializes a response body as JSON, so it is written on the thread which computed it
+     */
+    private ResponseEntity<byte[]> json(Object body) {
+
+        if(TransactionJsonCodec.canWrite(body.getClass()))
+            return json(TransactionJsonCodec.get().write(body).toByteArray());
+
+        try {
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(mapper.writeValueAsBytes(body));
+        } catch(JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    private ResponseEntity<byte[]> json(List<TransactionStatus> statuses) {
+        return json(TransactionJsonCodec.get().write(statuses).toByteArray());
+    }
+
+
+    private static ResponseEntity<byte[]> json(byte[] body) {
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+
+    private static List<TransactionStatus> toStatuses(List<PutResult> results) {
+
+        List<TransactionStatus> statuses = new ArrayList<>(results.size());
+
+        for(PutResult result : results)
+            statuses.add(new TransactionStatus(result.getStatus()));
+
+        return statuses;
     }
 
 
 
     /**
      * Returns one transaction according to it's unique ID, which was sent with an HTTP GET request
-     * If the transaction does not exists, the method returns pointer to null
+     * If the transaction does not exists, the response body is empty
+     *
+     * The JSON of a stored transaction is kept in a TransactionJsonCache, and is sent again as long as no child
+     * was added to the transaction. Transactions of other nodes of a cluster are not cached.
      * @param transaction_id the unique id of the transaction
-     * @return an object of the class Transaction
+     * @param local true to read the transaction only from this node of a cluster
+     * @return the JSON of an object of the class Transaction
      */
     @RequestMapping(path = "/transactionservice/transaction/{transaction_id}",method = RequestMethod.GET)
-    @ResponseBody
-    public Transaction getTransaction (@PathVariable ("transaction_id") Long transaction_id) {
-        return  db.getTransaction(transaction_id);
+    public ResponseEntity<byte[]> getTransaction (@PathVariable ("transaction_id") Long transaction_id,
+                                                  @RequestParam(value = "local", defaultValue = "false") boolean local) {
+
+        long admitted = admit(AdmissionBudget.READ);
+        long start = TransactionMetrics.start();
+        try {
+            if(clustered(local)) {
+                Transaction transaction = cluster.getTransaction(transaction_id);
+                return transaction == null ? new ResponseEntity<byte[]>(HttpStatus.OK) : json(transaction);
+            }
+
+            // the version is read first: a child added meanwhile makes the entry stale, never a stale entry current
+            long version = db.getChildVersion(transaction_id);
+            if(version < 0)
+                return new ResponseEntity<>(HttpStatus.OK);
+
+            byte[] cached = responses.get(transaction_id, version);
+            if(cached != null)
+                return json(cached);
+
+            Transaction transaction = db.getTransaction(transaction_id);
+            if(transaction == null)
+                return new ResponseEntity<>(HttpStatus.OK);
+
+            ResponseEntity<byte[]> response = json(transaction);
+            responses.put(transaction_id, version, response.getBody());
+
+            return response;
+        } finally {
+            admission.release(AdmissionBudget.READ, admitted);
+            TransactionMetrics.stop(Metric.HTTP_GET, start);
+        }
     }
 
 
 
 
     /**
-     * Returns a Set with the unique ID of all transactions of one type.
+     * Returns the unique ID of all transactions of one type in ascending order, one page at a time.
+     * A page holds at most the given limit of IDs, and never more than MAX_PAGE_SIZE, the next page
+     * is requested with the last ID of the previous page as cursor.
      * @param type the type of the transactions
-     * @return Set with unique IDs
+     * @param after the cursor, only IDs bigger than this value are returned. Starts with the smallest ID if omitted
+     * @param limit the maximal number of IDs in the page, MAX_PAGE_SIZE if omitted
+     * @param local true to read the IDs only from this node of a cluster
+     * @return JSON array with unique IDs, read and serialized on the ComputeExecutor
      */
     @RequestMapping(path = "/transactionservice/types/{type}", method = RequestMethod.GET)
     @ResponseBody
-    public Set<Long> getTransactionsByType(@PathVariable ("type") String type) {
+    public CompletableFuture<ResponseEntity<byte[]>> getTransactionsByType(@PathVariable ("type") String type,
+                                                                           @RequestParam(value = "after",
+                                                                                   defaultValue = "0") long after,
+                                                                           @RequestParam(value = "limit",
+                                                                                   required = false) Integer limit,
+                                                                           @RequestParam(value = "local",
+                                                                                   defaultValue = "false")
+                                                                                   boolean local) {
+
+        if(after < 0 || limit != null && limit < 0)
+            throw new IllegalArgumentException("after and limit can not be negative numbers");
 
-        return db.getTransactionsByType(type);
+        long admitted = admit(AdmissionBudget.AGGREGATE);
+        long start = TransactionMetrics.start();
+        int size = limit == null ? MAX_PAGE_SIZE : Math.min(limit, MAX_PAGE_SIZE);
+        boolean clustered = clustered(local);
+
+        return released(measured(compute.supply(() -> json(clustered
+                ? cluster.getTransactionsByType(type, after, size)
+                : db.getTransactionsByType(type, after, size))), Metric.HTTP_TYPES, start),
+                AdmissionBudget.AGGREGATE, admitted);
+    }
+
+
+
+    /**
+     * Returns the number of transactions of one type, without the IDs. Selected with the request parameter 'count'.
+     * @param type the type of the transactions
+     * @param local true to count only the transactions of this node of a cluster
+     * @return an object of the class TransactionCount
+     */
+    @RequestMapping(path = "/transactionservice/types/{type}", method = RequestMethod.GET, params = "count")
+    @ResponseBody
+    public TransactionCount countTransactionsByType(@PathVariable ("type") String type,
+                                                    @RequestParam(value = "local", defaultValue = "false")
+                                                            boolean local) {
+
+        long admitted = admit(AdmissionBudget.READ);
+        long start = TransactionMetrics.start();
+        try {
+            if(clustered(local))
+                return new TransactionCount(cluster.countTransactionsByType(type));
+
+            return new TransactionCount(db.countTransactionsByType(type));
+        } finally {
+            admission.release(AdmissionBudget.READ, admitted);
+            TransactionMetrics.stop(Metric.HTTP_TYPES_COUNT, start);
+        }
+    }
+
+
+
+    /**
+     * Returns the number, sum, minimum and maximum of the amounts of all transactions of one type.
+     * The aggregates are kept up to date when a transaction is stored, so no transaction is read.
+     * @param type the type of the transactions
+     * @param local true to read only the transactions of this node of a cluster
+     * @return an object of the class TypeStats
+     */
+    @RequestMapping(path = "/transactionservice/types/{type}/stats", method = RequestMethod.GET)
+    @ResponseBody
+    public TypeStats getTypeStats(@PathVariable ("type") String type,
+                                  @RequestParam(value = "local", defaultValue = "false") boolean local) {
+
+        long admitted = admit(AdmissionBudget.READ);
+        long start = TransactionMetrics.start();
+        try {
+            if(clustered(local))
+                return cluster.getTypeStats(type);
+
+            return db.getTypeStats(type);
+        } finally {
+            admission.release(AdmissionBudget.READ, admitted);
+            TransactionMetrics.stop(Metric.HTTP_TYPES_STATS, start);
+        }
     }
 
 
@@ -75,18 +436,355 @@ public class TransactionController {
      * Returns the sum of the transaction's amount. This transactions are all linked eventually to
      * one parent transaction, which is determined by it's unique ID as given as a parameter
      * @param transaction_id the ID of the root parent transaction
+     * @param local true to read the sum only from this node of a cluster
      * @return the sum of the transaction's amount
      */
     @RequestMapping(path = "/transactionservice/sum/{transaction_id}", method = RequestMethod.GET)
     @ResponseBody
-    public TransactionSum getSumTransactions(@PathVariable ("transaction_id") Long transaction_id) {
+    public TransactionSum getSumTransactions(@PathVariable ("transaction_id") Long transaction_id,
+                                             @RequestParam(value = "local", defaultValue = "false") boolean local) {
+
+        long admitted = admit(AdmissionBudget.AGGREGATE);
+        long start = TransactionMetrics.start();
+        try {
+            if(clustered(local))
+                return cluster.getSumTransactions(transaction_id);
+
+            TransactionSum sum = new TransactionSum(0);
+
+            db.getSumTransactions(transaction_id, sum);
+
+            return sum;
+        } finally {
+            admission.release(AdmissionBudget.AGGREGATE, admitted);
+            TransactionMetrics.stop(Metric.HTTP_SUM, start);
+        }
+    }
+
+
+
+    /**
+     * Returns the root of the tree of a transaction
+     * @param transaction_id the unique ID of the transaction
+     * @param local true to read only the storage of this node of a cluster
+     * @return an object of the class TransactionAncestor holding the root and depth 0,
+     *         or ID 0 and depth -1 if the transaction does not exist
+     */
+    @RequestMapping(path = "/transactionservice/root/{transaction_id}", method = RequestMethod.GET)
+    @ResponseBody
+    public TransactionAncestor getRoot(@PathVariable("transaction_id") Long transaction_id,
+                                       @RequestParam(value = "local", defaultValue = "false") boolean local) {
+
+        return getAncestor(transaction_id, 0, local);
+    }
+
+
+    /**
+     * Returns the depth of a transaction in its tree, the number of links up to its root
+     * @param transaction_id the unique ID of the transaction
+     * @param local true to read only the storage of this node of a cluster
+     * @return an object of the class TransactionAncestor holding the transaction and its depth,
+     *         or ID 0 and depth -1 if the transaction does not exist
+     */
+    @RequestMapping(path = "/transactionservice/depth/{transaction_id}", method = RequestMethod.GET)
+    @ResponseBody
+    public TransactionAncestor getDepth(@PathVariable("transaction_id") Long transaction_id,
+                                        @RequestParam(value = "local", defaultValue = "false") boolean local) {
+
+        long admitted = admit(AdmissionBudget.READ);
+        long start = TransactionMetrics.start();
+        try {
+            return clustered(local) ? cluster.getDepth(transaction_id) : db.getDepth(transaction_id);
+        } finally {
+            admission.release(AdmissionBudget.READ, admitted);
+            TransactionMetrics.stop(Metric.HTTP_ANCESTORS, start);
+        }
+    }
+
+
+    /**
+     * Returns the ancestor of a transaction at a depth of its tree
+     * @param transaction_id the unique ID of the transaction
+     * @param depth the depth of the ancestor, 0 for the root
+     * @param local true to read only the storage of this node of a cluster
+     * @return an object of the class TransactionAncestor holding the ancestor and its depth,
+     *         or ID 0 and depth -1 if the transaction does not exist or is not as deep
+     */
+    @RequestMapping(path = "/transactionservice/ancestor/{transaction_id}", method = RequestMethod.GET)
+    @ResponseBody
+    public TransactionAncestor getAncestor(@PathVariable("transaction_id") Long transaction_id,
+                                           @RequestParam(value = "depth") int depth,
+                                           @RequestParam(value = "local", defaultValue = "false") boolean local) {
+
+        long admitted = admit(AdmissionBudget.READ);
+        long start = TransactionMetrics.start();
+        try {
+            return clustered(local) ? cluster.getAncestor(transaction_id, depth)
+                    : db.getAncestor(transaction_id, depth);
+        } finally {
+            admission.release(AdmissionBudget.READ, admitted);
+            TransactionMetrics.stop(Metric.HTTP_ANCESTORS, start);
+        }
+    }
+
+
+    /**
+     * Returns the lowest common ancestor of two transactions: the deepest transaction, which is an ancestor of both,
+     * or one of them, if it is an ancestor of the other
+     * @param a the unique ID of a transaction
+     * @param b the unique ID of another transaction
+     * @param local true to read only the storage of this node of a cluster
+     * @return an object of the class TransactionAncestor holding the common ancestor and its depth,
+     *         or ID 0 and depth -1 if the transactions do not exist or are not in the same tree
+     */
+    @RequestMapping(path = "/transactionservice/lca/{a}/{b}", method = RequestMethod.GET)
+    @ResponseBody
+    public TransactionAncestor getLowestCommonAncestor(@PathVariable("a") Long a, @PathVariable("b") Long b,
+                                                       @RequestParam(value = "local", defaultValue = "false")
+                                                               boolean local) {
+
+        long admitted = admit(AdmissionBudget.READ);
+        long start = TransactionMetrics.start();
+        try {
+            return clustered(local) ? cluster.getLowestCommonAncestor(a, b)
+                    : db.getLowestCommonAncestor(a, b);
+        } finally {
+            admission.release(AdmissionBudget.READ, admitted);
+            TransactionMetrics.stop(Metric.HTTP_ANCESTORS, start);
+        }
+    }
+
+
+
+    /**
+     * Streams a transaction and its descendants as NDJSON, one transaction per line, depth first.
+     * The lines are written while the subtree is walked, and the response is sent in chunks whenever the buffer
+     * of the response is full, so neither the walk nor the response holds more than a few transactions at a time.
+     * If the client goes away, the next write fails and the walk stops there.
+     * The transaction itself is the first line, unless its type is filtered out. Nothing is sent if it does not exist.
+     * @param transaction_id the unique ID of the transaction
+     * @param maxDepth optional, the maximal depth of the sent descendants, 1 for the children only. Unlimited if omitted
+     * @param types optional, the types of the sent transactions, all types if omitted.
+     *              The descendants of a transaction of another type are sent anyway
+     * @param local true to walk only the storage of this node of a cluster
+     * @param response the response, into which the stream is written
+     * @throws IOException if the response can not be written before the walk starts
+     * @throws IllegalArgumentException if maxDepth is negative, answered with HTTP 400 Bad Request
+     */
+    @RequestMapping(path = "/transactionservice/descendants/{transaction_id}", method = RequestMethod.GET)
+    public void getDescendants(@PathVariable("transaction_id") Long transaction_id,
+                               @RequestParam(value = "maxDepth", required = false) Integer maxDepth,
+                               @RequestParam(value = "types", required = false) List<String> types,
+                               @RequestParam(value = "local", defaultValue = "false") boolean local,
+                               HttpServletResponse response) throws IOException {
+
+        int depth = maxDepth == null ? Integer.MAX_VALUE : maxDepth;
+        if(depth < 0)
+            throw new IllegalArgumentException("maxDepth must not be negative");
+
+        // before the admission, so a response, which can not be written, holds no permit
+        response.setContentType(NDJSON_VALUE);
+        OutputStream out = response.getOutputStream();
+
+        long admitted = admit(AdmissionBudget.STREAM);
+        long start = TransactionMetrics.start();
+        long[] streamed = new long[1];
+
+        try {
+            if(clustered(local) && cluster.copyDescendants(transaction_id, depth, types, out))
+                return;
+
+            TransactionJsonCodec codec = TransactionJsonCodec.get();
+            boolean complete = db.walkDescendants(transaction_id, depth, types, transaction -> {
+                try {
+                    codec.write(transaction).writeTo(out);
+                    out.write('\n');
+                    streamed[0]++;
+                    return true;
+                } catch(IOException e) {
+                    return false;
+                }
+            });
+
+            if(complete)
+                out.flush();
+        } catch(IOException e) {
+            // the client is gone: there is nobody left to answer
+        } finally {
+            admission.release(AdmissionBudget.STREAM, admitted);
+            TransactionMetrics.record(Metric.DESCENDANTS_STREAMED, streamed[0]);
+            TransactionMetrics.stop(Metric.HTTP_DESCENDANTS, start);
+        }
+    }
+
+
+
+    /**
+     * Returns the IDs among the given ones, which are held by this node. Used by the other nodes of a cluster
+     * to find the node of a transaction tree.
+     * @param ids the unique IDs to look up
+     * @return the IDs held by this node
+     */
+    @RequestMapping(path = "/transactionservice/cluster/holds", method = RequestMethod.POST)
+    @ResponseBody
+    public long[] holds(@RequestBody long[] ids) {
+
+        return Arrays.stream(ids).filter(db::containsTransaction).toArray();
+    }
+
 
-        TransactionSum sum = new TransactionSum(0);
 
-        db.getSumTransactions(transaction_id, sum);
+    /**
+     * Returns how the storage was recovered at the start of the server: the transactions loaded from the snapshot,
+     * the records replayed from the log, the time of the recovery and the time until the server was ready
+     * @return an object of the class RecoveryStatus
+     */
+    @RequestMapping(path = "/transactionservice/recovery", method = RequestMethod.GET)
+    @ResponseBody
+    public RecoveryStatus getRecoveryStatus() {
 
-        return sum;
+        return db.getRecoveryStatus();
+    }
+
+
+
+    /**
+     * Returns the latency distribution of every REST mapping and store operation, and the distributions of
+     * subtree, batch and type page sizes. Latencies are in microseconds, measured until the handler returns.
+     * Empty if the metrics are turned off with the system property "transactionservice.metrics.enabled=false".
+     * @return the distributions mapped by their names
+     */
+    @RequestMapping(path = "/transactionservice/metrics", method = RequestMethod.GET)
+    @ResponseBody
+    public Map<String, MetricSnapshot> getMetrics() {
+
+        return TransactionMetrics.report();
+    }
+
+
+    /**
+     * Removes all recorded values of the metrics
+     */
+    @RequestMapping(path = "/transactionservice/metrics", method = RequestMethod.DELETE)
+    @ResponseBody
+    public void resetMetrics() {
+
+        TransactionMetrics.reset();
+    }
+
+
+
+    /**
+     * Returns the counters and the size of the cache of the serialized transactions
+     * @return an object of the class CacheStatus
+     */
+    @RequestMapping(path = "/transactionservice/cache", method = RequestMethod.GET)
+    @ResponseBody
+    public CacheStatus getCacheStatus() {
+
+        return responses.getStatus();
+    }
+
+
+    /**
+     * Removes all serialized transactions from the cache and resets its counters
+     */
+    @RequestMapping(path = "/transactionservice/cache", method = RequestMethod.DELETE)
+    @ResponseBody
+    public void clearCache() {
+
+        responses.clear();
+    }
+
+
+
+    /**
+     * Returns the state of the limit of every budget of the AdmissionControl
+     * @return objects of the class AdmissionStatus mapped by the names of the budgets,
+     *         empty if the admission control is turned off
+     */
+    @RequestMapping(path = "/transactionservice/admission", method = RequestMethod.GET)
+    @ResponseBody
+    public Map<String, AdmissionStatus> getAdmissionStatus() {
+
+        return admission.getStatus();
+    }
+
+
+
+    /**
+     * Answers a request, which the ComputeExecutor or the ClusterNode could not accept because its queue is full,
+     * with HTTP 503 Service Unavailable and the seconds after which it may be sent again, as of the budget
+     * of the request
+     * @param request the rejected request
+     * @return An object of the class TransactionStatus containing a short status message
+     */
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<TransactionStatus> rejected(HttpServletRequest request) {
+
+        Object budget = request.getAttribute(BUDGET);
+        long retryAfter = budget instanceof AdmissionBudget
+                ? admission.retryAfterSeconds((AdmissionBudget) budget) : 1L;
+
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header("Retry-After", String.valueOf(retryAfter))
+                .body(new TransactionStatus("error - the server is busy, try again later"));
+    }
+
+
+    /**
+     * Answers a request, which the AdmissionControl rejected because the limit of its budget is reached,
+     * with HTTP 429 Too Many Requests and the seconds after which it may be sent again
+     * @param e the rejection
+     * @return An object of the class TransactionStatus containing a short status message
+     */
+    @ExceptionHandler(AdmissionControl.RejectedException.class)
+    public ResponseEntity<TransactionStatus> overloaded(AdmissionControl.RejectedException e) {
+
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header("Retry-After", String.valueOf(e.getRetryAfterSeconds()))
+                .body(new TransactionStatus("error - too many requests, try again later"));
+    }
+
+
+    /**
+     * Answers a request, which needs a node of the cluster, which does not answer, with HTTP 503 Service Unavailable
+     * @return An object of the class TransactionStatus containing a short status message
+     */
+    @ExceptionHandler(ClusterNode.UnreachableException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    @ResponseBody
+    public TransactionStatus unreachable() {
+
+        return new TransactionStatus("error - a node of the cluster is not reachable");
+    }
+
+
+    /**
+     * Answers a batch, whose body could not be read or parsed on the ComputeExecutor,
+     * with HTTP 400 Bad Request
+     * @return An object of the class TransactionStatus containing a short status message
+     */
+    @ExceptionHandler(UncheckedIOException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ResponseBody
+    public TransactionStatus unreadable() {
+
+        return new TransactionStatus("error - the request body can not be read");
+    }
+
+
+    /**
+     * Answers a request with a parameter, which is out of its range, with HTTP 400 Bad Request
+     * @param e the rejected parameter
+     * @return An object of the class TransactionStatus containing a short status message
+     */
+    @ExceptionHandler(IllegalArgumentException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ResponseBody
+    public TransactionStatus invalid(IllegalArgumentException e) {
 
+        return new TransactionStatus("error - " + e.getMessage());
     }
 
 }
@@ -0,0 +1,48 @@
+package com.shachor.restfull26.transactionservice;
+
+/**
+ * Class TransactionCount serves as an container to hold the number of transactions matching a request
+ * Object of this class is sent with the HTTP response to notify the client
+ * @author  Roi Shachor on 09.01.16.
+ */
+public class TransactionCount {
+
+    /**represents the number of transactions*/
+    private long count;
+
+
+    /**
+     * default constructor, used by Jackson library to create JSON objects
+     */
+    public TransactionCount() {}
+
+
+    /**
+     * Creates a TransactionCount object and setting the number of transactions
+     * @param count the number of transactions
+     */
+    public TransactionCount(long count) {
+        this.count = count;
+    }
+
+
+    /**
+     * Returns the number of transactions
+     * @return the number of transactions
+     */
+    public long getCount() {
+        return count;
+    }
+
+
+    /**
+     * Sets the number of transactions
+     * Although its possible to set this property with the constructor,
+     * this method is needed for Jackson library to instantiate a JSON object
+     * @param count the number of transactions
+     */
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+}
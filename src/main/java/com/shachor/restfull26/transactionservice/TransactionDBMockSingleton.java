@@ -1,8 +1,16 @@
 package com.shachor.restfull26.transactionservice;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 
 
@@ -10,35 +18,238 @@ import java.util.concurrent.ConcurrentMap;
  * Class TransactionDBMockSingleton mocks the repository functionality of a database
  * for the use of testing the class TransactionController.
  *
- * All transactions are being stored in an HashMap where Key = ID, Value = Transaction;
- * Another Map holds the all transactions types where Key = type, Value = Set of IDs.
- * With Big O notion of O(1), the Hash function enables tremendous scalability of storage with rapid storing and finding
- * of transactions and transaction's type
- * In order to keep the storage management Thread save it uses ConcurrentHashMap objects for both Maps.
+ * The transactions are split into TransactionShards (system property "transactionservice.shards", default: number
+ * of cores), each with one writer thread. A whole transaction tree lives in one shard: a root transaction is routed
+ * to a shard by the hash of its unique ID, and every child transaction to the shard of its parent.
+ * Each shard stores its transactions in a TransactionTable, which keeps the transactions in columns of primitive
+ * values and maps the unique IDs to their rows with a primitive hash index, so storing and finding a transaction
+ * has a Big O notion of O(1) without creating objects per transaction, and in a TypeIndex, which links each type
+ * to a compressed bitmap of IDs.
+ * In order to keep the storage management Thread save, the routing of the same unique ID is serialized with one of
+ * a fixed number of striped locks, so concurrent requests for the same ID route it exactly once, while requests
+ * for different IDs run in parallel. The routed transactions are stored by the writer of the shard without locks,
+ * and a request returns as soon as the writer has stored them, so they are read back at once.
+ * The routing keeps the shard of every routed ID in a map, so a query of a subtree looks up the one shard of the
+ * tree and runs on it, queries of a type ask all shards and merge their answers.
+ *
+ * For every transaction the table maintains the sum and the number of descendants of the subtree under
+ * the transaction. Each new transaction pushes its amount up the chain of its parents,
+ * so the sum of a subtree is read with one lookup of O(1) instead of walking the subtree.
+ * Queries, which can not be answered from the aggregates, walk the subtree with a SubtreeTraversal.
+ *
+ * A transaction, whose parent transaction is not stored yet, is parked in a Map of the missing parent's ID
+ * until the parent arrives, so batches do not have to be ordered from the roots to the leaves.
+ *
+ * If the system property "transactionservice.log.dir" is set, every accepted transaction is also appended
+ * to a TransactionLog in this directory, which is replayed when the storage is created after a restart.
+ * Every "transactionservice.snapshot.intervalSeconds" (default 300, 0 to disable) a TransactionSnapshot of
+ * the storage is written into the same directory and the log segments it holds are deleted, so a restart
+ * loads the latest snapshot and replays only the log written after it.
+ *
+ * This is the "heap" TransactionRepository, and the default one.
  *
  * @author  Roi Shachor on 09.01.16.
  */
-public class TransactionDBMockSingleton {
+public class TransactionDBMockSingleton implements TransactionRepository {
 
 
     /**A reference to the one possible instance of this class*/
     private static TransactionDBMockSingleton db;
 
+    /**Number of locks, which serialize the requests for the same unique ID*/
+    private static final int STRIPES = 256;
+
+    private static final Logger LOG = Logger.getLogger(TransactionDBMockSingleton.class.getName());
+
+
+    /**The dictionary of the transaction types, shared by the tables and the type indexes of all shards*/
+    private TypeDictionary types;
+
+    /**The shards storing all transactions, each with a table indexed by the unique ID and a type index*/
+    private TransactionShard[] shards;
+
+    /**Transactions waiting for their parent transaction, mapped by the unique ID of the missing parent*/
+    private ConcurrentMap<Long, List<Transaction>> parkedChildren;
+
+    /**The unique IDs of all parked transactions*/
+    private Set<Long> parkedIds;
 
-    /**A Map storing all transactions, mapped by they unique ID*/
-    private ConcurrentMap<Long, Transaction> transactions;
+    /**The write-ahead log of all accepted transactions, or null if the storage is not durable*/
+    private TransactionLog log;
 
-    /**A Map string all the unique transaction's ID, mapped by the type of the transaction */
-    private ConcurrentMap<String, Set<Long>> transactionsTypes;
+    /**The durability of a request, which does not ask for a certain one*/
+    private Durability durability;
+
+    /**How the storage was recovered when it was created*/
+    private RecoveryStatus recovery;
+
+    /**The locks of the unique IDs, selected by the hash of the ID*/
+    private Object[] stripes;
+
+    /**The shard of every routed transaction, mapped by its unique ID. Written under the lock of the ID*/
+    private ConcurrentMap<Long, TransactionShard> routes;
+
+    /**Takes the snapshots of the storage, or null if it takes none*/
+    private ScheduledExecutorService snapshots;
 
 
     /**
      * This constructor is private so Object of this class can only be created with the method getInstance().
-     * Instantiate ths Maps, which are needed to store the transactions
+     * Instantiate ths table and the type index, which are needed to store the transactions
      */
     private TransactionDBMockSingleton() {
-        transactions = new ConcurrentHashMap<>();
-        transactionsTypes = new ConcurrentHashMap<>();
+
+        this(Integer.getInteger("transactionservice.shards", Runtime.getRuntime().availableProcessors()),
+                TransactionLog.fromSystemProperties(),
+                Durability.valueOf(System.getProperty("transactionservice.log.durability", "GROUP")),
+                Long.getLong("transactionservice.snapshot.intervalSeconds", 300L));
+
+        if(log != null)
+            Runtime.getRuntime().addShutdownHook(new Thread(log::close));
+    }
+
+
+    /**
+     * Creates a storage besides the instance of this class, which recovers from a log and is closed with close().
+     * Used by the tests of the recovery, which reopen a storage on the same log directory
+     * @param count the number of shards
+     * @param log the log of the accepted transactions, or null if the storage is not durable
+     * @param durability the durability of a request, which does not ask for a certain one
+     * @param interval the seconds between two snapshots, 0 to take none
+     */
+    TransactionDBMockSingleton(int count, TransactionLog log, Durability durability, long interval) {
+        types = new TypeDictionary();
+        parkedChildren = new ConcurrentHashMap<>();
+        parkedIds = ConcurrentHashMap.newKeySet();
+        routes = new ConcurrentHashMap<>();
+
+        if(count < 1)
+            throw new IllegalArgumentException("transactionservice.shards must be at least 1");
+
+        shards = new TransactionShard[count];
+        for(int i = 0; i < count; i++)
+            shards[i] = new TransactionShard(i, types);
+
+        stripes = new Object[STRIPES];
+        for(int i = 0; i < STRIPES; i++)
+            stripes[i] = new Object();
+
+        this.durability = durability;
+        this.log = log;
+
+        if(log != null) {
+            recover();
+
+            if(interval > 0) {
+                snapshots = Executors.newSingleThreadScheduledExecutor(task -> {
+                    Thread thread = new Thread(task, "transaction-snapshot");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                snapshots.scheduleWithFixedDelay(() -> {
+                    try {
+                        takeSnapshot();
+                    } catch(UncheckedIOException e) {
+                        // the log still holds every record, the next snapshot tries again
+                        LOG.log(Level.WARNING, "the snapshot of the storage failed, the log is kept", e);
+                    }
+                }, interval, interval, TimeUnit.SECONDS);
+            }
+        }
+        else
+            recovery = new RecoveryStatus();
+    }
+
+
+    /**
+     * Loads the latest snapshot of the log directory, if there is one,
+     * and replays the log segments written after the snapshot
+     */
+    private void recover() {
+
+        long start = System.nanoTime();
+
+        try {
+            TransactionSnapshot snapshot = TransactionSnapshot.latest(log.getDirectory());
+            long fromSegment = 0L;
+            long rows = 0L;
+
+            if(snapshot != null) {
+                snapshot.restoreTypes(types);
+
+                for(int shard = 0; shard < snapshot.getShards(); shard++) {
+
+                    // the trees of a snapshot with a different number of shards belong to other shards now
+                    if(snapshot.getShards() != shards.length) {
+                        snapshot.forEachRow(shard, types, transaction -> accept(transaction, null));
+                        continue;
+                    }
+
+                    TransactionTable table = shards[shard].getTable();
+                    TypeIndex typeIndex = shards[shard].getTypeIndex();
+                    snapshot.restore(shard, table);
+
+                    for(int row = 0; row < table.size(); row++) {
+                        typeIndex.add(types.type(table.typeCodeAt(row)), table.idAt(row), table.amountAt(row));
+                        routes.put(table.idAt(row), shards[shard]);
+                    }
+                }
+
+                snapshot.forEachParked(transaction -> accept(transaction, null));
+
+                rows = snapshot.getRows();
+                fromSegment = snapshot.getLogSegment();
+            }
+
+            long replayed = log.replay(fromSegment, transaction -> accept(transaction, null));
+
+            for(TransactionShard shard : shards)
+                shard.flush();
+
+            recovery = new RecoveryStatus(rows, replayed, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch(IOException e) {
+            throw new UncheckedIOException("can not recover the storage from the transaction log", e);
+        }
+    }
+
+
+    /**
+     * Writes a snapshot of all stored and parked transactions into the log directory, and deletes the older
+     * snapshots and the log segments held by the new snapshot. Writers are not blocked while the snapshot is written.
+     * Does nothing if the storage does not write a TransactionLog.
+     */
+    public synchronized void takeSnapshot() {
+
+        if(log == null)
+            return;
+
+        // every record of the closed segments was accepted before this point, so it is either
+        // in the parked copy or stored in a row below the settled size read after the copy
+        long segment = log.startSegment();
+
+        List<Transaction> parked = new ArrayList<>();
+        for(Long parent_id : parkedChildren.keySet())
+            parkedChildren.computeIfPresent(parent_id, (key, children) -> {
+                parked.addAll(children);
+                return children;
+            });
+
+        // a routed transaction was handed to its shard before it was logged
+        TransactionTable[] tables = new TransactionTable[shards.length];
+        int[] rows = new int[shards.length];
+        for(int i = 0; i < shards.length; i++) {
+            shards[i].flush();
+            tables[i] = shards[i].getTable();
+            rows[i] = tables[i].settledSize();
+        }
+
+        try {
+            TransactionSnapshot.write(log.getDirectory(), segment, tables, rows, types, parked);
+            TransactionSnapshot.deleteBefore(log.getDirectory(), segment);
+            log.deleteSegmentsBefore(segment);
+        } catch(IOException e) {
+            throw new UncheckedIOException("can not write a snapshot of the storage", e);
+        }
     }
 
 
@@ -46,7 +257,7 @@ public class TransactionDBMockSingleton {
      * Returns the instance of this class.  Creates an instance of this class in case there isn't any.
      * @return instance of this class
      */
-    public static TransactionDBMockSingleton getInstance() {
+    public static synchronized TransactionDBMockSingleton getInstance() {
 
         if(db == null)
             db = new TransactionDBMockSingleton();
@@ -55,17 +266,85 @@ public class TransactionDBMockSingleton {
     }
 
 
+    /**
+     * Does nothing for the one instance, which lives as long as the JVM, and whose log is closed by a shutdown hook.
+     * Stops the snapshots and closes the log of a storage created besides it
+     */
+    @Override
+    public void close() {
+
+        synchronized(TransactionDBMockSingleton.class) {
+            if(this == db)
+                return;
+        }
+
+        if(snapshots != null)
+            snapshots.shutdownNow();
+
+        for(TransactionShard shard : shards)
+            shard.flush();
+
+        if(log != null)
+            log.close();
+    }
+
+
 
     /**
-     * Returns a transaction according to the transaction id
+     * Returns a transaction according to the transaction id.
+     * The returned object is created from the stored columns and is not connected to the storage.
      * @param id the unique ID of the transaction
-     * @return an object of the class transaction
+     * @return an object of the class transaction, or null if the transaction is not stored
      */
+    @Override
     public Transaction getTransaction(long id) {
         if(id <= 0L) //Todo: change to Obtional
             throw new IllegalArgumentException("ID must be a bigger than 0");
 
-        return transactions.get(id);
+        long start = TransactionMetrics.start();
+        try {
+            TransactionShard shard = owner(id);
+
+            return shard == null ? null : shard.getTable().getTransaction(id);
+        } finally {
+            TransactionMetrics.stop(Metric.STORE_GET, start);
+        }
+    }
+
+
+
+    /**
+     * Walks a transaction and its descendants depth first and passes them to a visitor, one at a time,
+     * so the memory used by a walk does not depend on the size of the subtree. The whole tree of a transaction
+     * is stored in one shard, so the walk is done in the table of that shard, while the shard goes on storing.
+     * The walk pins the epoch of the table when it starts, and visits the subtree as it was then.
+     * @param id the unique ID of the transaction
+     * @param maxDepth the maximal depth of the visited descendants, 0 visits only the transaction itself
+     * @param types the types of the transactions, which are passed to the visitor, null for all types
+     * @param visitor gets the visited transactions, returns false to stop the walk
+     * @return false if the visitor stopped the walk
+     */
+    @Override
+    public boolean walkDescendants(long id, int maxDepth, Collection<String> types, Predicate<Transaction> visitor) {
+
+        if(maxDepth < 0)
+            throw new IllegalArgumentException("maxDepth must not be negative");
+
+        if(visitor == null)
+            throw new IllegalArgumentException("visitor must not point at NULL");
+
+        int[] typeCodes = null;
+        if(types != null) {
+            typeCodes = types.stream().mapToInt(this.types::code).filter(code -> code != TypeDictionary.NO_CODE)
+                    .distinct().toArray();
+            if(typeCodes.length == 0)
+                return true;
+        }
+
+        TransactionShard shard = owner(id);
+
+        return shard == null || shard.getTable().walkDescendants(id, maxDepth, typeCodes, visitor,
+                shard.getTable().epoch());
     }
 
 
@@ -74,97 +353,657 @@ public class TransactionDBMockSingleton {
     /**
      * Stores one Transaction object.
      * If the transaction has a parent transaction, the ID of the current transaction will be saved in the
-     * parent transaction as a reference to its child transaction
-     * If the transaction already stored, the method will return false;
+     * parent transaction as a reference to its child transaction.
+     * If the parent transaction is not stored yet, the transaction is parked and stored as soon as its parent
+     * arrives, so transactions may arrive in any order.
+     * If the storage writes a TransactionLog, the method returns as soon as the transaction is as durable
+     * as configured with the system property "transactionservice.log.durability" (default GROUP).
+     * @param transaction an object of the class Transaction
+     * @return STORED if the transaction was successfully stored, PARKED if it waits for its parent transaction,
+     * DUPLICATE if it already was stored or parked, FAILED if the writer of its shard could not store it.
+     * @throws java.lang.IllegalArgumentException if the parameter value is null, the transaction has no type,
+     * an ID of 0 or less, a negative parent ID or itself as parent
+     */
+    @Override
+    public PutResult putTransaction(Transaction transaction) {
+        return putTransaction(transaction, durability);
+    }
+
+
+
+    /**
+     * Stores one Transaction object as the method above, with the given durability.
      * @param transaction an object of the class Transaction
-     * @return true if the transaction was successfully stored, false if it already was stored.
-     * @throws java.lang.IllegalArgumentException if the transaction already exists in the storage,
-     * or the parameter value is null
+     * @param durability when the method returns, if the storage writes a TransactionLog
+     * @return STORED, PARKED, DUPLICATE or FAILED as the method above
+     * @throws java.lang.IllegalArgumentException if the parameter value is null, the transaction has no type,
+     * an ID of 0 or less, a negative parent ID or itself as parent
+     */
+    @Override
+    public PutResult putTransaction(Transaction transaction, Durability durability) {
+
+        long start = TransactionMetrics.start();
+        try {
+            long[] marks = new long[shards.length];
+            PutResult result = accept(transaction, marks);
+
+            if(log != null && result != PutResult.DUPLICATE)
+                log.append(transaction, durability);
+
+            await(marks);
+
+            return result == PutResult.STORED && failed(transaction.getTransaction_id()) ? PutResult.FAILED : result;
+        } finally {
+            TransactionMetrics.stop(Metric.STORE_PUT, start);
+        }
+    }
+
+
+    /**
+     * Routes or parks a transaction, without writing it to the log.
+     * The decision is made with the lock of the transaction's ID held. A parked transaction keeps its ID
+     * in parkedIds until it is routed, so a request for the same ID always finds it in one of both places.
+     * @param marks receives the mark of each shard to wait for, or null if the caller does not wait
      */
-    public boolean putTransaction(Transaction transaction) {
+    private PutResult accept(Transaction transaction, long[] marks) {
 
         if(transaction == null)
             throw new IllegalArgumentException("Transaction must not point at NULL");
 
+        if(transaction.getType() == null)
+            throw new IllegalArgumentException("Transaction type must not point at NULL");
+
         long id = transaction.getTransaction_id();
+        if(id <= 0L)
+            throw new IllegalArgumentException("Transaction ID must be bigger than 0");
+
+        if(transaction.getParent_id() < 0L)
+            throw new IllegalArgumentException("Parent ID can not be a negative number");
+
+        if(transaction.getParent_id() == id)
+            throw new IllegalArgumentException("Transaction can not be its own parent");
+
+        TransactionShard shard;
+
+        synchronized (stripe(id)) {
+
+            if(parkedIds.contains(id) || shardOf(id) != null)
+                return PutResult.DUPLICATE;
+
+            long parent_id = transaction.getParent_id();
+
+            if(parent_id == 0L)
+                shard = home(id);
+            else {
+                shard = shardOf(parent_id);
+
+                if(shard == null && park(transaction))
+                    return PutResult.PARKED;
+
+                if(shard == null)
+                    shard = shardOf(parent_id);
+            }
+
+            route(shard, transaction, marks);
+        }
+
+        routeParkedChildren(id, shard, marks);
+
+        return PutResult.STORED;
+    }
+
+
+    /**
+     * Parks a transaction until its parent transaction is routed
+     * @return false if the parent transaction was routed in the meantime
+     */
+    private boolean park(Transaction transaction) {
+
+        long parent_id = transaction.getParent_id();
+        parkedIds.add(transaction.getTransaction_id());
+
+        boolean[] parked = {false};
+        parkedChildren.compute(parent_id, (key, children) -> {
+
+            if(shardOf(parent_id) != null)
+                return children;
+
+            if(children == null)
+                children = new ArrayList<>();
+
+            children.add(transaction);
+            parked[0] = true;
+            return children;
+        });
+
+        if(!parked[0])
+            parkedIds.remove(transaction.getTransaction_id());
+
+        return parked[0];
+    }
+
+
+    /**
+     * Returns the shard, to which a transaction was routed.
+     * A transaction, which the writer of its shard could not store, is not held by the shard any more
+     * @return the shard, or null if the unique ID was not routed yet
+     */
+    private TransactionShard shardOf(long id) {
+
+        TransactionShard shard = routes.get(id);
+
+        return shard != null && shard.holds(id) ? shard : null;
+    }
+
+
+    /**
+     * Returns the shard, whose table holds a stored transaction
+     * @return the shard, or null if the transaction is not stored
+     */
+    private TransactionShard owner(long id) {
+
+        TransactionShard shard = routes.get(id);
+
+        return shard != null && shard.getTable().contains(id) ? shard : null;
+    }
+
+
+    /**
+     * Returns the shard of a new transaction tree
+     */
+    private TransactionShard home(long id) {
+        return shards[((int) (id ^ id >>> 32) * 0x9E3779B9 >>> 1) % shards.length];
+    }
+
+
+    /**
+     * Hands a transaction over to its shard. Must be called under the lock of its unique ID
+     */
+    private void route(TransactionShard shard, Transaction transaction, long[] marks) {
+
+        routes.put(transaction.getTransaction_id(), shard);
+        long mark = shard.route(transaction);
+
+        if(marks != null)
+            marks[shard.getIndex()] = mark;
+    }
+
+
+    /**
+     * Waits until the shards have stored the transactions up to the given marks
+     */
+    private void await(long[] marks) {
+
+        for(int i = 0; i < marks.length; i++)
+            if(marks[i] > 0)
+                shards[i].await(marks[i]);
+    }
+
+
+    /**
+     * Returns true if the writer of a shard failed to store a routed transaction. Called after await()
+     */
+    private boolean failed(long id) {
 
+        for(TransactionShard shard : shards)
+            if(shard.takeFailure(id) != null)
+                return true;
 
-        if(transactions.containsKey(id))
-            return false;
+        return false;
+    }
+
+
+    private Object stripe(long id) {
+        return stripes[(int) (id ^ id >>> 32) * 0x9E3779B9 >>> 24];
+    }
+
+
+
+    /**
+     * Stores a batch of Transaction objects in one pass, in the order of the list.
+     * A transaction may be a child of a transaction, which comes later in the same batch or in a later batch.
+     * If the storage writes a TransactionLog, the whole batch shares one wait for durability.
+     * @param batch the transactions to store
+     * @param durability when the method returns, if the storage writes a TransactionLog
+     * @return the result for each transaction, in the order of the batch
+     * @throws java.lang.IllegalArgumentException if the batch or one of its transactions is null,
+     * or a transaction has no type, an ID of 0 or less, a negative parent ID or itself as parent
+     */
+    @Override
+    public List<PutResult> putTransactions(Iterator<Transaction> batch, Durability durability) {
+
+        if(batch == null)
+            throw new IllegalArgumentException("Batch must not point at NULL");
 
+        long start = TransactionMetrics.start();
+        List<PutResult> results = new ArrayList<>();
+        long[] ids = new long[16];
+        long[] marks = new long[shards.length];
+        long position = 0L;
 
-        transactions.put(id, transaction);
+        try {
+            while(batch.hasNext()) {
 
+                Transaction transaction = batch.next();
+                PutResult result = accept(transaction, marks);
 
-        if(transaction.getParent_id() != 0L)
-            transactions.get(transaction.getParent_id()).setChild_id(id);
+                if(log != null && result != PutResult.DUPLICATE)
+                    position = log.write(transaction);
 
-        manageTypeRecord(transaction);
+                if(results.size() == ids.length)
+                    ids = Arrays.copyOf(ids, ids.length * 2);
+                ids[results.size()] = transaction.getTransaction_id();
+                results.add(result);
+            }
+
+            if(log != null)
+                log.await(position, durability);
+
+            await(marks);
+
+            for(int i = 0; i < results.size(); i++)
+                if(results.get(i) == PutResult.STORED && failed(ids[i]))
+                    results.set(i, PutResult.FAILED);
+
+            return results;
+        } finally {
+            TransactionMetrics.stop(Metric.STORE_PUT_BATCH, start);
+            TransactionMetrics.record(Metric.BATCH_SIZE, results.size());
+        }
+    }
+
+
+    /**
+     * Stores a batch of Transaction objects as the method above, with the configured durability.
+     * @param batch the transactions to store
+     * @return the result for each transaction, in the order of the batch
+     */
+    public List<PutResult> putTransactions(List<Transaction> batch) {
 
-        return true; //Todo: several codes
+        if(batch == null)
+            throw new IllegalArgumentException("Batch must not point at NULL");
 
+        return putTransactions(batch.iterator(), durability);
     }
 
 
     /**
-     * Manage the record of all the Transaction's types.
-     * This record link each type to all transactions of this type.
-     * @param transaction an Object of the class Transaction
+     * Routes all transactions, which were parked waiting for a newly routed transaction, to the shard of it,
+     * and then all transactions waiting for those, and so on.
+     * @param id the unique ID of the newly routed transaction
+     * @param shard the shard of the newly routed transaction
+     * @param marks receives the mark of the shard to wait for, or null
      */
-    private void manageTypeRecord(Transaction transaction) {
+    private void routeParkedChildren(long id, TransactionShard shard, long[] marks) {
 
-        String type = transaction.getType();
+        Deque<Long> routed = new ArrayDeque<>();
+        routed.push(id);
 
-        if(!transactionsTypes.containsKey(type)) {
-            Set<Long> ids = new HashSet<>();
-            transactionsTypes.put(type, ids);
+        while(!routed.isEmpty()) {
+
+            // the children stay parked until they are routed, so a snapshot never misses them.
+            // Taking the lock of the entry waits for a child being parked right now, no child is added afterwards
+            long parent_id = routed.pop();
+            List<Transaction> children = parkedChildren.computeIfPresent(parent_id, (key, list) -> list);
+            if(children == null)
+                continue;
+
+            for(Transaction child : children) {
+
+                synchronized (stripe(child.getTransaction_id())) {
+                    route(shard, child, marks);
+                }
+                routed.push(child.getTransaction_id());
+
+                parkedIds.remove(child.getTransaction_id());
+            }
+
+            parkedChildren.remove(parent_id);
         }
+    }
+
+
+    /**
+     * Returns the durability of a request, which does not ask for a certain one
+     * @return the configured durability
+     */
+    @Override
+    public Durability getDurability() {
+        return durability;
+    }
+
+
+    /**
+     * Returns how the storage was recovered from the snapshot and the log when it was created
+     * @return the recovery status
+     */
+    @Override
+    public RecoveryStatus getRecoveryStatus() {
+        return recovery;
+    }
+
+
+    /**
+     * Returns the number of transactions, which are parked waiting for their parent transaction
+     * @return number of parked transactions
+     */
+    public int getParkedCount() {
+        return parkedIds.size();
+    }
+
+
+
+    /**
+     * Returns true if a transaction was accepted and not parked, even if its shard has not stored it yet
+     * @param id the unique ID of the transaction
+     * @return true if the transaction is held by this storage
+     */
+    @Override
+    public boolean containsTransaction(long id) {
+        return shardOf(id) != null;
+    }
+
+
+    /**
+     * Returns the unique IDs of the missing parent transactions, for which transactions are parked
+     * @return a copy of the IDs
+     */
+    @Override
+    public Set<Long> getParkedParents() {
+        return new HashSet<>(parkedChildren.keySet());
+    }
+
+
+    /**
+     * Removes the transactions, which are parked waiting for a parent transaction, so they can be stored somewhere
+     * else, e.g. on the node of a cluster, which holds the parent transaction.
+     * Nothing is removed if the parent transaction was accepted by this storage in the meantime.
+     * The removed transactions are not written to the log again: after a restart they are parked again.
+     * @param parent_id the unique ID of the parent transaction
+     * @return the removed transactions, an empty list if there are none
+     */
+    @Override
+    public List<Transaction> takeParkedChildren(long parent_id) {
+
+        List<Transaction> taken = new ArrayList<>();
+
+        parkedChildren.computeIfPresent(parent_id, (key, children) -> {
+
+            if(shardOf(parent_id) != null)
+                return children;
+
+            taken.addAll(children);
+            return null;
+        });
+
+        for(Transaction child : taken)
+            parkedIds.remove(child.getTransaction_id());
+
+        return taken;
+    }
+
+
+
+    /**
+     * Returns one page of the unique ID's of all transaction of a certain type, in ascending order.
+     * The next page starts after the last ID of the previous page.
+     * If the type does not exists yet, returns an empty array.
+     * @param type the type of the transactions
+     * @param after only IDs bigger than this value are returned, 0 to start with the smallest ID
+     * @param limit the maximal number of returned IDs
+     * @return array with ID of the transactions, or an empty array in case the type does not exists yet
+     */
+    @Override
+    public long[] getTransactionsByType(String type, long after, int limit) {
+
+        if(type == null)
+            throw new IllegalArgumentException("Transaction type must not point at NULL");
+
+        if(limit < 0)
+            throw new IllegalArgumentException("limit can not be a negative number");
+
+        long start = TransactionMetrics.start();
+
+        long[][] pages = new long[shards.length][];
+        for(int i = 0; i < shards.length; i++)
+            pages[i] = shards[i].getTypeIndex().page(type, after, limit);
+
+        long[] page = shards.length == 1 ? pages[0] : TypeIndex.merge(pages, limit);
+        TransactionMetrics.stop(Metric.STORE_TYPES, start);
+        TransactionMetrics.record(Metric.TYPES_PAGE_SIZE, page.length);
 
-        transactionsTypes.get(type).add(transaction.getTransaction_id());
+        return page;
     }
 
 
 
+    /**
+     * Returns the number of transactions of a certain type.
+     * If the type does not exists yet, returns 0.
+     * @param type the type of the transactions
+     * @return number of transactions of the type
+     */
+    @Override
+    public long countTransactionsByType(String type) {
+
+        if(type == null)
+            throw new IllegalArgumentException("Transaction type must not point at NULL");
+
+        long start = TransactionMetrics.start();
+        long count = 0L;
+        for(TransactionShard shard : shards)
+            count += shard.getTypeIndex().count(type);
+        TransactionMetrics.stop(Metric.STORE_TYPES_COUNT, start);
+
+        return count;
+    }
+
+
 
     /**
-     * Returns a Set of the unique ID's of all transaction of a certain type.
-     * If the type does not exists yet, returns an empty Set.
+     * Returns the number, sum, minimum and maximum of the amounts of all transactions of a certain type.
+     * The aggregates are kept up to date by every stored transaction, and merged over the shards.
      * @param type the type of the transactions
-     * @return Set with ID of the transactions, or an empty Set in case the type does not exists yet
+     * @return the stats of the type, with count 0 if the type does not exists yet
      */
-    public Set<Long> getTransactionsByType(String type) {
+    @Override
+    public TypeStats getTypeStats(String type) {
 
         if(type == null)
             throw new IllegalArgumentException("Transaction type must not point at NULL");
 
-        if(!transactionsTypes.containsKey(type))
-            return new HashSet<Long>();
+        long start = TransactionMetrics.start();
+        TypeStats stats = new TypeStats(0L, 0.0, null, null);
+        for(TransactionShard shard : shards)
+            stats.merge(shard.getTypeIndex().stats(type));
+        TransactionMetrics.stop(Metric.STORE_TYPES_STATS, start);
 
-        return transactionsTypes.get(type);
+        return stats;
+    }
+
+
+
+    /**
+     * Returns a transaction with its depth in its tree
+     * @param id the unique ID of the transaction
+     * @return the transaction and its depth, or none if the transaction is not stored
+     */
+    @Override
+    public TransactionAncestor getDepth(long id) {
+
+        long start = TransactionMetrics.start();
+        try {
+            TransactionShard shard = owner(id);
+            int depth = shard == null ? -1 : shard.getTable().getDepth(id);
+
+            return depth < 0 ? TransactionAncestor.none() : new TransactionAncestor(id, depth);
+        } finally {
+            TransactionMetrics.stop(Metric.STORE_ANCESTORS, start);
+        }
+    }
+
+
+    /**
+     * Returns the ancestor of a transaction at a depth of its tree, in O(log depth) steps over the jump links
+     * of the table. getAncestor(id, 0) returns the root of the tree.
+     * @param id the unique ID of the transaction
+     * @param depth the depth of the ancestor, 0 for the root
+     * @return the ancestor, the transaction itself at its own depth, or none if the transaction is not stored
+     *         or not as deep
+     */
+    @Override
+    public TransactionAncestor getAncestor(long id, int depth) {
+
+        long start = TransactionMetrics.start();
+        try {
+            TransactionShard shard = owner(id);
+            long ancestor = shard == null ? 0L : shard.getTable().getAncestor(id, depth);
+
+            return ancestor == 0L ? TransactionAncestor.none() : new TransactionAncestor(ancestor, depth);
+        } finally {
+            TransactionMetrics.stop(Metric.STORE_ANCESTORS, start);
+        }
+    }
+
+
+    /**
+     * Returns the lowest common ancestor of two transactions, in O(log depth) steps over the jump links of the table.
+     * A whole tree lives in one shard, so transactions of different shards have none.
+     * @param a the unique ID of a transaction
+     * @param b the unique ID of another transaction
+     * @return the deepest transaction, which is an ancestor of both or one of them,
+     *         or none if they are not stored or not in the same tree
+     */
+    @Override
+    public TransactionAncestor getLowestCommonAncestor(long a, long b) {
+
+        long start = TransactionMetrics.start();
+        try {
+            TransactionShard shard = owner(a);
+            if(shard == null)
+                return TransactionAncestor.none();
+
+            TransactionTable table = shard.getTable();
+            long ancestor = table.getLowestCommonAncestor(a, b);
+
+            return ancestor == 0L ? TransactionAncestor.none()
+                    : new TransactionAncestor(ancestor, table.getDepth(ancestor));
+        } finally {
+            TransactionMetrics.stop(Metric.STORE_ANCESTORS, start);
+        }
     }
 
 
 
     /**
      * Returns the sum of all transaction's amount for a transaction and all it's child transactions.
+     * The sum is read from the aggregate maintained for the transaction, and not calculated by walking the subtree.
+     * It is the sum as of the epoch of the table, when the call started, even while descendants are being added.
      * If the transaction does not exists in the storage, method returns value 0.
      * @param id the unique ID of the parent transaction
      * @param sum A TransactionSum object which will eventually sum up the amounts of all transactions
      * @return sum of all transaction's amount, or 0 if the transaction does not exists in the storage
      */
+    @Override
     public TransactionSum getSumTransactions(Long id, TransactionSum sum) {
 
-        Transaction transaction = transactions.get(id);
+        long start = TransactionMetrics.start();
+        TransactionShard shard = owner(id);
+        int epoch = shard == null ? 0 : shard.getTable().epoch();
+        if(shard != null)
+            sum.addSum(shard.getTable().getSubtreeSum(id, epoch));
+        TransactionMetrics.stop(Metric.STORE_SUM, start);
 
-        sum.addSum(transaction.getAmount());
+        if(TransactionMetrics.ENABLED && shard != null)
+            TransactionMetrics.record(Metric.SUM_SUBTREE_SIZE, shard.getTable().getDescendantCount(id, epoch) + 1);
 
-        Set<Long> child_ids = transaction.getChild_ids();
-        if(child_ids != null)
-            for(Long child_id : child_ids)
-                    getSumTransactions(child_id, sum);
+        return sum;
+    }
 
 
-        return sum;
+
+    /**
+     * Returns a value, which changes whenever a child is added to a transaction. As the children are the only part
+     * of a stored transaction, which changes, a copy of the transaction is up to date as long as this value is equal.
+     * @param id the unique ID of the transaction
+     * @return the child version, -1 if the transaction is not stored
+     */
+    @Override
+    public long getChildVersion(long id) {
+
+        TransactionShard shard = owner(id);
+
+        return shard == null ? -1L : shard.getTable().getChildVersion(id);
+    }
+
+
+
+    /**
+     * Returns the number of descendants of a transaction, the transaction itself is not counted.
+     * If the transaction does not exists in the storage, method returns value 0.
+     * @param id the unique ID of the parent transaction
+     * @return number of descendants, or 0 if the transaction does not exists in the storage
+     */
+    public long getDescendantCount(long id) {
+
+        TransactionShard shard = owner(id);
+
+        return shard == null ? 0L : shard.getTable().getDescendantCount(id);
+    }
+
+
+
+    /**
+     * Evaluates a query over a transaction and all it's descendants, by walking the subtree.
+     * @param id the unique ID of the parent transaction
+     * @param query the query to evaluate
+     * @param <A> the type of the accumulator of the query
+     * @return the accumulator holding the result of the query
+     */
+    public <A> A querySubtree(long id, SubtreeQuery<A> query) {
+        long start = TransactionMetrics.start();
+        try {
+            TransactionShard shard = owner(id);
+
+            // the traversal of any shard returns an empty accumulator for a transaction, which is not stored
+            return (shard == null ? shards[0] : shard).getTraversal().traverse(id, query);
+        } finally {
+            TransactionMetrics.stop(Metric.STORE_QUERY_SUBTREE, start);
+        }
+    }
+
+
+
+    /**
+     * Returns the sum of all transaction's amount for a transaction and all it's child transactions,
+     * calculated by walking the subtree instead of reading the maintained aggregate.
+     * If the transaction does not exists in the storage, method returns value 0.
+     * @param id the unique ID of the parent transaction
+     * @return sum of all transaction's amount, or 0 if the transaction does not exists in the storage
+     */
+    public TransactionSum scanSumTransactions(long id) {
+
+        TransactionShard shard = owner(id);
+        TransactionTable transactions = (shard == null ? shards[0] : shard).getTable();
+
+        return querySubtree(id, new SubtreeQuery<TransactionSum>() {
+
+            @Override
+            public TransactionSum newAccumulator() {
+                return new TransactionSum(0);
+            }
+
+            @Override
+            public void visit(TransactionSum sum, long id) {
+                sum.addSum(transactions.getAmount(id));
+            }
+
+            @Override
+            public TransactionSum combine(TransactionSum left, TransactionSum right) {
+                left.addSum(right.getSum());
+                return left;
+            }
+        });
     }
 
 
@@ -0,0 +1,62 @@
+package com.shachor.restfull26.transactionservice;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Class TransactionHttpMessageConverter reads the body of a PUT request and writes the responses of the
+ * classes Transaction, TransactionSum and TransactionStatus with the TransactionJsonCodec instead of Jackson.
+ *
+ * Spring boot places every HttpMessageConverter bean before its own converters,
+ * so the other response bodies are still written by Jackson.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+@Component
+public class TransactionHttpMessageConverter extends AbstractHttpMessageConverter<Object> {
+
+    public TransactionHttpMessageConverter() {
+        super(MediaType.APPLICATION_JSON, new MediaType("application", "*+json"));
+    }
+
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return TransactionJsonCodec.canWrite(clazz);
+    }
+
+
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return clazz == Transaction.class && canRead(mediaType);
+    }
+
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) throws IOException {
+
+        try {
+            return TransactionJsonCodec.get().readTransaction(inputMessage.getBody());
+        } catch(JsonProcessingException e) {
+            throw new HttpMessageNotReadableException("Could not read document: " + e.getMessage(), e);
+        }
+    }
+
+
+    @Override
+    protected void writeInternal(Object body, HttpOutputMessage outputMessage) throws IOException {
+
+        TransactionJsonCodec codec = TransactionJsonCodec.get().write(body);
+
+        outputMessage.getHeaders().setContentLength(codec.size());
+        codec.writeTo(outputMessage.getBody());
+    }
+
+}
@@ -0,0 +1,428 @@
+package com.shachor.restfull26.transactionservice;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class TransactionHttpServer serves the four routes of the service with the HTTP server of the JDK,
+ * without Spring, for LightApp:
+ * PUT /transactionservice/transaction/{transaction_id}   optional parameter durability
+ * GET /transactionservice/transaction/{transaction_id}
+ * GET /transactionservice/types/{type}                    optional parameters after and limit
+ * GET /transactionservice/sum/{transaction_id}
+ *
+ * The requests are answered as by the TransactionController: the bodies are read and written by the
+ * TransactionJsonCodec, the JSON of a transaction is kept in a TransactionJsonCache, and the statuses,
+ * the empty body of an unknown transaction and the pages of a type are the same. A path, a parameter or a body,
+ * which can not be read, is answered with HTTP 400 Bad Request and an empty body, any other path with 404 Not Found.
+ * A request, which fails in the storage, is answered with HTTP 500 Internal Server Error and a status.
+ * The routes are matched by hand, nothing is scanned or found by reflection.
+ * A request above the limit of its budget of the AdmissionControl is answered with HTTP 429 Too Many Requests,
+ * a Retry-After header and a status.
+ *
+ * Serves the storage of this node only, so it can not be used in a cluster.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class TransactionHttpServer implements HttpHandler, Closeable {
+
+    private static final String PREFIX = "/transactionservice/";
+
+    /**The same as TransactionController.MAX_PAGE_SIZE, read here, so that class does not load Spring*/
+    private static final int MAX_PAGE_SIZE = Integer.getInteger("transactionservice.types.maxPageSize", 10000);
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final Logger LOG = Logger.getLogger(TransactionHttpServer.class.getName());
+
+
+    private final TransactionRepository db;
+
+    private final TransactionJsonCache responses;
+
+    private final AdmissionControl admission;
+
+    private final HttpServer server;
+
+    private final ExecutorService workers;
+
+
+    /**
+     * Creates a server and starts it
+     * @param port the TCP port, 0 for any free port
+     * @param threads the number of threads, which answer the requests
+     * @param db the storage
+     * @param responses the cache of the serialized transactions
+     * @param admission limits the requests in flight
+     * @throws IOException if the port can not be opened
+     */
+    public TransactionHttpServer(int port, int threads, TransactionRepository db, TransactionJsonCache responses,
+                                 AdmissionControl admission) throws IOException {
+
+        if(db == null || responses == null || admission == null)
+            throw new IllegalArgumentException("db, responses and admission must not point at NULL");
+
+        if(threads < 1)
+            throw new IllegalArgumentException("threads must be a positive number");
+
+        this.db = db;
+        this.responses = responses;
+        this.admission = admission;
+
+        workers = Executors.newFixedThreadPool(threads, new Workers());
+
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext(PREFIX, this);
+        server.setExecutor(workers);
+        server.start();
+    }
+
+
+    /**
+     * Creates and starts a server configured with the system properties
+     * "server.port" (default 8080) and "transactionservice.http.threads" (default 64)
+     * @return the server
+     * @throws IOException if the port can not be opened
+     * @throws java.lang.IllegalStateException if the service is configured to run in a cluster
+     */
+    public static TransactionHttpServer fromSystemProperties() throws IOException {
+
+        if(System.getProperty("transactionservice.cluster.nodes") != null)
+            throw new IllegalStateException("the light server can not be used in a cluster");
+
+        return new TransactionHttpServer(Integer.getInteger("server.port", 8080),
+                Integer.getInteger("transactionservice.http.threads", 64),
+                TransactionRepositories.getInstance(), TransactionJsonCache.fromSystemProperties(),
+                AdmissionControl.getInstance());
+    }
+
+
+    /**
+     * Returns the TCP port of the server
+     * @return the port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+
+    /**
+     * Stops the server, the requests, which are answered right now, get one second to finish
+     */
+    @Override
+    public void close() {
+
+        server.stop(1);
+        workers.shutdown();
+
+        try {
+            workers.awaitTermination(1, TimeUnit.SECONDS);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+
+        try {
+            String path = exchange.getRequestURI().getRawPath();
+            int slash = path.indexOf('/', PREFIX.length());
+
+            if(slash < 0 || slash == path.length() - 1 || path.indexOf('/', slash + 1) >= 0) {
+                send(exchange, 404, EMPTY);
+                return;
+            }
+
+            String route = path.substring(PREFIX.length(), slash);
+            String argument = decode(path.substring(slash + 1));
+            String method = exchange.getRequestMethod();
+
+            switch(route) {
+                case "transaction":
+                    if(method.equals("PUT"))
+                        putTransaction(exchange, Long.parseLong(argument));
+                    else if(method.equals("GET"))
+                        getTransaction(exchange, Long.parseLong(argument));
+                    else
+                        send(exchange, 405, EMPTY);
+                    break;
+                case "types":
+                    if(method.equals("GET"))
+                        getTransactionsByType(exchange, argument);
+                    else
+                        send(exchange, 405, EMPTY);
+                    break;
+                case "sum":
+                    if(method.equals("GET"))
+                        getSumTransactions(exchange, Long.parseLong(argument));
+                    else
+                        send(exchange, 405, EMPTY);
+                    break;
+                default:
+                    send(exchange, 404, EMPTY);
+            }
+        } catch(AdmissionControl.RejectedException e) {
+            exchange.getResponseHeaders().set("Retry-After", String.valueOf(e.getRetryAfterSeconds()));
+            exchange.getResponseHeaders().set("Content-Type", "application/json;charset=UTF-8");
+            send(exchange, 429, TransactionJsonCodec.get()
+                    .write(new TransactionStatus("error - too many requests, try again later")).toByteArray());
+        } catch(IllegalArgumentException e) {
+            // also a NumberFormatException of the path or a parameter
+            send(exchange, 400, EMPTY);
+        } catch(RuntimeException e) {
+            LOG.log(Level.SEVERE, "the request " + exchange.getRequestURI() + " failed", e);
+
+            // a response, whose headers are sent already, is cut off by close()
+            if(exchange.getResponseCode() < 0) {
+                exchange.getResponseHeaders().set("Content-Type", "application/json;charset=UTF-8");
+                send(exchange, 500, TransactionJsonCodec.get()
+                        .write(new TransactionStatus("error - the request could not be answered")).toByteArray());
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+
+    /**
+     * Stores one transaction, as TransactionController.putTransaction()
+     */
+    private void putTransaction(HttpExchange exchange, long transaction_id) throws IOException {
+
+        long admitted = admission.acquire(AdmissionBudget.PUT);
+        long start = TransactionMetrics.start();
+        try {
+            Transaction transaction;
+            try {
+                transaction = TransactionJsonCodec.get().readTransaction(exchange.getRequestBody());
+            } catch(IOException e) {
+                send(exchange, 400, EMPTY);
+                return;
+            }
+
+            String durability = parameter(exchange, "durability");
+            TransactionStatus status;
+
+            if(transaction.getTransaction_id() != transaction_id)
+                status = new TransactionStatus("error");
+            else if(durability == null)
+                status = new TransactionStatus(db.putTransaction(transaction).getStatus());
+            else
+                status = new TransactionStatus(db.putTransaction(transaction, Durability.valueOf(durability))
+                        .getStatus());
+
+            send(exchange, TransactionJsonCodec.get().write(status));
+        } finally {
+            admission.release(AdmissionBudget.PUT, admitted);
+            TransactionMetrics.stop(Metric.HTTP_PUT, start);
+        }
+    }
+
+
+    /**
+     * Returns one transaction, or an empty body if it is not stored, as TransactionController.getTransaction()
+     */
+    private void getTransaction(HttpExchange exchange, long transaction_id) throws IOException {
+
+        long admitted = admission.acquire(AdmissionBudget.READ);
+        long start = TransactionMetrics.start();
+        try {
+            // the version is read first: a child added meanwhile makes the entry stale, never a stale entry current
+            long version = db.getChildVersion(transaction_id);
+            if(version < 0) {
+                send(exchange, 200, EMPTY);
+                return;
+            }
+
+            byte[] cached = responses.get(transaction_id, version);
+            if(cached != null) {
+                sendJson(exchange, cached);
+                return;
+            }
+
+            Transaction transaction = db.getTransaction(transaction_id);
+            if(transaction == null) {
+                send(exchange, 200, EMPTY);
+                return;
+            }
+
+            byte[] json = TransactionJsonCodec.get().write(transaction).toByteArray();
+            responses.put(transaction_id, version, json);
+
+            sendJson(exchange, json);
+        } finally {
+            admission.release(AdmissionBudget.READ, admitted);
+            TransactionMetrics.stop(Metric.HTTP_GET, start);
+        }
+    }
+
+
+    /**
+     * Returns one page of the IDs of a type as JSON array, as TransactionController.getTransactionsByType().
+     * The page is read on the thread of the request, as the threads of this server only answer requests.
+     */
+    private void getTransactionsByType(HttpExchange exchange, String type) throws IOException {
+
+        long admitted = admission.acquire(AdmissionBudget.AGGREGATE);
+        long start = TransactionMetrics.start();
+        try {
+            String after = parameter(exchange, "after");
+            String limit = parameter(exchange, "limit");
+
+            int size = limit == null ? MAX_PAGE_SIZE : Math.min(Integer.parseInt(limit), MAX_PAGE_SIZE);
+            long cursor = after == null ? 0L : Long.parseLong(after);
+
+            if(cursor < 0 || size < 0)
+                throw new IllegalArgumentException("after and limit can not be negative numbers");
+
+            long[] ids = db.getTransactionsByType(type, cursor, size);
+
+            StringBuilder json = new StringBuilder(ids.length * 8 + 2).append('[');
+            for(int i = 0; i < ids.length; i++)
+                json.append(i == 0 ? "" : ",").append(ids[i]);
+
+            sendJson(exchange, json.append(']').toString().getBytes("US-ASCII"));
+        } finally {
+            admission.release(AdmissionBudget.AGGREGATE, admitted);
+            TransactionMetrics.stop(Metric.HTTP_TYPES, start);
+        }
+    }
+
+
+    /**
+     * Returns the sum of the amounts of a transaction and its descendants, as TransactionController.getSumTransactions()
+     */
+    private void getSumTransactions(HttpExchange exchange, long transaction_id) throws IOException {
+
+        long admitted = admission.acquire(AdmissionBudget.AGGREGATE);
+        long start = TransactionMetrics.start();
+        try {
+            TransactionSum sum = new TransactionSum(0);
+
+            db.getSumTransactions(transaction_id, sum);
+
+            send(exchange, TransactionJsonCodec.get().write(sum));
+        } finally {
+            admission.release(AdmissionBudget.AGGREGATE, admitted);
+            TransactionMetrics.stop(Metric.HTTP_SUM, start);
+        }
+    }
+
+
+
+    /**
+     * Returns the value of a parameter of the query of a request
+     * @return the decoded value, or null if the parameter is missing
+     */
+    private static String parameter(HttpExchange exchange, String name) {
+
+        String query = exchange.getRequestURI().getRawQuery();
+        if(query == null)
+            return null;
+
+        for(String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if(equals < 0 ? pair.equals(name) : pair.regionMatches(0, name, 0, equals) && equals == name.length())
+                return equals < 0 ? "" : decode(pair.substring(equals + 1));
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Decodes a segment of a path or a value of a query
+     * @throws java.lang.IllegalArgumentException if the value is not encoded correctly
+     */
+    private static String decode(String value) {
+
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch(UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    private static void send(HttpExchange exchange, TransactionJsonCodec codec) throws IOException {
+
+        drain(exchange);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json;charset=UTF-8");
+        exchange.sendResponseHeaders(200, codec.size());
+
+        try(OutputStream body = exchange.getResponseBody()) {
+            codec.writeTo(body);
+        }
+    }
+
+
+    private static void sendJson(HttpExchange exchange, byte[] json) throws IOException {
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json;charset=UTF-8");
+        send(exchange, 200, json);
+    }
+
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+
+        drain(exchange);
+
+        // -1 is a response without a body
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+
+        if(body.length > 0)
+            try(OutputStream stream = exchange.getResponseBody()) {
+                stream.write(body);
+            }
+    }
+
+
+    /**
+     * Reads the rest of the request body. The server keeps a connection open for the next request
+     * only if the body of the last one was read to its end, also if it was empty.
+     */
+    private static void drain(HttpExchange exchange) throws IOException {
+
+        InputStream body = exchange.getRequestBody();
+        byte[] skipped = new byte[512];
+
+        while(body.read(skipped) >= 0) {
+            // nothing to do with the bytes
+        }
+    }
+
+
+    /**
+     * Names the threads of the server
+     */
+    private static final class Workers implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "http-" + count.incrementAndGet());
+        }
+    }
+
+}
@@ -0,0 +1,202 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class TransactionIngestClient sends transactions to a TransactionIngestServer.
+ *
+ * send() writes the frames into a buffer and sends them, whenever the buffer is full, without waiting for their ACKs.
+ * At most WINDOW transactions are sent without an ACK: if there are more, send() reads ACKs first, so the ACKs,
+ * which the server can not send, stay bounded. await() sends the rest and returns the results of all transactions
+ * since the last call. A type is sent once per connection, as a TYPE frame before its first transaction.
+ *
+ * An object of this class is not thread safe.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class TransactionIngestClient implements Closeable {
+
+    /**Maximal number of transactions, which are sent without an ACK*/
+    public static final int WINDOW = 65536;
+
+    /**Status message of a transaction, which the server refused, as its type was not defined or its IDs are invalid*/
+    public static final String ERROR_STATUS = "error - unknown type or invalid ID";
+
+    /**Status message of a transaction, which the server refused, as it was overloaded. It may be sent again later*/
+    public static final String BUSY_STATUS = "error - too many requests, try again later";
+
+
+    private final SocketChannel channel;
+
+    private final ByteBuffer out = ByteBuffer.allocate(1 << 16);
+
+    private final ByteBuffer in = ByteBuffer.allocate(1 << 16);
+
+    private final Map<String, Integer> types = new HashMap<>();
+
+    /**Status bytes of the ACKs since the last await()*/
+    private byte[] statuses = new byte[1024];
+
+    private int acknowledged;
+
+    private int sent;
+
+    /**Transactions of the current ACK frame, which were not read yet*/
+    private int frameRest;
+
+
+    /**
+     * Connects to a server
+     * @param host the host of the server
+     * @param port the port of the server
+     * @throws IOException if the server can not be reached
+     */
+    public TransactionIngestClient(String host, int port) throws IOException {
+
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+        in.flip();
+    }
+
+
+    /**
+     * Sends a transaction
+     * @param transaction the transaction
+     * @throws IOException if the connection fails
+     */
+    public void send(Transaction transaction) throws IOException {
+
+        if(transaction == null || transaction.getType() == null)
+            throw new IllegalArgumentException("transaction and its type must not point at NULL");
+
+        Integer code = types.get(transaction.getType());
+        if(code == null)
+            code = define(transaction.getType());
+
+        while(sent - acknowledged >= WINDOW) {
+            flush();
+            receive();
+        }
+
+        reserve(4 + TransactionIngestServer.TRANSACTION_LENGTH);
+        out.putInt(TransactionIngestServer.TRANSACTION_LENGTH);
+        out.put(TransactionIngestServer.TRANSACTION);
+        out.putLong(transaction.getTransaction_id());
+        out.putLong(transaction.getParent_id());
+        out.putDouble(transaction.getAmount());
+        out.putInt(code);
+
+        sent++;
+    }
+
+
+    /**
+     * Sends all buffered transactions and waits for their ACKs
+     * @return the status of every transaction sent since the last call, in the order they were sent
+     * @throws IOException if the connection fails
+     */
+    public List<TransactionStatus> await() throws IOException {
+
+        flush();
+        while(acknowledged < sent)
+            receive();
+
+        List<TransactionStatus> results = new ArrayList<>(acknowledged);
+        for(int i = 0; i < acknowledged; i++) {
+            PutResult result = TransactionIngestServer.result(statuses[i]);
+            results.add(new TransactionStatus(result != null ? result.getStatus()
+                    : statuses[i] == TransactionIngestServer.BUSY ? BUSY_STATUS : ERROR_STATUS));
+        }
+
+        sent = 0;
+        acknowledged = 0;
+        return results;
+    }
+
+
+    /**
+     * Sends all buffered frames
+     * @throws IOException if the connection fails
+     */
+    public void flush() throws IOException {
+
+        out.flip();
+        while(out.hasRemaining())
+            channel.write(out);
+        out.clear();
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+
+
+    private int define(String type) throws IOException {
+
+        byte[] name = type.getBytes(StandardCharsets.UTF_8);
+        if(name.length > TransactionIngestServer.MAX_FRAME - 5 || types.size() == TransactionIngestServer.MAX_TYPES)
+            throw new IllegalArgumentException("the type is too long, or there are too many types");
+
+        int code = types.size();
+        types.put(type, code);
+
+        reserve(4 + 5 + name.length);
+        out.putInt(5 + name.length);
+        out.put(TransactionIngestServer.TYPE);
+        out.putInt(code);
+        out.put(name);
+
+        return code;
+    }
+
+
+    private void reserve(int bytes) throws IOException {
+        if(out.remaining() < bytes)
+            flush();
+    }
+
+
+    /**
+     * Reads at least one status byte of the ACKs
+     */
+    private void receive() throws IOException {
+
+        do {
+            if(frameRest == 0 && in.remaining() >= 4)
+                frameRest = in.getInt();
+
+            int n = Math.min(frameRest, in.remaining());
+            if(n > 0) {
+                if(acknowledged + n > statuses.length)
+                    statuses = Arrays.copyOf(statuses, Math.max(statuses.length * 2, acknowledged + n));
+                in.get(statuses, acknowledged, n);
+                acknowledged += n;
+                frameRest -= n;
+                return;
+            }
+
+            in.compact();
+            int read = channel.read(in);
+            in.flip();
+            if(read < 0)
+                throw new EOFException("the server closed the connection");
+        } while(true);
+    }
+
+}
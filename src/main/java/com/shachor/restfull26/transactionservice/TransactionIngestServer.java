@@ -0,0 +1,505 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class TransactionIngestServer accepts transactions over TCP in a binary format, besides the REST API,
+ * for clients which send a continuous stream of transactions (see TransactionIngestClient).
+ *
+ * Every frame starts with its length as int, which does not count the length itself, followed by its kind:
+ * TYPE         kind 1, int code, the UTF-8 bytes of the type. Defines the type of a code for this connection.
+ * TRANSACTION  kind 2, long transaction_id, long parent_id (0 for a root), double amount, int code of the type.
+ * All numbers are big endian. The server answers the TRANSACTION frames in the order they were sent with ACK frames:
+ * int count, followed by one status byte per transaction: the ordinal of its PutResult, ERROR if the code of
+ * its type was not defined or its IDs are invalid (an ID of 0 or less, a negative parent ID or itself as parent),
+ * or BUSY if the server was overloaded. A client does not wait for the ACK of a frame
+ * before it sends the next frames. A malformed frame closes the connection.
+ *
+ * One thread serves all connections with a Selector. The complete frames of each read are handed to a worker thread,
+ * which stores them with TransactionRepository.putTransactions(), so they are handled exactly as a batch
+ * of the REST API, and share one wait for the shards and the log. The selector thread sends the ACKs, once the
+ * worker is done, so a batch, which waits for the disk, does not hold back the other connections. While a batch
+ * of a connection is stored, or its ACKs can not be sent, the frames of the connection are not read.
+ * A batch is admitted with the PUT budget of the AdmissionControl; if its limit is reached, the transactions
+ * of the batch are not stored and get the status BUSY.
+ *
+ * Started by App, if the system property "transactionservice.ingest.port" is set, with
+ * "transactionservice.ingest.threads" (default the number of cores, at least 2) worker threads.
+ * Not available in a cluster, as the transactions would have to be forwarded to their node over HTTP.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class TransactionIngestServer implements Closeable {
+
+    /**Kind of a frame, which defines a type*/
+    public static final byte TYPE = 1;
+
+    /**Kind of a frame, which holds a transaction*/
+    public static final byte TRANSACTION = 2;
+
+    /**Length of a TRANSACTION frame*/
+    public static final int TRANSACTION_LENGTH = 1 + 8 + 8 + 8 + 4;
+
+    /**Maximal length of a frame*/
+    public static final int MAX_FRAME = 1 << 16;
+
+    /**Maximal number of type codes of a connection*/
+    public static final int MAX_TYPES = 1 << 16;
+
+    /**Status of a transaction, whose type was not defined or whose IDs are invalid*/
+    public static final byte ERROR = -1;
+
+    /**Status of a transaction, which was not stored, as the server was overloaded. It may be sent again later*/
+    public static final byte BUSY = -2;
+
+    private static final PutResult[] RESULTS = PutResult.values();
+
+    /**Size of the buffers of a connection*/
+    private static final int BUFFER = 1 << 17;
+
+    /**Bytes of ACKs of a connection, which are not sent yet, above which its frames are not read*/
+    private static final int MAX_PENDING = 1 << 20;
+
+
+    private final TransactionRepository db;
+
+    private final Durability durability;
+
+    private final AdmissionControl admission;
+
+    private final Selector selector;
+
+    private final ServerSocketChannel server;
+
+    private final Thread thread;
+
+    /**Store the batches, so the selector thread never waits for the storage*/
+    private final ExecutorService workers;
+
+    /**The connections, whose batch was stored, to be acknowledged by the selector thread*/
+    private final Queue<Connection> stored = new ConcurrentLinkedQueue<>();
+
+
+    /**
+     * Creates a server and starts its thread
+     * @param port the TCP port, 0 for any free port
+     * @param db the storage
+     * @param durability the durability of the stored transactions, if the storage writes a log
+     * @param threads the number of threads, which store the batches
+     * @param admission limits the batches in flight with its PUT budget
+     * @throws IOException if the port can not be opened
+     */
+    public TransactionIngestServer(int port, TransactionRepository db, Durability durability, int threads,
+                                   AdmissionControl admission) throws IOException {
+
+        if(db == null || durability == null || admission == null)
+            throw new IllegalArgumentException("db, durability and admission must not point at NULL");
+
+        if(threads < 1)
+            throw new IllegalArgumentException("threads must be a positive number");
+
+        this.db = db;
+        this.durability = durability;
+        this.admission = admission;
+
+        AtomicInteger number = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(threads, task -> {
+            Thread worker = new Thread(task, "ingest-worker-" + number.incrementAndGet());
+            worker.setDaemon(true);
+            return worker;
+        });
+
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+
+        thread = new Thread(this::run, "ingest-" + getPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**
+     * Creates and starts a server configured with the system properties
+     * @return the server, or null if the system property "transactionservice.ingest.port" is not set
+     * @throws IOException if the port can not be opened
+     */
+    public static TransactionIngestServer fromSystemProperties() throws IOException {
+
+        Integer port = Integer.getInteger("transactionservice.ingest.port");
+        if(port == null)
+            return null;
+
+        if(System.getProperty("transactionservice.cluster.nodes") != null)
+            throw new IllegalStateException("the ingest port can not be used in a cluster");
+
+        TransactionRepository db = TransactionRepositories.getInstance();
+
+        return new TransactionIngestServer(port, db, db.getDurability(),
+                Integer.getInteger("transactionservice.ingest.threads",
+                        Math.max(2, Runtime.getRuntime().availableProcessors())),
+                AdmissionControl.getInstance());
+    }
+
+
+    /**
+     * Returns the TCP port of the server
+     * @return the port
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+
+    /**
+     * Returns the PutResult of a status byte of an ACK frame
+     * @param status the status byte
+     * @return the result, or null for ERROR and BUSY
+     */
+    public static PutResult result(byte status) {
+        return status < 0 ? null : RESULTS[status];
+    }
+
+
+    /**
+     * Closes the port and all connections
+     */
+    @Override
+    public void close() throws IOException {
+
+        server.close();
+        selector.wakeup();
+
+        try {
+            thread.join();
+            workers.shutdown();
+            workers.awaitTermination(1, TimeUnit.SECONDS);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+
+    private void run() {
+
+        try {
+            while(server.isOpen()) {
+                selector.select();
+
+                acknowledgeStored();
+
+                for(Iterator<SelectionKey> keys = selector.selectedKeys().iterator(); keys.hasNext(); ) {
+
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    try {
+                        if(key.isAcceptable())
+                            accept();
+                        else {
+                            Connection connection = (Connection) key.attachment();
+                            if(key.isWritable())
+                                connection.write();
+                            if(key.isValid() && key.isReadable())
+                                connection.read();
+                        }
+                    } catch(IOException | RuntimeException e) {
+                        key.channel().close();
+                    }
+                }
+            }
+        } catch(IOException | ClosedSelectorException e) {
+            // closed
+        } finally {
+            for(SelectionKey key : selector.keys())
+                try {
+                    key.channel().close();
+                } catch(IOException e) {
+                    // closing anyway
+                }
+            try {
+                selector.close();
+            } catch(IOException e) {
+                // closing anyway
+            }
+        }
+    }
+
+
+    /**
+     * Sends the ACKs of the batches, which the workers have stored, and reads the next frames of their connections
+     */
+    private void acknowledgeStored() throws IOException {
+
+        for(Connection connection; (connection = stored.poll()) != null; )
+            try {
+                connection.acknowledge();
+            } catch(IOException | RuntimeException e) {
+                connection.channel.close();
+            }
+    }
+
+
+    private void accept() throws IOException {
+
+        SocketChannel channel = server.accept();
+        if(channel == null)
+            return;
+
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+    }
+
+
+
+    /**
+     * The buffers and the types of one connection
+     */
+    private final class Connection {
+
+        private final SocketChannel channel;
+
+        private final SelectionKey key;
+
+        /**Received bytes, which are not handled yet*/
+        private final ByteBuffer in = ByteBuffer.allocate(BUFFER);
+
+        /**ACKs, which are not sent yet*/
+        private ByteBuffer out = ByteBuffer.allocate(BUFFER);
+
+        /**The types by their code*/
+        private String[] types = new String[16];
+
+        /**The transactions and the status of each TRANSACTION frame of one read*/
+        private final List<Transaction> batch = new ArrayList<>();
+
+        private byte[] statuses = new byte[1024];
+
+        /**The number of frames, which a worker stores right now, 0 if none. Frames are not read meanwhile*/
+        private int storing;
+
+        /**The error of the batch, which the worker could not store*/
+        private RuntimeException failure;
+
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+
+        void read() throws IOException {
+
+            if(channel.read(in) < 0) {
+                channel.close();
+                return;
+            }
+
+            in.flip();
+            int frames = 0;
+
+            while(in.remaining() >= 4) {
+
+                int length = in.getInt(in.position());
+                if(length < 1 || length > MAX_FRAME)
+                    throw new ProtocolException("invalid frame length " + length);
+
+                if(in.remaining() < 4 + length)
+                    break;
+
+                in.getInt();
+                byte kind = in.get();
+
+                if(kind == TYPE) {
+                    define(in.getInt(), length - 5);
+                } else if(kind == TRANSACTION) {
+                    if(length != TRANSACTION_LENGTH)
+                        throw new ProtocolException("invalid length of a transaction frame " + length);
+
+                    long transaction_id = in.getLong();
+                    long parent_id = in.getLong();
+                    double amount = in.getDouble();
+                    int code = in.getInt();
+
+                    String type = code >= 0 && code < types.length ? types[code] : null;
+
+                    if(frames == statuses.length)
+                        statuses = Arrays.copyOf(statuses, frames * 2);
+
+                    // the wire values are checked here, as the transaction is created without the checks
+                    if(type == null || transaction_id <= 0L || parent_id < 0L || parent_id == transaction_id)
+                        statuses[frames++] = ERROR;
+                    else {
+                        statuses[frames++] = 0;
+                        batch.add(new Transaction(transaction_id, amount, type, parent_id, null));
+                    }
+                } else
+                    throw new ProtocolException("unknown frame kind " + kind);
+            }
+
+            in.compact();
+
+            if(frames > 0)
+                submit(frames);
+        }
+
+
+        private void define(int code, int length) throws ProtocolException {
+
+            if(code < 0 || code >= MAX_TYPES || length < 0)
+                throw new ProtocolException("invalid type code " + code);
+
+            if(code >= types.length)
+                types = Arrays.copyOf(types, Math.max(types.length * 2, code + 1));
+
+            types[code] = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        }
+
+
+        /**
+         * Hands the frames of one read to a worker, or acknowledges them at once,
+         * if none of them is stored or the PUT budget is used up. Runs on the selector thread
+         */
+        private void submit(int frames) throws IOException {
+
+            if(batch.isEmpty()) {
+                acknowledge(frames);
+                return;
+            }
+
+            long admitted;
+            try {
+                admitted = admission.acquire(AdmissionBudget.PUT);
+            } catch(AdmissionControl.RejectedException e) {
+                for(int i = 0; i < frames; i++)
+                    if(statuses[i] != ERROR)
+                        statuses[i] = BUSY;
+                batch.clear();
+                acknowledge(frames);
+                return;
+            }
+
+            storing = frames;
+            interest();
+
+            try {
+                workers.execute(() -> store(frames, admitted));
+            } catch(RejectedExecutionException e) {
+                admission.release(AdmissionBudget.PUT, admitted, true);
+                throw e;
+            }
+        }
+
+
+        /**
+         * Stores the transactions of the frames. Runs on a worker thread, the selector thread does not touch
+         * the batch and the statuses until it takes the connection from the queue of the stored ones
+         */
+        private void store(int frames, long admitted) {
+
+            long start = TransactionMetrics.start();
+            try {
+                List<PutResult> results = db.putTransactions(batch.iterator(), durability);
+
+                int next = 0;
+                for(int i = 0; i < frames; i++)
+                    if(statuses[i] != ERROR)
+                        statuses[i] = (byte) results.get(next++).ordinal();
+            } catch(RuntimeException e) {
+                failure = e;
+            } finally {
+                batch.clear();
+                admission.release(AdmissionBudget.PUT, admitted);
+                TransactionMetrics.stop(Metric.INGEST_BATCH, start);
+
+                stored.add(this);
+                selector.wakeup();
+            }
+        }
+
+
+        /**
+         * Acknowledges the batch, which a worker has stored, and reads the next frames. Runs on the selector thread
+         */
+        void acknowledge() throws IOException {
+
+            int frames = storing;
+            storing = 0;
+
+            if(failure != null)
+                throw failure;
+
+            acknowledge(frames);
+        }
+
+
+        private void acknowledge(int frames) throws IOException {
+
+            if(out.remaining() < 4 + frames) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + 4 + frames));
+                out.flip();
+                bigger.put(out);
+                out = bigger;
+            }
+
+            out.putInt(frames);
+            out.put(statuses, 0, frames);
+
+            write();
+        }
+
+
+        void write() throws IOException {
+
+            out.flip();
+            channel.write(out);
+            out.compact();
+
+            interest();
+        }
+
+
+        /**
+         * Reads frames, unless a batch is stored or too many ACKs are pending, and writes pending ACKs
+         */
+        private void interest() {
+
+            int pending = out.position();
+            int read = storing > 0 ? 0 : SelectionKey.OP_READ;
+
+            key.interestOps(pending == 0 ? read
+                    : pending > MAX_PENDING ? SelectionKey.OP_WRITE
+                    : read | SelectionKey.OP_WRITE);
+        }
+    }
+
+}
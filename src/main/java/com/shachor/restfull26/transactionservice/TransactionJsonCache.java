@@ -0,0 +1,201 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class TransactionJsonCache keeps the serialized JSON of transactions, so a transaction, which is read often,
+ * is not serialized for every GET request again.
+ *
+ * A stored transaction never changes, except that children are added to it. Every entry is kept with the child
+ * version of the transaction (see TransactionDBMockSingleton.getChildVersion(long)) at the time the transaction
+ * was read, and is only returned for the same version, so an entry is invalid as soon as a child is added.
+ *
+ * The cache is bounded by the bytes of its entries, including an estimated overhead per entry, and evicts the least
+ * recently used entries first. It is split into segments by the ID, each with its own lock and its own share of the
+ * bytes, so concurrent readers of different IDs rarely wait for each other.
+ * Configured with the system property "transactionservice.cache.maxBytes" (default 64 MB, 0 to disable).
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class TransactionJsonCache {
+
+    /**Number of segments*/
+    private static final int SEGMENTS = 16;
+
+    /**Estimated bytes of an entry besides the JSON: map entry, key, value object and array header*/
+    private static final int ENTRY_OVERHEAD = 96;
+
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private final long maxBytes;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+
+    /**
+     * Creates an empty cache
+     * @param maxBytes the maximal number of bytes of all entries, 0 to cache nothing
+     */
+    public TransactionJsonCache(long maxBytes) {
+
+        if(maxBytes < 0)
+            throw new IllegalArgumentException("maxBytes can not be a negative number");
+
+        this.maxBytes = maxBytes;
+
+        for(int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment(maxBytes / SEGMENTS);
+    }
+
+
+    /**
+     * Creates a cache configured with the system properties
+     * @return the cache
+     */
+    public static TransactionJsonCache fromSystemProperties() {
+        return new TransactionJsonCache(Long.getLong("transactionservice.cache.maxBytes", 64L << 20));
+    }
+
+
+    /**
+     * Returns the JSON of a transaction, if it was cached for the current child version of the transaction
+     * @param id the unique ID of the transaction
+     * @param version the current child version of the transaction
+     * @return the JSON, or null on a miss
+     */
+    public byte[] get(long id, long version) {
+
+        Entry entry = maxBytes == 0 ? null : segment(id).get(id);
+
+        if(entry == null || entry.version != version) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return entry.json;
+    }
+
+
+    /**
+     * Caches the JSON of a transaction, and evicts the least recently used entries if the cache is full
+     * @param id the unique ID of the transaction
+     * @param version the child version of the transaction, before the transaction was read
+     * @param json the JSON of the transaction
+     */
+    public void put(long id, long version, byte[] json) {
+
+        if(maxBytes == 0)
+            return;
+
+        evictions.add(segment(id).put(id, new Entry(version, json)));
+    }
+
+
+    /**
+     * Returns the counters and the size of the cache
+     * @return an object of the class CacheStatus
+     */
+    public CacheStatus getStatus() {
+
+        long entries = 0L;
+        long bytes = 0L;
+
+        for(Segment segment : segments)
+            synchronized (segment) {
+                entries += segment.size();
+                bytes += segment.bytes;
+            }
+
+        return new CacheStatus(hits.sum(), misses.sum(), evictions.sum(), entries, bytes, maxBytes);
+    }
+
+
+    /**
+     * Removes all entries and resets the counters
+     */
+    public void clear() {
+
+        for(Segment segment : segments)
+            synchronized (segment) {
+                segment.clear();
+                segment.bytes = 0L;
+            }
+
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+
+    private Segment segment(long id) {
+        return segments[(int) (id ^ id >>> 32) * 0x9E3779B9 >>> 28];
+    }
+
+
+
+    private static final class Entry {
+
+        final long version;
+
+        final byte[] json;
+
+        Entry(long version, byte[] json) {
+            this.version = version;
+            this.json = json;
+        }
+
+        long bytes() {
+            return json.length + ENTRY_OVERHEAD;
+        }
+    }
+
+
+    /**
+     * One segment: a map in the order of the last access, with the bytes of its entries
+     */
+    private static final class Segment extends LinkedHashMap<Long, Entry> {
+
+        private final long maxBytes;
+
+        long bytes;
+
+        Segment(long maxBytes) {
+            super(256, 0.75f, true);
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized Entry get(long id) {
+            return super.get(id);
+        }
+
+        /**
+         * @return number of evicted entries
+         */
+        synchronized int put(long id, Entry entry) {
+
+            if(entry.bytes() > maxBytes)
+                return 0;
+
+            Entry replaced = super.put(id, entry);
+            bytes += entry.bytes() - (replaced == null ? 0L : replaced.bytes());
+
+            int evicted = 0;
+            for(Iterator<Entry> eldest = values().iterator(); bytes > maxBytes && eldest.hasNext(); evicted++) {
+                bytes -= eldest.next().bytes();
+                eldest.remove();
+            }
+
+            return evicted;
+        }
+    }
+
+}
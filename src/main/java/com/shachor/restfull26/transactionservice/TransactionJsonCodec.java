@@ -0,0 +1,1034 @@
+package com.shachor.restfull26.transactionservice;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Class TransactionJsonCodec reads and writes the JSON of Transaction, TransactionSum and TransactionStatus
+ * without reflection, as the fields of these classes are fixed.
+ *
+ * A transaction is parsed straight from the bytes of the request into its primitive fields, a type, which was read
+ * before, is taken from a small table instead of allocating a new String. A response is written into a buffer,
+ * which is reused by the next response of the same thread. A buffer, which grew above MAX_RETAINED for a large
+ * request or response, is dropped once it was used, so a thread does not keep it for the rest of its life.
+ *
+ * The codec handles the JSON, which the clients of the service send: numbers as plain JSON numbers, a type without
+ * escapes, unknown fields of any kind. Everything else (a number in quotes, a null instead of a number, a malformed
+ * body) is handed to Jackson, so the result and the errors are always the same as with Jackson.
+ * Written JSON is byte for byte the same as the JSON written by Jackson.
+ *
+ * An object of this class is not thread safe, every thread gets its own with get().
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public final class TransactionJsonCodec {
+
+    private static final ThreadLocal<TransactionJsonCodec> CODECS = ThreadLocal.withInitial(TransactionJsonCodec::new);
+
+    /**Powers of ten, which are exact doubles*/
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    /**Types, which were read before, by a hash of their bytes*/
+    private static final String[] TYPES = new String[1024];
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] TRANSACTION_ID = ascii("transaction_id");
+    private static final byte[] TYPE = ascii("type");
+    private static final byte[] AMOUNT = ascii("amount");
+    private static final byte[] PARENT_ID = ascii("parent_id");
+    private static final byte[] CHILD_IDS = ascii("child_ids");
+    private static final byte[] CHILD_ID = ascii("child_id");
+
+    private static final byte[] NULL = ascii("null");
+    private static final byte[] TRUE = ascii("true");
+    private static final byte[] FALSE = ascii("false");
+
+    private static final byte[] TRANSACTION_START = ascii("{\"transaction_id\":");
+    private static final byte[] TYPE_FIELD = ascii(",\"type\":");
+    private static final byte[] AMOUNT_FIELD = ascii(",\"amount\":");
+    private static final byte[] PARENT_ID_FIELD = ascii(",\"parent_id\":");
+    private static final byte[] CHILD_IDS_FIELD = ascii(",\"child_ids\":");
+    private static final byte[] SUM_START = ascii("{\"sum\":");
+    private static final byte[] STATUS_START = ascii("{\"status\":");
+
+    private static final Unsupported UNSUPPORTED = new Unsupported();
+
+    /**The size, above which a buffer is not kept for the next request or response*/
+    private static final int MAX_RETAINED = 64 * 1024;
+
+    private static final int OUT_SIZE = 512;
+
+    private static final int IN_SIZE = 4096;
+
+
+    /**The JSON which is written*/
+    private byte[] out = new byte[OUT_SIZE];
+
+    private int size;
+
+    /**The body of a request, which is read completely*/
+    private byte[] in = new byte[IN_SIZE];
+
+    /**The JSON which is parsed, its position and its end*/
+    private byte[] json;
+
+    private int pos;
+
+    private int end;
+
+
+    private TransactionJsonCodec() {}
+
+
+    /**
+     * Reads the JSON, which the codec does not handle, and writes the objects, which the codec can not write.
+     * Created at its first use, so a server, whose requests never need it, does not load Jackson at start.
+     */
+    private static final class Fallback {
+
+        static final ObjectMapper MAPPER = new ObjectMapper()
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    }
+
+
+    /**
+     * Returns the codec of the current thread
+     * @return the codec
+     */
+    public static TransactionJsonCodec get() {
+        return CODECS.get();
+    }
+
+
+    /**
+     * Returns if objects of a class are written by the codec
+     * @param type the class
+     * @return true for Transaction, TransactionSum and TransactionStatus
+     */
+    public static boolean canWrite(Class<?> type) {
+        return type == Transaction.class || type == TransactionSum.class || type == TransactionStatus.class;
+    }
+
+
+
+    /**
+     * Reads a transaction
+     * @param json the bytes of the JSON
+     * @param offset the index of the first byte
+     * @param length the number of bytes
+     * @return an object of the class Transaction
+     * @throws IOException if the JSON is malformed or does not describe a transaction
+     */
+    public Transaction readTransaction(byte[] json, int offset, int length) throws IOException {
+
+        try {
+            start(json, offset, length);
+            Transaction transaction = parseTransaction();
+            finish();
+            return transaction;
+        } catch(Unsupported e) {
+            return Fallback.MAPPER.readValue(json, offset, length, Transaction.class);
+        }
+    }
+
+
+    /**
+     * Reads a transaction from a request body
+     * @param body the request body
+     * @return an object of the class Transaction
+     * @throws IOException if the body can not be read, is malformed or does not describe a transaction
+     */
+    public Transaction readTransaction(InputStream body) throws IOException {
+
+        try {
+            return readTransaction(in, 0, readFully(body));
+        } finally {
+            releaseInput();
+        }
+    }
+
+
+    /**
+     * Reads a JSON array of transactions from a request body
+     * @param body the request body
+     * @return the transactions in the order of the array
+     * @throws IOException if the body can not be read, is malformed or does not describe transactions
+     */
+    public List<Transaction> readTransactions(InputStream body) throws IOException {
+
+        int length = readFully(body);
+
+        try {
+            start(in, 0, length);
+            List<Transaction> transactions = new ArrayList<>();
+
+            skipWhitespace();
+            expect('[');
+            skipWhitespace();
+            if(peek() == ']')
+                pos++;
+            else
+                for(;;) {
+                    transactions.add(parseTransaction());
+                    skipWhitespace();
+                    byte c = next();
+                    if(c == ']')
+                        break;
+                    if(c != ',')
+                        throw UNSUPPORTED;
+                }
+
+            finish();
+            return transactions;
+        } catch(Unsupported e) {
+            return new ArrayList<>(Arrays.asList(Fallback.MAPPER.readValue(in, 0, length, Transaction[].class)));
+        } finally {
+            releaseInput();
+        }
+    }
+
+
+    /**
+     * Reads the transactions of an NDJSON request body, one line at a time while the body is read.
+     * The returned iterator throws an UncheckedIOException, if the body can not be read or a line is malformed.
+     * @param body the request body
+     * @return the transactions in the order of the lines, empty lines are skipped
+     */
+    public static Iterator<Transaction> readLines(InputStream body) {
+        return new LineIterator(body);
+    }
+
+
+
+    /**
+     * Writes a transaction into the buffer of the codec
+     * @param transaction the transaction
+     * @return this codec
+     */
+    public TransactionJsonCodec write(Transaction transaction) {
+
+        size = 0;
+        try {
+            append(TRANSACTION_START);
+            appendLong(transaction.getTransaction_id());
+            append(TYPE_FIELD);
+            appendString(transaction.getType());
+            append(AMOUNT_FIELD);
+            appendDouble(transaction.getAmount());
+            append(PARENT_ID_FIELD);
+            appendLong(transaction.getParent_id());
+            append(CHILD_IDS_FIELD);
+
+            synchronized (transaction) {
+                Set<Long> children = transaction.getChild_ids();
+
+                if(children == null)
+                    append(NULL);
+                else {
+                    append('[');
+                    boolean first = true;
+                    for(Long child : children) {
+                        if(!first)
+                            append(',');
+                        appendLong(child);
+                        first = false;
+                    }
+                    append(']');
+                }
+            }
+
+            append('}');
+        } catch(Unsupported e) {
+            fallback(transaction);
+        }
+        return this;
+    }
+
+
+    /**
+     * Writes a sum into the buffer of the codec
+     * @param sum the sum
+     * @return this codec
+     */
+    public TransactionJsonCodec write(TransactionSum sum) {
+
+        size = 0;
+        append(SUM_START);
+        appendDouble(sum.getSum());
+        append('}');
+        return this;
+    }
+
+
+    /**
+     * Writes a status into the buffer of the codec
+     * @param status the status
+     * @return this codec
+     */
+    public TransactionJsonCodec write(TransactionStatus status) {
+
+        size = 0;
+        try {
+            appendStatus(status);
+        } catch(Unsupported e) {
+            fallback(status);
+        }
+        return this;
+    }
+
+
+    /**
+     * Writes a JSON array of statuses into the buffer of the codec
+     * @param statuses the statuses
+     * @return this codec
+     */
+    public TransactionJsonCodec write(List<TransactionStatus> statuses) {
+
+        size = 0;
+        try {
+            append('[');
+            for(int i = 0; i < statuses.size(); i++) {
+                if(i > 0)
+                    append(',');
+                appendStatus(statuses.get(i));
+            }
+            append(']');
+        } catch(Unsupported e) {
+            fallback(statuses);
+        }
+        return this;
+    }
+
+
+    /**
+     * Writes an object of one of the classes, for which canWrite(Class) is true, into the buffer of the codec
+     * @param body the object
+     * @return this codec
+     */
+    public TransactionJsonCodec write(Object body) {
+
+        if(body instanceof Transaction)
+            return write((Transaction) body);
+
+        if(body instanceof TransactionSum)
+            return write((TransactionSum) body);
+
+        if(body instanceof TransactionStatus)
+            return write((TransactionStatus) body);
+
+        throw new IllegalArgumentException("objects of " + body.getClass() + " are not written by the codec");
+    }
+
+
+    /**
+     * Returns the number of bytes of the last written JSON
+     * @return the number of bytes
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Sends the last written JSON to a stream. The JSON can be taken once, with this method or toByteArray()
+     * @param stream the stream
+     * @throws IOException if the stream can not be written
+     */
+    public void writeTo(OutputStream stream) throws IOException {
+
+        try {
+            stream.write(out, 0, size);
+        } finally {
+            releaseOutput();
+        }
+    }
+
+
+    /**
+     * Returns a copy of the last written JSON. The JSON can be taken once, with this method or writeTo()
+     * @return the JSON
+     */
+    public byte[] toByteArray() {
+
+        byte[] json = Arrays.copyOf(out, size);
+        releaseOutput();
+
+        return json;
+    }
+
+
+    /**
+     * Drops the output buffer, if it grew above MAX_RETAINED
+     */
+    private void releaseOutput() {
+
+        if(out.length > MAX_RETAINED)
+            out = new byte[OUT_SIZE];
+    }
+
+
+    /**
+     * Drops the input buffer, if it grew above MAX_RETAINED, and the reference to the parsed JSON
+     */
+    private void releaseInput() {
+
+        json = null;
+        if(in.length > MAX_RETAINED)
+            in = new byte[IN_SIZE];
+    }
+
+
+
+    // ---------------------------------------------------------------- reading
+
+    private int readFully(InputStream body) throws IOException {
+
+        int length = 0;
+        for(int n; (n = body.read(in, length, in.length - length)) >= 0; ) {
+            length += n;
+            if(length == in.length)
+                in = Arrays.copyOf(in, in.length * 2);
+        }
+        return length;
+    }
+
+
+    private void start(byte[] json, int offset, int length) {
+        this.json = json;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+
+    private void finish() {
+
+        skipWhitespace();
+        if(pos != end)
+            throw UNSUPPORTED;
+    }
+
+
+    private Transaction parseTransaction() {
+
+        long id = 0L;
+        String type = null;
+        double amount = 0.0;
+        long parent = 0L;
+        Set<Long> children = null;
+
+        skipWhitespace();
+        expect('{');
+        skipWhitespace();
+        if(peek() == '}') {
+            pos++;
+            return new Transaction(id, amount, type, parent, children);
+        }
+
+        for(;;) {
+            skipWhitespace();
+            expect('"');
+            int name = pos;
+            skipString();
+            int length = pos - 1 - name;
+
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+
+            if(equals(name, length, TRANSACTION_ID))
+                id = parseLong();
+            else if(equals(name, length, TYPE))
+                type = parseType();
+            else if(equals(name, length, AMOUNT))
+                amount = parseDouble();
+            else if(equals(name, length, PARENT_ID))
+                parent = parseLong();
+            else if(equals(name, length, CHILD_IDS))
+                children = parseChildren();
+            else if(equals(name, length, CHILD_ID))
+                throw UNSUPPORTED;    // Jackson adds it with setChild_id
+            else
+                skipValue();
+
+            skipWhitespace();
+            byte c = next();
+            if(c == '}')
+                return new Transaction(id, amount, type, parent, children);
+            if(c != ',')
+                throw UNSUPPORTED;
+        }
+    }
+
+
+    private long parseLong() {
+
+        boolean negative = peek() == '-';
+        if(negative)
+            pos++;
+
+        int first = pos;
+        long value = 0L;
+        while(pos < end && json[pos] >= '0' && json[pos] <= '9')
+            value = value * 10 + (json[pos++] - '0');
+
+        int digits = pos - first;
+        if(digits == 0 || digits > 18 || (digits > 1 && json[first] == '0'))
+            throw UNSUPPORTED;
+
+        if(pos < end && (json[pos] == '.' || json[pos] == 'e' || json[pos] == 'E'))
+            throw UNSUPPORTED;
+
+        return negative ? -value : value;
+    }
+
+
+    private double parseDouble() {
+
+        int start = pos;
+        boolean negative = peek() == '-';
+        if(negative)
+            pos++;
+
+        long mantissa = 0L;
+        int digits = 0;
+        int exponent = 0;
+
+        int first = pos;
+        while(pos < end && json[pos] >= '0' && json[pos] <= '9') {
+            mantissa = mantissa * 10 + (json[pos++] - '0');
+            digits++;
+        }
+        if(digits == 0 || (digits > 1 && json[first] == '0'))
+            throw UNSUPPORTED;
+
+        if(pos < end && json[pos] == '.') {
+            pos++;
+            int fraction = pos;
+            while(pos < end && json[pos] >= '0' && json[pos] <= '9') {
+                mantissa = mantissa * 10 + (json[pos++] - '0');
+                digits++;
+            }
+            if(pos == fraction)
+                throw UNSUPPORTED;
+            exponent = fraction - pos;
+        }
+
+        if(pos < end && (json[pos] == 'e' || json[pos] == 'E')) {
+            pos++;
+            boolean negativeExponent = false;
+            if(pos < end && (json[pos] == '+' || json[pos] == '-'))
+                negativeExponent = json[pos++] == '-';
+
+            int expStart = pos;
+            int value = 0;
+            while(pos < end && json[pos] >= '0' && json[pos] <= '9' && value < 100000)
+                value = value * 10 + (json[pos++] - '0');
+            if(pos == expStart || (pos < end && json[pos] >= '0' && json[pos] <= '9'))
+                throw UNSUPPORTED;
+            exponent += negativeExponent ? -value : value;
+        }
+
+        // an integer of at most 15 digits and a power of ten up to 10^22 are exact doubles,
+        // so one multiplication or division is rounded correctly, as Double.parseDouble would
+        if(digits <= 15 && exponent >= -22 && exponent <= 22) {
+            double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+            return negative ? -value : value;
+        }
+
+        return Double.parseDouble(new String(json, start, pos - start, StandardCharsets.US_ASCII));
+    }
+
+
+    private String parseType() {
+
+        if(peek() == 'n') {
+            expect(NULL);
+            return null;
+        }
+
+        expect('"');
+        int start = pos;
+        int hash = 0x811C9DC5;
+
+        for(;;) {
+            if(pos == end)
+                throw UNSUPPORTED;
+
+            byte c = json[pos++];
+            if(c == '"')
+                break;
+            if(c == '\\' || c < 0x20)
+                throw UNSUPPORTED;
+
+            hash = (hash ^ c) * 0x01000193;
+        }
+
+        int length = pos - 1 - start;
+        int slot = hash & (TYPES.length - 1);
+
+        String type = TYPES[slot];
+        if(type != null && equals(start, length, type))
+            return type;
+
+        type = new String(json, start, length, StandardCharsets.US_ASCII);
+        TYPES[slot] = type;
+        return type;
+    }
+
+
+    private Set<Long> parseChildren() {
+
+        if(peek() == 'n') {
+            expect(NULL);
+            return null;
+        }
+
+        expect('[');
+        Set<Long> children = new HashSet<>();
+
+        skipWhitespace();
+        if(peek() == ']') {
+            pos++;
+            return children;
+        }
+
+        for(;;) {
+            skipWhitespace();
+            children.add(parseLong());
+            skipWhitespace();
+            byte c = next();
+            if(c == ']')
+                return children;
+            if(c != ',')
+                throw UNSUPPORTED;
+        }
+    }
+
+
+    private void skipValue() {
+
+        byte c = peek();
+
+        if(c == '"') {
+            pos++;
+            skipString();
+        } else if(c == '{') {
+            pos++;
+            skipWhitespace();
+            if(peek() == '}') {
+                pos++;
+                return;
+            }
+            for(;;) {
+                skipWhitespace();
+                expect('"');
+                skipString();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                skipValue();
+                skipWhitespace();
+                c = next();
+                if(c == '}')
+                    return;
+                if(c != ',')
+                    throw UNSUPPORTED;
+            }
+        } else if(c == '[') {
+            pos++;
+            skipWhitespace();
+            if(peek() == ']') {
+                pos++;
+                return;
+            }
+            for(;;) {
+                skipWhitespace();
+                skipValue();
+                skipWhitespace();
+                c = next();
+                if(c == ']')
+                    return;
+                if(c != ',')
+                    throw UNSUPPORTED;
+            }
+        } else if(c == 't')
+            expect(TRUE);
+        else if(c == 'f')
+            expect(FALSE);
+        else if(c == 'n')
+            expect(NULL);
+        else
+            parseDouble();
+    }
+
+
+    /**
+     * Moves behind the closing quote of a string, whose opening quote was read
+     */
+    private void skipString() {
+
+        for(;;) {
+            if(pos == end)
+                throw UNSUPPORTED;
+
+            byte c = json[pos++];
+            if(c == '"')
+                return;
+            if(c == '\\' || c < 0x20 && c >= 0)
+                throw UNSUPPORTED;
+        }
+    }
+
+
+    private void skipWhitespace() {
+        while(pos < end && (json[pos] == ' ' || json[pos] == '\n' || json[pos] == '\r' || json[pos] == '\t'))
+            pos++;
+    }
+
+
+    private byte peek() {
+
+        if(pos == end)
+            throw UNSUPPORTED;
+
+        return json[pos];
+    }
+
+
+    private byte next() {
+
+        if(pos == end)
+            throw UNSUPPORTED;
+
+        return json[pos++];
+    }
+
+
+    private void expect(char c) {
+
+        if(pos == end || json[pos] != c)
+            throw UNSUPPORTED;
+
+        pos++;
+    }
+
+
+    private void expect(byte[] literal) {
+
+        if(end - pos < literal.length || !equals(pos, literal.length, literal))
+            throw UNSUPPORTED;
+
+        pos += literal.length;
+    }
+
+
+    private boolean equals(int start, int length, byte[] bytes) {
+
+        if(length != bytes.length)
+            return false;
+
+        for(int i = 0; i < length; i++)
+            if(json[start + i] != bytes[i])
+                return false;
+
+        return true;
+    }
+
+
+    private boolean equals(int start, int length, String string) {
+
+        if(length != string.length())
+            return false;
+
+        for(int i = 0; i < length; i++)
+            if(json[start + i] != string.charAt(i))
+                return false;
+
+        return true;
+    }
+
+
+
+    // ---------------------------------------------------------------- writing
+
+    private void appendStatus(TransactionStatus status) {
+        append(STATUS_START);
+        appendString(status.getStatus());
+        append('}');
+    }
+
+
+    private void appendLong(long value) {
+
+        if(value == Long.MIN_VALUE) {
+            append(ascii(Long.toString(value)));
+            return;
+        }
+
+        ensure(20);
+        if(value < 0) {
+            out[size++] = '-';
+            value = -value;
+        }
+
+        int digits = 1;
+        for(long rest = value / 10; rest != 0; rest /= 10)
+            digits++;
+
+        for(int i = size + digits - 1; i >= size; i--) {
+            out[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        size += digits;
+    }
+
+
+    private void appendDouble(double value) {
+
+        if(Double.isNaN(value) || Double.isInfinite(value)) {
+            append('"');
+            append(ascii(Double.toString(value)));
+            append('"');
+            return;
+        }
+
+        // Double.toString writes an integer below 10^7 as the integer and ".0"
+        if(value == Math.rint(value) && Math.abs(value) < 1e7) {
+            if(value < 0 || 1 / value < 0)
+                append('-');
+            appendLong((long) Math.abs(value));
+            append('.');
+            append('0');
+            return;
+        }
+
+        append(ascii(Double.toString(value)));
+    }
+
+
+    private void appendString(String value) {
+
+        if(value == null) {
+            append(NULL);
+            return;
+        }
+
+        ensure(value.length() * 6 + 2);
+        out[size++] = '"';
+
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if(c >= 0x80) {
+                appendUtf8(value, i);
+                if(Character.isHighSurrogate(c))
+                    i++;
+            } else if(c == '"' || c == '\\') {
+                out[size++] = '\\';
+                out[size++] = (byte) c;
+            } else if(c >= 0x20) {
+                out[size++] = (byte) c;
+            } else {
+                out[size++] = '\\';
+                switch(c) {
+                    case '\b': out[size++] = 'b'; break;
+                    case '\t': out[size++] = 't'; break;
+                    case '\n': out[size++] = 'n'; break;
+                    case '\f': out[size++] = 'f'; break;
+                    case '\r': out[size++] = 'r'; break;
+                    default:
+                        out[size++] = 'u';
+                        out[size++] = '0';
+                        out[size++] = '0';
+                        out[size++] = HEX[c >> 4];
+                        out[size++] = HEX[c & 0xF];
+                }
+            }
+        }
+
+        out[size++] = '"';
+    }
+
+
+    private void appendUtf8(String value, int i) {
+
+        char c = value.charAt(i);
+
+        if(c < 0x800) {
+            out[size++] = (byte) (0xC0 | c >> 6);
+            out[size++] = (byte) (0x80 | c & 0x3F);
+        } else if(!Character.isSurrogate(c)) {
+            out[size++] = (byte) (0xE0 | c >> 12);
+            out[size++] = (byte) (0x80 | c >> 6 & 0x3F);
+            out[size++] = (byte) (0x80 | c & 0x3F);
+        } else {
+            if(!Character.isHighSurrogate(c) || i + 1 == value.length()
+                    || !Character.isLowSurrogate(value.charAt(i + 1)))
+                throw UNSUPPORTED;
+
+            int code = Character.toCodePoint(c, value.charAt(i + 1));
+            out[size++] = (byte) (0xF0 | code >> 18);
+            out[size++] = (byte) (0x80 | code >> 12 & 0x3F);
+            out[size++] = (byte) (0x80 | code >> 6 & 0x3F);
+            out[size++] = (byte) (0x80 | code & 0x3F);
+        }
+    }
+
+
+    private void append(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, out, size, bytes.length);
+        size += bytes.length;
+    }
+
+
+    private void append(char c) {
+        ensure(1);
+        out[size++] = (byte) c;
+    }
+
+
+    private void ensure(int bytes) {
+        if(size + bytes > out.length)
+            out = Arrays.copyOf(out, Math.max(out.length * 2, size + bytes));
+    }
+
+
+    private void fallback(Object body) {
+
+        try {
+            byte[] json = Fallback.MAPPER.writeValueAsBytes(body);
+            size = 0;
+            append(json);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+
+
+    /**
+     * Thrown when the JSON is not handled by the codec, without a stack trace, as it only leads to Jackson
+     */
+    private static final class Unsupported extends RuntimeException {
+
+        Unsupported() {
+            super("the JSON is not handled by the codec", null, false, false);
+        }
+    }
+
+
+    /**
+     * Reads the lines of an NDJSON body into a buffer, and parses every line with the codec of the thread
+     */
+    private static final class LineIterator implements Iterator<Transaction> {
+
+        private final InputStream body;
+
+        private byte[] buffer = new byte[65536];
+
+        /**The start of the next line and the end of the read bytes*/
+        private int start;
+
+        private int limit;
+
+        private boolean eof;
+
+        private Transaction next;
+
+        LineIterator(InputStream body) {
+            this.body = body;
+        }
+
+        @Override
+        public boolean hasNext() {
+
+            try {
+                while(next == null) {
+                    int newline = -1;
+                    for(int i = start; i < limit; i++)
+                        if(buffer[i] == '\n') {
+                            newline = i;
+                            break;
+                        }
+
+                    if(newline < 0 && !eof) {
+                        fill();
+                        continue;
+                    }
+
+                    int lineEnd = newline < 0 ? limit : newline;
+                    int lineStart = start;
+                    start = newline < 0 ? limit : newline + 1;
+
+                    if(!blank(lineStart, lineEnd))
+                        next = get().readTransaction(buffer, lineStart, lineEnd - lineStart);
+                    else if(newline < 0)
+                        return false;
+                }
+                return true;
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public Transaction next() {
+
+            if(!hasNext())
+                throw new NoSuchElementException();
+
+            Transaction transaction = next;
+            next = null;
+            return transaction;
+        }
+
+        private void fill() throws IOException {
+
+            if(start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, limit - start);
+                limit -= start;
+                start = 0;
+            }
+            if(limit == buffer.length)
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+
+            int n = body.read(buffer, limit, buffer.length - limit);
+            if(n < 0)
+                eof = true;
+            else
+                limit += n;
+        }
+
+        private boolean blank(int from, int to) {
+
+            for(int i = from; i < to; i++)
+                if(buffer[i] != ' ' && buffer[i] != '\t' && buffer[i] != '\r')
+                    return false;
+
+            return true;
+        }
+    }
+
+}
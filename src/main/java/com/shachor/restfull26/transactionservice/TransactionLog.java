@@ -0,0 +1,485 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Class TransactionLog is an append-only write-ahead log of stored transactions, which lets the storage
+ * survive a restart.
+ *
+ * Every accepted transaction is appended as a compact binary record to the current segment file of the log
+ * directory. A segment is closed and a new one is started as soon as it is bigger than the segment size.
+ * A record consists of:
+ * int length, long transaction_id, long parent_id, double amount, UTF-8 bytes of the type, int CRC32 of the record.
+ * The length counts the bytes between itself and the CRC.
+ *
+ * Writes are made durable by fsync according to the Durability of each request. With GROUP durability, a flusher
+ * thread issues one fsync for all writers waiting at that time, so concurrent writers share the cost of an fsync.
+ * At startup replay() reads all segments in order, and cuts off a torn record at the end of the last segment.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class TransactionLog implements Closeable {
+
+    /**Prefix of the names of the segment files*/
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    /**Suffix of the names of the segment files*/
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /**Size of a record without the type: length, id, parent, amount and CRC*/
+    private static final int RECORD_OVERHEAD = 4 + 8 + 8 + 8 + 4;
+
+
+    /**The directory of the segment files*/
+    private final Path directory;
+
+    /**Size in bytes, above which a new segment is started*/
+    private final long segmentBytes;
+
+    /**Microseconds the flusher waits for more writers before it issues an fsync*/
+    private final long lingerMicros;
+
+    /**The segment, to which records are appended*/
+    private FileChannel segment;
+
+    /**Number of the current segment, which is also part of its file name*/
+    private long segmentNumber;
+
+    /**Position of the end of the log over all segments. Only changed while holding the lock of this object*/
+    private long written;
+
+    /**Position up to which the log is known to be durable*/
+    private volatile long durable;
+
+    /**Position up to which a GROUP writer waits for the flusher*/
+    private long requested;
+
+    /**The lock and condition of the flusher and the waiting writers*/
+    private final Object flushLock = new Object();
+
+    /**The thread, which issues the fsyncs for GROUP durability*/
+    private final Thread flusher;
+
+    private volatile boolean closed;
+
+    /**Reusable buffer for one record, only used while holding the lock of this object*/
+    private ByteBuffer buffer = ByteBuffer.allocate(256);
+
+    private final CRC32 crc = new CRC32();
+
+
+    /**
+     * Opens the log in a directory, and creates the directory if it does not exist.
+     * New records are appended to a new segment, after the existing ones.
+     * @param directory the directory of the segment files
+     * @param segmentBytes size in bytes, above which a new segment is started
+     * @param lingerMicros microseconds the flusher waits for more writers before it issues an fsync
+     * @throws IOException if the directory can not be created or read
+     */
+    public TransactionLog(Path directory, long segmentBytes, long lingerMicros) throws IOException {
+
+        if(segmentBytes <= 0 || lingerMicros < 0)
+            throw new IllegalArgumentException("segmentBytes must be positive and lingerMicros must not be negative");
+
+        this.directory = Files.createDirectories(directory);
+        this.segmentBytes = segmentBytes;
+        this.lingerMicros = lingerMicros;
+
+        List<Path> segments = segments();
+        segmentNumber = segments.isEmpty() ? 0 : number(segments.get(segments.size() - 1));
+
+        flusher = new Thread(this::flushLoop, "transaction-log-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+
+    /**
+     * Opens the log configured with the system properties "transactionservice.log.dir",
+     * "transactionservice.log.segmentBytes" (default 64 MB) and "transactionservice.log.lingerMicros" (default 0).
+     * @return the log, or null if no log directory is configured
+     */
+    public static TransactionLog fromSystemProperties() {
+
+        String dir = System.getProperty("transactionservice.log.dir");
+        if(dir == null)
+            return null;
+
+        try {
+            return new TransactionLog(Paths.get(dir),
+                    Long.getLong("transactionservice.log.segmentBytes", 64L << 20),
+                    Long.getLong("transactionservice.log.lingerMicros", 0L));
+        } catch(IOException e) {
+            throw new UncheckedIOException("can not open the transaction log in " + dir, e);
+        }
+    }
+
+
+
+    /**
+     * Reads all records of all segments in order. A torn record at the end of the last segment,
+     * left by a crash during a write, is cut off.
+     * Must be called before the first append().
+     * @param consumer receives the transaction of each record
+     * @return number of replayed records
+     * @throws IOException if a segment can not be read
+     */
+    public long replay(Consumer<Transaction> consumer) throws IOException {
+        return replay(0L, consumer);
+    }
+
+
+    /**
+     * Reads the records of all segments starting with a given segment number, as the method above.
+     * Used after a snapshot was loaded, which already holds the records of the earlier segments.
+     * @param fromSegment the number of the first segment to read
+     * @param consumer receives the transaction of each record
+     * @return number of replayed records
+     * @throws IOException if a segment can not be read
+     */
+    public long replay(long fromSegment, Consumer<Transaction> consumer) throws IOException {
+
+        long count = 0;
+        List<Path> segments = segments();
+        segments.removeIf(path -> number(path) < fromSegment);
+
+        for(int i = 0; i < segments.size(); i++) {
+
+            Path path = segments.get(i);
+            ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(path));
+            int valid = 0;
+
+            while(data.remaining() >= RECORD_OVERHEAD) {
+
+                int start = data.position();
+                int length = data.getInt();
+
+                if(length < RECORD_OVERHEAD - 8 || length > data.remaining() - 4)
+                    break;
+
+                crc.reset();
+                crc.update(data.array(), start + 4, length);
+                if((int) crc.getValue() != data.getInt(start + 4 + length))
+                    break;
+
+                long id = data.getLong();
+                long parent_id = data.getLong();
+                double amount = data.getDouble();
+                String type = new String(data.array(), data.position(), length - 24, StandardCharsets.UTF_8);
+
+                valid = start + 4 + length + 4;
+                data.position(valid);
+                consumer.accept(new Transaction(id, amount, type, parent_id, null));
+                count++;
+            }
+
+            if(valid < data.limit()) {
+
+                if(i < segments.size() - 1)
+                    throw new IOException("corrupt record in " + path + " at position " + valid);
+
+                try(FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    channel.truncate(valid);
+                }
+            }
+        }
+
+        return count;
+    }
+
+
+
+    /**
+     * Appends the record of a transaction and waits until it is as durable as requested
+     * @param transaction the stored transaction
+     * @param durability the durability, which is needed before the method returns
+     */
+    public void append(Transaction transaction, Durability durability) {
+        await(write(transaction), durability);
+    }
+
+
+    /**
+     * Appends the record of a transaction to the log, without waiting for an fsync
+     * @param transaction the stored transaction
+     * @return the position of the end of the record, to be passed to await()
+     */
+    public synchronized long write(Transaction transaction) {
+
+        if(closed)
+            throw new IllegalStateException("the transaction log is closed");
+
+        byte[] type = transaction.getType().getBytes(StandardCharsets.UTF_8);
+        int length = 24 + type.length;
+
+        if(buffer.capacity() < length + 8)
+            buffer = ByteBuffer.allocate(length + 8);
+
+        buffer.clear();
+        buffer.putInt(length)
+              .putLong(transaction.getTransaction_id())
+              .putLong(transaction.getParent_id())
+              .putDouble(transaction.getAmount())
+              .put(type);
+
+        crc.reset();
+        crc.update(buffer.array(), 4, length);
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        try {
+            if(segment == null || segment.position() >= segmentBytes)
+                roll();
+
+            while(buffer.hasRemaining())
+                segment.write(buffer);
+
+        } catch(IOException e) {
+            throw new UncheckedIOException("can not write to the transaction log", e);
+        }
+
+        written += length + 8;
+        return written;
+    }
+
+
+    /**
+     * Waits until the log is durable up to a position
+     * @param position a position returned by write()
+     * @param durability the needed durability
+     */
+    public void await(long position, Durability durability) {
+
+        switch(durability) {
+
+            case ASYNC:
+                return;
+
+            case SYNC:
+                force(position);
+                return;
+
+            case GROUP:
+                if(durable >= position)
+                    return;
+
+                synchronized (flushLock) {
+
+                    if(position > requested) {
+                        requested = position;
+                        flushLock.notifyAll();
+                    }
+
+                    while(durable < position) {
+                        if(closed)
+                            throw new IllegalStateException("the transaction log is closed");
+                        try {
+                            flushLock.wait();
+                        } catch(InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IllegalStateException("interrupted while waiting for the transaction log", e);
+                        }
+                    }
+                }
+        }
+    }
+
+
+    /**
+     * Issues an fsync of the current segment, which makes the log durable up to at least the given position
+     */
+    private void force(long position) {
+
+        FileChannel channel;
+        long end;
+
+        synchronized (this) {
+            channel = segment;
+            end = written;
+        }
+
+        if(channel == null || durable >= position)
+            return;
+
+        try {
+            channel.force(false);
+        } catch(ClosedChannelException e) {
+            //the segment was rolled or the log closed, both make all written records durable
+            return;
+        } catch(IOException e) {
+            throw new UncheckedIOException("can not fsync the transaction log", e);
+        }
+
+        synchronized (flushLock) {
+            if(end > durable) {
+                durable = end;
+                flushLock.notifyAll();
+            }
+        }
+    }
+
+
+    /**
+     * The loop of the flusher thread: waits for GROUP writers and issues one fsync for all of them
+     */
+    private void flushLoop() {
+
+        while(!closed) {
+            try {
+                synchronized (flushLock) {
+                    while(requested <= durable && !closed)
+                        flushLock.wait();
+                }
+
+                if(lingerMicros > 0)
+                    TimeUnit.MICROSECONDS.sleep(lingerMicros);
+
+                force(Long.MAX_VALUE);
+
+            } catch(InterruptedException e) {
+                return;
+            } catch(UncheckedIOException e) {
+                //the writers keep waiting, the next request retries the fsync
+            }
+        }
+    }
+
+
+    /**
+     * Starts a new segment. The previous segment is made durable first, so an fsync of the current segment
+     * always covers all earlier records. Called while holding the lock of this object.
+     */
+    private void roll() throws IOException {
+
+        if(segment != null) {
+            segment.force(false);
+            segment.close();
+
+            synchronized (flushLock) {
+                durable = written;
+                flushLock.notifyAll();
+            }
+        }
+
+        segmentNumber++;
+        segment = FileChannel.open(directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, segmentNumber,
+                SEGMENT_SUFFIX)), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+
+    /**
+     * Closes the current segment and starts a new one. All records written before this call are
+     * in segments with a smaller number than the returned one, and are durable.
+     * @return the number of the new segment
+     */
+    public synchronized long startSegment() {
+
+        if(closed)
+            throw new IllegalStateException("the transaction log is closed");
+
+        try {
+            roll();
+        } catch(IOException e) {
+            throw new UncheckedIOException("can not start a new segment of the transaction log", e);
+        }
+
+        return segmentNumber;
+    }
+
+
+    /**
+     * Deletes the segments, whose records are no longer needed because a snapshot holds them
+     * @param number the number of the first segment to keep
+     * @throws IOException if a segment can not be deleted
+     */
+    public void deleteSegmentsBefore(long number) throws IOException {
+
+        for(Path path : segments())
+            if(number(path) < number)
+                Files.delete(path);
+    }
+
+
+    /**
+     * Returns the directory of the segment files
+     * @return the directory
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+
+    /**
+     * Returns the segment files of the log directory, ordered by their number
+     */
+    private List<Path> segments() throws IOException {
+
+        List<Path> segments = new ArrayList<>();
+
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for(Path path : stream)
+                segments.add(path);
+        }
+
+        Collections.sort(segments);
+        return segments;
+    }
+
+
+    private static long number(Path segment) {
+
+        String name = segment.getFileName().toString();
+
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+
+    /**
+     * Makes all written records durable and closes the log
+     */
+    @Override
+    public void close() {
+
+        synchronized (this) {
+
+            if(closed)
+                return;
+
+            try {
+                if(segment != null) {
+                    segment.force(false);
+                    segment.close();
+                }
+            } catch(IOException e) {
+                throw new UncheckedIOException("can not close the transaction log", e);
+            } finally {
+                closed = true;
+            }
+
+            synchronized (flushLock) {
+                durable = written;
+                flushLock.notifyAll();
+            }
+        }
+
+        flusher.interrupt();
+    }
+
+}
@@ -0,0 +1,104 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class TransactionMetrics records a Histogram for every Metric, i.e. the latency of every REST mapping
+ * and store operation, and the sizes of subtrees, batches and type pages.
+ *
+ * Recording does not allocate and does not lock. The metrics are turned off entirely with the system property
+ * "transactionservice.metrics.enabled=false": the flag is a constant, so the JIT removes the calls to
+ * System.nanoTime() and the recording from the request path.
+ *
+ * Typical use:
+ * long start = TransactionMetrics.start();
+ * ...
+ * TransactionMetrics.stop(Metric.STORE_GET, start);
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public final class TransactionMetrics {
+
+    /**False if no metric is recorded*/
+    public static final boolean ENABLED =
+            Boolean.parseBoolean(System.getProperty("transactionservice.metrics.enabled", "true"));
+
+    private static final Metric[] METRICS = Metric.values();
+
+    private static final Histogram[] HISTOGRAMS = new Histogram[METRICS.length];
+
+    /**The time, when the metrics were reset*/
+    private static volatile long resetNanos = System.nanoTime();
+
+    static {
+        for(int i = 0; i < HISTOGRAMS.length; i++)
+            HISTOGRAMS[i] = new Histogram();
+    }
+
+
+    private TransactionMetrics() {}
+
+
+    /**
+     * Returns the start time of an operation
+     * @return the current time in nanoseconds, or 0 if the metrics are turned off
+     */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0L;
+    }
+
+
+    /**
+     * Records the latency of an operation
+     * @param metric the metric of the operation
+     * @param start the start time returned by start()
+     */
+    public static void stop(Metric metric, long start) {
+        if(ENABLED)
+            HISTOGRAMS[metric.ordinal()].record(System.nanoTime() - start);
+    }
+
+
+    /**
+     * Records a size
+     * @param metric the metric of the size
+     * @param value the size
+     */
+    public static void record(Metric metric, long value) {
+        if(ENABLED)
+            HISTOGRAMS[metric.ordinal()].record(value);
+    }
+
+
+    /**
+     * Returns the distributions of all metrics, which have recorded values, mapped by their names
+     * @return the distributions, empty if the metrics are turned off
+     */
+    public static Map<String, MetricSnapshot> report() {
+
+        Map<String, MetricSnapshot> report = new LinkedHashMap<>();
+        double seconds = (System.nanoTime() - resetNanos) / 1e9;
+
+        for(Metric metric : METRICS) {
+            Histogram.Snapshot snapshot = HISTOGRAMS[metric.ordinal()].snapshot();
+            if(snapshot.getCount() > 0)
+                report.put(metric.getName(), new MetricSnapshot(metric, snapshot, seconds));
+        }
+
+        return report;
+    }
+
+
+    /**
+     * Removes all recorded values
+     */
+    public static void reset() {
+
+        for(Histogram histogram : HISTOGRAMS)
+            histogram.reset();
+
+        resetNanos = System.nanoTime();
+    }
+
+}
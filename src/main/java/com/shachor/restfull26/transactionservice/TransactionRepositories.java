@@ -0,0 +1,89 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class TransactionRepositories creates the TransactionRepository configured with the system properties:
+ * transactionservice.repository           heap (default), mmap, jdbc or tiered
+ * transactionservice.repository.dir       the directory of the files of mmap, jdbc and tiered (default "repository")
+ * transactionservice.repository.readers   the number of database connections of the readers of jdbc
+ * transactionservice.tiered.maxResident   the maximal number of transactions on the heap of tiered (default 1,000,000)
+ * transactionservice.tiered.idleSeconds   the time after which an unused tree of tiered is evicted (default 300)
+ * transactionservice.log.durability       the durability of a request, which does not ask for a certain one
+ *
+ * The TransactionController, the ClusterNode and the TransactionIngestServer share the one instance
+ * returned by getInstance().
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class TransactionRepositories {
+
+    private static TransactionRepository repository;
+
+
+    private TransactionRepositories() {}
+
+
+    /**
+     * Returns the configured repository of this service.  Creates it in case there isn't any,
+     * and closes it when the JVM shuts down.
+     * @return the repository
+     */
+    public static synchronized TransactionRepository getInstance() {
+
+        if(repository == null) {
+            repository = fromSystemProperties();
+            if(!(repository instanceof TransactionDBMockSingleton)) {
+                TransactionRepository opened = repository;
+                Runtime.getRuntime().addShutdownHook(new Thread(opened::close, "repository-close"));
+            }
+        }
+
+        return repository;
+    }
+
+
+    /**
+     * Opens the repository configured with the system properties
+     * @return the TransactionDBMockSingleton, or a new repository, which the caller has to close
+     * @throws java.lang.IllegalArgumentException if "transactionservice.repository" has an unknown value
+     */
+    public static TransactionRepository fromSystemProperties() {
+
+        String name = System.getProperty("transactionservice.repository", "heap");
+        if(name.equals("heap"))
+            return TransactionDBMockSingleton.getInstance();
+
+        Path directory = Paths.get(System.getProperty("transactionservice.repository.dir", "repository"));
+        Durability durability = Durability.valueOf(System.getProperty("transactionservice.log.durability", "GROUP"));
+
+        try {
+            switch(name) {
+                case "mmap":
+                    return new MappedTransactionRepository(directory, durability);
+                case "jdbc":
+                    return new JdbcTransactionRepository(directory, durability,
+                            Integer.getInteger("transactionservice.repository.readers",
+                                    2 * Runtime.getRuntime().availableProcessors()));
+                case "tiered":
+                    return new TieredTransactionRepository(directory,
+                            Integer.getInteger("transactionservice.tiered.maxResident", 1_000_000),
+                            TimeUnit.SECONDS.toMillis(Long.getLong("transactionservice.tiered.idleSeconds", 300L)),
+                            TransactionLog.fromSystemProperties(), durability);
+                default:
+                    throw new IllegalArgumentException(
+                            "transactionservice.repository must be heap, mmap, jdbc or tiered, not " + name);
+            }
+        } catch(IOException e) {
+            throw new UncheckedIOException("can not open the repository in " + directory, e);
+        } catch(SQLException e) {
+            throw new IllegalStateException("can not open the database in " + directory, e);
+        }
+    }
+
+}
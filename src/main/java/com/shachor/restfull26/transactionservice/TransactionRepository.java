@@ -0,0 +1,198 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Interface TransactionRepository is the storage engine behind the TransactionController, the ClusterNode
+ * and the TransactionIngestServer. The implementation is selected with the system property
+ * "transactionservice.repository" (see TransactionRepositories):
+ * heap   TransactionDBMockSingleton, the columns of sharded TransactionTables on the heap (default)
+ * mmap   MappedTransactionRepository, fixed size records in memory-mapped files
+ * jdbc   JdbcTransactionRepository, an embedded H2 database written behind in batches
+ * tiered TieredTransactionRepository, the recently used trees on the heap, the others in segment files
+ *
+ * All implementations follow the same contract, which is checked for each of them by the same conformance tests:
+ * a transaction, whose parent is not stored yet, is parked until its parent arrives, and a transaction is read back
+ * as soon as putTransaction() returned STORED, whatever the durability.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public interface TransactionRepository extends AutoCloseable {
+
+    /**
+     * Stores one transaction with the configured durability
+     * @param transaction an object of the class Transaction
+     * @return STORED, PARKED if it waits for its parent transaction, DUPLICATE if it already was stored or parked,
+     *         FAILED if the storage could not store it
+     * @throws java.lang.IllegalArgumentException if the parameter value is null, the transaction has no type,
+     * an ID of 0 or less, a negative parent ID or itself as parent
+     */
+    default PutResult putTransaction(Transaction transaction) {
+        return putTransaction(transaction, getDurability());
+    }
+
+
+    /**
+     * Stores one transaction
+     * @param transaction an object of the class Transaction
+     * @param durability when the method returns: after the transaction is buffered (ASYNC),
+     *                   or written to disk together with others (GROUP) or on its own (SYNC)
+     * @return STORED, PARKED if it waits for its parent transaction, DUPLICATE if it already was stored or parked,
+     *         FAILED if the storage could not store it
+     * @throws java.lang.IllegalArgumentException if the parameter value is null, the transaction has no type,
+     * an ID of 0 or less, a negative parent ID or itself as parent
+     */
+    PutResult putTransaction(Transaction transaction, Durability durability);
+
+
+    /**
+     * Stores a batch of transactions in the order of the batch, with one wait for durability.
+     * A transaction may be a child of a transaction, which comes later in the same batch or in a later batch.
+     * @param batch the transactions to store
+     * @param durability when the method returns
+     * @return the result for each transaction, in the order of the batch
+     * @throws java.lang.IllegalArgumentException if the batch or one of its transactions is null,
+     * or a transaction has no type, an ID of 0 or less, a negative parent ID or itself as parent
+     */
+    List<PutResult> putTransactions(Iterator<Transaction> batch, Durability durability);
+
+
+    /**
+     * Returns the durability of a request, which does not ask for a certain one
+     * @return the configured durability
+     */
+    Durability getDurability();
+
+
+    /**
+     * Returns how the storage was recovered when it was opened
+     * @return the recovery status
+     */
+    RecoveryStatus getRecoveryStatus();
+
+
+    /**
+     * Returns a stored transaction, created from the storage and not connected to it
+     * @param id the unique ID of the transaction
+     * @return the transaction, or null if it is not stored
+     */
+    Transaction getTransaction(long id);
+
+
+    /**
+     * Returns a value, which changes whenever a child is added to a transaction
+     * @param id the unique ID of the transaction
+     * @return the child version, -1 if the transaction is not stored
+     */
+    long getChildVersion(long id);
+
+
+    /**
+     * Returns true if a transaction was accepted and not parked
+     * @param id the unique ID of the transaction
+     * @return true if the transaction is held by this storage
+     */
+    boolean containsTransaction(long id);
+
+
+    /**
+     * Returns the unique IDs of the missing parent transactions, for which transactions are parked
+     * @return a copy of the IDs
+     */
+    Set<Long> getParkedParents();
+
+
+    /**
+     * Removes the transactions, which are parked waiting for a parent transaction, so they can be stored somewhere
+     * else. Nothing is removed if the parent transaction was accepted in the meantime.
+     * @param parent_id the unique ID of the parent transaction
+     * @return the removed transactions, an empty list if there are none
+     */
+    List<Transaction> takeParkedChildren(long parent_id);
+
+
+    /**
+     * Returns one page of the unique IDs of all transactions of a type, in ascending order
+     * @param type the type of the transactions
+     * @param after only IDs bigger than this value are returned, 0 to start with the smallest ID
+     * @param limit the maximal number of returned IDs
+     * @return the IDs, an empty array if the type does not exist yet
+     */
+    long[] getTransactionsByType(String type, long after, int limit);
+
+
+    /**
+     * Returns the number of transactions of a type
+     * @param type the type of the transactions
+     * @return the number of transactions, 0 if the type does not exist yet
+     */
+    long countTransactionsByType(String type);
+
+
+    /**
+     * Returns the number, sum, minimum and maximum of the amounts of all transactions of a type
+     * @param type the type of the transactions
+     * @return the stats of the type, with count 0 if the type does not exist yet
+     */
+    TypeStats getTypeStats(String type);
+
+
+    /**
+     * Adds the sum of the amounts of a transaction and all its descendants to a TransactionSum
+     * @param id the unique ID of the transaction
+     * @param sum the object, to which the sum is added
+     * @return the given object, unchanged if the transaction is not stored
+     */
+    TransactionSum getSumTransactions(Long id, TransactionSum sum);
+
+
+    /**
+     * Walks a transaction and its descendants depth first and passes them to a visitor, one at a time
+     * @param id the unique ID of the transaction
+     * @param maxDepth the maximal depth of the visited descendants, 0 visits only the transaction itself
+     * @param types the types of the transactions, which are passed to the visitor, null for all types
+     * @param visitor gets the visited transactions, returns false to stop the walk
+     * @return false if the visitor stopped the walk
+     */
+    boolean walkDescendants(long id, int maxDepth, Collection<String> types, Predicate<Transaction> visitor);
+
+
+    /**
+     * Returns a transaction with its depth in its tree
+     * @param id the unique ID of the transaction
+     * @return the transaction and its depth, or none if the transaction is not stored
+     */
+    TransactionAncestor getDepth(long id);
+
+
+    /**
+     * Returns the ancestor of a transaction at a depth of its tree
+     * @param id the unique ID of the transaction
+     * @param depth the depth of the ancestor, 0 for the root
+     * @return the ancestor, the transaction itself at its own depth, or none if the transaction is not stored
+     *         or not as deep
+     */
+    TransactionAncestor getAncestor(long id, int depth);
+
+
+    /**
+     * Returns the lowest common ancestor of two transactions
+     * @param a the unique ID of a transaction
+     * @param b the unique ID of another transaction
+     * @return the deepest transaction, which is an ancestor of both or one of them,
+     *         or none if they are not stored or not in the same tree
+     */
+    TransactionAncestor getLowestCommonAncestor(long a, long b);
+
+
+    /**
+     * Writes everything, which is buffered, and releases the files of the storage
+     */
+    @Override
+    void close();
+
+}
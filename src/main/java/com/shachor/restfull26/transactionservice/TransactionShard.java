@@ -0,0 +1,249 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class TransactionShard holds a part of the transaction trees of the storage: a TransactionTable, the TypeIndex
+ * of its transactions and a SubtreeTraversal over it.
+ *
+ * The shard is written by exactly one thread. Transactions are routed to the shard through a RingBuffer,
+ * and its writer thread stores them one after the other in the order of the ring, so the table and the type index
+ * of a shard never see two writers at the same time. Readers do not go through the ring, they read the table
+ * and the type index directly, which never lock.
+ *
+ * A routed transaction is pending until the writer has stored it, so the storage can tell at any time
+ * whether a unique ID already was routed to the shard. A router waits for the stored transactions
+ * with the mark returned by route(). A transaction, which the writer could not store, is logged and kept
+ * as failure, until the router asks for it with takeFailure().
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class TransactionShard {
+
+    /**Number of transactions, which can wait in the ring of a shard*/
+    private static final int RING_CAPACITY = Integer.getInteger("transactionservice.shards.ringCapacity", 1 << 14);
+
+    /**Number of transactions, which the writer stores before it announces them to waiting routers*/
+    private static final int DRAIN_LIMIT = 256;
+
+    private static final Logger LOG = Logger.getLogger(TransactionShard.class.getName());
+
+
+    /**The number of the shard*/
+    private final int index;
+
+    private final TransactionTable table;
+
+    private final TypeIndex typeIndex;
+
+    private final SubtreeTraversal traversal;
+
+    /**The transactions routed to this shard, which are not stored yet*/
+    private final RingBuffer<Transaction> ring = new RingBuffer<>(RING_CAPACITY);
+
+    /**The unique IDs of the routed transactions, which are not stored yet*/
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+
+    /**The errors of the transactions, which the writer could not store, mapped by their unique IDs*/
+    private final Map<Long, RuntimeException> failures = new ConcurrentHashMap<>();
+
+    /**Number of transactions taken from the ring and stored*/
+    private volatile long applied;
+
+    /**Number of routers waiting in await()*/
+    private final AtomicInteger waiters = new AtomicInteger();
+
+
+    /**
+     * Creates an empty shard and starts its writer thread
+     * @param index the number of the shard
+     * @param types the dictionary of the types, shared by all shards
+     */
+    public TransactionShard(int index, TypeDictionary types) {
+
+        this.index = index;
+        table = new TransactionTable(types);
+        typeIndex = new TypeIndex(types);
+        traversal = new SubtreeTraversal(table);
+
+        Thread writer = new Thread(this::write, "shard-writer-" + index);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+
+    /**
+     * Hands a transaction over to the writer of the shard. The parent transaction must have been routed
+     * to the same shard before, and the unique ID must not have been routed to any shard.
+     * @param transaction the transaction
+     * @return the mark to pass to await(), which returns as soon as the transaction is stored
+     */
+    public long route(Transaction transaction) {
+
+        long id = transaction.getTransaction_id();
+
+        // a failure, which nobody asked for, must not be reported to the next router of the same ID
+        if(!failures.isEmpty())
+            failures.remove(id);
+
+        long position = ring.put(transaction);
+
+        // the writer removes the ID after storing the transaction. If it did so before the ID was added here,
+        // the table already holds the transaction
+        pending.add(id);
+        if(table.contains(id))
+            pending.remove(id);
+
+        return position + 1;
+    }
+
+
+    /**
+     * Returns true if a transaction was routed to this shard, whether it is stored yet or not
+     * @param id the unique ID of the transaction
+     * @return true if the transaction belongs to this shard
+     */
+    public boolean holds(long id) {
+        return pending.contains(id) || table.contains(id);
+    }
+
+
+    /**
+     * Returns and forgets the error, with which the writer failed to store a transaction.
+     * Must be called after await() returned for the mark of the transaction.
+     * @param id the unique ID of the transaction
+     * @return the error, or null if the transaction was stored
+     */
+    public RuntimeException takeFailure(long id) {
+        return failures.isEmpty() ? null : failures.remove(id);
+    }
+
+
+    /**
+     * Waits until the writer has stored all transactions up to a mark returned by route()
+     * @param mark the mark
+     */
+    public void await(long mark) {
+
+        for(int spin = 0; spin < 64; spin++) {
+            if(applied >= mark)
+                return;
+            Thread.yield();
+        }
+
+        boolean interrupted = false;
+        waiters.incrementAndGet();
+
+        try {
+            synchronized (this) {
+                while(applied < mark) {
+                    try {
+                        wait();
+                    } catch(InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+        } finally {
+            waiters.decrementAndGet();
+            if(interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Waits until the writer has stored every transaction, which was routed to the shard before
+     */
+    public void flush() {
+        await(ring.claimed());
+    }
+
+
+    /**
+     * The loop of the writer thread: stores the transactions of the ring in their order,
+     * and announces them after each run of at most DRAIN_LIMIT transactions
+     */
+    private void write() {
+
+        try {
+            for(;;) {
+                store(ring.take());
+
+                Transaction next;
+                for(int n = 1; n < DRAIN_LIMIT && (next = ring.poll()) != null; n++)
+                    store(next);
+
+                applied = ring.taken();
+
+                if(waiters.get() > 0)
+                    synchronized (this) {
+                        notifyAll();
+                    }
+            }
+        } catch(InterruptedException e) {
+            // the writer is a daemon thread, it is only interrupted when the JVM goes down
+        }
+    }
+
+
+    private void store(Transaction transaction) {
+
+        try {
+            if(table.insert(transaction.getTransaction_id(), transaction.getAmount(), transaction.getType(),
+                    transaction.getParent_id()))
+                typeIndex.add(transaction.getType(), transaction.getTransaction_id(), transaction.getAmount());
+        } catch(RuntimeException e) {
+            // the router guarantees the parent and the unique ID, the writer must not die on a broken transaction.
+            // The failure is published before the transaction is announced as applied
+            failures.put(transaction.getTransaction_id(), e);
+            LOG.log(Level.SEVERE, "shard " + index + " could not store transaction "
+                    + transaction.getTransaction_id(), e);
+        } finally {
+            pending.remove(transaction.getTransaction_id());
+        }
+    }
+
+
+    /**
+     * Returns the number of the shard
+     * @return the number of the shard
+     */
+    public int getIndex() {
+        return index;
+    }
+
+
+    /**
+     * Returns the table of the shard. Must only be written by the writer of the shard, or before anything is routed.
+     * @return the table
+     */
+    public TransactionTable getTable() {
+        return table;
+    }
+
+
+    /**
+     * Returns the type index of the shard. Must only be written by the writer of the shard,
+     * or before anything is routed.
+     * @return the type index
+     */
+    public TypeIndex getTypeIndex() {
+        return typeIndex;
+    }
+
+
+    /**
+     * Returns the traversal over the table of the shard
+     * @return the traversal
+     */
+    public SubtreeTraversal getTraversal() {
+        return traversal;
+    }
+
+}
@@ -0,0 +1,471 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Class TransactionSnapshot writes and reads a checkpoint of the storage as a versioned binary file,
+ * so a restart does not have to replay the whole TransactionLog.
+ *
+ * A snapshot holds the first rows of the TransactionTable of each TransactionShard, which never change
+ * once published, so it is written while writers keep inserting. Its file is named after the first log segment,
+ * which is not covered by the snapshot, and consists of:
+ * header (int magic, int version, long log segment, int shards, int types, int parked),
+ * the type dictionary (int length and UTF-8 bytes of each type, in the order of their codes),
+ * one section per shard with
+ *   int rows, int children,
+ *   the columns (long ids, int parent rows, double amounts, int type codes),
+ *   the child adjacency (int offsets per row + 1, int child rows),
+ * the parked transactions (long id, long parent_id, double amount, int length and UTF-8 bytes of the type)
+ * and an int CRC32 of all preceding bytes.
+ * Version 1 held a single table, with rows and children in the header and the section without its own header.
+ *
+ * A snapshot is loaded by memory-mapping the file and copying the columns page by page into the tables.
+ * If the storage has a different number of shards than the snapshot, the rows are replayed instead.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class TransactionSnapshot {
+
+    /**The first bytes of every snapshot file: "TXNS"*/
+    private static final int MAGIC = 0x54584E53;
+
+    /**The version of the file format*/
+    private static final int VERSION = 2;
+
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4 + 4 + 4;
+
+    private static final int HEADER_BYTES_V1 = 4 + 4 + 8 + 4 + 4 + 4 + 4;
+
+    private static final String PREFIX = "snapshot-";
+
+    private static final String SUFFIX = ".snap";
+
+
+    /**The mapped file*/
+    private final MappedByteBuffer data;
+
+    /**The number of the first log segment, which is not covered by the snapshot*/
+    private final long logSegment;
+
+    private final int typeCount;
+
+    private final int parkedCount;
+
+    /**The number of rows and child links of each section*/
+    private final int[] rows;
+
+    private final int[] childCounts;
+
+    /**The position of the columns of each section*/
+    private final int[] sections;
+
+    /**The position of the parked transactions*/
+    private final int parkedPosition;
+
+
+    private TransactionSnapshot(MappedByteBuffer data) {
+        this.data = data;
+
+        ByteBuffer in = data.duplicate();
+        in.getInt();
+        int version = in.getInt();
+        logSegment = in.getLong();
+
+        int shards = 1;
+        if(version == 1) {
+            rows = new int[]{in.getInt()};
+            typeCount = in.getInt();
+            childCounts = new int[]{in.getInt()};
+        } else {
+            shards = in.getInt();
+            typeCount = in.getInt();
+            rows = new int[shards];
+            childCounts = new int[shards];
+        }
+        parkedCount = in.getInt();
+
+        for(int code = 0; code < typeCount; code++)
+            in.position(in.position() + 4 + in.getInt(in.position()));
+
+        sections = new int[shards];
+        for(int shard = 0; shard < shards; shard++) {
+            if(version != 1) {
+                rows[shard] = in.getInt();
+                childCounts[shard] = in.getInt();
+            }
+            sections[shard] = in.position();
+            in.position(in.position() + rows[shard] * (8 + 4 + 8 + 4 + 4) + 4 + childCounts[shard] * 4);
+        }
+
+        parkedPosition = in.position();
+    }
+
+
+
+    /**
+     * Writes a snapshot of the first rows of the tables of all shards into a directory. The file is written under
+     * a temporary name, synced and then renamed, so a crash never leaves a partial snapshot behind.
+     * @param directory the directory of the snapshots
+     * @param logSegment the number of the first log segment, which is not covered by the snapshot
+     * @param tables the tables of the shards
+     * @param rows number of rows to write of each table, at most the published size of the table
+     * @param types the dictionary of the type codes of the tables
+     * @param parked the transactions, which wait for their parent transaction
+     * @return the written file
+     * @throws IOException if the file can not be written
+     */
+    public static Path write(Path directory, long logSegment, TransactionTable[] tables, int[] rows,
+                             TypeDictionary types, List<Transaction> parked) throws IOException {
+
+        int typeCount = types.size();
+        Path temporary = directory.resolve(name(logSegment) + ".tmp");
+
+        try(Writer out = new Writer(FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+
+            out.putInt(MAGIC).putInt(VERSION).putLong(logSegment)
+               .putInt(tables.length).putInt(typeCount).putInt(parked.size());
+
+            for(int code = 0; code < typeCount; code++)
+                out.putString(types.type(code));
+
+            for(int shard = 0; shard < tables.length; shard++)
+                writeSection(out, tables[shard], rows[shard]);
+
+            for(Transaction transaction : parked)
+                out.putLong(transaction.getTransaction_id()).putLong(transaction.getParent_id())
+                   .putDouble(transaction.getAmount()).putString(transaction.getType());
+
+            out.finish();
+        }
+
+        Path file = directory.resolve(name(logSegment));
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+
+        return file;
+    }
+
+
+    private static void writeSection(Writer out, TransactionTable table, int rows) throws IOException {
+
+        int[] childOffsets = new int[rows + 1];
+        for(int row = 0; row < rows; row++) {
+            int parent = table.parentRowAt(row);
+            if(parent >= 0)
+                childOffsets[parent + 1]++;
+        }
+        for(int row = 0; row < rows; row++)
+            childOffsets[row + 1] += childOffsets[row];
+
+        int[] children = new int[childOffsets[rows]];
+        int[] next = childOffsets.clone();
+        for(int row = 0; row < rows; row++) {
+            int parent = table.parentRowAt(row);
+            if(parent >= 0)
+                children[next[parent]++] = row;
+        }
+
+        out.putInt(rows).putInt(children.length);
+
+        for(int row = 0; row < rows; row++)
+            out.putLong(table.idAt(row));
+        for(int row = 0; row < rows; row++)
+            out.putInt(table.parentRowAt(row));
+        for(int row = 0; row < rows; row++)
+            out.putDouble(table.amountAt(row));
+        for(int row = 0; row < rows; row++)
+            out.putInt(table.typeCodeAt(row));
+
+        for(int offset : childOffsets)
+            out.putInt(offset);
+        for(int child : children)
+            out.putInt(child);
+    }
+
+
+    /**
+     * Maps the snapshot with the highest log segment in a directory, and checks its version and CRC
+     * @param directory the directory of the snapshots
+     * @return the snapshot, or null if the directory does not hold a snapshot
+     * @throws IOException if the snapshot can not be read, has an unknown version or a wrong CRC
+     */
+    public static TransactionSnapshot latest(Path directory) throws IOException {
+
+        List<Path> snapshots = snapshots(directory);
+        if(snapshots.isEmpty())
+            return null;
+
+        Path file = snapshots.get(snapshots.size() - 1);
+        MappedByteBuffer data;
+
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if(data.limit() < HEADER_BYTES_V1 + 4 || data.getInt(0) != MAGIC)
+            throw new IOException(file + " is not a transaction snapshot");
+
+        if(data.getInt(4) != VERSION && data.getInt(4) != 1)
+            throw new IOException(file + " has the unknown snapshot version " + data.getInt(4));
+
+        ByteBuffer content = data.duplicate();
+        content.limit(data.limit() - 4);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+
+        if((int) crc.getValue() != data.getInt(data.limit() - 4))
+            throw new IOException(file + " has a wrong CRC");
+
+        return new TransactionSnapshot(data);
+    }
+
+
+    /**
+     * Deletes the snapshots, which are older than the snapshot of a given log segment
+     * @param directory the directory of the snapshots
+     * @param logSegment the log segment of the snapshot to keep
+     * @throws IOException if a snapshot can not be deleted
+     */
+    public static void deleteBefore(Path directory, long logSegment) throws IOException {
+
+        for(Path snapshot : snapshots(directory))
+            if(snapshot.getFileName().toString().compareTo(name(logSegment)) < 0)
+                Files.delete(snapshot);
+    }
+
+
+
+    /**
+     * Interns the types of the snapshot into an empty dictionary, so the type codes of the snapshot are valid
+     * @param types the empty dictionary
+     */
+    public void restoreTypes(TypeDictionary types) {
+
+        ByteBuffer in = data.duplicate();
+        in.position(data.getInt(4) == 1 ? HEADER_BYTES_V1 : HEADER_BYTES);
+
+        for(int code = 0; code < typeCount; code++)
+            if(types.intern(getString(in)) != code)
+                throw new IllegalStateException("a snapshot can only be restored into an empty dictionary");
+    }
+
+
+    /**
+     * Copies the section of one shard into an empty table, whose dictionary was filled by restoreTypes()
+     * @param shard the number of the shard
+     * @param table the empty table
+     */
+    public void restore(int shard, TransactionTable table) {
+
+        int n = rows[shard];
+        int position = sections[shard];
+        ByteBuffer ids = slice(position, n * 8L);
+        ByteBuffer parents = slice(position += n * 8, n * 4L);
+        ByteBuffer amounts = slice(position += n * 4, n * 8L);
+        ByteBuffer typeCodes = slice(position += n * 8, n * 4L);
+        ByteBuffer offsets = slice(position += n * 4, (n + 1) * 4L);
+        ByteBuffer children = slice(position + (n + 1) * 4, childCounts[shard] * 4L);
+
+        table.restore(n, ids.asLongBuffer(), parents.asIntBuffer(), amounts.asDoubleBuffer(),
+                typeCodes.asIntBuffer(), offsets.asIntBuffer(), children.asIntBuffer());
+    }
+
+
+    /**
+     * Reads the rows of the section of one shard as transactions, in the order of the rows,
+     * so every parent transaction comes before its children. Used if the section can not be copied into a table.
+     * @param shard the number of the shard
+     * @param types the dictionary filled by restoreTypes()
+     * @param action receives the transactions
+     */
+    public void forEachRow(int shard, TypeDictionary types, Consumer<Transaction> action) {
+
+        int n = rows[shard];
+        int position = sections[shard];
+
+        for(int row = 0; row < n; row++) {
+            long id = data.getLong(position + row * 8);
+            int parent = data.getInt(position + n * 8 + row * 4);
+            double amount = data.getDouble(position + n * 12 + row * 8);
+            String type = types.type(data.getInt(position + n * 20 + row * 4));
+            long parent_id = parent < 0 ? 0L : data.getLong(position + parent * 8);
+
+            action.accept(new Transaction(id, amount, type, parent_id, null));
+        }
+    }
+
+
+    /**
+     * Reads the parked transactions of the snapshot
+     * @param action receives the parked transactions
+     */
+    public void forEachParked(Consumer<Transaction> action) {
+
+        ByteBuffer in = data.duplicate();
+        in.position(parkedPosition);
+
+        for(int i = 0; i < parkedCount; i++) {
+            long id = in.getLong();
+            long parent_id = in.getLong();
+            double amount = in.getDouble();
+            action.accept(new Transaction(id, amount, getString(in), parent_id, null));
+        }
+    }
+
+
+    /**
+     * Returns the number of the first log segment, which is not covered by the snapshot
+     * @return the log segment number
+     */
+    public long getLogSegment() {
+        return logSegment;
+    }
+
+
+    /**
+     * Returns the number of transactions in the snapshot, without the parked ones
+     * @return number of transactions
+     */
+    public long getRows() {
+        long total = 0L;
+        for(int n : rows)
+            total += n;
+        return total;
+    }
+
+
+    /**
+     * Returns the number of shards, whose tables are held by the snapshot
+     * @return number of shards
+     */
+    public int getShards() {
+        return rows.length;
+    }
+
+
+
+    private ByteBuffer slice(int position, long length) {
+
+        ByteBuffer slice = data.duplicate();
+        slice.position(position);
+        slice.limit((int) (position + length));
+
+        return slice.slice();
+    }
+
+
+    private static String getString(ByteBuffer in) {
+
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    private static String name(long logSegment) {
+        return String.format("%s%016d%s", PREFIX, logSegment, SUFFIX);
+    }
+
+
+    private static List<Path> snapshots(Path directory) throws IOException {
+
+        List<Path> snapshots = new ArrayList<>();
+
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for(Path path : stream)
+                snapshots.add(path);
+        }
+
+        Collections.sort(snapshots);
+        return snapshots;
+    }
+
+
+
+    /**
+     * Writes values through a buffer into a file, and keeps the CRC of all written bytes
+     */
+    private static final class Writer implements AutoCloseable {
+
+        private final FileChannel channel;
+
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+
+        private final CRC32 crc = new CRC32();
+
+
+        Writer(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        Writer putInt(int value) throws IOException {
+            ensure(4).putInt(value);
+            return this;
+        }
+
+        Writer putLong(long value) throws IOException {
+            ensure(8).putLong(value);
+            return this;
+        }
+
+        Writer putDouble(double value) throws IOException {
+            ensure(8).putDouble(value);
+            return this;
+        }
+
+        Writer putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            for(int offset = 0; offset < bytes.length; offset += buffer.capacity()) {
+                int length = Math.min(buffer.capacity(), bytes.length - offset);
+                ensure(length).put(bytes, offset, length);
+            }
+            return this;
+        }
+
+        /**
+         * Writes the CRC of all written bytes and syncs the file
+         */
+        void finish() throws IOException {
+            flush();
+            ensure(4).putInt((int) crc.getValue());
+            flush();
+            channel.force(true);
+        }
+
+        private ByteBuffer ensure(int bytes) throws IOException {
+            if(buffer.remaining() < bytes)
+                flush();
+            return buffer;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while(buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+}
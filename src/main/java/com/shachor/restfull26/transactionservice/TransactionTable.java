@@ -0,0 +1,1086 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Class TransactionTable stores transactions in columns of primitive values instead of one object per transaction.
+ *
+ * Every transaction is appended as a row to parallel arrays (id, parent, amount, type code), which are allocated
+ * in pages, so growing the table never copies stored rows. The unique IDs are mapped to their rows with an
+ * open-addressing hash index of int slots, and the children of a transaction are chained through the rows
+ * (first child, next sibling), so neither the index nor the child links need an object per entry.
+ * Each row also holds the aggregate of the subtree under the transaction: the sum of the amounts and the number
+ * of descendants, and a jump-pointer index of its ancestors: its depth and one jump link to an ancestor, chosen when
+ * the row is inserted as in binary lifting with a single pointer per row (skew-binary jumps), so the root, the
+ * ancestor at a depth and the lowest common ancestor of a row are found in O(log depth) steps.
+ * A Transaction object is only created when a stored transaction is read with getTransaction().
+ *
+ * Inserts run concurrently and reads never lock. The index is split into segments by the hash of the ID,
+ * and an insert only locks the segment of its ID, to check for a duplicate and add its index slot atomically.
+ * Rows are handed out by an atomic counter and completely written before their slot is set, so a row found through
+ * the index can be read without a lock. A new row is linked in front of the children of its parent with CAS,
+ * so many children can attach to one hot parent at the same time, and the aggregates of the ancestors are
+ * updated with CAS as well. The number of published rows only grows over rows, which are completely written,
+ * so all rows below it can be read in order, e.g. for a snapshot.
+ *
+ * The rows are immutable versions: the number of published rows is an epoch, and a reader, which pins it,
+ * sees the table as it was when exactly the rows below it were stored, while the writers go on. Child links are
+ * followed only to rows below the epoch. The aggregates are read as they are and corrected by the rows, whose amount
+ * is on its way up their ancestors or belongs to a later epoch: each row records the progress of its propagation,
+ * and the rows below the number of propagated rows are complete, so only the few rows in flight are looked at.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class TransactionTable implements TransactionTree {
+
+    /**Number of rows in one page of a column*/
+    private static final int PAGE_SIZE = 1 << 13;
+
+    private static final int PAGE_SHIFT = 13;
+
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    /**Maximal load of a segment of the hash index before it is doubled*/
+    private static final double MAX_LOAD = 0.6;
+
+    /**Number of segments of the hash index, selected by the upper bits of the hash*/
+    private static final int SEGMENTS = 64;
+
+    private static final int SEGMENT_SHIFT = 32 - 6;
+
+    private static final AtomicIntegerFieldUpdater<TransactionTable> SIZE =
+            AtomicIntegerFieldUpdater.newUpdater(TransactionTable.class, "size");
+
+    private static final AtomicIntegerFieldUpdater<TransactionTable> PROPAGATED =
+            AtomicIntegerFieldUpdater.newUpdater(TransactionTable.class, "propagated");
+
+    /*
+     * Progress of the propagation of a row to its ancestors: 0 before it starts, 2 * depth + 2 while the aggregates
+     * of the ancestor at the depth are changed and 2 * depth + 1 after that, so it only decreases, down to DONE.
+     */
+
+    private static final int DONE = 1;
+
+    /**Number of reads of an aggregate, after which it is summed up by a walk of the subtree*/
+    private static final int MAX_ATTEMPTS = 8;
+
+
+    /**The pages of all columns. Replaced as a whole whenever a page is allocated, never changed after that*/
+    private volatile Pages pages = new Pages(16);
+
+    /**The segments of the hash index*/
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    /**Number of rows handed out to writers*/
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    /**Number of published rows. Rows below this number are completely written and can be read without a lock*/
+    private volatile int size;
+
+    /**Number of propagated rows. The amounts of the rows below this number are added to all their ancestors*/
+    private volatile int propagated;
+
+    /**The types of the stored transactions*/
+    private final TypeDictionary types;
+
+
+    /**
+     * Creates an empty table
+     * @param types the dictionary, which assigns codes to the types of the transactions
+     */
+    public TransactionTable(TypeDictionary types) {
+        this.types = types;
+
+        for(int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment();
+    }
+
+
+    /**
+     * Page directories of all columns.
+     * References to rows (parent, first child, next sibling, jump) are stored as row + 1, so 0 means no row.
+     * Sums are stored as the raw long bits of a double. Each page has one bit per row, which is set as soon as
+     * the row is completely written.
+     */
+    private static final class Pages {
+
+        final long[][] ids;
+        final int[][] parents;
+        final double[][] amounts;
+        final int[][] typeCodes;
+        final int[][] depths;
+        final int[][] jumps;
+        final AtomicIntegerArray[] firstChild;
+        final AtomicIntegerArray[] nextSibling;
+        final AtomicLongArray[] sums;
+        final AtomicLongArray[] descendants;
+        final AtomicIntegerArray[] written;
+        final AtomicIntegerArray[] progress;
+
+        Pages(int capacity) {
+            ids = new long[capacity][];
+            parents = new int[capacity][];
+            amounts = new double[capacity][];
+            typeCodes = new int[capacity][];
+            depths = new int[capacity][];
+            jumps = new int[capacity][];
+            firstChild = new AtomicIntegerArray[capacity];
+            nextSibling = new AtomicIntegerArray[capacity];
+            sums = new AtomicLongArray[capacity];
+            descendants = new AtomicLongArray[capacity];
+            written = new AtomicIntegerArray[capacity];
+            progress = new AtomicIntegerArray[capacity];
+        }
+
+        boolean has(int page) {
+            return page < ids.length && ids[page] != null;
+        }
+
+        /**
+         * Returns a copy of the directories with one more page, doubled if the page does not fit
+         */
+        Pages withPage(int page) {
+            int n = ids.length;
+            Pages copy = new Pages(page < n ? n : n * 2);
+            System.arraycopy(ids, 0, copy.ids, 0, n);
+            System.arraycopy(parents, 0, copy.parents, 0, n);
+            System.arraycopy(amounts, 0, copy.amounts, 0, n);
+            System.arraycopy(typeCodes, 0, copy.typeCodes, 0, n);
+            System.arraycopy(depths, 0, copy.depths, 0, n);
+            System.arraycopy(jumps, 0, copy.jumps, 0, n);
+            System.arraycopy(firstChild, 0, copy.firstChild, 0, n);
+            System.arraycopy(nextSibling, 0, copy.nextSibling, 0, n);
+            System.arraycopy(sums, 0, copy.sums, 0, n);
+            System.arraycopy(descendants, 0, copy.descendants, 0, n);
+            System.arraycopy(written, 0, copy.written, 0, n);
+            System.arraycopy(progress, 0, copy.progress, 0, n);
+            copy.allocate(page);
+            return copy;
+        }
+
+        void allocate(int page) {
+            ids[page] = new long[PAGE_SIZE];
+            parents[page] = new int[PAGE_SIZE];
+            amounts[page] = new double[PAGE_SIZE];
+            typeCodes[page] = new int[PAGE_SIZE];
+            depths[page] = new int[PAGE_SIZE];
+            jumps[page] = new int[PAGE_SIZE];
+            firstChild[page] = new AtomicIntegerArray(PAGE_SIZE);
+            nextSibling[page] = new AtomicIntegerArray(PAGE_SIZE);
+            sums[page] = new AtomicLongArray(PAGE_SIZE);
+            descendants[page] = new AtomicLongArray(PAGE_SIZE);
+            written[page] = new AtomicIntegerArray(PAGE_SIZE / 32);
+            progress[page] = new AtomicIntegerArray(PAGE_SIZE);
+        }
+    }
+
+
+    /**
+     * One segment of the hash index. Each slot holds row + 1 of a transaction, or 0 if the slot is empty.
+     * Slots are only added with the lock of the segment held.
+     */
+    private static final class Segment {
+
+        /**The slots. Replaced as a whole when the segment is doubled*/
+        volatile AtomicIntegerArray slots = new AtomicIntegerArray(16);
+
+        /**Number of used slots*/
+        int count;
+    }
+
+
+
+    /**
+     * Stores one transaction as a new row, links it to its parent and adds its amount to the aggregates
+     * of all its ancestors. Concurrent inserts of the same ID store it exactly once.
+     * @param id the unique ID of the transaction
+     * @param amount the amount of the transaction
+     * @param type the type of the transaction
+     * @param parent_id the unique ID of the parent transaction, or 0 if the transaction does not have a parent
+     * @return true if the transaction was stored, false if a transaction with the same ID already was stored
+     * @throws java.lang.IllegalArgumentException if the parent transaction is not stored
+     */
+    public boolean insert(long id, double amount, String type, long parent_id) {
+
+        int typeCode = types.intern(type);
+
+        int parent = parent_id == 0L ? -1 : find(parent_id);
+        if(parent_id != 0L && parent < 0)
+            throw new IllegalArgumentException("parent transaction " + parent_id + " is not stored");
+
+        int hash = hash(id);
+        Segment segment = segments[hash >>> SEGMENT_SHIFT];
+        int row;
+
+        synchronized (segment) {
+
+            if(find(segment, hash, id) >= 0)
+                return false;
+
+            row = allocated.getAndIncrement();
+            int page = row >>> PAGE_SHIFT;
+            int i = row & PAGE_MASK;
+
+            Pages p = pages;
+            if(!p.has(page))
+                p = allocate(page);
+
+            p.ids[page][i] = id;
+            p.parents[page][i] = parent + 1;
+            p.amounts[page][i] = amount;
+            p.typeCodes[page][i] = typeCode;
+            p.depths[page][i] = parent < 0 ? 0 : depthAt(parent) + 1;
+            p.jumps[page][i] = jumpFor(parent, row) + 1;
+            p.sums[page].set(i, Double.doubleToRawLongBits(amount));
+
+            index(segment, hash, row);
+        }
+
+        if(parent >= 0)
+            link(parent, row);
+
+        publish(row);
+
+        propagateToAncestors(row, parent, amount);
+
+        return true;
+    }
+
+
+    /**
+     * Returns the jump link of a new row: the jump of the jump of its parent, if the jumps of the parent
+     * and of its jump cover the same number of levels, or else the parent itself.
+     * So the jumps of a chain cover 1, 1, 3, 1, 1, 3, 7, ... levels, and any ancestor is reached in O(log depth) steps.
+     * A root jumps to itself.
+     */
+    private int jumpFor(int parent, int row) {
+
+        if(parent < 0)
+            return row;
+
+        int jump = jumpAt(parent);
+        int jumpOfJump = jumpAt(jump);
+
+        return depthAt(parent) - depthAt(jump) == depthAt(jump) - depthAt(jumpOfJump) ? jumpOfJump : parent;
+    }
+
+
+    /**
+     * Publishes directories with a new page, unless another writer already did
+     */
+    private synchronized Pages allocate(int page) {
+
+        Pages p = pages;
+        if(!p.has(page))
+            pages = p = p.withPage(page);
+
+        return p;
+    }
+
+
+    /**
+     * Puts a row in front of the children of its parent row, so children are chained from the newest to the oldest
+     */
+    private void link(int parent, int row) {
+
+        Pages p = pages;
+        AtomicIntegerArray firstChild = p.firstChild[parent >>> PAGE_SHIFT];
+        AtomicIntegerArray nextSibling = p.nextSibling[row >>> PAGE_SHIFT];
+        int i = parent & PAGE_MASK;
+
+        int first;
+        do {
+            first = firstChild.get(i);
+            nextSibling.set(row & PAGE_MASK, first);
+        } while(!firstChild.compareAndSet(i, first, row + 1));
+    }
+
+
+    /**
+     * Marks a row as completely written, and moves the number of published rows over all rows,
+     * which are completely written. The writer of the lowest unwritten row moves it on when it finishes.
+     */
+    private void publish(int row) {
+
+        AtomicIntegerArray written = pages.written[row >>> PAGE_SHIFT];
+        int bit = row & PAGE_MASK;
+        written.getAndAccumulate(bit >>> 5, 1 << bit, (word, mask) -> word | mask);
+
+        for(int published = size; isWritten(published); published = size)
+            SIZE.compareAndSet(this, published, published + 1);
+    }
+
+
+    private boolean isWritten(int row) {
+
+        Pages p = pages;
+        int page = row >>> PAGE_SHIFT;
+        int bit = row & PAGE_MASK;
+
+        return p.has(page) && (p.written[page].get(bit >>> 5) & (1 << bit)) != 0;
+    }
+
+
+    /**
+     * Adds the amount of a new transaction to the aggregates of all rows on the chain from its parent up to the root,
+     * records the progress in the row of the transaction, and moves the number of propagated rows on
+     */
+    private void propagateToAncestors(int row, int parent, double amount) {
+
+        Pages p = pages;
+        AtomicIntegerArray progress = p.progress[row >>> PAGE_SHIFT];
+        int r = row & PAGE_MASK;
+
+        for(int ancestor = parent; ancestor >= 0; ) {
+
+            int page = ancestor >>> PAGE_SHIFT;
+            int i = ancestor & PAGE_MASK;
+            int depth = p.depths[page][i];
+
+            progress.set(r, 2 * depth + 2);
+
+            AtomicLongArray sums = p.sums[page];
+            long bits;
+            do {
+                bits = sums.get(i);
+            } while(!sums.compareAndSet(i, bits, Double.doubleToRawLongBits(Double.longBitsToDouble(bits) + amount)));
+
+            p.descendants[page].incrementAndGet(i);
+
+            progress.set(r, 2 * depth + 1);
+
+            ancestor = p.parents[page][i] - 1;
+        }
+
+        progress.set(r, DONE);
+
+        for(int done = propagated; progressAt(done) == DONE; done = propagated)
+            PROPAGATED.compareAndSet(this, done, done + 1);
+    }
+
+
+    private int progressAt(int row) {
+
+        Pages p = pages;
+        int page = row >>> PAGE_SHIFT;
+
+        return p.has(page) ? p.progress[page].get(row & PAGE_MASK) : 0;
+    }
+
+
+
+    /**
+     * Returns the row of a transaction.
+     * @param id the unique ID of the transaction
+     * @return the row, or -1 if the transaction is not stored
+     */
+    private int find(long id) {
+
+        int hash = hash(id);
+
+        return find(segments[hash >>> SEGMENT_SHIFT], hash, id);
+    }
+
+
+    private int find(Segment segment, int hash, long id) {
+
+        AtomicIntegerArray slots = segment.slots;
+        int mask = slots.length() - 1;
+
+        for(int slot = hash & mask; ; slot = (slot + 1) & mask) {
+
+            int row = slots.get(slot) - 1;
+
+            if(row < 0)
+                return -1;
+
+            if(idAt(row) == id)
+                return row;
+        }
+    }
+
+
+    /**
+     * Adds a row to a segment of the hash index and doubles the segment if it is too full.
+     * Called with the lock of the segment held.
+     */
+    private void index(Segment segment, int hash, int row) {
+
+        AtomicIntegerArray slots = segment.slots;
+        segment.count++;
+
+        if(segment.count > slots.length() * MAX_LOAD) {
+
+            AtomicIntegerArray grown = new AtomicIntegerArray(slots.length() * 2);
+
+            for(int slot = 0; slot < slots.length(); slot++) {
+                int r = slots.get(slot) - 1;
+                if(r >= 0)
+                    put(grown, hash(idAt(r)), r);
+            }
+
+            put(grown, hash, row);
+            segment.slots = grown;
+            return;
+        }
+
+        put(slots, hash, row);
+    }
+
+
+    private static void put(AtomicIntegerArray slots, int hash, int row) {
+
+        int mask = slots.length() - 1;
+        int slot = hash & mask;
+
+        while(slots.get(slot) != 0)
+            slot = (slot + 1) & mask;
+
+        slots.set(slot, row + 1);
+    }
+
+
+    private static int hash(long id) {
+        id ^= id >>> 33;
+        id *= 0xff51afd7ed558ccdL;
+        id ^= id >>> 33;
+        return (int) id;
+    }
+
+
+
+    /**
+     * Returns a stored transaction as an object of the class Transaction, including the IDs of its children
+     * @param id the unique ID of the transaction
+     * @return the transaction, or null if the transaction is not stored
+     */
+    public Transaction getTransaction(long id) {
+
+        int row = find(id);
+
+        return row < 0 ? null : transactionAt(row, Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * Walks a transaction and its descendants depth first, children in the order of their child links.
+     * The walk needs no memory for the transactions on its way: it goes down with the first child links,
+     * sideways with the next sibling links and up with the parent links, and only keeps the current row and depth.
+     * Only the transactions of the rows below the epoch are visited, and their child IDs hold only those rows.
+     * @param id the unique ID of the transaction
+     * @param maxDepth the maximal depth of the visited descendants, 0 visits only the transaction itself
+     * @param typeCodes the type codes of the transactions, which are passed to the visitor, null for all types.
+     *                  The walk goes through the transactions of other types without passing them
+     * @param visitor gets the visited transactions, returns false to stop the walk
+     * @param epoch the epoch of the walk, see epoch()
+     * @return false if the visitor stopped the walk
+     */
+    public boolean walkDescendants(long id, int maxDepth, int[] typeCodes, Predicate<Transaction> visitor,
+                                   int epoch) {
+
+        int root = find(id);
+        if(root < 0 || root >= epoch)
+            return true;
+
+        int row = root;
+        int depth = 0;
+
+        if(!visit(row, typeCodes, visitor, epoch))
+            return false;
+
+        while(true) {
+
+            int child = depth < maxDepth ? visible(pages.firstChild[row >>> PAGE_SHIFT].get(row & PAGE_MASK) - 1,
+                    epoch) : -1;
+            if(child >= 0) {
+                row = child;
+                depth++;
+            } else {
+                int sibling = -1;
+                while(row != root && (sibling = visible(nextSibling(row), epoch)) < 0) {
+                    row = parentRowAt(row);
+                    depth--;
+                }
+                if(row == root)
+                    return true;
+                row = sibling;
+            }
+
+            if(!visit(row, typeCodes, visitor, epoch))
+                return false;
+        }
+    }
+
+
+    /**
+     * Returns the first row of a chain of siblings from the given one on, which is below the epoch, or -1
+     */
+    private int visible(int row, int epoch) {
+
+        while(row >= epoch)
+            row = nextSibling(row);
+
+        return row;
+    }
+
+
+    /**
+     * Passes the transaction of a row to the visitor of a walk, if its type is one of the given codes
+     */
+    private boolean visit(int row, int[] typeCodes, Predicate<Transaction> visitor, int epoch) {
+
+        if(typeCodes != null) {
+            int code = typeCodeAt(row);
+            int i = 0;
+            while(i < typeCodes.length && typeCodes[i] != code)
+                i++;
+            if(i == typeCodes.length)
+                return true;
+        }
+
+        return visitor.test(transactionAt(row, epoch));
+    }
+
+
+    /**
+     * Creates a transaction from the columns of a row, with the IDs of its children below the epoch
+     */
+    private Transaction transactionAt(int row, int epoch) {
+
+        Pages p = pages;
+        int page = row >>> PAGE_SHIFT;
+        int i = row & PAGE_MASK;
+
+        int parent = p.parents[page][i] - 1;
+
+        Set<Long> child_ids = null;
+        for(int child = visible(p.firstChild[page].get(i) - 1, epoch); child >= 0;
+            child = visible(nextSibling(child), epoch)) {
+            if(child_ids == null)
+                child_ids = new HashSet<>();
+            child_ids.add(idAt(child));
+        }
+
+        return new Transaction(p.ids[page][i], p.amounts[page][i], types.type(p.typeCodes[page][i]),
+                parent < 0 ? 0L : p.ids[parent >>> PAGE_SHIFT][parent & PAGE_MASK], child_ids);
+    }
+
+
+    /**
+     * Returns a value, which changes whenever a child is added to a transaction: the first child row + 1,
+     * as children are linked in front of the older ones
+     * @param id the unique ID of the transaction
+     * @return the child version, 0 if the transaction has no children, -1 if it is not stored
+     */
+    public long getChildVersion(long id) {
+
+        int row = find(id);
+
+        return row < 0 ? -1L : pages.firstChild[row >>> PAGE_SHIFT].get(row & PAGE_MASK);
+    }
+
+
+    /**
+     * Returns the depth of a transaction in its tree
+     * @param id the unique ID of the transaction
+     * @return the depth, 0 for a root, or -1 if the transaction is not stored
+     */
+    public int getDepth(long id) {
+
+        int row = find(id);
+
+        return row < 0 ? -1 : depthAt(row);
+    }
+
+
+    /**
+     * Returns the ancestor of a transaction at a depth of its tree, found with the jump links in O(log depth) steps
+     * @param id the unique ID of the transaction
+     * @param depth the depth of the ancestor, 0 for the root of the tree
+     * @return the unique ID of the ancestor, the ID of the transaction itself for its own depth,
+     *         or 0 if the transaction is not stored or its depth is smaller
+     */
+    public long getAncestor(long id, int depth) {
+
+        int row = find(id);
+        if(row < 0 || depth < 0 || depth > depthAt(row))
+            return 0L;
+
+        return idAt(ancestorRow(row, depth));
+    }
+
+
+    /**
+     * Returns the lowest common ancestor of two transactions, found with the jump links in O(log depth) steps
+     * @param a the unique ID of a transaction
+     * @param b the unique ID of another transaction
+     * @return the unique ID of the deepest transaction, which is an ancestor of both or one of them,
+     *         or 0 if they are not stored or not in the same tree
+     */
+    public long getLowestCommonAncestor(long a, long b) {
+
+        int rowA = find(a);
+        int rowB = find(b);
+        if(rowA < 0 || rowB < 0)
+            return 0L;
+
+        int depth = Math.min(depthAt(rowA), depthAt(rowB));
+        rowA = ancestorRow(rowA, depth);
+        rowB = ancestorRow(rowB, depth);
+
+        // both rows have the same depth, so their jumps have the same depth as well
+        while(rowA != rowB) {
+
+            if(depth == 0)
+                return 0L;
+
+            int jumpA = jumpAt(rowA);
+            int jumpB = jumpAt(rowB);
+
+            if(jumpA != jumpB) {
+                rowA = jumpA;
+                rowB = jumpB;
+            } else {
+                rowA = parentRowAt(rowA);
+                rowB = parentRowAt(rowB);
+            }
+            depth = depthAt(rowA);
+        }
+
+        return idAt(rowA);
+    }
+
+
+    /**
+     * Goes up from a row to its ancestor at a depth, which must not be bigger than the depth of the row.
+     * Takes the jump link whenever it does not go above the depth, and the parent link otherwise.
+     */
+    private int ancestorRow(int row, int depth) {
+
+        while(depthAt(row) > depth) {
+            int jump = jumpAt(row);
+            row = depthAt(jump) >= depth ? jump : parentRowAt(row);
+        }
+
+        return row;
+    }
+
+
+    /**
+     * Returns the amount of a stored transaction
+     * @param id the unique ID of the transaction
+     * @return the amount, or 0 if the transaction is not stored
+     */
+    public double getAmount(long id) {
+
+        int row = find(id);
+
+        return row < 0 ? 0.0 : pages.amounts[row >>> PAGE_SHIFT][row & PAGE_MASK];
+    }
+
+
+    /**
+     * Returns the sum of the amounts of a transaction and all its descendants
+     * @param id the unique ID of the transaction
+     * @return the sum of the subtree, or 0 if the transaction is not stored
+     */
+    public double getSubtreeSum(long id) {
+
+        int row = find(id);
+
+        return row < 0 ? 0.0 : Double.longBitsToDouble(pages.sums[row >>> PAGE_SHIFT].get(row & PAGE_MASK));
+    }
+
+
+    /**
+     * Returns the number of descendants of a transaction, the transaction itself is not counted
+     * @param id the unique ID of the transaction
+     * @return number of descendants, or 0 if the transaction is not stored
+     */
+    public long getDescendantCount(long id) {
+
+        int row = find(id);
+
+        return row < 0 ? 0L : pages.descendants[row >>> PAGE_SHIFT].get(row & PAGE_MASK);
+    }
+
+
+    /**
+     * Returns the sum of the amounts of a transaction and all its descendants as of an epoch
+     * @param id the unique ID of the transaction
+     * @param epoch the epoch of the read, see epoch()
+     * @return the sum of the rows of the subtree below the epoch, or 0 if the transaction is not stored before it
+     */
+    public double getSubtreeSum(long id, int epoch) {
+
+        int row = find(id);
+
+        return row < 0 || row >= epoch ? 0.0 : aggregateAt(row, epoch, false);
+    }
+
+
+    /**
+     * Returns the number of descendants of a transaction as of an epoch, the transaction itself is not counted
+     * @param id the unique ID of the transaction
+     * @param epoch the epoch of the read, see epoch()
+     * @return number of descendants below the epoch, or 0 if the transaction is not stored before it
+     */
+    public long getDescendantCount(long id, int epoch) {
+
+        int row = find(id);
+
+        return row < 0 || row >= epoch ? 0L : (long) aggregateAt(row, epoch, true);
+    }
+
+
+    /**
+     * Returns the current epoch: the number of published rows. A read with it sees exactly the rows below it,
+     * no matter how many rows are stored meanwhile
+     * @return the epoch
+     */
+    public int epoch() {
+        return size;
+    }
+
+
+    /**
+     * Reads the sum or the descendant count of a row and corrects it to the epoch. The rows from the number of
+     * propagated rows on may be on their way up, so their progress is read before and after the aggregate:
+     * a row is in the aggregate, if it was done with the row before, and it is not, if it had not started on
+     * the row after. The amount of every row of the subtree is added or taken away, as far as being in the aggregate
+     * and being below the epoch do not match. A row, which changed the aggregate while it was read, makes the read
+     * start again, at most MAX_ATTEMPTS times, so a hot subtree, which keeps changing, is summed up by a walk.
+     */
+    private double aggregateAt(int x, int epoch, boolean count) {
+
+        int depth = depthAt(x);
+        int[] before = new int[16];
+
+        for(int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+
+            int low = Math.min(propagated, epoch);
+            int high = allocated.get();
+
+            if(before.length < high - low)
+                before = new int[Math.max(2 * before.length, high - low)];
+            for(int row = low; row < high; row++)
+                before[row - low] = progressAt(row);
+
+            Pages p = pages;
+            double value = count ? p.descendants[x >>> PAGE_SHIFT].get(x & PAGE_MASK)
+                    : Double.longBitsToDouble(p.sums[x >>> PAGE_SHIFT].get(x & PAGE_MASK));
+
+            int end = allocated.get();
+            boolean settled = true;
+
+            for(int row = low; row < end && settled; row++) {
+
+                int after = progressAt(row);
+                boolean visible = row < epoch;
+
+                // a row from the epoch on, which had not started after the read, is neither visible nor added
+                if(!visible && after == 0 || row == x || !below(row, x, depth))
+                    continue;
+
+                int progress = row < high ? before[row - low] : 0;
+                boolean added;
+                if(progress != 0 && progress <= 2 * depth + 1)
+                    added = true;
+                else if(after == 0 || after > 2 * depth + 2)
+                    added = false;
+                else {
+                    settled = false;
+                    continue;
+                }
+
+                if(added != visible)
+                    value += (visible ? 1 : -1) * (count ? 1.0 : amountAt(row));
+            }
+
+            if(settled)
+                return value;
+        }
+
+        return walkAggregate(x, epoch, count);
+    }
+
+
+    /**
+     * Sums up the amounts or counts the descendants of a row by a walk of its rows below the epoch, which never
+     * change, so the walk needs no retry while the writers go on
+     */
+    double walkAggregate(int root, int epoch, boolean count) {
+
+        double value = count ? 0.0 : amountAt(root);
+        int row = root;
+
+        while(true) {
+
+            int child = visible(pages.firstChild[row >>> PAGE_SHIFT].get(row & PAGE_MASK) - 1, epoch);
+            if(child >= 0) {
+                row = child;
+            } else {
+                int sibling = -1;
+                while(row != root && (sibling = visible(nextSibling(row), epoch)) < 0)
+                    row = parentRowAt(row);
+                if(row == root)
+                    return value;
+                row = sibling;
+            }
+
+            value += count ? 1.0 : amountAt(row);
+        }
+    }
+
+
+    /**
+     * Returns true if a row is a descendant of another row at a depth
+     */
+    private boolean below(int row, int ancestor, int depth) {
+        return depthAt(row) > depth && ancestorRow(row, depth) == ancestor;
+    }
+
+
+    /**
+     * Returns the number of stored transactions
+     * @return number of transactions
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Waits until every insert, which has started writing its row, has published it,
+     * and returns the number of published rows. Used to take a snapshot, which must hold every returned insert.
+     * @return number of published rows, at least the number of rows handed out when the method was called
+     */
+    public int settledSize() {
+
+        int target = allocated.get();
+
+        while(size < target)
+            Thread.yield();
+
+        return size;
+    }
+
+
+
+    @Override
+    public boolean contains(long id) {
+        return find(id) >= 0;
+    }
+
+
+    @Override
+    public void forEachChild(long id, LongConsumer action) {
+
+        int row = find(id);
+        if(row < 0)
+            return;
+
+        for(int child = pages.firstChild[row >>> PAGE_SHIFT].get(row & PAGE_MASK) - 1; child >= 0;
+            child = nextSibling(child))
+            action.accept(idAt(child));
+    }
+
+
+    /*
+     * A row reached through a link may have been added after the caller read the page directories,
+     * so the helpers below read the current directories again.
+     */
+
+    private int nextSibling(int row) {
+        return pages.nextSibling[row >>> PAGE_SHIFT].get(row & PAGE_MASK) - 1;
+    }
+
+
+    long idAt(int row) {
+        return pages.ids[row >>> PAGE_SHIFT][row & PAGE_MASK];
+    }
+
+
+    /*
+     * Column values of one row, used to write a snapshot of the rows below a published size.
+     * Those columns never change after a row is published.
+     */
+
+    int parentRowAt(int row) {
+        return pages.parents[row >>> PAGE_SHIFT][row & PAGE_MASK] - 1;
+    }
+
+
+    int depthAt(int row) {
+        return pages.depths[row >>> PAGE_SHIFT][row & PAGE_MASK];
+    }
+
+
+    int jumpAt(int row) {
+        return pages.jumps[row >>> PAGE_SHIFT][row & PAGE_MASK] - 1;
+    }
+
+
+    double amountAt(int row) {
+        return pages.amounts[row >>> PAGE_SHIFT][row & PAGE_MASK];
+    }
+
+
+    int typeCodeAt(int row) {
+        return pages.typeCodes[row >>> PAGE_SHIFT][row & PAGE_MASK];
+    }
+
+
+
+    /**
+     * Fills an empty table with the rows of a snapshot, without going through insert().
+     * The rows are copied page by page from the given buffers, the child links are set from the adjacency
+     * of the snapshot, and the subtree aggregates, the jump links and the index are rebuilt. Relies on every parent row
+     * being smaller than the rows of its children, which is true for rows appended by insert().
+     * @param n number of rows
+     * @param ids the id column
+     * @param parents the parent column, holding the parent row or -1
+     * @param amounts the amount column
+     * @param typeCodes the type code column, of the codes of the dictionary of this table
+     * @param childOffsets n + 1 offsets into children, the children of row r are at [childOffsets[r], childOffsets[r + 1])
+     * @param children the child rows of all rows, in ascending order
+     * @throws java.lang.IllegalStateException if the table is not empty
+     */
+    synchronized void restore(int n, LongBuffer ids, IntBuffer parents, DoubleBuffer amounts, IntBuffer typeCodes,
+                              IntBuffer childOffsets, IntBuffer children) {
+
+        if(allocated.get() != 0)
+            throw new IllegalStateException("a snapshot can only be restored into an empty table");
+
+        int capacity = pages.ids.length;
+        while(capacity * PAGE_SIZE < n)
+            capacity *= 2;
+
+        Pages p = new Pages(capacity);
+
+        for(int first = 0; first < n; first += PAGE_SIZE) {
+
+            int page = first >>> PAGE_SHIFT;
+            int count = Math.min(PAGE_SIZE, n - first);
+            p.allocate(page);
+
+            ids.get(p.ids[page], 0, count);
+            parents.get(p.parents[page], 0, count);
+            amounts.get(p.amounts[page], 0, count);
+            typeCodes.get(p.typeCodes[page], 0, count);
+
+            int[] parentRows = p.parents[page];
+            for(int i = 0; i < count; i++) {
+                parentRows[i]++;
+                restoreJump(p, first + i);
+                p.sums[page].lazySet(i, Double.doubleToRawLongBits(p.amounts[page][i]));
+                p.written[page].lazySet(i >>> 5, p.written[page].get(i >>> 5) | 1 << i);
+            }
+        }
+
+        for(int row = 0, start = childOffsets.get(0); row < n; row++) {
+
+            int end = childOffsets.get(row + 1);
+            int next = 0;
+
+            // chained from the newest to the oldest child, as link() does
+            for(int c = start; c < end; c++) {
+                int child = children.get(c);
+                p.nextSibling[child >>> PAGE_SHIFT].lazySet(child & PAGE_MASK, next);
+                next = child + 1;
+            }
+
+            p.firstChild[row >>> PAGE_SHIFT].lazySet(row & PAGE_MASK, next);
+            start = end;
+        }
+
+        for(int row = n - 1; row > 0; row--) {
+
+            int parent = p.parents[row >>> PAGE_SHIFT][row & PAGE_MASK] - 1;
+            if(parent < 0)
+                continue;
+
+            AtomicLongArray sums = p.sums[parent >>> PAGE_SHIFT];
+            int i = parent & PAGE_MASK;
+            sums.lazySet(i, Double.doubleToRawLongBits(Double.longBitsToDouble(sums.get(i))
+                    + Double.longBitsToDouble(p.sums[row >>> PAGE_SHIFT].get(row & PAGE_MASK))));
+
+            AtomicLongArray descendants = p.descendants[parent >>> PAGE_SHIFT];
+            descendants.lazySet(i, descendants.get(i) + p.descendants[row >>> PAGE_SHIFT].get(row & PAGE_MASK) + 1);
+        }
+
+        int[] counts = new int[SEGMENTS];
+        for(int row = 0; row < n; row++)
+            counts[hash(p.ids[row >>> PAGE_SHIFT][row & PAGE_MASK]) >>> SEGMENT_SHIFT]++;
+
+        for(int s = 0; s < SEGMENTS; s++) {
+            int slots = 16;
+            while(counts[s] > slots * MAX_LOAD)
+                slots *= 2;
+            segments[s].slots = new AtomicIntegerArray(slots);
+            segments[s].count = counts[s];
+        }
+
+        for(int row = 0; row < n; row++) {
+            int hash = hash(p.ids[row >>> PAGE_SHIFT][row & PAGE_MASK]);
+            put(segments[hash >>> SEGMENT_SHIFT].slots, hash, row);
+        }
+
+        pages = p;
+        allocated.set(n);
+        propagated = n;
+        size = n;
+    }
+
+
+    /**
+     * Sets the depth and the jump link of a restored row from those of its parent, as insert() does
+     */
+    private static void restoreJump(Pages p, int row) {
+
+        int page = row >>> PAGE_SHIFT;
+        int i = row & PAGE_MASK;
+        int parent = p.parents[page][i] - 1;
+
+        if(parent < 0) {
+            p.jumps[page][i] = row + 1;
+            return;
+        }
+
+        int jump = p.jumps[parent >>> PAGE_SHIFT][parent & PAGE_MASK] - 1;
+        int jumpOfJump = p.jumps[jump >>> PAGE_SHIFT][jump & PAGE_MASK] - 1;
+        int parentDepth = p.depths[parent >>> PAGE_SHIFT][parent & PAGE_MASK];
+        int jumpDepth = p.depths[jump >>> PAGE_SHIFT][jump & PAGE_MASK];
+        int jumpOfJumpDepth = p.depths[jumpOfJump >>> PAGE_SHIFT][jumpOfJump & PAGE_MASK];
+
+        p.depths[page][i] = parentDepth + 1;
+        p.jumps[page][i] = (parentDepth - jumpDepth == jumpDepth - jumpOfJumpDepth ? jumpOfJump : parent) + 1;
+    }
+
+
+    /**
+     * Returns the number of bytes used by the columns and the index, without the type dictionary
+     * @return number of bytes
+     */
+    public long memoryUsage() {
+
+        Pages p = pages;
+        long pageCount = Arrays.stream(p.ids).filter(page -> page != null).count();
+
+        long slots = Arrays.stream(segments).mapToLong(segment -> segment.slots.length()).sum();
+
+        return pageCount * PAGE_SIZE * (8 + 4 + 8 + 4 + 4 + 4 + 4 + 4 + 8 + 8 + 4) + pageCount * PAGE_SIZE / 8 + slots * 4L;
+    }
+
+}
@@ -0,0 +1,29 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Interface TransactionTree gives read access to the parent-child links between stored transactions.
+ * It is the view of the storage, which is used by SubtreeTraversal to walk the subtree under a transaction,
+ * without depending on the way the transactions are actually stored.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public interface TransactionTree {
+
+    /**
+     * Returns true if a transaction with the given unique ID is stored
+     * @param id the unique ID of the transaction
+     * @return true if the transaction exists
+     */
+    boolean contains(long id);
+
+
+    /**
+     * Calls the given action with the unique ID of every direct child of a transaction
+     * @param id the unique ID of the transaction
+     * @param action the action to perform on each child ID
+     */
+    void forEachChild(long id, LongConsumer action);
+
+}
@@ -0,0 +1,90 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Class TypeDictionary interns the types of the transactions, so each distinct type String is stored once
+ * and the transactions refer to their type by a small int code.
+ * Codes are assigned in the order the types are first seen, starting with 0, and never change.
+ *
+ * Looking up a code or a type is lock free, only the first occurrence of a new type takes a lock.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class TypeDictionary {
+
+    /**Value returned by code(String) for a type which is not interned yet*/
+    public static final int NO_CODE = -1;
+
+    /**A Map storing the code of each type*/
+    private final ConcurrentMap<String, Integer> codes = new ConcurrentHashMap<>();
+
+    /**The types, indexed by their code*/
+    private volatile String[] types = new String[16];
+
+    /**Number of interned types*/
+    private volatile int size;
+
+
+    /**
+     * Returns the code of a type, and assigns a new code if the type is not interned yet
+     * @param type the type of a transaction
+     * @return the code of the type
+     */
+    public int intern(String type) {
+
+        Integer code = codes.get(type);
+        if(code != null)
+            return code;
+
+        synchronized (this) {
+
+            code = codes.get(type);
+            if(code != null)
+                return code;
+
+            if(size == types.length)
+                types = Arrays.copyOf(types, size * 2);
+
+            types[size] = type;
+            codes.put(type, size);
+
+            return size++;
+        }
+    }
+
+
+    /**
+     * Returns the code of a type
+     * @param type the type of a transaction
+     * @return the code of the type, or NO_CODE if the type is not interned yet
+     */
+    public int code(String type) {
+
+        Integer code = codes.get(type);
+
+        return code == null ? NO_CODE : code;
+    }
+
+
+    /**
+     * Returns the type for a code
+     * @param code a code returned by intern(String)
+     * @return the type
+     */
+    public String type(int code) {
+        return types[code];
+    }
+
+
+    /**
+     * Returns the number of interned types
+     * @return number of types
+     */
+    public int size() {
+        return size;
+    }
+
+}
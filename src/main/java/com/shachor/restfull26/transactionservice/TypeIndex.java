@@ -0,0 +1,219 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class TypeIndex links each type of transaction to the unique IDs of all transactions of this type.
+ *
+ * The types are interned by a TypeDictionary, and the IDs of each type are kept in an IdBitmap, indexed
+ * by the code of the type. Both are safe for concurrent writers, and the IDs are only handed out as
+ * copied pages, never as the live set.
+ *
+ * The number, sum, minimum and maximum of the amounts of each type are kept up to date by every add()
+ * in striped accumulators (LongAdder, DoubleAdder, DoubleAccumulator), so concurrent writers of the same type
+ * do not wait for each other.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class TypeIndex {
+
+    /**The dictionary assigning the codes of the types*/
+    private final TypeDictionary types;
+
+    /**The IDs of each type, indexed by the code of the type*/
+    private volatile IdBitmap[] bitmaps = new IdBitmap[16];
+
+    /**The aggregates of the amounts of each type, indexed by the code of the type*/
+    private volatile Aggregate[] aggregates = new Aggregate[16];
+
+
+    /**
+     * Creates an empty index
+     * @param types the dictionary assigning the codes of the types
+     */
+    public TypeIndex(TypeDictionary types) {
+        this.types = types;
+    }
+
+
+    /**
+     * Links a transaction to its type, and adds its amount to the aggregates of the type
+     * @param type the type of the transaction
+     * @param id the unique ID of the transaction
+     * @param amount the amount of the transaction
+     */
+    public void add(String type, long id, double amount) {
+
+        int code = types.intern(type);
+
+        bitmap(code).add(id);
+        aggregate(code).add(amount);
+    }
+
+
+    /**
+     * Returns one page of the IDs of all transactions of a type, in ascending order
+     * @param type the type of the transactions
+     * @param after only IDs bigger than this value are returned, 0 to start with the smallest ID
+     * @param limit the maximal number of returned IDs
+     * @return the IDs of the page, an empty array if the type does not exists or there are no more IDs
+     */
+    public long[] page(String type, long after, int limit) {
+
+        IdBitmap bitmap = find(type);
+
+        return bitmap == null ? new long[0] : bitmap.page(after, limit);
+    }
+
+
+    /**
+     * Returns the number of transactions of a type
+     * @param type the type of the transactions
+     * @return number of transactions, 0 if the type does not exists
+     */
+    public long count(String type) {
+
+        IdBitmap bitmap = find(type);
+
+        return bitmap == null ? 0L : bitmap.cardinality();
+    }
+
+
+    /**
+     * Returns the number, sum, minimum and maximum of the amounts of a type
+     * @param type the type of the transactions
+     * @return the stats, with count 0 if the type does not exists
+     */
+    public TypeStats stats(String type) {
+
+        int code = types.code(type);
+        Aggregate[] aggregates = this.aggregates;
+
+        if(code == TypeDictionary.NO_CODE || code >= aggregates.length || aggregates[code] == null)
+            return new TypeStats(0L, 0.0, null, null);
+
+        return aggregates[code].stats();
+    }
+
+
+    private IdBitmap find(String type) {
+
+        int code = types.code(type);
+        IdBitmap[] bitmaps = this.bitmaps;
+
+        return code == TypeDictionary.NO_CODE || code >= bitmaps.length ? null : bitmaps[code];
+    }
+
+
+    /**
+     * Returns the bitmap of a type code, and creates it if the type did not have any transaction yet
+     */
+    private IdBitmap bitmap(int code) {
+
+        IdBitmap[] bitmaps = this.bitmaps;
+        if(code < bitmaps.length && bitmaps[code] != null)
+            return bitmaps[code];
+
+        synchronized (this) {
+
+            bitmaps = this.bitmaps;
+            if(code >= bitmaps.length)
+                bitmaps = Arrays.copyOf(bitmaps, Math.max(code + 1, bitmaps.length * 2));
+
+            if(bitmaps[code] == null)
+                bitmaps[code] = new IdBitmap();
+
+            this.bitmaps = bitmaps;
+            return bitmaps[code];
+        }
+    }
+
+
+    /**
+     * Returns the aggregate of a type code, and creates it if the type did not have any transaction yet
+     */
+    private Aggregate aggregate(int code) {
+
+        Aggregate[] aggregates = this.aggregates;
+        if(code < aggregates.length && aggregates[code] != null)
+            return aggregates[code];
+
+        synchronized (this) {
+
+            aggregates = this.aggregates;
+            if(code >= aggregates.length)
+                aggregates = Arrays.copyOf(aggregates, Math.max(code + 1, aggregates.length * 2));
+
+            if(aggregates[code] == null)
+                aggregates[code] = new Aggregate();
+
+            this.aggregates = aggregates;
+            return aggregates[code];
+        }
+    }
+
+
+    /**
+     * Merges ascending pages of IDs, e.g. of several shards or nodes, into one ascending page
+     * @param pages the pages
+     * @param limit the maximal number of IDs of the merged page
+     * @return the smallest IDs of all pages, at most limit
+     */
+    public static long[] merge(long[][] pages, int limit) {
+
+        int total = 0;
+        for(long[] page : pages)
+            total += page.length;
+
+        long[] merged = new long[Math.min(total, limit)];
+        int[] next = new int[pages.length];
+
+        for(int n = 0; n < merged.length; n++) {
+
+            int smallest = -1;
+            for(int i = 0; i < pages.length; i++)
+                if(next[i] < pages[i].length
+                        && (smallest < 0 || pages[i][next[i]] < pages[smallest][next[smallest]]))
+                    smallest = i;
+
+            merged[n] = pages[smallest][next[smallest]++];
+        }
+
+        return merged;
+    }
+
+
+
+    /**
+     * The accumulators of the amounts of one type. A reader may see an amount in the count, but not yet in the sum
+     */
+    private static final class Aggregate {
+
+        private final LongAdder count = new LongAdder();
+
+        private final DoubleAdder sum = new DoubleAdder();
+
+        private final DoubleAccumulator min = new DoubleAccumulator(Math::min, Double.POSITIVE_INFINITY);
+
+        private final DoubleAccumulator max = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+
+        void add(double amount) {
+            sum.add(amount);
+            min.accumulate(amount);
+            max.accumulate(amount);
+            count.increment();
+        }
+
+        TypeStats stats() {
+
+            long count = this.count.sum();
+
+            return count == 0 ? new TypeStats(0L, 0.0, null, null)
+                    : new TypeStats(count, sum.sum(), min.get(), max.get());
+        }
+    }
+
+}
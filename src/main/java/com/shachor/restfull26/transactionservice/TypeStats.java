@@ -0,0 +1,134 @@
+package com.shachor.restfull26.transactionservice;
+
+/**
+ * Class TypeStats serves as an container to hold the number, the sum, the minimum and the maximum of the amounts
+ * of all transactions of one type
+ * Object of this class is sent with the HTTP response to notify the client
+ * @author  Roi Shachor on 09.01.16.
+ */
+public class TypeStats {
+
+    /**represents the number of transactions of the type*/
+    private long count;
+
+    /**represents the sum of the amounts*/
+    private double sum;
+
+    /**represents the smallest and the biggest amount, null if there is no transaction of the type*/
+    private Double min;
+
+    private Double max;
+
+
+    /**
+     * default constructor, used by Jackson library to create JSON objects
+     */
+    public TypeStats() {}
+
+
+    /**
+     * Creates a TypeStats object
+     * @param count the number of transactions
+     * @param sum the sum of the amounts
+     * @param min the smallest amount, null if count is 0
+     * @param max the biggest amount, null if count is 0
+     */
+    public TypeStats(long count, double sum, Double min, Double max) {
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+    }
+
+
+    /**
+     * Adds the transactions of other stats of the same type, e.g. of another shard or node
+     * @param other the other stats
+     * @return this object
+     */
+    public TypeStats merge(TypeStats other) {
+
+        if(other.count == 0)
+            return this;
+
+        min = count == 0 ? other.min : Double.valueOf(Math.min(min, other.min));
+        max = count == 0 ? other.max : Double.valueOf(Math.max(max, other.max));
+        count += other.count;
+        sum += other.sum;
+
+        return this;
+    }
+
+
+    /**
+     * Returns the number of transactions of the type
+     * @return the number of transactions
+     */
+    public long getCount() {
+        return count;
+    }
+
+
+    /**
+     * Sets the number of transactions of the type
+     * @param count the number of transactions
+     */
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+
+    /**
+     * Returns the sum of the amounts
+     * @return the sum
+     */
+    public double getSum() {
+        return sum;
+    }
+
+
+    /**
+     * Sets the sum of the amounts
+     * @param sum the sum
+     */
+    public void setSum(double sum) {
+        this.sum = sum;
+    }
+
+
+    /**
+     * Returns the smallest amount
+     * @return the smallest amount, null if there is no transaction of the type
+     */
+    public Double getMin() {
+        return min;
+    }
+
+
+    /**
+     * Sets the smallest amount
+     * @param min the smallest amount
+     */
+    public void setMin(Double min) {
+        this.min = min;
+    }
+
+
+    /**
+     * Returns the biggest amount
+     * @return the biggest amount, null if there is no transaction of the type
+     */
+    public Double getMax() {
+        return max;
+    }
+
+
+    /**
+     * Sets the biggest amount
+     * @param max the biggest amount
+     */
+    public void setMax(Double max) {
+        this.max = max;
+    }
+
+}
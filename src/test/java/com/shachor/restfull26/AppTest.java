@@ -2,8 +2,10 @@ package com.shachor.restfull26;
 
 
 import com.shachor.restfull26.transactionservice.Transaction;
+import com.shachor.restfull26.transactionservice.TransactionAncestor;
 import com.shachor.restfull26.transactionservice.TransactionStatus;
 import com.shachor.restfull26.transactionservice.TransactionSum;
+import com.shachor.restfull26.transactionservice.TypeStats;
 import junit.framework.TestCase;
 import org.junit.BeforeClass;
 import org.junit.Rule;
@@ -15,6 +17,8 @@ import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.*;
 import org.springframework.web.client.RestTemplate;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 
 /**
@@ -251,6 +255,151 @@ public class AppTest
 
 
 
+    /**
+     * Tests the controller method getTransactionsByType with a negative limit or cursor.
+     * Expecting HTTP 400 Bad Request.
+     */
+    @Test
+    public void testGetTransactionsByTypeWithNegativeParameters() {
+
+        assertEquals(HttpStatus.BAD_REQUEST,
+                restTemplate.getForEntity(api + "/types/Tested type?limit=-1", String.class).getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST,
+                restTemplate.getForEntity(api + "/types/Tested type?after=-5", String.class).getStatusCode());
+    }
+
+
+
+    /**
+     * Tests the controller method @link com.shachor.restfull26.transactionservice.getTypeStats(String)
+     * Asserts that the count, sum, minimum and maximum of the amounts of the transactions with the tested type
+     * are correct, and that a type which not yet exits has no transactions.
+     */
+    @Test
+    public void testGetTypeStats() {
+
+        TypeStats stats = restTemplate.getForObject(api + "/types/Tested type/stats", TypeStats.class);
+
+        assertEquals(3, stats.getCount());
+        assertEquals(t21.getAmount() + t31.getAmount() + t41.getAmount(), stats.getSum());
+        assertEquals(t21.getAmount(), stats.getMin());
+        assertEquals(t41.getAmount(), stats.getMax());
+
+        TypeStats none = restTemplate.getForObject(api + "/types/This type does not exits/stats", TypeStats.class);
+
+        assertEquals(0, none.getCount());
+        assertNull(none.getMin());
+    }
+
+
+
+    /**
+     * Tests the controller methods getRoot, getDepth, getAncestor and getLowestCommonAncestor
+     */
+    @Test
+    public void testGetAncestors() {
+
+        assertAncestor(10L, 0, "/root/41");
+        assertAncestor(41L, 3, "/depth/41");
+        assertAncestor(20L, 1, "/ancestor/41?depth=1");
+        assertAncestor(20L, 1, "/lca/41/31");
+        assertAncestor(10L, 0, "/lca/40/22");
+        assertAncestor(30L, 2, "/lca/30/41");
+        assertAncestor(0L, -1, "/ancestor/21?depth=2");
+        assertAncestor(0L, -1, "/root/1000");
+    }
+
+
+    private void assertAncestor(long transaction_id, int depth, String path) {
+
+        TransactionAncestor ancestor = restTemplate.getForObject(api + path, TransactionAncestor.class);
+
+        assertEquals(path, transaction_id, ancestor.getTransaction_id());
+        assertEquals(path, depth, ancestor.getDepth());
+    }
+
+
+    /**
+     * Tests the controller method getDescendants: the whole subtree, limited by depth and filtered by type
+     */
+    @Test
+    public void testGetDescendants() {
+
+        assertEquals(Arrays.asList(10L, 20L, 21L, 22L, 30L, 31L, 40L, 41L), descendants("/descendants/10"));
+        assertEquals(Arrays.asList(10L, 20L, 21L, 22L), descendants("/descendants/10?maxDepth=1"));
+        assertEquals(Arrays.asList(30L, 40L, 41L), descendants("/descendants/30"));
+        assertEquals(Arrays.asList(21L, 31L, 41L), descendants("/descendants/10?types=Tested type"));
+        assertEquals(Collections.emptyList(), descendants("/descendants/1000"));
+    }
+
+
+
+    /**
+     * Tests the controller method getDescendants with a negative depth. Expecting HTTP 400 Bad Request.
+     */
+    @Test
+    public void testGetDescendantsWithNegativeDepth() {
+
+        assertEquals(HttpStatus.BAD_REQUEST,
+                restTemplate.getForEntity(api + "/descendants/10?maxDepth=-1", String.class).getStatusCode());
+    }
+
+
+    /**
+     * Tests the controller method putTransaction with a transaction, which is its own parent.
+     * Expecting HTTP 400 Bad Request, and that the ID can still be stored as a root afterwards.
+     */
+    @Test
+    public void testPutTransactionWithItselfAsParent() {
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        String body = "{\"transaction_id\":109,\"amount\":1.0,\"type\":\"loop\",\"parent_id\":109}";
+
+        assertEquals(HttpStatus.BAD_REQUEST, restTemplate.exchange(api + "/transaction/109", HttpMethod.PUT,
+                new HttpEntity<>(body, headers), String.class).getStatusCode());
+        assertEquals("ok", putTransaction(new Transaction(109L, 1.0, "loop")).getStatus());
+    }
+
+
+    /**
+     * Tests the controller method putTransactionsNdjson with a malformed line after a valid one.
+     * Expecting HTTP 400 Bad Request, and that the valid line was not stored either.
+     */
+    @Test
+    public void testPutTransactionsNdjsonWithMalformedLine() {
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.valueOf("application/x-ndjson"));
+        String body = "{\"transaction_id\":107,\"amount\":1.0,\"type\":\"ndjson\"}\nnot json\n";
+
+        assertEquals(HttpStatus.BAD_REQUEST, restTemplate.postForEntity(api + "/transactions",
+                new HttpEntity<>(body, headers), String.class).getStatusCode());
+        assertNull(restTemplate.getForObject(api + "/transaction/107", Transaction.class));
+    }
+
+
+    /**
+     * Returns the sorted IDs of the lines of a descendants stream
+     */
+    private List<Long> descendants(String path) {
+
+        String body = restTemplate.getForObject(api + path, String.class);
+        List<Long> ids = new ArrayList<>();
+
+        if(body != null)
+            for(String line : body.split("\n")) {
+                Matcher id = Pattern.compile("\"transaction_id\":(\\d+)").matcher(line);
+                assertTrue(line, id.find());
+                ids.add(Long.valueOf(id.group(1)));
+            }
+
+        Collections.sort(ids);
+        return ids;
+    }
+
+
+
     /**
      * Generates test data.
      */
@@ -0,0 +1,104 @@
+package com.shachor.restfull26.benchmark;
+
+import com.shachor.restfull26.transactionservice.Transaction;
+import com.shachor.restfull26.transactionservice.TransactionIngestClient;
+import com.shachor.restfull26.transactionservice.TransactionStatus;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * This class compares the throughput of storing transactions with HTTP PUT requests, with batches of
+ * POST /transactionservice/transactions, and with a stream of the binary protocol of the TransactionIngestServer.
+ * All transactions form binary trees and are sent parents first.
+ *
+ * Needs a running server, started with -Dtransactionservice.ingest.port=9090.
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *           -Dexec.mainClass=com.shachor.restfull26.benchmark.BinaryIngestBenchmark
+ *           [-Dexec.args="http://host:port ingestPort"]
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class BinaryIngestBenchmark {
+
+    private static final int SINGLE = 5_000;
+
+    private static final int BULK = 200_000;
+
+    private static final int BATCH = 1_000;
+
+    private static final int STREAM = 2_000_000;
+
+
+    public static void main(String[] args) throws Exception {
+
+        String url = args.length > 0 ? args[0] : "http://localhost:8080";
+        int ingestPort = args.length > 1 ? Integer.parseInt(args[1]) : 9090;
+        String api = url + "/transactionservice";
+        RestTemplate restTemplate = new RestTemplate();
+
+        //ids are taken from the current time, so the benchmark can run several times against the same server.
+        //PUT takes the id in the path as Integer, so these ids stay in the int range
+        long base = (System.currentTimeMillis() / 1000 % 1_000) * 2_000_000;
+
+        long start = System.nanoTime();
+        for(long id = base + 1; id <= base + SINGLE; id++)
+            restTemplate.exchange(api + "/transaction/" + id, HttpMethod.PUT,
+                    new HttpEntity<>(transaction(id, base)), TransactionStatus.class);
+        double single = SINGLE / ((System.nanoTime() - start) / 1e9);
+
+        base += SINGLE;
+
+        start = System.nanoTime();
+        for(long first = base + 1; first <= base + BULK; first += BATCH) {
+
+            List<Transaction> batch = new ArrayList<>(BATCH);
+            for(long id = first; id < first + BATCH; id++)
+                batch.add(transaction(id, base));
+
+            restTemplate.postForObject(api + "/transactions", batch, TransactionStatus[].class);
+        }
+        double bulk = BULK / ((System.nanoTime() - start) / 1e9);
+
+        base = 1L << 40 | base << 8;
+
+        start = System.nanoTime();
+        int failed = 0;
+        try(TransactionIngestClient client = new TransactionIngestClient(host(url), ingestPort)) {
+
+            for(long id = base + 1; id <= base + STREAM; id++)
+                client.send(transaction(id, base));
+
+            for(TransactionStatus status : client.await())
+                if(!"ok".equals(status.getStatus()))
+                    failed++;
+        }
+        double stream = STREAM / ((System.nanoTime() - start) / 1e9);
+
+        System.out.printf("single PUT:    %,12.0f transactions/s%n", single);
+        System.out.printf("bulk POST:     %,12.0f transactions/s (batches of %d)  %.1fx%n", bulk, BATCH, bulk / single);
+        System.out.printf("binary stream: %,12.0f transactions/s (%d not ok)  %.1fx%n", stream, failed, stream / single);
+    }
+
+
+    /**
+     * Returns a transaction, which is linked to the transaction with half its ID relative to base,
+     * so the transactions form binary trees
+     */
+    private static Transaction transaction(long id, long base) {
+
+        long parent = (id - base) / 2;
+
+        return new Transaction(id, 1.0, "benchmark", parent == 0 ? 0 : base + parent);
+    }
+
+
+    private static String host(String url) {
+        return url.replaceFirst("^[a-z]+://", "").replaceFirst("[:/].*$", "");
+    }
+
+}
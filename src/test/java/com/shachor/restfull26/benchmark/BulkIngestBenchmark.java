@@ -0,0 +1,76 @@
+package com.shachor.restfull26.benchmark;
+
+import com.shachor.restfull26.transactionservice.Transaction;
+import com.shachor.restfull26.transactionservice.TransactionStatus;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.client.RestTemplate;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * This class compares the throughput of storing transactions one by one with HTTP PUT requests
+ * with the throughput of the bulk endpoint POST /transactionservice/transactions.
+ * The bulk batches are sent in reverse order, so every child arrives before its parent.
+ *
+ * Needs a running server. Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *           -Dexec.mainClass=com.shachor.restfull26.benchmark.BulkIngestBenchmark [-Dexec.args=http://host:port]
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class BulkIngestBenchmark {
+
+    private static final int SINGLE = 5_000;
+
+    private static final int BULK = 100_000;
+
+    private static final int BATCH = 1_000;
+
+
+    public static void main(String[] args) {
+
+        String api = (args.length > 0 ? args[0] : "http://localhost:8080") + "/transactionservice";
+        RestTemplate restTemplate = new RestTemplate();
+
+        //ids are taken from the current time, so the benchmark can run several times against the same server.
+        //PUT takes the id in the path as Integer, so the ids stay in the int range
+        long base = (System.currentTimeMillis() / 1000 % 10_000) * 200_000;
+
+        long start = System.nanoTime();
+        for(long id = base + 1; id <= base + SINGLE; id++)
+            restTemplate.exchange(api + "/transaction/" + id, HttpMethod.PUT,
+                    new HttpEntity<>(transaction(id, base)), TransactionStatus.class);
+        double single = SINGLE / ((System.nanoTime() - start) / 1e9);
+
+        base += SINGLE;
+
+        start = System.nanoTime();
+        for(long first = base + 1; first <= base + BULK; first += BATCH) {
+
+            List<Transaction> batch = new ArrayList<>(BATCH);
+            for(long id = first + BATCH - 1; id >= first; id--)
+                batch.add(transaction(id, base));
+
+            restTemplate.postForObject(api + "/transactions", batch, TransactionStatus[].class);
+        }
+        double bulk = BULK / ((System.nanoTime() - start) / 1e9);
+
+        System.out.printf("single PUT: %,10.0f transactions/s%n", single);
+        System.out.printf("bulk POST:  %,10.0f transactions/s (batches of %d, children before parents)  %.1fx%n",
+                bulk, BATCH, bulk / single);
+    }
+
+
+    /**
+     * Returns a transaction, which is linked to the transaction with half its ID relative to base,
+     * so the transactions form binary trees
+     */
+    private static Transaction transaction(long id, long base) {
+
+        long parent = (id - base) / 2;
+
+        return new Transaction(id, 1.0, "benchmark", parent == 0 ? 0 : base + parent);
+    }
+
+}
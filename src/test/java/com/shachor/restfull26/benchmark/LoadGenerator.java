@@ -0,0 +1,283 @@
+package com.shachor.restfull26.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shachor.restfull26.transactionservice.Histogram;
+import com.shachor.restfull26.transactionservice.Transaction;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * This class drives a running server with a mix of PUT, GET, types and sum requests at a fixed arrival rate,
+ * and reports the latency percentiles of each endpoint.
+ *
+ * The load is open: request i is due at start + i / rate, whether or not earlier requests have been answered.
+ * A connection sends the next due request as soon as it is free. If all connections are busy, a request is sent
+ * late, and its latency is measured from the time it was due, not from the time it was sent. Without this
+ * correction a slow response would hold back the following requests and hide their waiting time
+ * (coordinated omission). The latency from sending to the response is reported as service time.
+ *
+ * The transactions of the PUT requests are generated by SyntheticTree, GET and sum ask for random transactions,
+ * which were generated before, and types ask for a random type with a page of at most 100 IDs.
+ *
+ * Needs a running server. Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *           -Dexec.mainClass=com.shachor.restfull26.benchmark.LoadGenerator
+ *           -Dexec.args="rate=20000 duration=30 warmup=5 connections=64 mix=put:40,get:30,types:10,sum:20
+ *                        url=http://localhost:8080"
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class LoadGenerator {
+
+    private enum Endpoint { PUT, GET, TYPES, SUM }
+
+    private static final Endpoint[] ENDPOINTS = Endpoint.values();
+
+
+    private final String api;
+
+    private final double rate;
+
+    private final int connections;
+
+    /**The endpoint of each slot of 100, filled according to the mix*/
+    private final Endpoint[] schedule = new Endpoint[100];
+
+    private final SyntheticTree tree;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+
+    private LoadGenerator(String api, double rate, int connections, String mix, SyntheticTree tree) {
+
+        this.api = api;
+        this.rate = rate;
+        this.connections = connections;
+        this.tree = tree;
+
+        Map<Endpoint, Integer> shares = new EnumMap<>(Endpoint.class);
+        int total = 0;
+        for(String part : mix.split(",")) {
+            String[] share = part.split(":");
+            shares.put(Endpoint.valueOf(share[0].trim().toUpperCase()), Integer.parseInt(share[1].trim()));
+            total += Integer.parseInt(share[1].trim());
+        }
+
+        int slot = 0;
+        double cumulative = 0;
+        for(Map.Entry<Endpoint, Integer> share : shares.entrySet()) {
+            cumulative += share.getValue() * 100.0 / total;
+            for(; slot < Math.round(cumulative); slot++)
+                schedule[slot] = share.getKey();
+        }
+    }
+
+
+    public static void main(String[] args) throws InterruptedException {
+
+        Map<String, String> options = new HashMap<>();
+        for(String arg : args) {
+            String[] option = arg.split("=", 2);
+            options.put(option[0], option.length > 1 ? option[1] : "");
+        }
+
+        double rate = Double.parseDouble(options.getOrDefault("rate", "2000"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        int connections = Integer.parseInt(options.getOrDefault("connections", "64"));
+        String mix = options.getOrDefault("mix", "put:40,get:30,types:10,sum:20");
+        String url = options.getOrDefault("url", "http://localhost:8080");
+
+        System.setProperty("http.maxConnections", String.valueOf(connections));
+
+        //PUT takes the id in the path as Integer, so the ids stay in the int range.
+        //The base is taken from the current time, so the generator can run several times against the same server
+        long base = (System.currentTimeMillis() / 1000 % 100) * 20_000_000L;
+        SyntheticTree tree = new SyntheticTree(base, 0.05, 20, 42L);
+
+        LoadGenerator generator = new LoadGenerator(url + "/transactionservice", rate, connections, mix, tree);
+
+        System.out.printf("%,.0f requests/s over %d connections, mix %s, %d s warmup, %d s measured%n",
+                rate, connections, mix, warmup, duration);
+
+        if(warmup > 0)
+            generator.run(warmup);
+
+        generator.run(duration).print(duration);
+    }
+
+
+
+    /**
+     * Sends the requests of one period and returns the measured latencies
+     */
+    private Result run(int seconds) throws InterruptedException {
+
+        Result result = new Result();
+        AtomicLong sequence = new AtomicLong();
+        double interval = 1e9 / rate;
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10);
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+
+        List<Thread> workers = new ArrayList<>();
+
+        for(int c = 0; c < connections; c++) {
+
+            Thread worker = new Thread(() -> {
+                for(;;) {
+                    long i = sequence.getAndIncrement();
+                    long due = start + (long) (i * interval);
+                    if(due >= end)
+                        return;
+
+                    long now;
+                    while((now = System.nanoTime()) < due)
+                        LockSupport.parkNanos(due - now);
+
+                    //37 and 100 are coprime, so the endpoints are interleaved instead of sent in runs
+                    Endpoint endpoint = schedule[(int) (i * 37 % schedule.length)];
+                    boolean ok = send(endpoint);
+                    long done = System.nanoTime();
+
+                    result.latency[endpoint.ordinal()].record(done - due);
+                    result.service[endpoint.ordinal()].record(done - now);
+                    if(!ok)
+                        result.errors.incrementAndGet(endpoint.ordinal());
+                }
+            }, "load-" + c);
+
+            worker.start();
+            workers.add(worker);
+        }
+
+        for(Thread worker : workers)
+            worker.join();
+
+        return result;
+    }
+
+
+    /**
+     * Sends one request and reads the whole response, so the connection is kept alive
+     * @return true if the server answered with 2xx
+     */
+    private boolean send(Endpoint endpoint) {
+
+        try {
+            HttpURLConnection connection;
+
+            switch(endpoint) {
+                case PUT: {
+                    Transaction transaction = tree.next();
+                    byte[] body = mapper.writeValueAsBytes(transaction);
+                    connection = open("/transaction/" + transaction.getTransaction_id());
+                    connection.setRequestMethod("PUT");
+                    connection.setDoOutput(true);
+                    connection.setRequestProperty("Content-Type", "application/json");
+                    connection.setFixedLengthStreamingMode(body.length);
+                    try(OutputStream out = connection.getOutputStream()) {
+                        out.write(body);
+                    }
+                    break;
+                }
+                case GET:
+                    connection = open("/transaction/" + tree.randomId());
+                    break;
+                case TYPES:
+                    connection = open("/types/" + tree.randomType() + "?limit=100");
+                    break;
+                default:
+                    connection = open("/sum/" + tree.randomId());
+            }
+
+            int status = connection.getResponseCode();
+            drain(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+
+            return status / 100 == 2;
+        } catch(IOException e) {
+            return false;
+        }
+    }
+
+
+    private HttpURLConnection open(String path) throws IOException {
+        return (HttpURLConnection) new URL(api + path).openConnection();
+    }
+
+
+    private static void drain(InputStream in) throws IOException {
+
+        if(in == null)
+            return;
+
+        byte[] buffer = new byte[4096];
+        try(InputStream stream = in) {
+            while(stream.read(buffer) >= 0);
+        }
+    }
+
+
+
+    /**
+     * The latencies of one period per endpoint
+     */
+    private static final class Result {
+
+        final Histogram[] latency = new Histogram[ENDPOINTS.length];
+
+        final Histogram[] service = new Histogram[ENDPOINTS.length];
+
+        final AtomicLongArray errors = new AtomicLongArray(ENDPOINTS.length);
+
+        Result() {
+            for(int i = 0; i < ENDPOINTS.length; i++) {
+                latency[i] = new Histogram();
+                service[i] = new Histogram();
+            }
+        }
+
+
+        void print(int seconds) {
+
+            System.out.printf("%-6s %9s %7s %9s | %9s %9s %9s %9s %9s | %9s %9s%n", "", "requests", "errors", "req/s",
+                    "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "svc p50", "svc p99");
+
+            long total = 0;
+
+            for(Endpoint endpoint : ENDPOINTS) {
+
+                Histogram.Snapshot corrected = latency[endpoint.ordinal()].snapshot();
+                Histogram.Snapshot uncorrected = service[endpoint.ordinal()].snapshot();
+                if(corrected.getCount() == 0)
+                    continue;
+
+                total += corrected.getCount();
+
+                System.out.printf("%-6s %9d %7d %9.0f | %9.3f %9.3f %9.3f %9.3f %9.3f | %9.3f %9.3f%n",
+                        endpoint, corrected.getCount(), errors.get(endpoint.ordinal()),
+                        corrected.getCount() / (double) seconds,
+                        ms(corrected.getValueAtPercentile(50)), ms(corrected.getValueAtPercentile(90)),
+                        ms(corrected.getValueAtPercentile(99)), ms(corrected.getValueAtPercentile(99.9)),
+                        ms(corrected.getMax()),
+                        ms(uncorrected.getValueAtPercentile(50)), ms(uncorrected.getValueAtPercentile(99)));
+            }
+
+            System.out.printf("total  %9d requests, %,.0f requests/s%n", total, total / (double) seconds);
+        }
+
+
+        private static double ms(long nanos) {
+            return nanos / 1e6;
+        }
+    }
+
+}
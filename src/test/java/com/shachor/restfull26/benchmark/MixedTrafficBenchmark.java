@@ -0,0 +1,217 @@
+package com.shachor.restfull26.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shachor.restfull26.transactionservice.Histogram;
+import com.shachor.restfull26.transactionservice.Transaction;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * This class measures the latency of GET /transactionservice/transaction/{id} at a fixed arrival rate,
+ * first alone and then while heavy clients request pages of 10,000 IDs of a type and post batches of 1,000
+ * transactions as fast as they can. The latency of the GET requests is measured from the time they were due,
+ * as in LoadGenerator.
+ *
+ * Run it against a server with the ComputeExecutor (default) and against a server started with
+ * -Dtransactionservice.compute.threads=0, where the heavy requests run on the worker threads, to compare.
+ * A heavy client, whose request is rejected with 429 or 503, waits for the seconds of its Retry-After header.
+ *
+ * Needs a running server. Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *           -Dexec.mainClass=com.shachor.restfull26.benchmark.MixedTrafficBenchmark
+ *           [-Dexec.args="http://host:port getsPerSecond heavyClients seconds"]
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class MixedTrafficBenchmark {
+
+    private static final String TYPE = "mixed-traffic";
+
+    private static final int TYPE_SIZE = 200_000;
+
+
+    public static void main(String[] args) throws Exception {
+
+        String api = (args.length > 0 ? args[0] : "http://localhost:8080") + "/transactionservice";
+        int rate = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int heavyClients = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        System.setProperty("http.maxConnections", "256");
+
+        //PUT takes the id in the path as Integer, so the ids stay in the int range
+        long base = (System.currentTimeMillis() / 1000 % 100) * 20_000_000L;
+        AtomicLong nextId = new AtomicLong(base);
+
+        for(int i = 0; i < TYPE_SIZE; i += 1000)
+            post(api, batch(nextId, 1000));
+
+        System.out.printf("GET at %d requests/s, %d heavy clients, %d s per phase%n", rate, heavyClients, seconds);
+
+        measureGets(api, base, rate, 2, new AtomicLong());
+
+        AtomicLong heavy = new AtomicLong();
+        print("GET alone", measureGets(api, base, rate, seconds, heavy), seconds, heavy);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> clients = new ArrayList<>();
+
+        for(int c = 0; c < heavyClients; c++) {
+            boolean pages = c % 2 == 0;
+            Thread client = new Thread(() -> {
+                while(running.get()) {
+                    try {
+                        if(pages)
+                            request(api + "/types/" + TYPE + "?limit=10000", "GET", null);
+                        else
+                            post(api, batch(nextId, 1000));
+                        heavy.incrementAndGet();
+                    } catch(BusyException e) {
+                        try {
+                            Thread.sleep(TimeUnit.SECONDS.toMillis(e.retryAfterSeconds));
+                        } catch(InterruptedException interrupted) {
+                            return;
+                        }
+                    } catch(IOException e) {
+                        // counted as missing heavy request
+                    }
+                }
+            });
+            client.start();
+            clients.add(client);
+        }
+
+        Thread.sleep(1000);
+        heavy.set(0);
+        print("GET with heavy", measureGets(api, base, rate, seconds, heavy), seconds, heavy);
+
+        running.set(false);
+        for(Thread client : clients)
+            client.join();
+    }
+
+
+    /**
+     * Sends GET requests for random stored transactions at a fixed rate from a pool of connections,
+     * and returns their latencies measured from the time they were due
+     */
+    private static Histogram measureGets(String api, long base, int rate, int seconds, AtomicLong heavy)
+            throws InterruptedException {
+
+        Histogram latency = new Histogram();
+        AtomicLong sequence = new AtomicLong();
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        double interval = 1e9 / rate;
+
+        List<Thread> workers = new ArrayList<>();
+        for(int w = 0; w < 32; w++) {
+            Thread worker = new Thread(() -> {
+                for(;;) {
+                    long due = start + (long) (sequence.getAndIncrement() * interval);
+                    if(due >= end)
+                        return;
+
+                    long now;
+                    while((now = System.nanoTime()) < due)
+                        LockSupport.parkNanos(due - now);
+
+                    try {
+                        long id = base + 1 + ThreadLocalRandom.current().nextInt(TYPE_SIZE);
+                        request(api + "/transaction/" + id, "GET", null);
+                    } catch(IOException e) {
+                        // a failed request is still counted with its latency
+                    }
+                    latency.record(System.nanoTime() - due);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+
+        for(Thread worker : workers)
+            worker.join();
+
+        return latency;
+    }
+
+
+    private static void print(String phase, Histogram latency, int seconds, AtomicLong heavy) {
+
+        Histogram.Snapshot snapshot = latency.snapshot();
+
+        System.out.printf("%-16s p50 %8.3f ms  p99 %8.3f ms  p99.9 %8.3f ms  max %8.3f ms  heavy requests/s %6.1f%n",
+                phase, snapshot.getValueAtPercentile(50) / 1e6, snapshot.getValueAtPercentile(99) / 1e6,
+                snapshot.getValueAtPercentile(99.9) / 1e6, snapshot.getMax() / 1e6, heavy.get() / (double) seconds);
+    }
+
+
+    private static List<Transaction> batch(AtomicLong nextId, int size) {
+
+        List<Transaction> batch = new ArrayList<>(size);
+        for(int i = 0; i < size; i++)
+            batch.add(new Transaction(nextId.incrementAndGet(), 1.0, TYPE));
+
+        return batch;
+    }
+
+
+    private static void post(String api, List<Transaction> batch) throws IOException {
+        request(api + "/transactions", "POST", new ObjectMapper().writeValueAsBytes(batch));
+    }
+
+
+    private static void request(String url, String method, byte[] body) throws IOException {
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+
+        if(body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setFixedLengthStreamingMode(body.length);
+            try(OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+        }
+
+        int status = connection.getResponseCode();
+        byte[] buffer = new byte[8192];
+        try(InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            while(in != null && in.read(buffer) >= 0);
+        }
+
+        String retryAfter = connection.getHeaderField("Retry-After");
+        if(retryAfter != null && (status == 429 || status == 503))
+            throw new BusyException(status, Long.parseLong(retryAfter));
+
+        if(status / 100 != 2)
+            throw new IOException("HTTP " + status);
+    }
+
+
+    /**
+     * Thrown if the server rejects a request, because it is overloaded
+     */
+    private static class BusyException extends IOException {
+
+        private final long retryAfterSeconds;
+
+        BusyException(int status, long retryAfterSeconds) {
+            super("HTTP " + status + ", retry after " + retryAfterSeconds + " s");
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+package com.shachor.restfull26.benchmark;
+
+import com.shachor.restfull26.transactionservice.App;
+import com.shachor.restfull26.transactionservice.LightApp;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * This class measures the start of App (Spring Boot) and of LightApp (TransactionHttpServer) in new JVMs:
+ * the time from starting the JVM until the first GET transactionservice/sum/{id} is answered, and the resident
+ * memory of the JVM right after that request, read from /proc (Linux only). Each server is started several times,
+ * the medians are reported.
+ *
+ * The servers are started with the same java, classpath and JVM options, e.g. a CDS archive
+ * (-XX:SharedArchiveFile=..., on a JDK, which archives application classes, and a classpath of jars only).
+ *
+ * Run with: mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt
+ *           java -cp target/test-classes:target/classes:$(cat target/classpath.txt)
+ *                com.shachor.restfull26.benchmark.StartupBenchmark runs=5 jvmArgs="-Xmx256m"
+ * Options: runs, java (default the java of this JVM), classpath (default the classpath of this JVM), jvmArgs,
+ *          servers (default App,LightApp; Spring Boot 1.3 does not start on a JDK newer than 8)
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class StartupBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        Map<String, String> options = new HashMap<>();
+        for(String arg : args) {
+            String[] option = arg.split("=", 2);
+            options.put(option[0], option.length > 1 ? option[1] : "");
+        }
+
+        int runs = Integer.parseInt(options.getOrDefault("runs", "5"));
+        String java = options.getOrDefault("java",
+                System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        String classpath = options.getOrDefault("classpath", System.getProperty("java.class.path"));
+        String jvmArgs = options.getOrDefault("jvmArgs", "-Xmx256m").trim();
+        List<String> servers = Arrays.asList(options.getOrDefault("servers", "App,LightApp").split(","));
+
+        System.out.printf("%d runs each, %s %s%n", runs, java, jvmArgs);
+
+        for(Class<?> main : Arrays.asList(App.class, LightApp.class)) {
+
+            if(!servers.contains(main.getSimpleName()))
+                continue;
+
+            List<Long> millis = new ArrayList<>();
+            List<Long> rss = new ArrayList<>();
+
+            for(int run = 0; run < runs; run++) {
+                long[] result = start(java, classpath, jvmArgs, main.getName());
+                millis.add(result[0]);
+                rss.add(result[1]);
+            }
+
+            System.out.printf("%-10s first request after %5d ms (median, min %d), resident %4d MB (median)%n",
+                    main.getSimpleName() + ":", median(millis), Collections.min(millis), median(rss) >> 10);
+        }
+    }
+
+
+    /**
+     * Starts a server in a new JVM, waits for its first answer and stops it
+     * @return the milliseconds until the first answer and the resident kB after it
+     */
+    private static long[] start(String java, String classpath, String jvmArgs, String main) throws Exception {
+
+        int port;
+        try(ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        if(!jvmArgs.isEmpty())
+            command.addAll(Arrays.asList(jvmArgs.split("\\s+")));
+        command.addAll(Arrays.asList("-Dserver.port=" + port, "-cp", classpath, main));
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.to(new File(System.getProperty("java.io.tmpdir"),
+                        "startup-" + port + ".log"))).start();
+
+        try {
+            URL url = new URL("http://localhost:" + port + "/transactionservice/sum/1");
+
+            while(!answers(url)) {
+                if(!process.isAlive())
+                    throw new IllegalStateException(main + " stopped, see the log in java.io.tmpdir");
+                Thread.sleep(2);
+            }
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            return new long[] {millis, residentKilobytes(pid(process))};
+        } finally {
+            process.destroy();
+            process.waitFor();
+        }
+    }
+
+
+    private static boolean answers(URL url) {
+
+        try {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(100);
+            connection.setReadTimeout(10_000);
+            return connection.getResponseCode() == 200;
+        } catch(IOException e) {
+            return false;
+        }
+    }
+
+
+    /**
+     * Returns the process ID: with Process.pid() since Java 9, and from the field of UNIXProcess on Java 8
+     */
+    private static long pid(Process process) throws ReflectiveOperationException {
+
+        try {
+            return (Long) Process.class.getMethod("pid").invoke(process);
+        } catch(NoSuchMethodException e) {
+            java.lang.reflect.Field field = process.getClass().getDeclaredField("pid");
+            field.setAccessible(true);
+            return field.getInt(process);
+        }
+    }
+
+
+    private static long residentKilobytes(long pid) throws IOException {
+
+        for(String line : Files.readAllLines(Paths.get("/proc/" + pid + "/status"), StandardCharsets.US_ASCII))
+            if(line.startsWith("VmRSS:"))
+                return Long.parseLong(line.replaceAll("[^0-9]", ""));
+
+        return -1L;
+    }
+
+
+    private static long median(List<Long> values) {
+
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+
+        return sorted.get(sorted.size() / 2);
+    }
+
+}
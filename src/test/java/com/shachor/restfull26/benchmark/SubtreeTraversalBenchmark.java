@@ -0,0 +1,171 @@
+package com.shachor.restfull26.benchmark;
+
+import com.shachor.restfull26.transactionservice.SubtreeQuery;
+import com.shachor.restfull26.transactionservice.SubtreeTraversal;
+import com.shachor.restfull26.transactionservice.TransactionTree;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+
+/**
+ * This class compares the sum over a subtree, calculated by the recursive walk which was used before
+ * by TransactionDBMockSingleton.getSumTransactions(), with the sum calculated by SubtreeTraversal.
+ * Both are measured on a wide tree and on a deep chain of transactions.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *           -Dexec.mainClass=com.shachor.restfull26.benchmark.SubtreeTraversalBenchmark
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class SubtreeTraversalBenchmark {
+
+    private static final int WARMUP = 5;
+    private static final int ROUNDS = 10;
+
+
+    public static void main(String[] args) {
+
+        run("wide  (1 root, 1000 x 1000 children)", ArrayTree.wide(1000, 1000));
+        run("deep  (chain of 200000 transactions)", ArrayTree.chain(200_000));
+    }
+
+
+    /**
+     * Measures both walks on one tree and prints the average time per sum
+     */
+    private static void run(String shape, ArrayTree tree) {
+
+        SubtreeTraversal traversal = new SubtreeTraversal(tree);
+
+        double recursive = measure(() -> recursiveSum(tree, 1L));
+        double iterative = measure(() -> traversal.traverse(1L, tree.sumQuery())[0]);
+
+        System.out.printf("%s  recursive: %s  traversal: %8.3f ms  speedup: %s%n", shape,
+                Double.isNaN(recursive) ? "StackOverflowError" : String.format("%8.3f ms", recursive), iterative,
+                Double.isNaN(recursive) ? "-" : String.format("%.1fx", recursive / iterative));
+    }
+
+
+    /**
+     * Returns the average time of one sum in milliseconds, or NaN if the sum overflows the thread stack
+     */
+    private static double measure(SumSupplier sum) {
+        try {
+            for(int i = 0; i < WARMUP; i++)
+                sum.get();
+
+            long start = System.nanoTime();
+            for(int i = 0; i < ROUNDS; i++)
+                sum.get();
+
+            return (System.nanoTime() - start) / 1e6 / ROUNDS;
+
+        } catch(StackOverflowError e) {
+            return Double.NaN;
+        }
+    }
+
+
+    /**
+     * The recursive walk, as it was implemented by TransactionDBMockSingleton.getSumTransactions()
+     */
+    private static double recursiveSum(ArrayTree tree, long id) {
+
+        double[] sum = {tree.amount(id)};
+
+        tree.forEachChild(id, child -> sum[0] += recursiveSum(tree, child));
+
+        return sum[0];
+    }
+
+
+    private interface SumSupplier {
+        double get();
+    }
+
+
+    /**
+     * A tree of transactions with the IDs 1 to N, stored in arrays
+     */
+    private static final class ArrayTree implements TransactionTree {
+
+        private final long[][] children;
+
+        private ArrayTree(int size) {
+            children = new long[size + 1][];
+            Arrays.fill(children, new long[0]);
+        }
+
+
+        static ArrayTree wide(int width, int fanOut) {
+
+            ArrayTree tree = new ArrayTree(1 + width + width * fanOut);
+            long next = 2;
+
+            tree.children[1] = new long[width];
+            for(int i = 0; i < width; i++) {
+
+                long child = next++;
+                tree.children[1][i] = child;
+                tree.children[(int) child] = new long[fanOut];
+            }
+
+            for(int i = 0; i < width; i++)
+                for(int j = 0; j < fanOut; j++)
+                    tree.children[(int) tree.children[1][i]][j] = next++;
+
+            return tree;
+        }
+
+
+        static ArrayTree chain(int depth) {
+
+            ArrayTree tree = new ArrayTree(depth);
+
+            for(int id = 1; id < depth; id++)
+                tree.children[id] = new long[]{id + 1};
+
+            return tree;
+        }
+
+
+        double amount(long id) {
+            return id % 100;
+        }
+
+
+        SubtreeQuery<double[]> sumQuery() {
+            return new SubtreeQuery<double[]>() {
+
+                @Override
+                public double[] newAccumulator() {
+                    return new double[1];
+                }
+
+                @Override
+                public void visit(double[] sum, long id) {
+                    sum[0] += amount(id);
+                }
+
+                @Override
+                public double[] combine(double[] left, double[] right) {
+                    left[0] += right[0];
+                    return left;
+                }
+            };
+        }
+
+
+        @Override
+        public boolean contains(long id) {
+            return id > 0 && id < children.length;
+        }
+
+        @Override
+        public void forEachChild(long id, LongConsumer action) {
+            for(long child : children[(int) id])
+                action.accept(child);
+        }
+    }
+
+}
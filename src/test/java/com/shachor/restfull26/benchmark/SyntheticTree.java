@@ -0,0 +1,114 @@
+package com.shachor.restfull26.benchmark;
+
+import com.shachor.restfull26.transactionservice.Transaction;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+
+/**
+ * This class generates transactions, which form trees of a realistic shape for the load of LoadGenerator.
+ *
+ * A new transaction starts a new tree with a small probability. Otherwise its parent is picked among the
+ * recent transactions, preferring the most recent ones, so the trees get a few long paths and many short
+ * branches, and some transactions collect many children. The types follow a Zipf distribution:
+ * the first type is the most frequent one, the second one is half as frequent and so on.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class SyntheticTree {
+
+    /**The ID before the first generated transaction*/
+    private final long base;
+
+    /**Probability of a new transaction to start a new tree*/
+    private final double rootShare;
+
+    /**Cumulative probabilities of the types*/
+    private final double[] typeWeights;
+
+    private final Random random;
+
+    /**Number of generated transactions*/
+    private long count;
+
+    /**Number of generated transactions, readable without a lock*/
+    private volatile long published;
+
+
+    /**
+     * Creates a generator
+     * @param base the ID before the first generated transaction
+     * @param rootShare probability of a new transaction to start a new tree
+     * @param types number of different types
+     * @param seed seed of the random choices, so a load can be repeated
+     */
+    public SyntheticTree(long base, double rootShare, int types, long seed) {
+
+        this.base = base;
+        this.rootShare = rootShare;
+        this.random = new Random(seed);
+
+        typeWeights = new double[types];
+        double total = 0;
+        for(int i = 0; i < types; i++)
+            typeWeights[i] = total += 1.0 / (i + 1);
+        for(int i = 0; i < types; i++)
+            typeWeights[i] /= total;
+    }
+
+
+    /**
+     * Returns the next transaction of the trees
+     * @return a transaction with a new ID
+     */
+    public synchronized Transaction next() {
+
+        long id = base + ++count;
+        long parent = 0L;
+
+        if(count > 1 && random.nextDouble() >= rootShare) {
+            long back = 1 + (long) (Math.abs(random.nextGaussian()) * Math.sqrt(count - 1));
+            parent = Math.max(base + 1, id - back);
+        }
+
+        double amount = Math.round(random.nextDouble() * 100_000) / 100.0;
+
+        published = count;
+
+        return parent == 0L ? new Transaction(id, amount, type(random.nextDouble()))
+                            : new Transaction(id, amount, type(random.nextDouble()), parent);
+    }
+
+
+    /**
+     * Returns the ID of a random transaction, which was already generated
+     * @return the ID, or the first ID if none was generated yet
+     */
+    public long randomId() {
+
+        long n = Math.max(1L, published);
+
+        return base + 1 + ThreadLocalRandom.current().nextLong(n);
+    }
+
+
+    /**
+     * Returns a random type, following the distribution of the generated transactions
+     * @return the type
+     */
+    public String randomType() {
+        return type(ThreadLocalRandom.current().nextDouble());
+    }
+
+
+    private String type(double p) {
+
+        int i = 0;
+        while(i < typeWeights.length - 1 && typeWeights[i] < p)
+            i++;
+
+        return "type" + i;
+    }
+
+}
@@ -0,0 +1,115 @@
+package com.shachor.restfull26.benchmark;
+
+import com.shachor.restfull26.transactionservice.Durability;
+import com.shachor.restfull26.transactionservice.Transaction;
+import com.shachor.restfull26.transactionservice.TieredTransactionRepository;
+import com.shachor.restfull26.transactionservice.TransactionDBMockSingleton;
+import com.shachor.restfull26.transactionservice.TransactionRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+
+/**
+ * This class measures the heap used by the TransactionDBMockSingleton and by a TieredTransactionRepository, which
+ * keeps a tenth of the transactions on the heap, and the latency of getTransaction() on both: on the most recent
+ * trees, which are resident in both, and on old trees, which the tiered repository reads back from its segments.
+ * The transactions are stored in trees of 100, each transaction linked to a random earlier one of its tree.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *           -Dexec.mainClass=com.shachor.restfull26.benchmark.TieredStorageBenchmark
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class TieredStorageBenchmark {
+
+    private static final int TRANSACTIONS = 2_000_000;
+
+    private static final int TREE = 100;
+
+    private static final int MAX_RESIDENT = TRANSACTIONS / 10;
+
+    private static final int LOOKUPS = 1_000_000;
+
+    private static final String[] TYPES = {"shopping", "cars", "rent", "salary", "insurance"};
+
+
+    public static void main(String[] args) throws IOException {
+
+        long before = usedHeap();
+        TransactionRepository heap = fill(TransactionDBMockSingleton.getInstance());
+        System.out.printf("heap:   %6.1f bytes per transaction on the heap%n",
+                (double) (usedHeap() - before) / TRANSACTIONS);
+        measure("heap", heap);
+        heap = null;
+
+        before = usedHeap();
+        TieredTransactionRepository tiered = new TieredTransactionRepository(Files.createTempDirectory("tiered"),
+                MAX_RESIDENT, 0L, null, Durability.ASYNC);
+        fill(tiered);
+        System.out.printf("tiered: %6.1f bytes per transaction on the heap, %d resident, %d MB in segments%n",
+                (double) (usedHeap() - before) / TRANSACTIONS, tiered.getResidentTransactions(),
+                tiered.getSegmentBytes() >> 20);
+        measure("tiered", tiered);
+        tiered.close();
+    }
+
+
+    private static TransactionRepository fill(TransactionRepository repository) {
+
+        Random random = new Random(26);
+
+        for(long id = 1; id <= TRANSACTIONS; id++) {
+            long offset = (id - 1) % TREE;
+            repository.putTransaction(offset == 0 ? new Transaction(id, id % 1000, TYPES[(int) (id % TYPES.length)])
+                    : new Transaction(id, id % 1000, TYPES[(int) (id % TYPES.length)],
+                            id - 1 - random.nextInt((int) offset)), Durability.ASYNC);
+        }
+
+        return repository;
+    }
+
+
+    private static void measure(String name, TransactionRepository repository) {
+
+        Random random = new Random(7);
+        int hot = MAX_RESIDENT / 2;
+
+        // twice, the first round warms up
+        for(int round = 0; round < 2; round++) {
+
+            long start = System.nanoTime();
+            for(int i = 0; i < LOOKUPS; i++)
+                repository.getTransaction(TRANSACTIONS - random.nextInt(hot));
+            long hotNanos = (System.nanoTime() - start) / LOOKUPS;
+
+            start = System.nanoTime();
+            for(int i = 0; i < LOOKUPS / 100; i++)
+                repository.getTransaction(1 + random.nextInt(TRANSACTIONS - MAX_RESIDENT));
+            long coldNanos = (System.nanoTime() - start) / (LOOKUPS / 100);
+
+            if(round == 1)
+                System.out.printf("%-7s getTransaction: recent trees %6d ns, old trees %8d ns%n",
+                        name + ":", hotNanos, coldNanos);
+        }
+    }
+
+
+    private static long usedHeap() {
+
+        Runtime runtime = Runtime.getRuntime();
+
+        for(int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.shachor.restfull26.benchmark;
+
+import com.shachor.restfull26.transactionservice.Durability;
+import com.shachor.restfull26.transactionservice.Transaction;
+import com.shachor.restfull26.transactionservice.TransactionLog;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+
+
+/**
+ * This class compares the throughput of TransactionLog, when every write issues its own fsync (SYNC),
+ * with the throughput when concurrent writers share the fsyncs of the flusher thread (GROUP).
+ * Each mode is measured with the same number of concurrent writer threads, like concurrent PUT requests.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *           -Dexec.mainClass=com.shachor.restfull26.benchmark.TransactionLogBenchmark [-Dexec.args=directory]
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class TransactionLogBenchmark {
+
+    private static final int WRITERS = 32;
+
+    private static final int WRITES_PER_WRITER = 200;
+
+
+    public static void main(String[] args) throws Exception {
+
+        Path root = Paths.get(args.length > 0 ? args[0] : "target/transaction-log-benchmark");
+
+        for(Durability durability : new Durability[]{Durability.SYNC, Durability.GROUP, Durability.ASYNC}) {
+
+            Path directory = Files.createDirectories(root.resolve(durability.name() + "-" + System.nanoTime()));
+
+            try(TransactionLog log = new TransactionLog(directory, 64L << 20, 0)) {
+                double rate = run(log, durability);
+                System.out.printf("%-6s %2d writers: %,10.0f writes/s%n", durability, WRITERS, rate);
+            }
+        }
+    }
+
+
+    private static double run(TransactionLog log, Durability durability) throws InterruptedException {
+
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(WRITERS);
+
+        for(int w = 0; w < WRITERS; w++) {
+
+            long first = (long) w * WRITES_PER_WRITER + 1;
+
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for(long id = first; id < first + WRITES_PER_WRITER; id++)
+                        log.append(new Transaction(id, 1.0, "benchmark"), durability);
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+
+        return WRITERS * WRITES_PER_WRITER / ((System.nanoTime() - begin) / 1e9);
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.shachor.restfull26.benchmark;
+
+import com.shachor.restfull26.transactionservice.Transaction;
+import com.shachor.restfull26.transactionservice.TransactionTable;
+import com.shachor.restfull26.transactionservice.TypeDictionary;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * This class measures the heap used per stored transaction by TransactionTable and by the layout which was used
+ * before by TransactionDBMockSingleton: a ConcurrentMap of Transaction objects, each holding a HashSet
+ * of its children IDs. The Map of the types is the same for both layouts and is not measured.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *           -Dexec.mainClass=com.shachor.restfull26.benchmark.TransactionMemoryBenchmark
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class TransactionMemoryBenchmark {
+
+    private static final int TRANSACTIONS = 1_000_000;
+
+    private static final String[] TYPES = {"shopping", "cars", "rent", "salary", "insurance"};
+
+
+    public static void main(String[] args) {
+
+        long before = usedHeap();
+        ConcurrentMap<Long, Transaction> map = fillMap();
+        long mapBytes = usedHeap() - before;
+
+        System.out.printf("ConcurrentMap<Long, Transaction>: %6.1f bytes per transaction%n",
+                (double) mapBytes / map.size());
+        map = null;
+
+        before = usedHeap();
+        TransactionTable table = fillTable();
+        long tableBytes = usedHeap() - before;
+
+        System.out.printf("TransactionTable:                 %6.1f bytes per transaction (columns and index: %.1f)%n",
+                (double) tableBytes / table.size(), (double) table.memoryUsage() / table.size());
+    }
+
+
+    /**
+     * Returns the parent of the i-th transaction: every 100th transaction is a root,
+     * the others are linked to a random earlier transaction
+     */
+    private static long parent(Random random, long id) {
+        return id % 100 == 1 ? 0L : 1 + random.nextInt((int) id - 1);
+    }
+
+
+    private static ConcurrentMap<Long, Transaction> fillMap() {
+
+        Random random = new Random(26);
+        ConcurrentMap<Long, Transaction> map = new ConcurrentHashMap<>();
+
+        for(long id = 1; id <= TRANSACTIONS; id++) {
+
+            long parent = parent(random, id);
+            map.put(id, new Transaction(id, id % 1000, TYPES[(int) (id % TYPES.length)], parent));
+
+            if(parent != 0L)
+                map.get(parent).setChild_id(id);
+        }
+
+        return map;
+    }
+
+
+    private static TransactionTable fillTable() {
+
+        Random random = new Random(26);
+        TransactionTable table = new TransactionTable(new TypeDictionary());
+
+        for(long id = 1; id <= TRANSACTIONS; id++)
+            table.insert(id, id % 1000, TYPES[(int) (id % TYPES.length)], parent(random, id));
+
+        return table;
+    }
+
+
+    private static long usedHeap() {
+
+        Runtime runtime = Runtime.getRuntime();
+
+        for(int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
@@ -0,0 +1,181 @@
+package com.shachor.restfull26.transactionservice;
+
+import junit.framework.TestCase;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * This class tests class AdmissionControl: a request above the limit is rejected, a limit grows with fast requests
+ * while it is in use and is cut by slow or dropped ones at most once per target latency, every budget
+ * is limited on its own, and the limit of the streams stays fixed.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class AdmissionControlTest
+    extends TestCase
+{
+
+    private static final long FAST = TimeUnit.MICROSECONDS.toNanos(100);
+
+
+    public void testRejectsAboveLimit() {
+
+        AdmissionControl admission = admission(AdmissionBudget.PUT, new AdmissionControl.Limit(1000, 2, 1, 10));
+
+        long first = admission.acquire(AdmissionBudget.PUT);
+        admission.acquire(AdmissionBudget.PUT);
+
+        try {
+            admission.acquire(AdmissionBudget.PUT);
+            fail("the third request must be rejected");
+        } catch(AdmissionControl.RejectedException e) {
+            assertEquals(1L, e.getRetryAfterSeconds());
+        }
+
+        admission.release(AdmissionBudget.PUT, first);
+        admission.acquire(AdmissionBudget.PUT);
+
+        AdmissionStatus status = admission.getStatus().get("put");
+        assertEquals(2, status.getIn_flight());
+        assertEquals(3L, status.getAdmitted());
+        assertEquals(1L, status.getRejected());
+    }
+
+
+    public void testFastRequestsRaiseLimit() {
+
+        AdmissionControl.Limit limit = new AdmissionControl.Limit(1000, 4, 1, 6);
+
+        // one request at a time does not use the limit, so it does not raise it
+        for(int i = 0; i < 100; i++) {
+            assertTrue(limit.tryAcquire());
+            limit.release(FAST, false);
+        }
+        assertEquals(4, limit.getLimit());
+
+        for(int round = 0; round < 100; round++) {
+            int admitted = 0;
+            while(limit.tryAcquire())
+                admitted++;
+            for(int i = 0; i < admitted; i++)
+                limit.release(FAST, false);
+        }
+        assertEquals(6, limit.getLimit());
+    }
+
+
+    public void testSlowRequestsCutLimit() throws InterruptedException {
+
+        AdmissionControl.Limit limit = new AdmissionControl.Limit(1, 100, 10, 100);
+        long slow = TimeUnit.MILLISECONDS.toNanos(5);
+
+        Thread.sleep(2);
+        assertTrue(limit.tryAcquire());
+        limit.release(slow, false);
+        assertEquals(90, limit.getLimit());
+
+        // within the target latency after the last cut
+        assertTrue(limit.tryAcquire());
+        limit.release(slow, false);
+        assertEquals(90, limit.getLimit());
+
+        Thread.sleep(2);
+        assertTrue(limit.tryAcquire());
+        limit.release(FAST, true);
+        assertEquals(81, limit.getLimit());
+
+        for(int i = 0; i < 30; i++) {
+            Thread.sleep(2);
+            assertTrue(limit.tryAcquire());
+            limit.release(slow, false);
+        }
+        assertEquals(10, limit.getLimit());
+    }
+
+
+    public void testBudgetsAreIndependent() {
+
+        AdmissionControl admission = admission(AdmissionBudget.AGGREGATE, new AdmissionControl.Limit(1000, 1, 1, 1));
+
+        long aggregate = admission.acquire(AdmissionBudget.AGGREGATE);
+        try {
+            admission.acquire(AdmissionBudget.AGGREGATE);
+            fail("the second aggregation must be rejected");
+        } catch(AdmissionControl.RejectedException e) {
+            // expected
+        }
+
+        for(int i = 0; i < 1000; i++)
+            assertEquals(AdmissionControl.UNLIMITED, admission.acquire(AdmissionBudget.READ));
+        admission.release(AdmissionBudget.READ, AdmissionControl.UNLIMITED);
+
+        admission.release(AdmissionBudget.AGGREGATE, aggregate);
+        admission.acquire(AdmissionBudget.AGGREGATE);
+
+        assertEquals(1, admission.getStatus().size());
+    }
+
+
+    public void testRetryAfterFollowsLatency() {
+
+        AdmissionControl.Limit limit = new AdmissionControl.Limit(1000, 10, 1, 10);
+        assertEquals(1L, limit.retryAfterSeconds());
+
+        for(int i = 0; i < 500; i++) {
+            assertTrue(limit.tryAcquire());
+            limit.release(TimeUnit.MILLISECONDS.toNanos(2500), false);
+        }
+        assertEquals(3L, limit.retryAfterSeconds());
+    }
+
+
+    public void testDisabled() {
+
+        System.setProperty("transactionservice.admission.enabled", "false");
+        try {
+            AdmissionControl admission = AdmissionControl.fromSystemProperties();
+
+            assertTrue(admission.getStatus().isEmpty());
+            assertEquals(AdmissionControl.UNLIMITED, admission.acquire(AdmissionBudget.AGGREGATE));
+        } finally {
+            System.clearProperty("transactionservice.admission.enabled");
+        }
+
+        assertEquals(4, AdmissionControl.fromSystemProperties().getStatus().size());
+    }
+
+
+    public void testStreamLimitIsFixed() throws InterruptedException {
+
+        System.setProperty("transactionservice.admission.stream.targetMillis", "1");
+        try {
+            AdmissionControl admission = AdmissionControl.fromSystemProperties();
+
+            // streams, which take far longer than the target, as a slow client reads them
+            for(int i = 0; i < 5; i++) {
+                Thread.sleep(2);
+                long start = admission.acquire(AdmissionBudget.STREAM);
+                admission.release(AdmissionBudget.STREAM, start - TimeUnit.SECONDS.toNanos(10));
+            }
+
+            assertEquals(AdmissionBudget.STREAM.getInitialLimit(), admission.getStatus().get("stream").getLimit());
+            assertEquals(AdmissionBudget.AGGREGATE.getInitialLimit(),
+                    admission.getStatus().get("aggregate").getLimit());
+        } finally {
+            System.clearProperty("transactionservice.admission.stream.targetMillis");
+        }
+    }
+
+
+    private static AdmissionControl admission(AdmissionBudget budget, AdmissionControl.Limit limit) {
+
+        Map<AdmissionBudget, AdmissionControl.Limit> limits = new EnumMap<>(AdmissionBudget.class);
+        limits.put(budget, limit);
+
+        return new AdmissionControl(limits);
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * This class runs the TransactionRepositoryConformance tests against a TransactionDBMockSingleton, which writes
+ * a TransactionLog into a new directory, so the heap storage is reopened from its log and its snapshots,
+ * and tests that a torn record at the end of the log is cut off, and that a parked transaction survives a snapshot.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class HeapTransactionRepositoryTest
+    extends TransactionRepositoryConformance
+{
+
+    private Path directory;
+
+
+    @Override
+    protected TransactionRepository open() throws IOException {
+        directory = Files.createTempDirectory("heap-repository");
+        return open(directory);
+    }
+
+
+    @Override
+    protected TransactionRepository reopen() throws IOException {
+        repository.close();
+        return open(directory);
+    }
+
+
+    private static TransactionRepository open(Path directory) throws IOException {
+        return new TransactionDBMockSingleton(2, new TransactionLog(directory, 1L << 20, 0L), Durability.ASYNC, 0L);
+    }
+
+
+
+    public void testTornRecordIsCutOff() throws Exception {
+
+        assertEquals(PutResult.STORED, repository.putTransaction(new Transaction(1L, 1.0, "heap")));
+        assertEquals(PutResult.STORED, repository.putTransaction(new Transaction(2L, 2.0, "heap", 1L)));
+        repository.close();
+
+        // the length and a part of a record, as a crash leaves it behind
+        try(FileChannel segment = FileChannel.open(lastSegment(), StandardOpenOption.APPEND)) {
+            segment.write(ByteBuffer.allocate(9).putInt(40).put((byte) 1).putInt(2));
+        }
+
+        repository = open(directory);
+        assertEquals(2L, repository.getRecoveryStatus().getReplayed_records());
+        assertEquals(3.0, repository.getSumTransactions(1L, new TransactionSum()).getSum());
+
+        // a record written after the cut is read by the next start
+        assertEquals(PutResult.STORED, repository.putTransaction(new Transaction(3L, 3.0, "heap", 2L)));
+
+        repository = reopen();
+        assertEquals(3L, repository.getRecoveryStatus().getReplayed_records());
+        assertEquals(6.0, repository.getSumTransactions(1L, new TransactionSum()).getSum());
+        assertEquals(2, repository.getDepth(3L).getDepth());
+    }
+
+
+    public void testParkedTransactionSurvivesSnapshot() throws Exception {
+
+        TransactionDBMockSingleton heap = (TransactionDBMockSingleton) repository;
+
+        assertEquals(PutResult.STORED, heap.putTransaction(new Transaction(1L, 1.0, "heap")));
+        assertEquals(PutResult.PARKED, heap.putTransaction(new Transaction(3L, 3.0, "heap", 2L)));
+        heap.takeSnapshot();
+
+        // the log after the snapshot
+        assertEquals(PutResult.STORED, heap.putTransaction(new Transaction(4L, 4.0, "heap", 1L)));
+
+        repository = reopen();
+        RecoveryStatus recovery = repository.getRecoveryStatus();
+        assertEquals(1L, recovery.getSnapshot_transactions());
+        assertEquals(1L, recovery.getReplayed_records());
+        assertEquals(Collections.singleton(2L), repository.getParkedParents());
+        assertEquals(PutResult.DUPLICATE, repository.putTransaction(new Transaction(3L, 3.0, "heap", 2L)));
+
+        assertEquals(PutResult.STORED, repository.putTransaction(new Transaction(2L, 2.0, "heap", 1L)));
+        assertEquals(10.0, repository.getSumTransactions(1L, new TransactionSum()).getSum());
+        assertEquals(2L, repository.getTransaction(3L).getParent_id());
+    }
+
+
+    private Path lastSegment() throws IOException {
+
+        List<Path> segments = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.log")) {
+            for(Path segment : stream)
+                segments.add(segment);
+        }
+        Collections.sort(segments);
+
+        return segments.get(segments.size() - 1);
+    }
+
+}
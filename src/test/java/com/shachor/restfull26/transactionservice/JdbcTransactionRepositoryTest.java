@@ -0,0 +1,33 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+
+/**
+ * This class runs the TransactionRepositoryConformance tests against a JdbcTransactionRepository
+ * in a new directory
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class JdbcTransactionRepositoryTest
+    extends TransactionRepositoryConformance
+{
+
+    private Path directory;
+
+
+    @Override
+    protected TransactionRepository open() throws Exception {
+        directory = Files.createTempDirectory("jdbc-repository");
+        return new JdbcTransactionRepository(directory, Durability.GROUP, 2);
+    }
+
+
+    @Override
+    protected TransactionRepository reopen() throws Exception {
+        repository.close();
+        return new JdbcTransactionRepository(directory, Durability.GROUP, 2);
+    }
+
+}
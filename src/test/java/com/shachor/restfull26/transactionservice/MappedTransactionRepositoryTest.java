@@ -0,0 +1,55 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+
+/**
+ * This class runs the TransactionRepositoryConformance tests against a MappedTransactionRepository
+ * in a new directory
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class MappedTransactionRepositoryTest
+    extends TransactionRepositoryConformance
+{
+
+    private Path directory;
+
+
+    @Override
+    protected TransactionRepository open() throws IOException {
+        directory = Files.createTempDirectory("mapped-repository");
+        return new MappedTransactionRepository(directory, Durability.GROUP);
+    }
+
+
+    @Override
+    protected TransactionRepository reopen() throws IOException {
+        repository.close();
+        return new MappedTransactionRepository(directory, Durability.GROUP);
+    }
+
+
+
+    public void testRecordsAfterRejectedIdAreReopened() throws IOException {
+
+        assertEquals(PutResult.STORED, repository.putTransaction(new Transaction(5L, 5.0, "mapped")));
+        try {
+            repository.putTransaction(new Transaction(0L, 0.0, "mapped", 0L, null));
+            fail("a transaction with ID 0 was stored");
+        } catch(IllegalArgumentException expected) {}
+        assertEquals(PutResult.STORED, repository.putTransaction(new Transaction(6L, 6.0, "mapped")));
+        assertEquals(PutResult.STORED, repository.putTransaction(new Transaction(7L, 7.0, "mapped", 6L)));
+
+        repository = reopen();
+
+        assertEquals(3L, repository.getRecoveryStatus().getSnapshot_transactions());
+        assertEquals(13.0, repository.getSumTransactions(6L, new TransactionSum()).getSum());
+        assertEquals(PutResult.STORED, repository.putTransaction(new Transaction(8L, 8.0, "mapped", 7L)));
+        assertEquals(6L, repository.getTransaction(7L).getParent_id());
+        assertEquals(21.0, repository.getSumTransactions(6L, new TransactionSum()).getSum());
+    }
+
+}
@@ -0,0 +1,122 @@
+package com.shachor.restfull26.transactionservice;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+
+/**
+ * This class runs the TransactionRepositoryConformance tests against a TieredTransactionRepository, which keeps
+ * at most 100 transactions on the heap, so almost every tree is evicted and read back during the tests,
+ * and tests that the limit holds and that evicted trees are read back unchanged.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class TieredTransactionRepositoryTest
+    extends TransactionRepositoryConformance
+{
+
+    private static final int MAX_RESIDENT = 100;
+
+    private Path directory;
+
+
+    @Override
+    protected TransactionRepository open() throws IOException {
+        directory = Files.createTempDirectory("tiered-repository");
+        return open(directory);
+    }
+
+
+    @Override
+    protected TransactionRepository reopen() throws IOException {
+        repository.close();
+        return open(directory);
+    }
+
+
+    private static TransactionRepository open(Path directory) throws IOException {
+        return new TieredTransactionRepository(directory, MAX_RESIDENT, 0L,
+                new TransactionLog(directory.resolve("log"), 1L << 20, 0L), Durability.ASYNC);
+    }
+
+
+
+    public void testResidentLimit() {
+
+        TieredTransactionRepository tiered = (TieredTransactionRepository) repository;
+
+        // 200 trees of 10 transactions each: a root i * 10 + 1, and a chain below it
+        for(long id = 1; id <= 2000; id++)
+            tiered.putTransaction(id % 10 == 1 ? new Transaction(id, id, "tiered")
+                    : new Transaction(id, id, "tiered", id - 1));
+
+        assertTrue(tiered.getResidentTransactions() <= MAX_RESIDENT);
+        assertTrue(tiered.getSegmentBytes() > 0L);
+
+        // every tree is read back with its links and sums rebuilt, and the limit still holds
+        for(long root = 1; root <= 2000; root += 10) {
+            double sum = 0.0;
+            for(long id = root; id < root + 10; id++)
+                sum += id;
+            assertEquals(sum, tiered.getSumTransactions(root, new TransactionSum()).getSum());
+            assertEquals(root, tiered.getAncestor(root + 9, 0).getTransaction_id());
+            assertEquals(Long.valueOf(root + 5), tiered.getTransaction(root + 4).getChild_ids().iterator().next());
+            assertTrue(tiered.getResidentTransactions() <= MAX_RESIDENT);
+        }
+
+        // a new child reads its evicted tree back and changes it, so it is written again
+        assertEquals(PutResult.STORED, tiered.putTransaction(new Transaction(5000L, 1.0, "tiered", 1L)));
+        for(long id = 1; id <= 2000; id += 10)
+            tiered.getTransaction(id);
+        assertEquals(56.0, tiered.getSumTransactions(1L, new TransactionSum()).getSum());
+        assertEquals(2, tiered.getTransaction(1L).getChild_ids().size());
+
+        assertEquals(2001L, tiered.countTransactionsByType("tiered"));
+        assertTrue(tiered.getResidentTransactions() <= MAX_RESIDENT);
+    }
+
+
+    public void testManySingleTransactionTrees() {
+
+        TieredTransactionRepository tiered = (TieredTransactionRepository) repository;
+
+        // more roots than the first capacity of the columns of the evicted trees
+        for(long id = 1; id <= 3000; id++)
+            tiered.putTransaction(new Transaction(id, id, "single"));
+
+        assertTrue(tiered.getResidentTransactions() <= MAX_RESIDENT);
+
+        for(long id = 1; id <= 3000; id++) {
+            assertEquals((double) id, tiered.getSumTransactions(id, new TransactionSum()).getSum());
+            assertEquals(0, tiered.getDepth(id).getDepth());
+        }
+
+        assertEquals(PutResult.STORED, tiered.putTransaction(new Transaction(5000L, 1.0, "single", 1L)));
+        assertEquals(2.0, tiered.getSumTransactions(1L, new TransactionSum()).getSum());
+        assertTrue(tiered.getResidentTransactions() <= MAX_RESIDENT);
+    }
+
+
+    public void testIdleTreesAreEvicted() throws Exception {
+
+        TieredTransactionRepository tiered = new TieredTransactionRepository(
+                Files.createTempDirectory("tiered-idle"), 1_000, 200L, null, Durability.ASYNC);
+        try {
+            for(long id = 1; id <= 50; id++)
+                tiered.putTransaction(id == 1 ? new Transaction(id, 1.0, "idle") : new Transaction(id, 1.0, "idle", 1L));
+            assertEquals(50L, tiered.getResidentTransactions());
+
+            long deadline = System.currentTimeMillis() + 5_000L;
+            while(tiered.getResidentTransactions() > 0L && System.currentTimeMillis() < deadline)
+                Thread.sleep(50L);
+            assertEquals(0L, tiered.getResidentTransactions());
+
+            assertEquals(50.0, tiered.getSumTransactions(1L, new TransactionSum()).getSum());
+            assertEquals(50L, tiered.getResidentTransactions());
+        } finally {
+            tiered.close();
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.shachor.restfull26.transactionservice;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+
+/**
+ * This class tests the jump-pointer index of class TransactionTable: the root, the depth, the ancestors at every depth
+ * and the lowest common ancestors of random pairs must be the ones found by following the parent links one by one,
+ * on random trees as well as on a long chain.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class TransactionAncestorTest
+    extends TestCase
+{
+
+    private static final int SIZE = 20_000;
+
+
+    public void testRandomTrees() {
+
+        Random random = new Random(42);
+        TransactionTable table = new TransactionTable(new TypeDictionary());
+        long[] parents = new long[SIZE + 1];
+
+        for(int id = 1; id <= SIZE; id++) {
+            // a few roots, mostly recent parents, so there are long paths and many branches
+            parents[id] = id == 1 || random.nextInt(500) == 0 ? 0L
+                    : Math.max(1, id - 1 - (int) (Math.abs(random.nextGaussian()) * Math.sqrt(id)));
+            table.insert(id, 1.0, "ancestor", parents[id]);
+        }
+
+        assertAncestors(table, parents, random);
+    }
+
+
+    public void testChain() {
+
+        TransactionTable table = new TransactionTable(new TypeDictionary());
+        long[] parents = new long[SIZE + 1];
+
+        for(int id = 1; id <= SIZE; id++) {
+            parents[id] = id - 1;
+            table.insert(id, 1.0, "ancestor", parents[id]);
+        }
+
+        assertEquals(SIZE - 1, table.getDepth(SIZE));
+        assertEquals(1L, table.getAncestor(SIZE, 0));
+        assertEquals(SIZE / 2L, table.getLowestCommonAncestor(SIZE, SIZE / 2));
+
+        assertAncestors(table, parents, new Random(7));
+    }
+
+
+    public void testNotStored() {
+
+        TransactionTable table = new TransactionTable(new TypeDictionary());
+        table.insert(1L, 1.0, "ancestor", 0L);
+        table.insert(2L, 1.0, "ancestor", 0L);
+
+        assertEquals(-1, table.getDepth(3L));
+        assertEquals(0L, table.getAncestor(3L, 0));
+        assertEquals(0L, table.getAncestor(1L, 1));
+        assertEquals(0L, table.getLowestCommonAncestor(1L, 2L));
+        assertEquals(0L, table.getLowestCommonAncestor(1L, 3L));
+    }
+
+
+
+    private static void assertAncestors(TransactionTable table, long[] parents, Random random) {
+
+        for(int i = 0; i < 2_000; i++) {
+
+            long a = 1 + random.nextInt(SIZE);
+            long b = 1 + random.nextInt(SIZE);
+
+            int depth = depth(parents, a);
+            assertEquals(depth, table.getDepth(a));
+
+            long ancestor = a;
+            for(int d = depth; d >= 0; d--) {
+                assertEquals(ancestor, table.getAncestor(a, d));
+                ancestor = parents[(int) ancestor];
+            }
+
+            assertEquals(lowestCommonAncestor(parents, a, b), table.getLowestCommonAncestor(a, b));
+        }
+    }
+
+
+    private static int depth(long[] parents, long id) {
+
+        int depth = 0;
+        for(long parent = parents[(int) id]; parent != 0L; parent = parents[(int) parent])
+            depth++;
+
+        return depth;
+    }
+
+
+    private static long lowestCommonAncestor(long[] parents, long a, long b) {
+
+        int depthA = depth(parents, a);
+        int depthB = depth(parents, b);
+
+        for(; depthA > depthB; depthA--)
+            a = parents[(int) a];
+        for(; depthB > depthA; depthB--)
+            b = parents[(int) b];
+
+        while(a != b) {
+            a = parents[(int) a];
+            b = parents[(int) b];
+        }
+
+        return a;
+    }
+
+}
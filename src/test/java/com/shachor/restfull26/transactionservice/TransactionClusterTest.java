@@ -0,0 +1,177 @@
+package com.shachor.restfull26.transactionservice;
+
+import junit.framework.TestCase;
+import org.springframework.boot.test.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * This class tests the cluster mode of class TransactionController with three instances of App,
+ * which are started as separate processes on localhost ports, as every process holds its own storage.
+ *
+ * Transactions of one tree are sent to all nodes, so most of them are forwarded to the node of the tree,
+ * one of them arrives before its parent, and many roots of one type are spread over the nodes.
+ * Every node must answer the sum of the tree, the transactions, the descendants and the merged pages of the type.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class TransactionClusterTest
+    extends TestCase
+{
+
+    private static final int[] PORTS = {18091, 18092, 18093};
+
+    private static final long ROOT = 1_900_000_001L;
+
+    private static final String TYPE = "cluster-type";
+
+    private static final int ROOTS = 30;
+
+
+    private final RestTemplate restTemplate = new TestRestTemplate();
+
+    private final List<Process> nodes = new ArrayList<>();
+
+
+    @Override
+    protected void setUp() throws Exception {
+
+        StringBuilder urls = new StringBuilder();
+        for(int port : PORTS)
+            urls.append(urls.length() == 0 ? "" : ",").append(url(port));
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+
+        for(int port : PORTS)
+            nodes.add(new ProcessBuilder(java, "-Xmx256m", "-Dserver.port=" + port,
+                    "-Dtransactionservice.cluster.nodes=" + urls, "-Dtransactionservice.cluster.retryMillis=100",
+                    "-cp", System.getProperty("java.class.path"), App.class.getName())
+                    .redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.INHERIT).start());
+
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(3);
+        for(int port : PORTS)
+            while(!ready(port)) {
+                assertTrue("node on port " + port + " did not start", System.nanoTime() < deadline);
+                Thread.sleep(500);
+            }
+    }
+
+
+    @Override
+    protected void tearDown() throws Exception {
+
+        for(Process node : nodes)
+            node.destroy();
+        for(Process node : nodes)
+            node.waitFor();
+    }
+
+
+    public void testTreesAndTypesAcrossNodes() throws Exception {
+
+        put(0, new Transaction(ROOT, 10.0, "cluster-tree"));
+
+        // children of the root through every node, a grandchild before its parent
+        put(1, new Transaction(ROOT + 1, 1.0, "cluster-tree", ROOT));
+        put(2, new Transaction(ROOT + 2, 2.0, "cluster-tree", ROOT));
+        assertEquals("pending - parent transaction is not yet stored",
+                put(2, new Transaction(ROOT + 4, 4.0, "cluster-tree", ROOT + 3)).getStatus());
+        put(0, new Transaction(ROOT + 3, 3.0, "cluster-tree", ROOT + 1));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while(sum(0, ROOT) != 20.0 && System.nanoTime() < deadline)
+            Thread.sleep(100);
+
+        for(int node = 0; node < PORTS.length; node++) {
+            assertEquals(20.0, sum(node, ROOT));
+            assertEquals(8.0, sum(node, ROOT + 1));
+
+            Transaction child = restTemplate.getForObject(api(node) + "/transaction/" + (ROOT + 3), Transaction.class);
+            assertEquals(ROOT + 1, child.getParent_id());
+            assertEquals(Collections.singleton(ROOT + 4), child.getChild_ids());
+
+            String descendants = restTemplate.getForObject(api(node) + "/descendants/" + ROOT + "?maxDepth=2",
+                    String.class);
+            assertEquals(4, descendants.split("\n").length);
+            assertFalse(descendants.contains("\"transaction_id\":" + (ROOT + 4)));
+        }
+
+        int holders = 0;
+        for(int node = 0; node < PORTS.length; node++)
+            if(restTemplate.getForObject(api(node) + "/sum/" + ROOT + "?local=true", TransactionSum.class).getSum() > 0)
+                holders++;
+        assertEquals("the tree must live on exactly one node", 1, holders);
+
+
+        List<Transaction> batch = new ArrayList<>();
+        for(int i = 0; i < ROOTS; i++)
+            batch.add(new Transaction(ROOT + 100 + i, 1.0, TYPE));
+        Collections.reverse(batch);
+
+        TransactionStatus[] statuses = restTemplate.postForObject(api(1) + "/transactions", batch,
+                TransactionStatus[].class);
+        for(TransactionStatus status : statuses)
+            assertEquals("ok", status.getStatus());
+
+        int spread = 0;
+        for(int node = 0; node < PORTS.length; node++)
+            if(restTemplate.getForObject(api(node) + "/types/" + TYPE + "?count&local=true",
+                    TransactionCount.class).getCount() > 0)
+                spread++;
+        assertTrue("the roots must be spread over the nodes", spread > 1);
+
+        for(int node = 0; node < PORTS.length; node++) {
+
+            assertEquals(ROOTS, restTemplate.getForObject(api(node) + "/types/" + TYPE + "?count",
+                    TransactionCount.class).getCount());
+
+            long[] page = restTemplate.getForObject(api(node) + "/types/" + TYPE + "?limit=10&after=" + (ROOT + 104),
+                    long[].class);
+            assertEquals(10, page.length);
+            for(int i = 0; i < page.length; i++)
+                assertEquals(ROOT + 105 + i, page[i]);
+        }
+    }
+
+
+
+    private TransactionStatus put(int node, Transaction transaction) {
+
+        return restTemplate.exchange(api(node) + "/transaction/" + transaction.getTransaction_id(), HttpMethod.PUT,
+                new HttpEntity<>(transaction), TransactionStatus.class).getBody();
+    }
+
+
+    private double sum(int node, long id) {
+        return restTemplate.getForObject(api(node) + "/sum/" + id, TransactionSum.class).getSum();
+    }
+
+
+    private boolean ready(int port) {
+
+        try {
+            restTemplate.getForObject(url(port) + "/transactionservice/sum/1?local=true", TransactionSum.class);
+            return true;
+        } catch(RestClientException e) {
+            return false;
+        }
+    }
+
+
+    private static String api(int node) {
+        return url(PORTS[node]) + "/transactionservice";
+    }
+
+
+    private static String url(int port) {
+        return "http://localhost:" + port;
+    }
+
+}
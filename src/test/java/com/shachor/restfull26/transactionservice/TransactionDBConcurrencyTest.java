@@ -0,0 +1,113 @@
+package com.shachor.restfull26.transactionservice;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+
+/**
+ * This class stresses the insert path of class TransactionDBMockSingleton with concurrent writers.
+ *
+ * Every writer puts every transaction of one tree, in its own random order, so each ID is requested
+ * by all writers at the same time, half of the transactions attach to one hot parent, and many transactions
+ * arrive before their parent and are parked. Afterwards no link, aggregate or type entry may be lost,
+ * and each ID must have been accepted exactly once.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class TransactionDBConcurrencyTest
+    extends TestCase
+{
+
+    /**The first ID of the tree, far away from the IDs used by other tests*/
+    private static final long BASE = 7_000_000_000L;
+
+    /**Number of transactions below the root*/
+    private static final int N = 20000;
+
+    private static final String TYPE = "concurrency-stress";
+
+
+    /**
+     * Returns the parent of the transaction BASE + i: the even ones are children of the hot root,
+     * the odd ones are children of a transaction with a smaller ID
+     */
+    private static long parentOf(int i) {
+        return i % 2 == 0 || i == 1 ? BASE : BASE + i / 2;
+    }
+
+
+    public void testConcurrentPutsLoseNothing() throws Exception {
+
+        TransactionDBMockSingleton db = TransactionDBMockSingleton.getInstance();
+
+        int writers = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+        AtomicIntegerArray accepted = new AtomicIntegerArray(N + 1);
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService pool = Executors.newFixedThreadPool(writers);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for(int w = 0; w < writers; w++) {
+
+            List<Integer> order = new ArrayList<>();
+            for(int i = 0; i <= N; i++)
+                order.add(i);
+            Collections.shuffle(order, new Random(w));
+
+            futures.add(pool.submit(() -> {
+                start.await();
+
+                for(int i : order) {
+                    Transaction transaction = i == 0 ? new Transaction(BASE, 1.0, TYPE)
+                                                     : new Transaction(BASE + i, 1.0, TYPE, parentOf(i));
+
+                    if(db.putTransaction(transaction) != PutResult.DUPLICATE)
+                        accepted.incrementAndGet(i);
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for(Future<?> future : futures)
+            future.get(5, TimeUnit.MINUTES);
+        pool.shutdown();
+
+
+        for(int i = 0; i <= N; i++)
+            assertEquals("accepted count of " + (BASE + i), 1, accepted.get(i));
+
+        assertEquals(0, db.getParkedCount());
+
+        Map<Long, Set<Long>> children = new HashMap<>();
+        for(int i = 1; i <= N; i++)
+            children.computeIfAbsent(parentOf(i), parent -> new HashSet<>()).add(BASE + i);
+
+        for(int i = 0; i <= N; i++) {
+
+            long id = BASE + i;
+            Transaction stored = db.getTransaction(id);
+
+            assertNotNull("transaction " + id + " is lost", stored);
+            assertEquals(i == 0 ? 0L : parentOf(i), stored.getParent_id());
+
+            Set<Long> expected = children.get(id);
+            assertEquals("children of " + id, expected == null ? null : expected, stored.getChild_ids());
+        }
+
+        assertEquals(N + 1.0, db.getSumTransactions(BASE, new TransactionSum(0)).getSum());
+        assertEquals(N + 1.0, db.scanSumTransactions(BASE).getSum());
+        assertEquals(N, db.getDescendantCount(BASE));
+
+        assertEquals(N + 1, db.countTransactionsByType(TYPE));
+
+        long[] ids = db.getTransactionsByType(TYPE, 0L, N + 10);
+        assertEquals(N + 1, ids.length);
+        for(int i = 0; i <= N; i++)
+            assertEquals(BASE + i, ids[i]);
+    }
+
+}
@@ -0,0 +1,172 @@
+package com.shachor.restfull26.transactionservice;
+
+import junit.framework.TestCase;
+import org.springframework.boot.test.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.RestTemplate;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+
+
+/**
+ * This class tests class TransactionHttpServer with the requests of AppTest: its answers must be the same
+ * as those of the TransactionController, a path, which can not be read, gets an error status,
+ * a request above the limit of its budget gets 429 with Retry-After, and a failing storage gets 500 with a status.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class TransactionHttpServerTest
+    extends TestCase
+{
+
+    private static final long ROOT = 1_700_000_001L;
+
+    private static final String TYPE = "light-server";
+
+
+    private final RestTemplate restTemplate = new TestRestTemplate();
+
+    private AdmissionControl admission;
+
+    private TransactionHttpServer server;
+
+    private String api;
+
+
+    @Override
+    protected void setUp() throws Exception {
+        Map<AdmissionBudget, AdmissionControl.Limit> limits = new EnumMap<>(AdmissionBudget.class);
+        limits.put(AdmissionBudget.AGGREGATE, new AdmissionControl.Limit(1000, 1, 1, 1));
+        admission = new AdmissionControl(limits);
+
+        server = new TransactionHttpServer(0, 4, TransactionDBMockSingleton.getInstance(),
+                new TransactionJsonCache(1L << 20), admission);
+        api = "http://localhost:" + server.getPort() + "/transactionservice";
+    }
+
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.close();
+    }
+
+
+    public void testRoutes() {
+
+        assertEquals("ok", put(ROOT, new Transaction(ROOT, 10.0, TYPE)).getStatus());
+        assertEquals("ok", put(ROOT + 1, new Transaction(ROOT + 1, 2.5, TYPE + "-child", ROOT)).getStatus());
+        assertEquals("ok", put(ROOT + 2, new Transaction(ROOT + 2, 4.0, TYPE, ROOT)).getStatus());
+
+        assertEquals("error", put(ROOT + 5, new Transaction(ROOT + 4, 1.0, TYPE)).getStatus());
+        assertEquals("error - transaction already exists in the storage",
+                put(ROOT, new Transaction(ROOT, 10.0, TYPE)).getStatus());
+        assertEquals("pending - parent transaction is not yet stored",
+                put(ROOT + 4, new Transaction(ROOT + 4, 1.0, TYPE, ROOT + 3)).getStatus());
+
+        Transaction root = restTemplate.getForObject(api + "/transaction/" + ROOT, Transaction.class);
+        assertEquals(10.0, root.getAmount());
+        assertEquals(TYPE, root.getType());
+        assertEquals(new HashSet<>(Arrays.asList(ROOT + 1, ROOT + 2)), root.getChild_ids());
+
+        // answered from the cache, until a child is added
+        assertEquals(root.getChild_ids(),
+                restTemplate.getForObject(api + "/transaction/" + ROOT, Transaction.class).getChild_ids());
+
+        Transaction child = restTemplate.getForObject(api + "/transaction/" + (ROOT + 1), Transaction.class);
+        assertEquals(ROOT, child.getParent_id());
+
+        assertNull(restTemplate.getForObject(api + "/transaction/" + (ROOT + 99), Transaction.class));
+
+        assertEquals(16.5, restTemplate.getForObject(api + "/sum/" + ROOT, TransactionSum.class).getSum());
+        assertEquals(0.0, restTemplate.getForObject(api + "/sum/" + (ROOT + 99), TransactionSum.class).getSum());
+
+        assertEquals(Arrays.asList(ROOT, ROOT + 2),
+                Arrays.asList(restTemplate.getForObject(api + "/types/" + TYPE, Long[].class)));
+        assertEquals(Arrays.asList(ROOT + 2),
+                Arrays.asList(restTemplate.getForObject(api + "/types/" + TYPE + "?after=" + ROOT + "&limit=5",
+                        Long[].class)));
+        assertEquals(0, restTemplate.getForObject(api + "/types/" + TYPE + "-none", Long[].class).length);
+
+        assertEquals("ok", restTemplate.exchange(api + "/transaction/" + (ROOT + 3) + "?durability=SYNC",
+                HttpMethod.PUT, new HttpEntity<>(new Transaction(ROOT + 3, 1.0, TYPE, ROOT + 2)),
+                TransactionStatus.class).getBody().getStatus());
+        assertEquals(18.5, restTemplate.getForObject(api + "/sum/" + ROOT, TransactionSum.class).getSum());
+    }
+
+
+    public void testErrors() {
+
+        assertEquals(HttpStatus.BAD_REQUEST,
+                restTemplate.getForEntity(api + "/transaction/abc", String.class).getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST,
+                restTemplate.getForEntity(api + "/types/" + TYPE + "?limit=x", String.class).getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST,
+                restTemplate.getForEntity(api + "/types/" + TYPE + "?after=-1", String.class).getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, restTemplate.exchange(api + "/transaction/" + ROOT, HttpMethod.PUT,
+                new HttpEntity<>("{\"amount\":"), String.class).getStatusCode());
+        assertEquals(HttpStatus.NOT_FOUND,
+                restTemplate.getForEntity(api + "/metrics", String.class).getStatusCode());
+        assertEquals(HttpStatus.NOT_FOUND,
+                restTemplate.getForEntity(api + "/sum/1/2", String.class).getStatusCode());
+    }
+
+
+    public void testAdmission() {
+
+        // the only aggregation, which may be in flight
+        long admitted = admission.acquire(AdmissionBudget.AGGREGATE);
+        try {
+            ResponseEntity<TransactionStatus> rejected =
+                    restTemplate.getForEntity(api + "/sum/" + ROOT, TransactionStatus.class);
+            assertEquals(HttpStatus.TOO_MANY_REQUESTS, rejected.getStatusCode());
+            assertEquals("1", rejected.getHeaders().getFirst("Retry-After"));
+            assertEquals("error - too many requests, try again later", rejected.getBody().getStatus());
+
+            // point reads have their own budget
+            assertEquals(HttpStatus.OK,
+                    restTemplate.getForEntity(api + "/transaction/" + ROOT, String.class).getStatusCode());
+        } finally {
+            admission.release(AdmissionBudget.AGGREGATE, admitted);
+        }
+
+        assertEquals(HttpStatus.OK, restTemplate.getForEntity(api + "/sum/" + ROOT, String.class).getStatusCode());
+    }
+
+
+    public void testFailingStorage() throws Exception {
+
+        TransactionRepository failing = (TransactionRepository) Proxy.newProxyInstance(
+                TransactionRepository.class.getClassLoader(), new Class<?>[] {TransactionRepository.class},
+                (proxy, method, args) -> {
+                    throw new IllegalStateException("the storage is closed");
+                });
+
+        try(TransactionHttpServer failingServer = new TransactionHttpServer(0, 1, failing,
+                new TransactionJsonCache(1L << 20), admission)) {
+
+            ResponseEntity<TransactionStatus> failed = restTemplate.getForEntity(
+                    "http://localhost:" + failingServer.getPort() + "/transactionservice/sum/" + ROOT,
+                    TransactionStatus.class);
+            assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, failed.getStatusCode());
+            assertEquals("error - the request could not be answered", failed.getBody().getStatus());
+        }
+
+        // the budget of the failed request was released
+        assertEquals(HttpStatus.OK, restTemplate.getForEntity(api + "/sum/" + ROOT, String.class).getStatusCode());
+    }
+
+
+    private TransactionStatus put(long id, Transaction transaction) {
+
+        return restTemplate.exchange(api + "/transaction/" + id, HttpMethod.PUT, new HttpEntity<>(transaction),
+                TransactionStatus.class).getBody();
+    }
+
+}
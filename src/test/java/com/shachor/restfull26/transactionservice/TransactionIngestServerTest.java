@@ -0,0 +1,206 @@
+package com.shachor.restfull26.transactionservice;
+
+import junit.framework.TestCase;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * This class tests class TransactionIngestServer with the TransactionIngestClient:
+ * the statuses of the ACKs, a transaction of an undefined type or with invalid IDs, a long stream of pipelined
+ * transactions, which must be stored as if they were sent to the REST API, a batch above the PUT limit,
+ * and a slow batch, which must not hold back the ACKs of other connections.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class TransactionIngestServerTest
+    extends TestCase
+{
+
+    private static final long ROOT = 1_800_000_001L;
+
+    private static final int STREAM = 200_000;
+
+
+    private final TransactionDBMockSingleton db = TransactionDBMockSingleton.getInstance();
+
+    private TransactionIngestServer server;
+
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new TransactionIngestServer(0, db, Durability.ASYNC, 2, new AdmissionControl(Collections.emptyMap()));
+    }
+
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.close();
+    }
+
+
+    public void testStatusesOfTheAcks() throws Exception {
+
+        try(TransactionIngestClient client = new TransactionIngestClient("localhost", server.getPort())) {
+
+            client.send(new Transaction(ROOT + 1, 2.5, "ingest-child", ROOT));
+            client.send(new Transaction(ROOT, 10.0, "ingest-root"));
+            client.send(new Transaction(ROOT, 10.0, "ingest-root"));
+
+            List<TransactionStatus> statuses = client.await();
+            assertEquals(PutResult.PARKED.getStatus(), statuses.get(0).getStatus());
+            assertEquals(PutResult.STORED.getStatus(), statuses.get(1).getStatus());
+            assertEquals(PutResult.DUPLICATE.getStatus(), statuses.get(2).getStatus());
+        }
+
+        assertEquals(ROOT, db.getTransaction(ROOT + 1).getParent_id());
+        assertEquals("ingest-child", db.getTransaction(ROOT + 1).getType());
+        assertEquals(12.5, db.getSumTransactions(ROOT, new TransactionSum(0)).getSum());
+    }
+
+
+    public void testUndefinedType() throws Exception {
+
+        try(Socket socket = new Socket("localhost", server.getPort())) {
+
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(TransactionIngestServer.TRANSACTION_LENGTH);
+            out.writeByte(TransactionIngestServer.TRANSACTION);
+            out.writeLong(ROOT + 10);
+            out.writeLong(0L);
+            out.writeDouble(1.0);
+            out.writeInt(7);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            assertEquals(1, in.readInt());
+            assertEquals(TransactionIngestServer.ERROR, in.readByte());
+        }
+
+        assertNull(db.getTransaction(ROOT + 10));
+    }
+
+
+    public void testInvalidIds() throws Exception {
+
+        try(TransactionIngestClient client = new TransactionIngestClient("localhost", server.getPort())) {
+
+            client.send(new Transaction(0L, 1.0, "ingest-invalid", 0L, null));
+            client.send(new Transaction(ROOT + 40, 1.0, "ingest-invalid", -1L, null));
+            client.send(new Transaction(ROOT + 41, 1.0, "ingest-invalid", ROOT + 41, null));
+            client.send(new Transaction(ROOT + 42, 1.0, "ingest-invalid"));
+
+            List<TransactionStatus> statuses = client.await();
+            for(int i = 0; i < 3; i++)
+                assertEquals(TransactionIngestClient.ERROR_STATUS, statuses.get(i).getStatus());
+            assertEquals(PutResult.STORED.getStatus(), statuses.get(3).getStatus());
+        }
+
+        assertFalse(db.containsTransaction(ROOT + 40));
+        assertFalse(db.containsTransaction(ROOT + 41));
+    }
+
+
+    public void testPipelinedStream() throws Exception {
+
+        long base = ROOT + 1000;
+
+        try(TransactionIngestClient client = new TransactionIngestClient("localhost", server.getPort())) {
+
+            // binary trees: the parent of base + i is base + i / 2
+            for(long i = 1; i <= STREAM; i++)
+                client.send(new Transaction(base + i, 1.0, "ingest-" + i % 3, i == 1 ? 0L : base + i / 2));
+
+            List<TransactionStatus> statuses = client.await();
+            assertEquals(STREAM, statuses.size());
+            for(TransactionStatus status : statuses)
+                assertEquals(PutResult.STORED.getStatus(), status.getStatus());
+        }
+
+        assertEquals((double) STREAM, db.getSumTransactions(base + 1, new TransactionSum(0)).getSum());
+        assertEquals("ingest-2", db.getTransaction(base + STREAM).getType());
+    }
+
+
+
+    public void testBusy() throws Exception {
+
+        Map<AdmissionBudget, AdmissionControl.Limit> limits = new EnumMap<>(AdmissionBudget.class);
+        limits.put(AdmissionBudget.PUT, new AdmissionControl.Limit(1000, 1, 1, 1));
+        AdmissionControl admission = new AdmissionControl(limits);
+
+        try(TransactionIngestServer limited = new TransactionIngestServer(0, db, Durability.ASYNC, 2, admission);
+            TransactionIngestClient client = new TransactionIngestClient("localhost", limited.getPort())) {
+
+            // the only PUT, which may be in flight
+            long admitted = admission.acquire(AdmissionBudget.PUT);
+
+            client.send(new Transaction(ROOT + 20, 1.0, "ingest-busy"));
+            assertEquals(TransactionIngestClient.BUSY_STATUS, client.await().get(0).getStatus());
+            assertNull(db.getTransaction(ROOT + 20));
+
+            admission.release(AdmissionBudget.PUT, admitted);
+
+            client.send(new Transaction(ROOT + 20, 1.0, "ingest-busy"));
+            assertEquals(PutResult.STORED.getStatus(), client.await().get(0).getStatus());
+        }
+    }
+
+
+    public void testSlowBatchDoesNotBlockOtherConnections() throws Exception {
+
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // the batch of the root ROOT + 30 waits in the storage until it is released
+        TransactionRepository slow = (TransactionRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{TransactionRepository.class}, (proxy, method, args) -> {
+                    if(method.getName().equals("putTransactions") && args[0] instanceof Iterator) {
+                        Iterator<?> batch = (Iterator<?>) args[0];
+                        Transaction first = (Transaction) batch.next();
+                        if(first.getTransaction_id() == ROOT + 30) {
+                            entered.countDown();
+                            assertTrue(release.await(10, TimeUnit.SECONDS));
+                        }
+                        List<Transaction> all = new ArrayList<>();
+                        all.add(first);
+                        batch.forEachRemaining(t -> all.add((Transaction) t));
+                        args[0] = all.iterator();
+                    }
+                    try {
+                        return method.invoke(db, args);
+                    } catch(InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+
+        try(TransactionIngestServer slowServer = new TransactionIngestServer(0, slow, Durability.ASYNC, 2,
+                    new AdmissionControl(Collections.emptyMap()));
+            TransactionIngestClient blocked = new TransactionIngestClient("localhost", slowServer.getPort());
+            TransactionIngestClient other = new TransactionIngestClient("localhost", slowServer.getPort())) {
+
+            blocked.send(new Transaction(ROOT + 30, 1.0, "ingest-slow"));
+            blocked.flush();
+            assertTrue(entered.await(10, TimeUnit.SECONDS));
+
+            other.send(new Transaction(ROOT + 31, 1.0, "ingest-fast"));
+            assertEquals(PutResult.STORED.getStatus(), other.await().get(0).getStatus());
+
+            release.countDown();
+            assertEquals(PutResult.STORED.getStatus(), blocked.await().get(0).getStatus());
+        }
+    }
+
+}
@@ -0,0 +1,180 @@
+package com.shachor.restfull26.transactionservice;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * This class tests, that class TransactionJsonCodec reads and writes the same JSON as Jackson:
+ * random transactions, sums and statuses are written by both and compared byte for byte,
+ * and JSON in many forms is read by both and compared field by field.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class TransactionJsonCodecTest
+    extends TestCase
+{
+
+    private final ObjectMapper mapper = new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private final TransactionJsonCodec codec = TransactionJsonCodec.get();
+
+    private final Random random = new Random(26);
+
+
+    public void testWritesTheSameBytesAsJackson() throws IOException {
+
+        for(int i = 0; i < 20000; i++) {
+
+            Transaction transaction = new Transaction(1 + random.nextInt(Integer.MAX_VALUE), amount(), type(),
+                    random.nextInt(3), null);
+            for(int children = random.nextInt(4); children > 0; children--)
+                transaction.setChild_id(random.nextLong());
+
+            assertWrites(mapper.writeValueAsString(transaction), codec.write(transaction).toByteArray());
+            TransactionSum sum = new TransactionSum(amount());
+            assertWrites(mapper.writeValueAsString(sum), codec.write(sum).toByteArray());
+
+            TransactionStatus status = new TransactionStatus(type());
+            assertWrites(mapper.writeValueAsString(status), codec.write(status).toByteArray());
+        }
+
+        for(double amount : new double[]{0.0, -0.0, 1e7, 9999999.0, -9999999.0, 1e-3, 0.1 + 0.2, Double.NaN,
+                Double.NEGATIVE_INFINITY, Double.MIN_VALUE, Double.MAX_VALUE, Long.MAX_VALUE, Long.MIN_VALUE})
+            assertWrites(mapper.writeValueAsString(new TransactionSum(amount)),
+                    codec.write(new TransactionSum(amount)).toByteArray());
+
+        List<TransactionStatus> statuses = Arrays.asList(new TransactionStatus("ok"), new TransactionStatus(null),
+                new TransactionStatus("pending - parent transaction is not yet stored"));
+        assertWrites(mapper.writeValueAsString(statuses), codec.write(statuses).toByteArray());
+    }
+
+
+    public void testReadsTheSameTransactionsAsJackson() throws IOException {
+
+        List<String> bodies = new ArrayList<>(Arrays.asList(
+                "{\"transaction_id\":10,\"amount\":5000,\"type\":\"cars\"}",
+                " {\n\t\"type\" : \"shopping\" , \"amount\" : -1.5e3 , \"parent_id\" : 7 ,\"transaction_id\" : 8 }\r\n",
+                "{\"transaction_id\":11,\"amount\":0.1,\"type\":\"a\",\"parent_id\":10,\"child_ids\":[12, 13]}",
+                "{\"transaction_id\":11,\"amount\":12345678901234567890.5,\"type\":\"a\",\"child_ids\":null}",
+                "{\"transaction_id\":11,\"amount\":1E-400,\"type\":null,\"child_ids\":[]}",
+                "{\"transaction_id\":12,\"amount\":3,\"type\":\"b\",\"note\":{\"x\":[1,true,null,\"y\"]},\"z\":false}",
+                "{\"transaction_id\":13,\"amount\":3,\"type\":\"b\",\"child_id\":14}",
+                "{\"transaction_id\":\"14\",\"amount\":\"3.5\",\"type\":\"b\"}",
+                "{\"transaction_id\":15,\"amount\":2,\"type\":\"caf\u00e9 \\\"quoted\\\" \\u0041\"}",
+                "{\"transaction_id\":16.0,\"amount\":2,\"type\":\"b\",\"transaction_id\":17}",
+                "{}"));
+
+        for(int i = 0; i < 5000; i++) {
+            double amount = amount();
+            bodies.add("{\"transaction_id\":" + (1 + random.nextInt(Integer.MAX_VALUE))
+                    + ",\"amount\":" + (Double.isNaN(amount) || Double.isInfinite(amount) ? 1.0 : amount)
+                    + ",\"type\":" + mapper.writeValueAsString(i % 2 == 0 ? type() : "type" + i % 7)
+                    + ",\"parent_id\":" + random.nextInt(100) + "}");
+        }
+
+        for(String body : bodies) {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            assertReads(mapper.readValue(bytes, Transaction.class),
+                    codec.readTransaction(new ByteArrayInputStream(bytes)));
+        }
+
+        String array = "[" + String.join(",", bodies) + "]";
+        List<Transaction> batch = codec.readTransactions(new ByteArrayInputStream(array.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(bodies.size(), batch.size());
+        for(int i = 0; i < bodies.size(); i++)
+            assertReads(mapper.readValue(bodies.get(i), Transaction.class), batch.get(i));
+
+        // a line of NDJSON holds a whole object
+        bodies.remove(1);
+        String lines = String.join("\n", bodies) + "\n\n";
+        Iterator<Transaction> iterator = TransactionJsonCodec.readLines(
+                new ByteArrayInputStream(lines.getBytes(StandardCharsets.UTF_8)));
+        for(String body : bodies)
+            assertReads(mapper.readValue(body, Transaction.class), iterator.next());
+        assertFalse(iterator.hasNext());
+
+        for(String malformed : new String[]{"", "{", "{\"transaction_id\":1,}", "{\"transaction_id\":01}", "[1]"})
+            try {
+                codec.readTransaction(new ByteArrayInputStream(malformed.getBytes(StandardCharsets.UTF_8)));
+                fail("read malformed JSON " + malformed);
+            } catch(IOException expected) {
+            }
+    }
+
+
+
+    public void testLargeBodiesBetweenSmallOnes() throws IOException {
+
+        Transaction parent = new Transaction(1L, 2.5, "large");
+        for(long child = 2; child < 20_000; child++)
+            parent.setChild_id(child);
+        Transaction small = new Transaction(3L, 1.0, "small", 1L);
+
+        // the buffers, which grow for the large JSON, are dropped after it was taken
+        for(int round = 0; round < 3; round++) {
+            ByteArrayOutputStream large = new ByteArrayOutputStream();
+            codec.write(parent).writeTo(large);
+            assertWrites(mapper.writeValueAsString(parent), large.toByteArray());
+            assertWrites(mapper.writeValueAsString(small), codec.write(small).toByteArray());
+
+            byte[] batch = mapper.writeValueAsBytes(Arrays.asList(parent, small, parent));
+            assertEquals(3, codec.readTransactions(new ByteArrayInputStream(batch)).size());
+            assertReads(small, codec.readTransaction(new ByteArrayInputStream(mapper.writeValueAsBytes(small))));
+        }
+    }
+
+
+
+    private double amount() {
+
+        switch(random.nextInt(4)) {
+            case 0:  return random.nextInt(20000) - 10000;
+            case 1:  return random.nextInt(1000000) / 100.0;
+            case 2:  return random.nextGaussian() * 1e9;
+            default: return Double.longBitsToDouble(random.nextLong());
+        }
+    }
+
+
+    private String type() {
+
+        StringBuilder type = new StringBuilder();
+        for(int length = 1 + random.nextInt(12); length > 0; length--)
+            switch(random.nextInt(8)) {
+                case 0:  type.append((char) random.nextInt(0x20)); break;
+                case 1:  type.append((char) (0x80 + random.nextInt(0xD780))); break;
+                case 2:  type.append("\"\\/"); break;
+                case 3:  type.appendCodePoint(0x10000 + random.nextInt(0x1000)); break;
+                default: type.append((char) ('a' + random.nextInt(26)));
+            }
+        return type.toString();
+    }
+
+
+    private static void assertWrites(String expected, byte[] actual) {
+        assertEquals(expected, new String(actual, StandardCharsets.UTF_8));
+    }
+
+
+    private static void assertReads(Transaction expected, Transaction actual) {
+
+        assertEquals(expected.getTransaction_id(), actual.getTransaction_id());
+        assertEquals(Double.doubleToLongBits(expected.getAmount()), Double.doubleToLongBits(actual.getAmount()));
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getParent_id(), actual.getParent_id());
+        assertEquals(expected.getChild_ids(), actual.getChild_ids());
+    }
+
+}
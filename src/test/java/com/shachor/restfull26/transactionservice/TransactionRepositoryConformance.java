@@ -0,0 +1,373 @@
+package com.shachor.restfull26.transactionservice;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+
+/**
+ * This class holds the tests, which every TransactionRepository has to pass. A subclass opens one implementation,
+ * and may reopen it to test that the stored transactions outlive it.
+ * The unique IDs and types are new for every test, so the tests can also run against the one TransactionDBMockSingleton.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public abstract class TransactionRepositoryConformance
+    extends TestCase
+{
+
+    private static final Random RANDOM = new Random();
+
+    protected TransactionRepository repository;
+
+    /**The unique IDs of a test are base + 1, base + 2, ...*/
+    private long base;
+
+    private String type;
+
+
+    /**
+     * Opens the tested repository
+     * @return an empty repository, or one holding only transactions of other tests
+     * @throws Exception if it can not be opened
+     */
+    protected abstract TransactionRepository open() throws Exception;
+
+
+    /**
+     * Closes the tested repository and opens it again on the same files
+     * @return the reopened repository, or null if the repository does not outlive close()
+     * @throws Exception if it can not be opened
+     */
+    protected abstract TransactionRepository reopen() throws Exception;
+
+
+    @Override
+    protected void setUp() throws Exception {
+        repository = open();
+        base = (1L + RANDOM.nextInt(1 << 20)) << 32;
+        type = "conformance-" + Long.toHexString(base);
+    }
+
+
+    @Override
+    protected void tearDown() {
+        repository.close();
+    }
+
+
+    private long id(long i) {
+        return base + i;
+    }
+
+
+
+    public void testPutAndGet() {
+
+        assertEquals(PutResult.STORED, repository.putTransaction(new Transaction(id(1), 10.0, type)));
+        assertEquals(0L, repository.getChildVersion(id(1)));
+
+        assertEquals(PutResult.STORED, repository.putTransaction(new Transaction(id(2), 20.0, type, id(1))));
+        long version = repository.getChildVersion(id(1));
+        assertEquals(PutResult.STORED, repository.putTransaction(new Transaction(id(3), 30.0, type + "-other", id(1))));
+        assertTrue(version != repository.getChildVersion(id(1)));
+
+        assertEquals(PutResult.DUPLICATE, repository.putTransaction(new Transaction(id(2), 99.0, type, id(1))));
+
+        Transaction root = repository.getTransaction(id(1));
+        assertEquals(10.0, root.getAmount());
+        assertEquals(type, root.getType());
+        assertEquals(0L, root.getParent_id());
+        assertEquals(new HashSet<>(Arrays.asList(id(2), id(3))), root.getChild_ids());
+
+        Transaction child = repository.getTransaction(id(3));
+        assertEquals(30.0, child.getAmount());
+        assertEquals(type + "-other", child.getType());
+        assertEquals(id(1), child.getParent_id());
+        assertNull(child.getChild_ids());
+
+        assertTrue(repository.containsTransaction(id(2)));
+        assertFalse(repository.containsTransaction(id(4)));
+        assertNull(repository.getTransaction(id(4)));
+        assertEquals(-1L, repository.getChildVersion(id(4)));
+    }
+
+
+    public void testInvalid() {
+
+        try {
+            repository.putTransaction(null);
+            fail("a null transaction was stored");
+        } catch(IllegalArgumentException expected) {}
+
+        try {
+            repository.putTransactions(null, Durability.SYNC);
+            fail("a null batch was stored");
+        } catch(IllegalArgumentException expected) {}
+
+        Transaction untyped = new Transaction(id(1), 1.0, null, 0L, null);
+        try {
+            repository.putTransaction(untyped);
+            fail("a transaction without type was stored");
+        } catch(IllegalArgumentException expected) {}
+
+        try {
+            repository.putTransaction(new Transaction(0L, 1.0, type, 0L, null));
+            fail("a transaction with ID 0 was stored");
+        } catch(IllegalArgumentException expected) {}
+
+        try {
+            repository.putTransaction(new Transaction(id(1), 1.0, type, -1L, null));
+            fail("a transaction with a negative parent ID was stored");
+        } catch(IllegalArgumentException expected) {}
+
+        try {
+            repository.putTransaction(new Transaction(id(1), 1.0, type, id(1), null));
+            fail("a transaction with itself as parent was parked");
+        } catch(IllegalArgumentException expected) {}
+
+        assertFalse(repository.containsTransaction(id(1)));
+    }
+
+
+    public void testParking() {
+
+        assertEquals(PutResult.PARKED, repository.putTransaction(new Transaction(id(3), 3.0, type, id(2))));
+        assertEquals(PutResult.PARKED, repository.putTransaction(new Transaction(id(2), 2.0, type, id(1))));
+        assertEquals(PutResult.DUPLICATE, repository.putTransaction(new Transaction(id(3), 3.0, type, id(2))));
+        assertEquals(PutResult.PARKED, repository.putTransaction(new Transaction(id(5), 5.0, type, id(4))));
+
+        assertTrue(repository.getParkedParents().containsAll(Arrays.asList(id(1), id(2), id(4))));
+        assertFalse(repository.containsTransaction(id(2)));
+        assertNull(repository.getTransaction(id(3)));
+
+        assertEquals(PutResult.STORED, repository.putTransaction(new Transaction(id(1), 1.0, type)));
+        assertEquals(id(2), repository.getTransaction(id(3)).getParent_id());
+        assertEquals(6.0, repository.getSumTransactions(id(1), new TransactionSum()).getSum());
+        assertFalse(repository.getParkedParents().contains(id(1)));
+
+        List<Transaction> taken = repository.takeParkedChildren(id(4));
+        assertEquals(1, taken.size());
+        assertEquals(id(5), taken.get(0).getTransaction_id());
+        assertFalse(repository.getParkedParents().contains(id(4)));
+        assertTrue(repository.takeParkedChildren(id(4)).isEmpty());
+    }
+
+
+    public void testBatch() {
+
+        List<Transaction> batch = new ArrayList<>();
+        for(long i = 1000; i >= 1; i--)
+            batch.add(i == 1 ? new Transaction(id(i), 1.0, type) : new Transaction(id(i), 1.0, type, id(i / 2)));
+
+        List<PutResult> results = repository.putTransactions(batch.iterator(), Durability.ASYNC);
+        assertEquals(1000, results.size());
+        assertEquals(PutResult.STORED, results.get(999));
+        assertEquals(PutResult.PARKED, results.get(0));
+
+        // read back at once, whatever the durability
+        assertEquals(1000.0, repository.getSumTransactions(id(1), new TransactionSum()).getSum());
+        assertEquals(id(2), repository.getTransaction(id(4)).getParent_id());
+        assertEquals(1000L, repository.countTransactionsByType(type));
+    }
+
+
+    public void testSumAndTypes() {
+
+        // a binary heap, ids 1..255: the subtree of i holds i and the subtrees of 2i and 2i+1
+        for(long i = 1; i < 256; i++)
+            repository.putTransaction(i == 1 ? new Transaction(id(i), i, type)
+                    : new Transaction(id(i), i, i % 3 == 0 ? type : type + "-other", id(i / 2)), Durability.GROUP);
+
+        assertEquals(255.0 * 256 / 2, repository.getSumTransactions(id(1), new TransactionSum()).getSum());
+        assertEquals(subtree(2), repository.getSumTransactions(id(2), new TransactionSum()).getSum());
+        assertEquals(5.0, repository.getSumTransactions(id(1000), new TransactionSum(5.0)).getSum());
+
+        List<Long> expected = new ArrayList<>();
+        expected.add(id(1));
+        for(long i = 3; i < 256; i += 3)
+            expected.add(id(i));
+
+        List<Long> paged = new ArrayList<>();
+        long after = 0L;
+        long[] page;
+        while((page = repository.getTransactionsByType(type, after, 10)).length > 0) {
+            assertTrue(page.length <= 10);
+            for(long id : page)
+                paged.add(id);
+            after = page[page.length - 1];
+        }
+        assertEquals(expected, paged);
+
+        assertEquals(expected.size(), repository.countTransactionsByType(type));
+        assertEquals(0L, repository.countTransactionsByType(type + "-none"));
+        assertEquals(0, repository.getTransactionsByType(type + "-none", 0L, 10).length);
+
+        TypeStats stats = repository.getTypeStats(type);
+        assertEquals(expected.size(), stats.getCount());
+        assertEquals(1.0 + 3.0 * 85 * 86 / 2, stats.getSum());
+        assertEquals(1.0, stats.getMin());
+        assertEquals(255.0, stats.getMax());
+        assertEquals(0L, repository.getTypeStats(type + "-none").getCount());
+    }
+
+
+    /**
+     * Returns the sum of the amounts of the subtree of i in the binary heap of testSumAndTypes()
+     */
+    private static double subtree(long i) {
+        return i < 256 ? i + subtree(2 * i) + subtree(2 * i + 1) : 0.0;
+    }
+
+
+    public void testWalkDescendants() {
+
+        Map<Long, Long> parents = new HashMap<>();
+        Random random = new Random(11);
+        for(long i = 1; i <= 500; i++) {
+            long parent = i == 1 ? 0L : 1 + random.nextInt((int) i - 1);
+            parents.put(i, parent);
+            repository.putTransaction(parent == 0L ? new Transaction(id(i), 1.0, type)
+                    : new Transaction(id(i), 1.0, i % 2 == 0 ? type : type + "-odd", id(parent)));
+        }
+
+        long from = 1 + random.nextInt(20);
+        for(int maxDepth : new int[]{0, 1, 3, Integer.MAX_VALUE}) {
+
+            Set<Long> expected = new HashSet<>();
+            for(long i = 1; i <= 500; i++) {
+                int depth = 0;
+                long at = i;
+                while(at != from && at != 0L && depth <= maxDepth) {
+                    at = parents.get(at);
+                    depth++;
+                }
+                if(at == from && depth <= maxDepth)
+                    expected.add(id(i));
+            }
+
+            List<Long> visited = new ArrayList<>();
+            assertTrue(repository.walkDescendants(id(from), maxDepth, null, transaction -> {
+                // depth first: the parent was visited before, unless it is the start
+                assertTrue(transaction.getTransaction_id() == id(from)
+                        || visited.contains(transaction.getParent_id()));
+                return visited.add(transaction.getTransaction_id());
+            }));
+            assertEquals(expected.size(), visited.size());
+            assertEquals(expected, new HashSet<>(visited));
+        }
+
+        List<Long> even = new ArrayList<>();
+        assertTrue(repository.walkDescendants(id(1), Integer.MAX_VALUE, Collections.singleton(type),
+                transaction -> even.add(transaction.getTransaction_id())));
+        // the root and the even ones
+        assertEquals(251, even.size());
+        for(long id : even)
+            assertTrue(id == id(1) || (id - base) % 2 == 0L);
+
+        int[] count = {0};
+        assertFalse(repository.walkDescendants(id(1), Integer.MAX_VALUE, null, transaction -> ++count[0] < 10));
+        assertEquals(10, count[0]);
+
+        assertTrue(repository.walkDescendants(id(1000), 5, null, transaction -> {
+            fail("walked a missing transaction");
+            return false;
+        }));
+        assertTrue(repository.walkDescendants(id(1), 5, Collections.singleton(type + "-none"),
+                transaction -> {
+                    fail("walked a missing type");
+                    return false;
+                }));
+    }
+
+
+    public void testAncestors() {
+
+        Random random = new Random(5);
+        long[] parents = new long[2001];
+        for(int i = 1; i <= 2000; i++) {
+            parents[i] = i <= 2 || random.nextInt(10) == 0 ? 0L : Math.max(1, i - 1 - random.nextInt(3));
+            repository.putTransaction(parents[i] == 0L ? new Transaction(id(i), 1.0, type)
+                    : new Transaction(id(i), 1.0, type, id(parents[i])));
+        }
+
+        for(int n = 0; n < 300; n++) {
+
+            int a = 1 + random.nextInt(2000);
+            int b = 1 + random.nextInt(2000);
+
+            List<Long> pathA = path(parents, a);
+            List<Long> pathB = path(parents, b);
+
+            assertEquals(pathA.size() - 1, repository.getDepth(id(a)).getDepth());
+            assertEquals(id(a), repository.getDepth(id(a)).getTransaction_id());
+
+            int depth = random.nextInt(pathA.size());
+            TransactionAncestor ancestor = repository.getAncestor(id(a), depth);
+            assertEquals(id(pathA.get(depth)), ancestor.getTransaction_id());
+            assertEquals(depth, ancestor.getDepth());
+
+            int common = 0;
+            while(common < Math.min(pathA.size(), pathB.size()) && pathA.get(common).equals(pathB.get(common)))
+                common++;
+            TransactionAncestor lca = repository.getLowestCommonAncestor(id(a), id(b));
+            if(common == 0) {
+                assertEquals(0L, lca.getTransaction_id());
+            } else {
+                assertEquals(id(pathA.get(common - 1)), lca.getTransaction_id());
+                assertEquals(common - 1, lca.getDepth());
+            }
+        }
+
+        assertEquals(-1, repository.getDepth(id(3000)).getDepth());
+        assertEquals(0L, repository.getAncestor(id(3000), 0).getTransaction_id());
+        assertEquals(0L, repository.getAncestor(id(1), 1).getTransaction_id());
+        assertEquals(0L, repository.getLowestCommonAncestor(id(1), id(3000)).getTransaction_id());
+    }
+
+
+    /**
+     * Returns the path from the root to a transaction
+     */
+    private static List<Long> path(long[] parents, long id) {
+
+        List<Long> path = new ArrayList<>();
+        for(long at = id; at != 0L; at = parents[(int) at])
+            path.add(at);
+        Collections.reverse(path);
+        return path;
+    }
+
+
+    public void testReopen() throws Exception {
+
+        for(long i = 1; i <= 100; i++)
+            repository.putTransaction(i == 1 ? new Transaction(id(i), i, type)
+                    : new Transaction(id(i), i, type, id(i - 1)), Durability.ASYNC);
+
+        TransactionRepository reopened = reopen();
+        if(reopened == null)
+            return;
+        repository = reopened;
+
+        RecoveryStatus recovery = repository.getRecoveryStatus();
+        assertTrue(recovery.getSnapshot_transactions() + recovery.getReplayed_records() >= 100L);
+        assertEquals(id(99), repository.getTransaction(id(100)).getParent_id());
+        assertEquals(5050.0, repository.getSumTransactions(id(1), new TransactionSum()).getSum());
+        assertEquals(99, repository.getDepth(id(100)).getDepth());
+        assertEquals(id(50), repository.getLowestCommonAncestor(id(50), id(100)).getTransaction_id());
+        assertEquals(100L, repository.countTransactionsByType(type));
+
+        assertEquals(PutResult.STORED, repository.putTransaction(new Transaction(id(101), 101.0, type, id(100))));
+        assertEquals(PutResult.DUPLICATE, repository.putTransaction(new Transaction(id(50), 50.0, type, id(49))));
+    }
+
+}
@@ -0,0 +1,36 @@
+package com.shachor.restfull26.transactionservice;
+
+import junit.framework.TestCase;
+
+
+/**
+ * This class tests class TransactionShard: a transaction, which the writer can not store, is reported
+ * to the router once, and the writer goes on with the next transactions.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class TransactionShardTest
+    extends TestCase
+{
+
+    public void testFailureIsReported() {
+
+        TransactionShard shard = new TransactionShard(0, new TypeDictionary());
+
+        shard.await(shard.route(new Transaction(1L, 1.0, "shard")));
+
+        // the router guarantees the parent, a child of a missing parent breaks the writer's insert
+        long mark = shard.route(new Transaction(3L, 1.0, "shard", 2L));
+        shard.await(mark);
+
+        assertNotNull(shard.takeFailure(3L));
+        assertNull(shard.takeFailure(3L));
+        assertFalse(shard.holds(3L));
+
+        shard.await(shard.route(new Transaction(4L, 1.0, "shard", 1L)));
+        assertNull(shard.takeFailure(4L));
+        assertTrue(shard.holds(4L));
+        assertEquals(2, shard.getTypeIndex().count("shard"));
+    }
+
+}
@@ -0,0 +1,227 @@
+package com.shachor.restfull26.transactionservice;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * This class checks the reads of class TransactionTable as of an epoch.
+ *
+ * Writers insert into shared trees, while readers pin an epoch and read the sum and the descendant count
+ * of a transaction with it, and walk its subtree with it. Afterwards a serial oracle replays the rows in their order
+ * and every read must be equal to the oracle after exactly the rows below its epoch.
+ *
+ * @author Roi Shachor on 09.01.16.
+ */
+public class TransactionTableEpochTest
+    extends TestCase
+{
+
+    private static final int WRITERS = 3;
+
+    private static final int READERS = 2;
+
+    /**Number of transactions inserted by each writer*/
+    private static final int N = 20000;
+
+    private static final int ROOTS = 8;
+
+
+    /**
+     * One read as of an epoch
+     */
+    private static class Sample {
+
+        long id;
+        int epoch;
+        double sum;
+        long count;
+        double walkedSum;
+        long walkedCount;
+    }
+
+
+    public void testReadsOfAnEpochIgnoreLaterRows() {
+
+        TransactionTable table = new TransactionTable(new TypeDictionary());
+
+        table.insert(1L, 10.0, "snapshot", 0L);
+        table.insert(2L, 20.0, "snapshot", 1L);
+        table.insert(3L, 30.0, "snapshot", 2L);
+
+        int epoch = table.epoch();
+
+        table.insert(4L, 40.0, "snapshot", 1L);
+        table.insert(5L, 50.0, "snapshot", 3L);
+        table.insert(6L, 60.0, "snapshot", 0L);
+
+        assertEquals(60.0, table.getSubtreeSum(1L, epoch));
+        assertEquals(2L, table.getDescendantCount(1L, epoch));
+        assertEquals(30.0, table.getSubtreeSum(3L, epoch));
+        assertEquals(0.0, table.getSubtreeSum(6L, epoch));
+        assertEquals(0L, table.getDescendantCount(4L, epoch));
+
+        // the walk, which a read falls back to on a hot subtree, rows 0 and 2 are the transactions 1 and 3
+        assertEquals(60.0, table.walkAggregate(0, epoch, false));
+        assertEquals(2.0, table.walkAggregate(0, epoch, true));
+        assertEquals(30.0, table.walkAggregate(2, epoch, false));
+        assertEquals(150.0, table.walkAggregate(0, table.epoch(), false));
+
+        assertEquals(150.0, table.getSubtreeSum(1L, table.epoch()));
+        assertEquals(4L, table.getDescendantCount(1L, table.epoch()));
+        assertEquals(table.getSubtreeSum(1L), table.getSubtreeSum(1L, table.epoch()));
+
+        List<Transaction> walked = new ArrayList<>();
+        assertTrue(table.walkDescendants(1L, Integer.MAX_VALUE, null, walked::add, epoch));
+        assertEquals(3, walked.size());
+        assertEquals(Collections.singleton(2L), walked.get(0).getChild_ids());
+        assertNull(walked.get(2).getChild_ids());
+
+        assertTrue(table.walkDescendants(6L, Integer.MAX_VALUE, null, walked::add, epoch));
+        assertEquals(3, walked.size());
+
+        assertEquals(new HashSet<>(Arrays.asList(2L, 4L)), table.getTransaction(1L).getChild_ids());
+    }
+
+
+    public void testConcurrentReadsMatchSerialOracle() throws Exception {
+
+        TransactionTable table = new TransactionTable(new TypeDictionary());
+
+        AtomicLongArray stored = new AtomicLongArray(ROOTS + WRITERS * N);
+        AtomicInteger storedCount = new AtomicInteger();
+
+        for(int r = 1; r <= ROOTS; r++) {
+            table.insert(r, r, "snapshot", 0L);
+            stored.set(storedCount.getAndIncrement(), r);
+        }
+
+        AtomicBoolean writing = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(WRITERS + READERS);
+
+        List<Future<?>> writers = new ArrayList<>();
+        for(int w = 0; w < WRITERS; w++) {
+
+            long base = (w + 1) * 1_000_000L;
+            Random random = new Random(w);
+
+            writers.add(pool.submit(() -> {
+                start.await();
+
+                for(int i = 0; i < N; i++) {
+
+                    // a quarter below one of the newest transactions, which builds deep chains
+                    int known = storedCount.get();
+                    int index = random.nextInt(4) == 0 ? known - 1 - random.nextInt(Math.min(known, 64))
+                                                       : random.nextInt(known);
+                    long parent;
+                    while((parent = stored.get(index)) == 0L)
+                        index--;
+
+                    long id = base + i;
+                    table.insert(id, 1 + random.nextInt(100), "snapshot", parent);
+                    stored.set(storedCount.getAndIncrement(), id);
+
+                    // lets the readers in between, even on a single processor
+                    if(i % 16 == 0)
+                        Thread.yield();
+                }
+                return null;
+            }));
+        }
+
+        List<Future<List<Sample>>> readers = new ArrayList<>();
+        for(int r = 0; r < READERS; r++) {
+
+            Random random = new Random(100 + r);
+
+            readers.add(pool.submit(() -> {
+                start.await();
+
+                List<Sample> samples = new ArrayList<>();
+                while(writing.get()) {
+
+                    int known = storedCount.get();
+                    long id = random.nextInt(16) == 0 ? 1 + random.nextInt(ROOTS) : stored.get(random.nextInt(known));
+                    if(id == 0L)
+                        continue;
+
+                    Sample sample = new Sample();
+                    sample.id = id;
+                    sample.epoch = table.epoch();
+                    sample.sum = table.getSubtreeSum(id, sample.epoch);
+                    sample.count = table.getDescendantCount(id, sample.epoch);
+
+                    double[] walked = new double[2];
+                    table.walkDescendants(id, Integer.MAX_VALUE, null, transaction -> {
+                        walked[0] += transaction.getAmount();
+                        walked[1]++;
+                        return true;
+                    }, sample.epoch);
+                    sample.walkedSum = walked[0];
+                    sample.walkedCount = (long) walked[1] - 1;
+
+                    samples.add(sample);
+                }
+                return samples;
+            }));
+        }
+
+        start.countDown();
+        for(Future<?> writer : writers)
+            writer.get(5, TimeUnit.MINUTES);
+        writing.set(false);
+
+        List<Sample> samples = new ArrayList<>();
+        for(Future<List<Sample>> reader : readers)
+            samples.addAll(reader.get(5, TimeUnit.MINUTES));
+        pool.shutdown();
+
+
+        int n = table.settledSize();
+        assertEquals(ROOTS + WRITERS * N, n);
+
+        Map<Long, Integer> rows = new HashMap<>();
+        for(int row = 0; row < n; row++)
+            rows.put(table.idAt(row), row);
+
+        samples.sort(Comparator.comparingInt(sample -> sample.epoch));
+
+        double[] sums = new double[n];
+        long[] counts = new long[n];
+        int replayed = 0;
+
+        for(Sample sample : samples) {
+
+            for(; replayed < sample.epoch; replayed++) {
+                double amount = table.amountAt(replayed);
+                sums[replayed] += amount;
+                for(int ancestor = table.parentRowAt(replayed); ancestor >= 0; ancestor = table.parentRowAt(ancestor)) {
+                    sums[ancestor] += amount;
+                    counts[ancestor]++;
+                }
+            }
+
+            int row = rows.get(sample.id);
+            String read = "transaction " + sample.id + " as of epoch " + sample.epoch;
+
+            assertEquals(read, row < sample.epoch ? sums[row] : 0.0, sample.sum);
+            assertEquals(read, row < sample.epoch ? counts[row] : 0L, sample.count);
+            assertEquals(read, sample.sum, sample.walkedSum);
+            if(row < sample.epoch)
+                assertEquals(read, sample.count, sample.walkedCount);
+        }
+
+        assertTrue("too few reads: " + samples.size(), samples.size() > 1000);
+
+        for(int row = 0; row < n; row++)
+            assertEquals(table.getSubtreeSum(table.idAt(row)), table.getSubtreeSum(table.idAt(row), n));
+    }
+
+}